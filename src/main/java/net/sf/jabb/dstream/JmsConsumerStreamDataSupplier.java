@@ -5,6 +5,8 @@ package net.sf.jabb.dstream;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,6 +15,8 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -56,16 +60,181 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 					new SynchronousQueue<Runnable>(), 
 					new BasicThreadFactory.Builder().namingPattern(JmsConsumerStreamDataSupplier.class.getSimpleName() + "-time-limiter-%d").build()));
 
+	protected static long MAX_IDLE_CONSUMER_REUSE_MILLIS = 60_000L;	// idle consumers older than this will not be reused
+	
 	protected Queue destination;
 	protected Map<String, DoubleValueBean<Session, MessageConsumer>> receivingConsumers = new ConcurrentHashMap<>();
+	
+	/**
+	 * The consumer left by the previous fetch/receive operation, can be reused by the next operation continuing from where it stopped
+	 */
+	protected AtomicReference<ReusableConsumer> idleConsumer = new AtomicReference<>();
+	private final LongAdder consumerReuses = new LongAdder();
+	private final LongAdder consumerCreations = new LongAdder();
+	
+	protected Predicate<Message> messageFilter;		// null if all messages should be converted
+	protected String filterSelector;				// null if there is no server side filtering
+	
+	/**
+	 * Session and consumer that can be kept open across fetch/receive operations.
+	 * A message received but not delivered because it is out of range is kept as pending 
+	 * and will be returned first when the consumer is reused.
+	 */
+	protected static class ReusableConsumer{
+		protected final Session session;
+		protected final MessageConsumer consumer;
+		protected String lastPosition;
+		protected Message pendingMessage;
+		protected long releasedTime;
+		
+		protected ReusableConsumer(Session session, MessageConsumer consumer){
+			this.session = session;
+			this.consumer = consumer;
+		}
+		
+		protected Message receive(long timeout) throws JMSException{
+			if (pendingMessage != null){
+				Message message = pendingMessage;
+				pendingMessage = null;
+				return message;
+			}
+			return consumer.receive(timeout);
+		}
+		
+		protected Message receiveNoWait() throws JMSException{
+			if (pendingMessage != null){
+				Message message = pendingMessage;
+				pendingMessage = null;
+				return message;
+			}
+			return consumer.receiveNoWait();
+		}
+		
+		protected void close(){
+			JmsUtility.closeSilently(consumer, session);
+		}
+	}
 
 	abstract protected Connection getConnection();
 	abstract protected String messageSelector(String startPosition);
 	abstract protected String messageSelector(Instant startEnqueuedTime);
 	abstract protected M convert(Message message);
+
+	/**
+	 * Convert a message that will be handed over to the receiver of receive(...) methods one by one.
+	 * The result is used only during the receiver call, so subclasses can override this method to return reused flyweights.
+	 * This method simply calls {@link #convert(Message)}.
+	 * @param message	the message
+	 * @return	the converted message
+	 */
+	protected M convertForReceiver(Message message){
+		return convert(message);
+	}
+
+	/**
+	 * Get the position of a message. It is called only for the last message of a fetch/receive operation
+	 * and by the default {@link #messageRangeChecker(String)}, not for every message received.
+	 * @param message	the message
+	 * @return	the position
+	 */
 	abstract protected String position(Message message);
 	abstract protected Instant enqueuedTime(Message message);
 	
+	/**
+	 * Set the filter that will be applied to messages before they are converted.
+	 * It will be used by all the fetch(...) and receive(...) methods, 
+	 * therefore it is also effective when this supplier is used by transactional batch processing.
+	 * Messages rejected by the filter are not converted and not handed over, but they still advance the last position
+	 * reported in the receive status, so that a range can still be fully consumed when its last message is rejected.
+	 * <p>
+	 * If the filter can be expressed as a JMS message selector, it can be specified as filterSelector, 
+	 * and it will be combined with the position or enqueued time selector so that rejected messages 
+	 * are not even transferred from the server, if {@link #isSelectorPushdownSupported()}.
+	 * The predicate is always applied on the client side, it can be null if the selector is specified and pushdown is supported.
+	 * When messages are filtered on the server side, the position of the rejected messages at the end of a range can only be known 
+	 * after the first accepted message beyond the end position has been received, 
+	 * in that case the end position is reported as the last position in the receive status.
+	 * </p>
+	 * @param messageFilter		the predicate returns true for messages that should be converted, null means all
+	 * @param filterSelector	JMS message selector equivalent to or less restrictive than the predicate, null if not available
+	 * @return	the supplier itself
+	 */
+	public JmsConsumerStreamDataSupplier<M> withMessageFilter(Predicate<Message> messageFilter, String filterSelector){
+		this.messageFilter = messageFilter;
+		this.filterSelector = filterSelector;
+		closeIdleConsumer();	// it may have been created with a different selector
+		return this;
+	}
+	
+	/**
+	 * Check whether the selector specified in {@link #withMessageFilter(Predicate, String)} can be combined into the message selector 
+	 * and be evaluated on the server side. Subclasses for servers that support only specific selectors should override this method.
+	 * @return	true in this implementation
+	 */
+	protected boolean isSelectorPushdownSupported(){
+		return true;
+	}
+	
+	/**
+	 * Check whether messages are filtered on the server side
+	 * @return	true if there is a filter selector and it can be pushed down to the server
+	 */
+	protected boolean isFilteringOnServer(){
+		return filterSelector != null && isSelectorPushdownSupported();
+	}
+	
+	/**
+	 * Combine the selector for position or enqueued time with the filter selector if it can be pushed down to the server
+	 * @param messageSelector	the message selector for position or enqueued time
+	 * @return	the message selector to be used for creating the consumer
+	 */
+	protected String combineWithFilterSelector(String messageSelector){
+		if (isFilteringOnServer()){
+			return messageSelector == null ? filterSelector : "(" + messageSelector + ") AND (" + filterSelector + ")";
+		}
+		return messageSelector;
+	}
+	
+	/**
+	 * Apply the client side filter
+	 * @param message	the message
+	 * @return	true if the message should be converted and handed over
+	 */
+	protected boolean isAccepted(Message message){
+		return messageFilter == null || messageFilter.test(message);
+	}
+	
+	/**
+	 * Adjust the receive status when messages are filtered on the server side. 
+	 * If the first accepted message beyond the end position has been reached, 
+	 * all the messages up to the end position must have been either received or rejected,
+	 * so that the end position can be reported as the last position, together with its enqueued time.
+	 * This also applies when all the messages in range have been rejected and no message has been received,
+	 * otherwise the range could never be finished.
+	 * @param status		the receive status
+	 * @param endPosition	the end position, inclusive
+	 * @return	the adjusted status
+	 * @throws DataStreamInfrastructureException	if the enqueued time of the end position cannot be found
+	 */
+	protected ReceiveStatus adjustForServerSideFiltering(ReceiveStatus status, String endPosition) throws DataStreamInfrastructureException{
+		if (endPosition != null && status.isOutOfRangeReached() 
+				&& isFilteringOnServer() && !endPosition.equals(status.getLastPosition())){
+			return new SimpleReceiveStatus(endPosition, enqueuedTime(endPosition), true);
+		}
+		return status;
+	}
+	
+	/**
+	 * Fetch messages through a fetcher that adds received messages to a concurrent queue, 
+	 * for fetchers that may keep adding messages in another thread after timeout.
+	 * Built-in fetch methods use the direct mode {@link #fetch(List, String, String, Predicate, int, Duration)} instead.
+	 * @param list				the list that converted messages will be added to
+	 * @param timeoutDuration	maximum time for fetching
+	 * @param fetcher			the fetcher returns true if out of range message had been reached
+	 * @return	the receive status
+	 * @throws DataStreamInfrastructureException	if any JMS error happened
+	 * @throws InterruptedException		if interrupted
+	 */
 	protected ReceiveStatus fetch(List<? super M> list, Duration timeoutDuration, FunctionThrowsExceptions<java.util.Queue<Message>, Boolean> fetcher)  throws DataStreamInfrastructureException, InterruptedException{
 		ConcurrentLinkedQueue<Message> fetched = new ConcurrentLinkedQueue<>();
 		boolean outOfRangeReached = false;
@@ -82,54 +251,204 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 		}
 		
 		int fetchedCount = fetched.size();		// the working thread may still being adding new element to fetched
-		if (fetchedCount > 0){
-			Message msg = null;
-			while (fetchedCount-- > 0){
-				msg = fetched.remove();
+		Message msg = null;
+		while (fetchedCount-- > 0){
+			msg = fetched.remove();
+			if (isAccepted(msg)){
 				list.add(convert(msg));
 			}
-			return new SimpleReceiveStatus(position(msg), enqueuedTime(msg), outOfRangeReached);
+		}
+		return receiveStatus(msg, outOfRangeReached);
+	}
+	
+	/**
+	 * Create the receive status after a fetch/receive operation. 
+	 * Position and enqueued time of the last message are passed to {@link #lastMessageReceived(String, Instant)}.
+	 * @param lastMessage			the last message received within range, can be null if no message had been received
+	 * @param outOfRangeReached		whether a message out of range had been reached
+	 * @return	the receive status
+	 */
+	protected ReceiveStatus receiveStatus(Message lastMessage, boolean outOfRangeReached){
+		if (lastMessage != null){
+			String position = position(lastMessage);
+			Instant enqueuedTime = enqueuedTime(lastMessage);
+			lastMessageReceived(position, enqueuedTime);
+			return new SimpleReceiveStatus(position, enqueuedTime, outOfRangeReached);
 		}else{
 			return new SimpleReceiveStatus(null, null, outOfRangeReached);
 		}
 	}
 	
+	/**
+	 * Called after a fetch/receive operation with the last message received.
+	 * Subclasses can override this method to remember the enqueued time of the position. This implementation does nothing.
+	 * @param position		position of the last message
+	 * @param enqueuedTime	enqueued time of the last message
+	 */
+	protected void lastMessageReceived(String position, Instant enqueuedTime){
+		// do nothing
+	}
+	
+	/**
+	 * Get a consumer for a fetch/receive operation. 
+	 * The idle consumer left by the previous operation is reused if it had stopped exactly at the start position,
+	 * otherwise a new session and a new consumer with the message selector (combined with the filter selector if applicable) are created.
+	 * @param startPosition		the start position (exclusive), can be null if the operation does not start from a position
+	 * @param messageSelector	the message selector for creating a new consumer
+	 * @return	the consumer which must be released by {@link #releaseConsumer(ReusableConsumer, boolean)} after use
+	 * @throws JMSException		if failed to create the session or the consumer
+	 */
+	protected ReusableConsumer acquireConsumer(String startPosition, String messageSelector) throws JMSException{
+		ReusableConsumer idle = idleConsumer.getAndSet(null);
+		if (idle != null){
+			if (startPosition != null && startPosition.equals(idle.lastPosition)
+					&& System.currentTimeMillis() - idle.releasedTime < MAX_IDLE_CONSUMER_REUSE_MILLIS){
+				consumerReuses.increment();
+				return idle;
+			}
+			idle.close();
+		}
+		consumerCreations.increment();
+		Session session = getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
+		try{
+			return new ReusableConsumer(session, session.createConsumer(destination, combineWithFilterSelector(messageSelector)));
+		}catch(JMSException | RuntimeException e){
+			JmsUtility.closeSilently(session, null);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Release the consumer after a fetch/receive operation. 
+	 * It will be kept for reusing if the operation succeeded and the position of the last message delivered is known,
+	 * otherwise it will be closed.
+	 * @param reusableConsumer	the consumer
+	 * @param succeeded			whether the operation had succeeded
+	 */
+	protected void releaseConsumer(ReusableConsumer reusableConsumer, boolean succeeded){
+		if (succeeded && reusableConsumer.lastPosition != null){
+			reusableConsumer.releasedTime = System.currentTimeMillis();
+			ReusableConsumer previous = idleConsumer.getAndSet(reusableConsumer);
+			if (previous != null){
+				previous.close();
+			}
+		}else{
+			reusableConsumer.close();
+		}
+	}
+	
+	/**
+	 * Close the idle consumer if there is one
+	 */
+	protected void closeIdleConsumer(){
+		ReusableConsumer idle = idleConsumer.getAndSet(null);
+		if (idle != null){
+			idle.close();
+		}
+	}
+	
+	/**
+	 * Get the number of fetch/receive operations that reused the consumer left by the previous operation
+	 * @return	number of reuses
+	 */
+	public long getConsumerReuses(){
+		return consumerReuses.sum();
+	}
+	
+	/**
+	 * Get the number of fetch/receive operations that had to create a new session and consumer
+	 * @return	number of creations
+	 */
+	public long getConsumerCreations(){
+		return consumerCreations.sum();
+	}
+	
+	/**
+	 * Create the checker of whether messages are within the range ended at the specified position, 
+	 * it is created once for each fetch/receive operation.
+	 * This implementation does not look at the messages if there is no end position, 
+	 * otherwise it checks the position returned by {@link #position(Message)} through {@link #rangeChecker(String)}.
+	 * Subclasses whose messages carry positions in a primitive form should override this method 
+	 * so that no position string is created and parsed for each message.
+	 * @param endPosition	the end position, inclusive. Null means no limit.
+	 * @return	function returning negative if in range, zero if in range and is the very last one in range, positive if out of range
+	 */
+	protected Function<Message, Integer> messageRangeChecker(String endPosition){
+		if (endPosition == null){
+			return message -> -1;
+		}
+		RangeChecker rangeChecker = rangeChecker(endPosition);
+		return message -> rangeChecker.checkInRange(position(message));
+	}
+	
 	protected ReceiveStatus fetch(List<? super M> list, String messageSelector, Predicate<Message> outOfRangeCheck, int maxItems, Duration timeoutDuration) throws DataStreamInfrastructureException, InterruptedException {
-		return fetch(list, timeoutDuration, fetched->{
-			long timeoutNano = System.nanoTime() + timeoutDuration.toNanos();
+		return fetch(list, null, messageSelector, outOfRangeCheck, maxItems, timeoutDuration);
+	}
+	
+	/**
+	 * Fetch messages directly in the caller thread. The time limit is enforced through the timeout of each <code>receive(...)</code>,
+	 * and messages are converted and added to the list as soon as they are received.
+	 * @param list				the list that converted messages will be added to
+	 * @param startPosition		the start position (exclusive), can be null if the messages are not selected by position
+	 * @param messageSelector	the message selector
+	 * @param outOfRangeCheck	the predicate returns true if the message is out of range
+	 * @param maxItems			maximum number of messages to be fetched
+	 * @param timeoutDuration	maximum time for fetching
+	 * @return	the receive status
+	 * @throws DataStreamInfrastructureException	if any JMS error happened
+	 * @throws InterruptedException		if interrupted
+	 */
+	protected ReceiveStatus fetch(List<? super M> list, String startPosition, String messageSelector, Predicate<Message> outOfRangeCheck, int maxItems, Duration timeoutDuration) throws DataStreamInfrastructureException, InterruptedException {
+		long timeoutNano = System.nanoTime() + timeoutDuration.toNanos();
+		ReusableConsumer consumer = null;
+		boolean outOfRangeReached = false;
+		boolean succeeded = false;
+		try{
+			consumer = acquireConsumer(startPosition, messageSelector);
 			long timeoutLeftMillis = (timeoutNano - System.nanoTime())/1000000;
-			Session session = null;
-			MessageConsumer consumer = null;
-			boolean outOfRangeReached = false;
-			try{
-				session = getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
-				consumer = session.createConsumer(destination, messageSelector);
-				
-				int count = 0;
-				Message message = null;
-				while (++count <= maxItems && timeoutLeftMillis > 0){
-					message = consumer.receive(timeoutLeftMillis);
-					if (message != null){
-						if (outOfRangeCheck.test(message)){
-							outOfRangeReached = true;
-							break;
-						}
-						fetched.add(message);
+			
+			int count = 0;
+			Message message = null;
+			Message lastMessage = null;
+			while (++count <= maxItems && timeoutLeftMillis > 0){
+				message = consumer.receive(timeoutLeftMillis);
+				if (message != null){
+					if (outOfRangeCheck.test(message)){
+						consumer.pendingMessage = message;
+						outOfRangeReached = true;
+						break;
 					}
-					timeoutLeftMillis = (timeoutNano - System.nanoTime())/1000000;
+					if (isAccepted(message)){
+						list.add(convert(message));
+					}else{
+						count --;	// skipped messages are not counted
+					}
+					lastMessage = message;
 				}
-			}finally{
-				JmsUtility.closeSilently(consumer, session);
+				if (Thread.interrupted()){
+					throw new InterruptedException("Interrupted while fetching");
+				}
+				timeoutLeftMillis = (timeoutNano - System.nanoTime())/1000000;
+			}
+			ReceiveStatus status = receiveStatus(lastMessage, outOfRangeReached);
+			consumer.lastPosition = lastPositionForReuse(consumer, status, startPosition);
+			succeeded = true;
+			return status;
+		}catch(JMSException e){
+			throw new DataStreamInfrastructureException(e);
+		}finally{
+			if (consumer != null){
+				releaseConsumer(consumer, succeeded);
 			}
-			return outOfRangeReached;
-		});
+		}
 	}
 
 	@Override
 	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration) throws DataStreamInfrastructureException, InterruptedException {
-		return fetch(list, messageSelector(startPosition), 
-				message -> endPosition != null && !isInRange(position(message), endPosition),
-				maxItems, timeoutDuration);
+		Function<Message, Integer> inRangeChecker = messageRangeChecker(endPosition);
+		return adjustForServerSideFiltering(fetch(list, startPosition, messageSelector(startPosition), 
+				message -> inRangeChecker.apply(message) > 0,
+				maxItems, timeoutDuration), endPosition);
 	}
 	
 	@Override
@@ -141,7 +460,7 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 	
 	@Override
 	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration) throws DataStreamInfrastructureException, InterruptedException {
-		return fetch(list, messageSelector(startPosition), 
+		return fetch(list, startPosition, messageSelector(startPosition), 
 				message -> endEnqueuedTime != null && !isInRange(enqueuedTime(message), endEnqueuedTime),
 				maxItems, timeoutDuration);
 	}
@@ -154,8 +473,12 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 			connection.stop();
 			try{
 				Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-				MessageConsumer consumer = session.createConsumer(destination, messageSelector);
-				consumer.setMessageListener(message -> objConsumer.accept(convert(message)));
+				MessageConsumer consumer = session.createConsumer(destination, combineWithFilterSelector(messageSelector));
+				consumer.setMessageListener(message -> {
+					if (isAccepted(message)){
+						objConsumer.accept(convert(message));
+					}
+				});
 				receivingConsumers.put(receivingConsumerId, new DoubleValueBean<>(session, consumer));
 			}finally{
 				connection.start();
@@ -189,14 +512,19 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 	
 	protected ReceiveStatus receive(Function<M, Long> receiver, String messageSelector, Function<Message, Integer> inRangeChecker) 
 			throws DataStreamInfrastructureException{
-		Session session = null;
-		MessageConsumer consumer = null;
+		return receive(receiver, null, messageSelector, inRangeChecker);
+	}
+	
+	protected ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String messageSelector, Function<Message, Integer> inRangeChecker) 
+			throws DataStreamInfrastructureException{
+		ReusableConsumer consumer = null;
 		boolean outOfRangeReached = false;
+		boolean succeeded = false;
 		try{
-			session = getConnection().createSession(false, Session.AUTO_ACKNOWLEDGE);
-			consumer = session.createConsumer(destination, messageSelector);
+			consumer = acquireConsumer(startPosition, messageSelector);
 			
 			long receiveTimeoutMillis = receiver.apply(null);
+			long deadline = System.currentTimeMillis() + receiveTimeoutMillis;	// used when the receiver is not called for skipped messages
 			Message message = null;
 			Message lastMessage = null;
 			while (receiveTimeoutMillis > 0){
@@ -204,36 +532,144 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 				if (message != null){
 					int chk = inRangeChecker.apply(message);
 					if (chk <= 0){	// in range
-						receiveTimeoutMillis = receiver.apply(convert(message));
+						if (isAccepted(message)){
+							receiveTimeoutMillis = receiver.apply(convertForReceiver(message));
+							deadline = System.currentTimeMillis() + receiveTimeoutMillis;
+						}else{
+							receiveTimeoutMillis = deadline - System.currentTimeMillis();
+						}
 						lastMessage = message;
 						if (chk == 0){	// the very last in range
 							break;
 						}
 					}else{		// out of range
+						consumer.pendingMessage = message;
 						outOfRangeReached = true;
 						break;
 					}
 				}else{
 					receiveTimeoutMillis = receiver.apply(null);
+					deadline = System.currentTimeMillis() + receiveTimeoutMillis;
 				}
 			}
-			if (lastMessage != null){
-				return new SimpleReceiveStatus(position(lastMessage), enqueuedTime(lastMessage), outOfRangeReached);
-			}else{
-				return new SimpleReceiveStatus(null, null, outOfRangeReached);
+			ReceiveStatus status = receiveStatus(lastMessage, outOfRangeReached);
+			consumer.lastPosition = lastPositionForReuse(consumer, status, startPosition);
+			succeeded = true;
+			return status;
+		}catch(JMSException e){
+			throw new DataStreamInfrastructureException(e);
+		}finally{
+			if (consumer != null){
+				releaseConsumer(consumer, succeeded);
+			}
+		}
+	}
+	
+	/**
+	 * Receive messages in batches. A batch consists of the message returned by a blocking receive 
+	 * and all the messages that are immediately available after it.
+	 * @param receiver			the receiver accepting a list of messages each time
+	 * @param messageSelector	the message selector
+	 * @param inRangeChecker	the in range checker
+	 * @param maxItems			maximum number of messages that can be handed over to the receiver
+	 * @return	the receive status
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	protected ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String messageSelector, Function<Message, Integer> inRangeChecker, int maxItems) 
+			throws DataStreamInfrastructureException{
+		return receiveBatches(receiver, null, messageSelector, inRangeChecker, maxItems);
+	}
+	
+	/**
+	 * Receive messages in batches. A batch consists of the message returned by a blocking receive 
+	 * and all the messages that are immediately available after it.
+	 * @param receiver			the receiver accepting a list of messages each time
+	 * @param startPosition		the start position (exclusive), can be null if the messages are not selected by position
+	 * @param messageSelector	the message selector
+	 * @param inRangeChecker	the in range checker
+	 * @param maxItems			maximum number of messages that can be handed over to the receiver
+	 * @return	the receive status
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	protected ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String messageSelector, Function<Message, Integer> inRangeChecker, int maxItems) 
+			throws DataStreamInfrastructureException{
+		ReusableConsumer consumer = null;
+		boolean outOfRangeReached = false;
+		boolean succeeded = false;
+		try{
+			consumer = acquireConsumer(startPosition, messageSelector);
+			
+			long receiveTimeoutMillis = receiver.apply(Collections.emptyList());
+			long deadline = System.currentTimeMillis() + receiveTimeoutMillis;	// used when the receiver is not called because all messages were skipped
+			int count = 0;
+			boolean lastInRangeReached = false;
+			Message message = null;
+			Message lastMessage = null;
+			while (receiveTimeoutMillis > 0 && count < maxItems){
+				message = consumer.receive(receiveTimeoutMillis < MAX_RECEIVE_TIMEOUT ? receiveTimeoutMillis : MAX_RECEIVE_TIMEOUT);
+				if (message == null){
+					receiveTimeoutMillis = receiver.apply(Collections.emptyList());
+					deadline = System.currentTimeMillis() + receiveTimeoutMillis;
+					continue;
+				}
+				List<M> batch = new ArrayList<>();
+				while (message != null){
+					int chk = inRangeChecker.apply(message);
+					if (chk > 0){		// out of range
+						consumer.pendingMessage = message;
+						outOfRangeReached = true;
+						break;
+					}
+					boolean accepted = isAccepted(message);
+					if (accepted){
+						batch.add(convert(message));
+					}
+					lastMessage = message;
+					if (chk == 0){	// the very last in range
+						lastInRangeReached = true;
+						break;
+					}
+					if (accepted && ++count >= maxItems){
+						break;
+					}
+					message = consumer.receiveNoWait();
+				}
+				if (batch.size() > 0){
+					receiveTimeoutMillis = receiver.apply(batch);
+					deadline = System.currentTimeMillis() + receiveTimeoutMillis;
+				}else{
+					receiveTimeoutMillis = deadline - System.currentTimeMillis();
+				}
+				if (outOfRangeReached || lastInRangeReached){
+					break;
+				}
 			}
+			ReceiveStatus status = receiveStatus(lastMessage, outOfRangeReached);
+			consumer.lastPosition = lastPositionForReuse(consumer, status, startPosition);
+			succeeded = true;
+			return status;
 		}catch(JMSException e){
 			throw new DataStreamInfrastructureException(e);
 		}finally{
-			JmsUtility.closeSilently(consumer, session);
+			if (consumer != null){
+				releaseConsumer(consumer, succeeded);
+			}
+		}
+	}
+	
+	static private String lastPositionForReuse(ReusableConsumer consumer, ReceiveStatus status, String startPosition){
+		if (status.getLastPosition() != null){
+			return status.getLastPosition();
 		}
+		return consumer.lastPosition == null ? startPosition : consumer.lastPosition;
 	}
 	
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) 
 			throws DataStreamInfrastructureException{
-		return receive(receiver, messageSelector(startPosition), 
-				message -> checkInRange(position(message), endPosition));
+		Function<Message, Integer> inRangeChecker = messageRangeChecker(endPosition);
+		return adjustForServerSideFiltering(receive(receiver, startPosition, messageSelector(startPosition), 
+				inRangeChecker), endPosition);
 	}
 
 	@Override
@@ -246,15 +682,46 @@ abstract public class JmsConsumerStreamDataSupplier<M> implements StreamDataSupp
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) 
 			throws DataStreamInfrastructureException{
-		return receive(receiver, messageSelector(startPosition), 
+		return receive(receiver, startPosition, messageSelector(startPosition), 
 				message -> checkInRange(enqueuedTime(message), endEnqueuedTime));
 	}
 
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) 
 			throws DataStreamInfrastructureException{
-		return receive(receiver, messageSelector(startEnqueuedTime), 
-				message -> checkInRange(position(message), endPosition));
+		Function<Message, Integer> inRangeChecker = messageRangeChecker(endPosition);
+		return adjustForServerSideFiltering(receive(receiver, messageSelector(startEnqueuedTime), 
+				inRangeChecker), endPosition);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) 
+			throws DataStreamInfrastructureException{
+		Function<Message, Integer> inRangeChecker = messageRangeChecker(endPosition);
+		return adjustForServerSideFiltering(receiveBatches(receiver, startPosition, messageSelector(startPosition), 
+				inRangeChecker, maxItems), endPosition);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) 
+			throws DataStreamInfrastructureException{
+		return receiveBatches(receiver, messageSelector(startEnqueuedTime), 
+				message -> checkInRange(enqueuedTime(message), endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) 
+			throws DataStreamInfrastructureException{
+		return receiveBatches(receiver, startPosition, messageSelector(startPosition), 
+				message -> checkInRange(enqueuedTime(message), endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) 
+			throws DataStreamInfrastructureException{
+		Function<Message, Integer> inRangeChecker = messageRangeChecker(endPosition);
+		return adjustForServerSideFiltering(receiveBatches(receiver, messageSelector(startEnqueuedTime), 
+				inRangeChecker, maxItems), endPosition);
 	}
 
 }
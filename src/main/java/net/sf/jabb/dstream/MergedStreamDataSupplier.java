@@ -0,0 +1,620 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * StreamDataSupplier merging the messages from multiple child suppliers (for example, one per shard or partition) in the order of enqueued time.
+ * Messages are prefetched from each child supplier into a buffer, and a heap over the heads of the buffers is used for the k-way merge.
+ * The order is by enqueued time among the messages available from the child suppliers at the time of merging,
+ * messages arriving late in one child supplier are not held back for.
+ *
+ * <p>
+ * A position of this supplier is a vector of the positions of the child suppliers, each of them is the position of the last message consumed
+ * from that child supplier. Positions in the vector are separated by ',', and ',' or '\' in child positions are escaped by '\'.
+ * A message comes before the end position if its position in its child supplier is within the corresponding position in the end position vector,
+ * so that a range (startPosition, endPosition] can be fetched again with the same messages, which makes this supplier usable
+ * as a single sequential transaction series.
+ * </p>
+ *
+ * <p>
+ * Since the status returned by child suppliers only tells the position and enqueued time of the last message,
+ * functions for getting the position and enqueued time of each message must be provided.
+ * The position returned must be the position of the message in its child supplier.
+ * </p>
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class MergedStreamDataSupplier<M> implements StreamDataSupplier<M> {
+	private static final Logger logger = LoggerFactory.getLogger(MergedStreamDataSupplier.class);
+
+	static final int DEFAULT_PREFETCH_SIZE = 100;
+	static final Duration DEFAULT_REFILL_TIMEOUT = Duration.ofMillis(100);
+	static final long MAX_WAIT_MILLIS = 1000L;
+
+	static final char SEPARATOR = ',';
+	static final char ESCAPE = '\\';
+	static final String NULL_POSITION = "\\-";
+
+	protected List<StreamDataSupplier<M>> suppliers;
+	protected Function<M, String> positionOf;
+	protected Function<M, Instant> enqueuedTimeOf;
+	protected int prefetchSize;
+	protected Duration refillTimeout;
+
+	/**
+	 * Child cursors left by the previous fetch/receive operation, with the messages prefetched but not yet consumed
+	 */
+	protected AtomicReference<List<ChildCursor>> idleCursors = new AtomicReference<>();
+
+	/**
+	 * Constructor with default prefetch size (100) and default refill timeout (100 milliseconds)
+	 * @param suppliers			the child suppliers
+	 * @param positionOf		function for getting the position of a message in its child supplier
+	 * @param enqueuedTimeOf	function for getting the enqueued time of a message
+	 */
+	public MergedStreamDataSupplier(List<? extends StreamDataSupplier<M>> suppliers, Function<M, String> positionOf, Function<M, Instant> enqueuedTimeOf){
+		this(suppliers, positionOf, enqueuedTimeOf, DEFAULT_PREFETCH_SIZE, DEFAULT_REFILL_TIMEOUT);
+	}
+
+	/**
+	 * Constructor
+	 * @param suppliers			the child suppliers
+	 * @param positionOf		function for getting the position of a message in its child supplier
+	 * @param enqueuedTimeOf	function for getting the enqueued time of a message
+	 * @param prefetchSize		maximum number of messages to be fetched from a child supplier at a time
+	 * @param refillTimeout		timeout for fetching from a child supplier whose prefetched messages have all been consumed,
+	 * 							it is limited by the timeout of the fetch/receive operation and shared by the child suppliers fetched at the same time
+	 */
+	public MergedStreamDataSupplier(List<? extends StreamDataSupplier<M>> suppliers, Function<M, String> positionOf, Function<M, Instant> enqueuedTimeOf,
+			int prefetchSize, Duration refillTimeout){
+		Validate.notEmpty(suppliers, "suppliers cannot be empty");
+		Validate.notNull(positionOf, "positionOf cannot be null");
+		Validate.notNull(enqueuedTimeOf, "enqueuedTimeOf cannot be null");
+		Validate.isTrue(prefetchSize > 0, "prefetch size must be positive");
+		Validate.notNull(refillTimeout, "refill timeout cannot be null");
+		this.suppliers = new ArrayList<>(suppliers);
+		this.positionOf = positionOf;
+		this.enqueuedTimeOf = enqueuedTimeOf;
+		this.prefetchSize = prefetchSize;
+		this.refillTimeout = refillTimeout;
+	}
+
+	/**
+	 * Create a merged supplier from the suppliers returned by methods like <code>KinesisStreamDataSupplier.create(...)</code>
+	 * @param <M>	type of the message object
+	 * @param suppliersWithId	the child suppliers with IDs
+	 * @param positionOf		function for getting the position of a message in its child supplier
+	 * @param enqueuedTimeOf	function for getting the enqueued time of a message
+	 * @return	the merged supplier
+	 */
+	static public <M> MergedStreamDataSupplier<M> of(List<? extends StreamDataSupplierWithId<M>> suppliersWithId, Function<M, String> positionOf, Function<M, Instant> enqueuedTimeOf){
+		List<StreamDataSupplier<M>> suppliers = new ArrayList<>(suppliersWithId.size());
+		for (StreamDataSupplierWithId<M> s: suppliersWithId){
+			suppliers.add(s.getSupplier());
+		}
+		return new MergedStreamDataSupplier<>(suppliers, positionOf, enqueuedTimeOf);
+	}
+
+	/**
+	 * Encode positions of the child suppliers into a position of the merged supplier
+	 * @param positions	positions of the child suppliers
+	 * @return	the position vector
+	 */
+	static public String encodePosition(List<String> positions){
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < positions.size(); i ++){
+			if (i > 0){
+				sb.append(SEPARATOR);
+			}
+			String position = positions.get(i);
+			if (position == null){
+				sb.append(NULL_POSITION);
+				continue;
+			}
+			for (int j = 0; j < position.length(); j ++){
+				char c = position.charAt(j);
+				if (c == SEPARATOR || c == ESCAPE){
+					sb.append(ESCAPE);
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decode a position of the merged supplier into positions of the child suppliers
+	 * @param position	the position vector
+	 * @return	positions of the child suppliers
+	 */
+	static public List<String> decodePosition(String position){
+		List<String> positions = new ArrayList<>();
+		int length = position.length();
+		int i = 0;
+		while (true){
+			if (position.startsWith(NULL_POSITION, i)
+					&& (i + NULL_POSITION.length() == length || position.charAt(i + NULL_POSITION.length()) == SEPARATOR)){
+				positions.add(null);
+				i += NULL_POSITION.length();
+			}else{
+				StringBuilder sb = new StringBuilder();
+				while (i < length && position.charAt(i) != SEPARATOR){
+					char c = position.charAt(i++);
+					if (c == ESCAPE && i < length){
+						c = position.charAt(i++);
+					}
+					sb.append(c);
+				}
+				positions.add(sb.toString());
+			}
+			if (i >= length){
+				break;
+			}
+			i ++;	// skip the separator
+		}
+		return positions;
+	}
+
+	protected List<String> childPositions(String position){
+		Validate.notNull(position, "position cannot be null");
+		List<String> positions = decodePosition(position);
+		Validate.isTrue(positions.size() == suppliers.size(), "position must contain %d child positions: %s", suppliers.size(), position);
+		return positions;
+	}
+
+	@Override
+	public String firstPosition() {
+		List<String> positions = new ArrayList<>(suppliers.size());
+		for (StreamDataSupplier<M> supplier: suppliers){
+			positions.add(supplier.firstPosition());
+		}
+		return encodePosition(positions);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Child suppliers having no message enqueued after the specified time are positioned at their last messages.
+	 * This method returns null if no child supplier has message enqueued after the specified time.
+	 */
+	@Override
+	public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) throws InterruptedException, DataStreamInfrastructureException {
+		long deadline = System.currentTimeMillis() + waitForArrival.toMillis();
+		List<String> positions = new ArrayList<>(suppliers.size());
+		boolean found = false;
+		for (StreamDataSupplier<M> supplier: suppliers){
+			String position = supplier.firstPosition(enqueuedAfter, Duration.ofMillis(Math.max(0, deadline - System.currentTimeMillis())));
+			if (position == null){
+				position = supplier.lastPosition();
+				if (position == null){
+					position = supplier.firstPosition();
+				}
+			}else{
+				found = true;
+			}
+			positions.add(position);
+		}
+		return found ? encodePosition(positions) : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Child suppliers having no message are positioned at their first positions.
+	 */
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		List<String> positions = new ArrayList<>(suppliers.size());
+		boolean found = false;
+		for (StreamDataSupplier<M> supplier: suppliers){
+			String position = supplier.lastPosition();
+			if (position == null){
+				position = supplier.firstPosition();
+			}else{
+				found = true;
+			}
+			positions.add(position);
+		}
+		return found ? encodePosition(positions) : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The enqueued time of a position vector is the latest enqueued time of the messages at the child positions.
+	 */
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		List<String> positions = childPositions(position);
+		Instant result = null;
+		for (int i = 0; i < positions.size(); i ++){
+			StreamDataSupplier<M> supplier = suppliers.get(i);
+			String childPosition = positions.get(i);
+			if (!Objects.equals(childPosition, supplier.firstPosition())){
+				Instant enqueuedTime = supplier.enqueuedTime(childPosition);
+				if (result == null || enqueuedTime != null && enqueuedTime.isAfter(result)){
+					result = enqueuedTime;
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String nextStartPosition(String previousEndPosition) {
+		List<String> positions = childPositions(previousEndPosition);
+		for (int i = 0; i < positions.size(); i ++){
+			positions.set(i, suppliers.get(i).nextStartPosition(positions.get(i)));
+		}
+		return encodePosition(positions);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A position vector is before the end position vector if no child position is after the corresponding end position
+	 * and at least one child position is before the corresponding end position.
+	 */
+	@Override
+	public int checkInRange(String position, String endPosition) {
+		Validate.isTrue(position != null, "position cannot be null");
+		if (endPosition == null){
+			return -1;
+		}
+		List<String> positions = childPositions(position);
+		List<String> endPositions = childPositions(endPosition);
+		int result = 0;
+		for (int i = 0; i < positions.size(); i ++){
+			int chk = suppliers.get(i).checkInRange(positions.get(i), endPositions.get(i));
+			if (chk > 0){
+				return 1;
+			}else if (chk < 0){
+				result = -1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cursor over a child supplier, with the messages prefetched but not consumed
+	 * @author James Hu
+	 *
+	 */
+	protected class ChildCursor{
+		protected final int index;
+		protected final StreamDataSupplier<M> supplier;
+		protected final String endPosition;
+		protected final Instant endEnqueuedTime;
+		protected final ArrayDeque<M> buffer = new ArrayDeque<>();
+
+		/**
+		 * Position of the last message consumed
+		 */
+		protected String position;
+		/**
+		 * Position of the last message fetched into the buffer
+		 */
+		protected String fetchedPosition;
+		protected long headEnqueuedMillis;
+		protected boolean finished;
+
+		protected ChildCursor(int index, String startPosition, String endPosition, Instant endEnqueuedTime){
+			this.index = index;
+			this.supplier = suppliers.get(index);
+			this.endPosition = endPosition;
+			this.endEnqueuedTime = endEnqueuedTime;
+			this.position = startPosition;
+			this.fetchedPosition = startPosition;
+			this.finished = endPosition != null && startPosition != null && supplier.checkInRange(startPosition, endPosition) >= 0;
+		}
+
+		protected boolean isReusableFor(String startPosition, String endPosition, Instant endEnqueuedTime){
+			return Objects.equals(position, startPosition) && Objects.equals(this.endPosition, endPosition) && Objects.equals(this.endEnqueuedTime, endEnqueuedTime);
+		}
+
+		/**
+		 * Fetch from the child supplier if there is no prefetched message
+		 * @param timeout	timeout for fetching
+		 * @return	true if there are prefetched messages
+		 * @throws InterruptedException		if interrupted
+		 * @throws DataStreamInfrastructureException	if failed to fetch from the child supplier
+		 */
+		protected boolean fill(Duration timeout) throws InterruptedException, DataStreamInfrastructureException{
+			if (buffer.isEmpty() && !finished){
+				List<M> list = new ArrayList<>();
+				ReceiveStatus status = endEnqueuedTime == null ?
+						supplier.fetch(list, fetchedPosition, endPosition, prefetchSize, timeout)
+						: supplier.fetch(list, fetchedPosition, endEnqueuedTime, prefetchSize, timeout);
+				if (status.getLastPosition() != null){
+					fetchedPosition = status.getLastPosition();
+				}
+				finished = status.isOutOfRangeReached()
+						|| endPosition != null && fetchedPosition != null && supplier.checkInRange(fetchedPosition, endPosition) >= 0;
+				if (!list.isEmpty()){
+					buffer.addAll(list);
+					headEnqueuedMillis = enqueuedTimeOf.apply(buffer.peek()).toEpochMilli();
+				}
+			}
+			return !buffer.isEmpty();
+		}
+
+		protected M poll(){
+			M message = buffer.poll();
+			position = positionOf.apply(message);
+			if (!buffer.isEmpty()){
+				headEnqueuedMillis = enqueuedTimeOf.apply(buffer.peek()).toEpochMilli();
+			}
+			return message;
+		}
+	}
+
+	/**
+	 * State of a merge operation
+	 * @author James Hu
+	 *
+	 */
+	protected class Merge{
+		protected final List<ChildCursor> cursors;
+		protected final PriorityQueue<ChildCursor> heap;
+		protected long lastEnqueuedMillis;
+		protected int count;
+
+		protected Merge(List<String> startPositions, List<String> endPositions, Instant endEnqueuedTime){
+			List<ChildCursor> idle = idleCursors.getAndSet(null);
+			cursors = new ArrayList<>(suppliers.size());
+			for (int i = 0; i < suppliers.size(); i ++){
+				String startPosition = startPositions.get(i);
+				String endPosition = endPositions == null ? null : endPositions.get(i);
+				ChildCursor cursor = idle == null ? null : idle.get(i);
+				if (cursor == null || !cursor.isReusableFor(startPosition, endPosition, endEnqueuedTime)){
+					cursor = new ChildCursor(i, startPosition, endPosition, endEnqueuedTime);
+				}
+				cursors.add(cursor);
+			}
+			heap = new PriorityQueue<>(suppliers.size(),
+					Comparator.<ChildCursor>comparingLong(c -> c.headEnqueuedMillis).thenComparingInt(c -> c.index));
+			for (ChildCursor cursor: cursors){
+				if (!cursor.buffer.isEmpty()){
+					heap.add(cursor);
+				}
+			}
+		}
+
+		/**
+		 * Fetch from all the child suppliers having no prefetched message.
+		 * The timeout is shared by them, so that many idle child suppliers cannot block for longer than the timeout in total.
+		 * @param timeout	total timeout for all the child suppliers
+		 * @throws InterruptedException		if interrupted
+		 * @throws DataStreamInfrastructureException	if failed to fetch from a child supplier
+		 */
+		protected void fill(Duration timeout) throws InterruptedException, DataStreamInfrastructureException{
+			long deadline = System.currentTimeMillis() + timeout.toMillis();
+			int remaining = 0;
+			for (ChildCursor cursor: cursors){
+				if (cursor.buffer.isEmpty() && !cursor.finished){
+					remaining ++;
+				}
+			}
+			for (ChildCursor cursor: cursors){
+				if (cursor.buffer.isEmpty() && !cursor.finished){
+					long timeoutMillis = Math.max(0, deadline - System.currentTimeMillis()) / remaining--;
+					if (cursor.fill(Duration.ofMillis(timeoutMillis))){
+						heap.add(cursor);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Take the message enqueued earliest
+		 * @param refillTimeout	timeout for fetching from the child supplier of the message if it has no more prefetched message
+		 * @return	the message, or null if there is no prefetched message
+		 * @throws InterruptedException		if interrupted
+		 * @throws DataStreamInfrastructureException	if failed to fetch from a child supplier
+		 */
+		protected M next(Duration refillTimeout) throws InterruptedException, DataStreamInfrastructureException{
+			ChildCursor cursor = heap.poll();
+			if (cursor == null){
+				return null;
+			}
+			lastEnqueuedMillis = cursor.headEnqueuedMillis;
+			M message = cursor.poll();
+			count ++;
+			if (cursor.fill(refillTimeout)){		// the next message of the same child must be known before deciding the order
+				heap.add(cursor);
+			}
+			return message;
+		}
+
+		protected boolean isFinished(){
+			if (!heap.isEmpty()){
+				return false;
+			}
+			for (ChildCursor cursor: cursors){
+				if (!cursor.finished){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		protected ReceiveStatus status(){
+			idleCursors.set(cursors);
+			if (count == 0){
+				return new SimpleReceiveStatus(null, null, isFinished());
+			}
+			List<String> positions = new ArrayList<>(cursors.size());
+			for (ChildCursor cursor: cursors){
+				positions.add(cursor.position);
+			}
+			return new SimpleReceiveStatus(encodePosition(positions), Instant.ofEpochMilli(lastEnqueuedMillis), isFinished());
+		}
+	}
+
+	protected ReceiveStatus fetch(List<? super M> list, Merge merge, int maxItems, Duration timeoutDuration) throws InterruptedException, DataStreamInfrastructureException{
+		long deadline = System.currentTimeMillis() + timeoutDuration.toMillis();
+		merge.fill(refillTimeout(deadline - System.currentTimeMillis()));
+		while (merge.count < maxItems){
+			M message = merge.next(refillTimeout(deadline - System.currentTimeMillis()));
+			if (message != null){
+				list.add(message);
+			}else{
+				long timeoutLeftMillis = deadline - System.currentTimeMillis();
+				if (merge.count > 0 || timeoutLeftMillis <= 0 || merge.isFinished()){
+					break;
+				}
+				merge.fill(refillTimeout(timeoutLeftMillis));
+			}
+		}
+		return merge.status();
+	}
+
+	protected ReceiveStatus receive(Function<M, Long> receiver, Merge merge) throws DataStreamInfrastructureException{
+		try{
+			long receiveTimeoutMillis = receiver.apply(null);
+			merge.fill(refillTimeout(receiveTimeoutMillis));
+			while (receiveTimeoutMillis > 0){
+				M message = merge.next(refillTimeout(receiveTimeoutMillis));
+				if (message != null){
+					receiveTimeoutMillis = receiver.apply(message);
+				}else{
+					if (merge.isFinished()){
+						break;
+					}
+					merge.fill(refillTimeout(Math.min(receiveTimeoutMillis, MAX_WAIT_MILLIS)));
+					receiveTimeoutMillis = receiver.apply(null);
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		return merge.status();
+	}
+
+	/**
+	 * Get the timeout for fetching from child suppliers, which is the refill timeout limited by the time left for the whole operation
+	 * @param timeoutLeftMillis	time left for the whole operation in milliseconds
+	 * @return	the timeout, never negative
+	 */
+	protected Duration refillTimeout(long timeoutLeftMillis){
+		return Duration.ofMillis(Math.max(0, Math.min(timeoutLeftMillis, refillTimeout.toMillis())));
+	}
+
+	protected List<String> startPositions(Instant startEnqueuedTime) throws DataStreamInfrastructureException{
+		List<String> positions = new ArrayList<>(suppliers.size());
+		try{
+			for (StreamDataSupplier<M> supplier: suppliers){
+				String position = supplier.firstPosition(startEnqueuedTime, Duration.ZERO);
+				if (position == null){
+					position = supplier.lastPosition();
+					if (position == null){
+						position = supplier.firstPosition();
+					}
+				}
+				positions.add(position);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		return positions;
+	}
+
+	protected List<String> endPositions(String endPosition){
+		return endPosition == null ? null : childPositions(endPosition);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		ReceiveStatus status = fetch(list, new Merge(childPositions(startPosition), endPositions(endPosition), null), maxItems, timeoutDuration);
+		if (logger.isDebugEnabled()){
+			logger.debug("Fetched for ({}-{}],{},{}: ? - {}", startPosition, endPosition, maxItems, timeoutDuration, status.getLastPosition());
+		}
+		return status;
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, new Merge(startPositions(startEnqueuedTime), null, endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, new Merge(childPositions(startPosition), null, endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, new Merge(childPositions(startPosition), endPositions(endPosition), null));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, new Merge(startPositions(startEnqueuedTime), null, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, new Merge(childPositions(startPosition), null, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, new Merge(startPositions(startEnqueuedTime), endPositions(endPosition), null));
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, String startPosition) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, Instant startEnqueuedTime) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void stopAsyncReceiving(String id) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void start() throws Exception {
+		for (StreamDataSupplier<M> supplier: suppliers){
+			supplier.start();
+		}
+	}
+
+	@Override
+	public void stop() throws Exception {
+		idleCursors.set(null);
+		for (StreamDataSupplier<M> supplier: suppliers){
+			supplier.stop();
+		}
+	}
+
+	public List<StreamDataSupplier<M>> getSuppliers(){
+		return suppliers;
+	}
+
+}
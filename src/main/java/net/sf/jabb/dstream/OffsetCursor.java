@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * Cursor for reading messages sequentially from a local store in which positions are offsets increasing along with enqueued time.
+ * A cursor is normally not thread safe and should be used by only one thread.
+ * @author James Hu
+ *
+ */
+public interface OffsetCursor {
+	/**
+	 * Move to the next message if it is available
+	 * @return	true if moved to the next message, false if there is no more message available for now
+	 * @throws DataStreamInfrastructureException	if the next message can no longer be read
+	 */
+	boolean next() throws DataStreamInfrastructureException;
+
+	/**
+	 * Move back to the previous message, so that the current message will be read again by {@link #next()}.
+	 * Only one step back right after {@link #next()} returned true is supported.
+	 */
+	void unread();
+
+	/**
+	 * @return	offset of the current message, or the start offset (exclusive) if no message has been read
+	 */
+	long offset();
+
+	/**
+	 * @return	enqueued time of the current message in epoch milliseconds
+	 */
+	long enqueuedMillis();
+}
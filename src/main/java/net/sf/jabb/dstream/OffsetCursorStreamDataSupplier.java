@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * Base class of StreamDataSupplier implementations reading a local store through {@link OffsetCursor}s.
+ * It defines position range as (startPosition, endPosition], and positions are offsets in the store.
+ * Fetching returns as soon as some messages have been fetched and there is no more message available for now.
+ * Asynchronous receiving is not supported.
+ * Subclasses only need to provide cursors, message conversion, waiting for new messages, and the positions of the store.
+ * @author James Hu
+ * @param <M> type of the message object
+ * @param <C> type of the cursor
+ *
+ */
+public abstract class OffsetCursorStreamDataSupplier<M, C extends OffsetCursor> implements StreamDataSupplier<M> {
+	private static final Logger logger = LoggerFactory.getLogger(OffsetCursorStreamDataSupplier.class);
+
+	protected static final long MAX_WAIT_MILLIS = 1000L;
+
+	/**
+	 * Get a cursor positioned after the start position
+	 * @param startPosition		the start position, exclusive
+	 * @return	the cursor
+	 * @throws DataStreamInfrastructureException	if the cursor cannot be positioned
+	 */
+	protected abstract C cursorAfter(String startPosition) throws DataStreamInfrastructureException;
+
+	/**
+	 * Get a cursor positioned before the first message enqueued after the specified time
+	 * @param enqueuedAfter	the time
+	 * @return	the cursor, it may be positioned before some messages enqueued not after the time
+	 * @throws DataStreamInfrastructureException	if the cursor cannot be positioned
+	 */
+	protected abstract C cursorAfter(Instant enqueuedAfter) throws DataStreamInfrastructureException;
+
+	/**
+	 * Get the message object of the current message of a cursor
+	 * @param cursor	the cursor
+	 * @return	the message object
+	 */
+	protected abstract M message(C cursor);
+
+	/**
+	 * Wait until the message after the current one of a cursor becomes available
+	 * @param cursor		the cursor
+	 * @param timeoutMillis	maximum time to wait
+	 * @return	true if the message is available, false if timed out
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	protected abstract boolean awaitNext(C cursor, long timeoutMillis) throws InterruptedException;
+
+	/**
+	 * Called when a fetch/receive operation has finished with a cursor, the cursor is positioned after the last message delivered.
+	 * This method does nothing, subclasses can override it to reuse the cursor.
+	 * @param cursor	the cursor
+	 */
+	protected void release(C cursor){
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * This method returns (offset of the first message enqueued after <code>enqueuedAfter</code>) - 1.
+	 */
+	@Override
+	public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) throws InterruptedException, DataStreamInfrastructureException {
+		long deadline = System.currentTimeMillis() + waitForArrival.toMillis();
+		long enqueuedAfterMillis = enqueuedAfter.toEpochMilli();
+		C cursor = cursorAfter(enqueuedAfter);
+		while(true){
+			while (cursor.next()){
+				if (cursor.enqueuedMillis() > enqueuedAfterMillis){
+					return String.valueOf(cursor.offset() - 1);
+				}
+			}
+			long waitMillis = deadline - System.currentTimeMillis();
+			if (waitMillis <= 0 || !awaitNext(cursor, waitMillis)){
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public String nextStartPosition(String previousEndPosition) {
+		return previousEndPosition;
+	}
+
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return OffsetRangeChecker.of(endPosition);
+	}
+
+	/**
+	 * Create a range check based on position
+	 * @param endPosition	the end position, inclusive. null means unbounded.
+	 * @return	the range check returning negative for in range, 0 for the very last in range, and positive for out of range
+	 */
+	static protected ToIntFunction<OffsetCursor> positionRangeCheck(String endPosition){
+		OffsetRangeChecker rangeChecker = OffsetRangeChecker.of(endPosition);
+		return cursor -> rangeChecker.checkInRange(cursor.offset());
+	}
+
+	/**
+	 * Create a range check based on enqueued time.
+	 * The end is inclusive, and because more than one message can be enqueued in the same millisecond,
+	 * a message enqueued exactly at the end is never taken as the very last in range.
+	 * @param endEnqueuedTime	the end enqueued time, inclusive. null means unbounded.
+	 * @return	the range check returning negative for in range and positive for out of range
+	 */
+	static protected ToIntFunction<OffsetCursor> enqueuedTimeRangeCheck(Instant endEnqueuedTime){
+		if (endEnqueuedTime == null){
+			return cursor -> -1;
+		}
+		long endMillis = endEnqueuedTime.toEpochMilli();
+		return cursor -> cursor.enqueuedMillis() > endMillis ? 1 : -1;
+	}
+
+	protected ReceiveStatus fetch(List<? super M> list, C cursor, ToIntFunction<OffsetCursor> rangeCheck, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException{
+		long timeoutNano = System.nanoTime() + timeoutDuration.toNanos();
+		int count = 0;
+		long lastOffset = -1;
+		long lastEnqueuedMillis = 0;
+		boolean outOfRangeReached = false;
+		while (count < maxItems){
+			if (cursor.next()){
+				int chk = rangeCheck.applyAsInt(cursor);
+				if (chk > 0){
+					cursor.unread();
+					outOfRangeReached = true;
+					break;
+				}
+				list.add(message(cursor));
+				count ++;
+				lastOffset = cursor.offset();
+				lastEnqueuedMillis = cursor.enqueuedMillis();
+				if (chk == 0){	// the very last in range
+					break;
+				}
+			}else{
+				long timeoutLeftMillis = (timeoutNano - System.nanoTime())/1000000;
+				if (count > 0 || timeoutLeftMillis <= 0){
+					break;
+				}
+				awaitNext(cursor, timeoutLeftMillis);
+			}
+		}
+		release(cursor);
+		return receiveStatus(lastOffset, lastEnqueuedMillis, outOfRangeReached);
+	}
+
+	protected ReceiveStatus receive(Function<M, Long> receiver, C cursor, ToIntFunction<OffsetCursor> rangeCheck) throws DataStreamInfrastructureException{
+		long lastOffset = -1;
+		long lastEnqueuedMillis = 0;
+		boolean outOfRangeReached = false;
+		try{
+			long receiveTimeoutMillis = receiver.apply(null);
+			while (receiveTimeoutMillis > 0){
+				if (cursor.next()){
+					int chk = rangeCheck.applyAsInt(cursor);
+					if (chk > 0){
+						cursor.unread();
+						outOfRangeReached = true;
+						break;
+					}
+					receiveTimeoutMillis = receiver.apply(message(cursor));
+					lastOffset = cursor.offset();
+					lastEnqueuedMillis = cursor.enqueuedMillis();
+					if (chk == 0){	// the very last in range
+						break;
+					}
+				}else{
+					awaitNext(cursor, Math.min(receiveTimeoutMillis, MAX_WAIT_MILLIS));
+					receiveTimeoutMillis = receiver.apply(null);
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		release(cursor);
+		return receiveStatus(lastOffset, lastEnqueuedMillis, outOfRangeReached);
+	}
+
+	protected ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, C cursor, ToIntFunction<OffsetCursor> rangeCheck, int maxItems) throws DataStreamInfrastructureException{
+		long lastOffset = -1;
+		long lastEnqueuedMillis = 0;
+		boolean outOfRangeReached = false;
+		boolean lastInRangeReached = false;
+		int count = 0;
+		try{
+			long receiveTimeoutMillis = receiver.apply(Collections.emptyList());
+			while (receiveTimeoutMillis > 0 && count < maxItems){
+				List<M> batch = new ArrayList<>();
+				while (count < maxItems && cursor.next()){
+					int chk = rangeCheck.applyAsInt(cursor);
+					if (chk > 0){
+						cursor.unread();
+						outOfRangeReached = true;
+						break;
+					}
+					batch.add(message(cursor));
+					count ++;
+					lastOffset = cursor.offset();
+					lastEnqueuedMillis = cursor.enqueuedMillis();
+					if (chk == 0){	// the very last in range
+						lastInRangeReached = true;
+						break;
+					}
+				}
+				if (batch.isEmpty() && !outOfRangeReached){
+					awaitNext(cursor, Math.min(receiveTimeoutMillis, MAX_WAIT_MILLIS));
+				}
+				receiveTimeoutMillis = receiver.apply(batch);
+				if (outOfRangeReached || lastInRangeReached){
+					break;
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		release(cursor);
+		return receiveStatus(lastOffset, lastEnqueuedMillis, outOfRangeReached);
+	}
+
+	protected ReceiveStatus receiveStatus(long lastOffset, long lastEnqueuedMillis, boolean outOfRangeReached){
+		if (lastOffset >= 0){
+			return new SimpleReceiveStatus(String.valueOf(lastOffset), Instant.ofEpochMilli(lastEnqueuedMillis), outOfRangeReached);
+		}else{
+			return new SimpleReceiveStatus(null, null, outOfRangeReached);
+		}
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		ReceiveStatus status = fetch(list, cursorAfter(startPosition), positionRangeCheck(endPosition), maxItems, timeoutDuration);
+		if (logger.isDebugEnabled()){
+			logger.debug("Fetched for ({}-{}],{},{}: ? - {}", startPosition, endPosition, maxItems, timeoutDuration, status.getLastPosition());
+		}
+		return status;
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, cursorAfter(startEnqueuedTime), enqueuedTimeRangeCheck(endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, cursorAfter(startPosition), enqueuedTimeRangeCheck(endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, cursorAfter(startPosition), positionRangeCheck(endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, cursorAfter(startEnqueuedTime), enqueuedTimeRangeCheck(endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, cursorAfter(startPosition), enqueuedTimeRangeCheck(endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, cursorAfter(startEnqueuedTime), positionRangeCheck(endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, cursorAfter(startPosition), positionRangeCheck(endPosition), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, cursorAfter(startEnqueuedTime), enqueuedTimeRangeCheck(endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, cursorAfter(startPosition), enqueuedTimeRangeCheck(endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, cursorAfter(startEnqueuedTime), positionRangeCheck(endPosition), maxItems);
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, String startPosition) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, Instant startEnqueuedTime) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void stopAsyncReceiving(String id) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void start() throws Exception {
+	}
+
+	@Override
+	public void stop() throws Exception {
+	}
+
+}
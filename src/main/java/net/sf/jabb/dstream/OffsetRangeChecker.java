@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * RangeChecker for streams having positions as offsets in the form of long integers.
+ * The end position is parsed only once when the checker is created,
+ * and offsets already available as primitive long values can be checked without any parsing.
+ * @author James Hu
+ *
+ */
+public class OffsetRangeChecker implements RangeChecker {
+	static private final OffsetRangeChecker UNBOUNDED = new OffsetRangeChecker(false, 0);
+
+	protected final boolean isBounded;
+	protected final long endOffset;
+
+	protected OffsetRangeChecker(boolean isBounded, long endOffset){
+		this.isBounded = isBounded;
+		this.endOffset = endOffset;
+	}
+
+	/**
+	 * Create an instance for the range ended at the specified position
+	 * @param endPosition	the end position, inclusive. Null means no limit.
+	 * @return	the range checker
+	 */
+	static public OffsetRangeChecker of(String endPosition){
+		return endPosition == null ? UNBOUNDED : new OffsetRangeChecker(true, Long.parseLong(endPosition));
+	}
+
+	/**
+	 * Create an instance for the range ended at the specified offset
+	 * @param endOffset	the end offset, inclusive
+	 * @return	the range checker
+	 */
+	static public OffsetRangeChecker of(long endOffset){
+		return new OffsetRangeChecker(true, endOffset);
+	}
+
+	/**
+	 * Check if an offset is within the range
+	 * @param offset		the offset to be checked
+	 * @return	negative if in range, zero if in range and is the very last one in range, positive if out of range
+	 */
+	public int checkInRange(long offset){
+		return isBounded ? Long.compare(offset, endOffset) : -1;
+	}
+
+	/**
+	 * Check if an offset is within the range
+	 * @param offset		the offset to be checked
+	 * @return	true if in range, false otherwise
+	 */
+	public boolean isInRange(long offset){
+		return !isBounded || offset <= endOffset;
+	}
+
+	@Override
+	public int checkInRange(String position) {
+		Validate.isTrue(position != null, "position cannot be null");
+		return checkInRange(Long.parseLong(position));
+	}
+
+	/**
+	 * @return true if the range has an end, false if there is no limit
+	 */
+	public boolean isBounded() {
+		return isBounded;
+	}
+
+	/**
+	 * @return the end offset, inclusive. Meaningless if the range is not bounded
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	@Override
+	public String toString(){
+		return isBounded ? "(..., " + endOffset + "]" : "(..., ...)";
+	}
+
+}
@@ -0,0 +1,377 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * StreamDataSupplier decorator that decodes raw messages from the wrapped supplier in parallel while keeping their original order.
+ * The wrapped supplier should do as little as possible in its own message converter, for example
+ * {@link net.sf.jabb.dstream.kinesis.KinesisStreamDataSupplier#rawMessageConverter()} or <code>Function.identity()</code>,
+ * and the expensive decoding (JSON, Avro, etc.) is done by the decoder specified here on the executor.
+ * <p>
+ * In fetch(...) and receiveBatches(...) methods, the raw messages fetched or received in one batch
+ * are split into at most <code>maxInFlight</code> slices which are decoded concurrently,
+ * then the decoded messages are handed over in the original order.
+ * In receive(...) methods, each raw message is decoded as a separate task and at most <code>maxInFlight</code> tasks can be outstanding;
+ * decoded messages are handed over to the receiver strictly in the original order.
+ * Because the wrapped supplier has already counted the outstanding messages in its receive status, they are all handed over
+ * to the receiver before receive(...) returns, even if the receiver had asked for stopping in the meantime.
+ * Therefore the receiver may get at most <code>maxInFlight - 1</code> messages after it returned a non-positive value.
+ * </p>
+ * <p>
+ * Raw messages handed over one by one may be flyweights reused by the wrapped supplier for the next message,
+ * for example those from {@link net.sf.jabb.dstream.kinesis.KinesisStreamDataSupplier#reusingRawMessageConverter()},
+ * so in receive(...) methods each raw message is detached by {@link #detach(Object)} before being decoded in another thread.
+ * {@link RawMessage} instances are detached by {@link RawMessage#copy()}, other types of raw messages are used as they are;
+ * override {@link #detach(Object)} if the wrapped supplier reuses raw messages of other types.
+ * </p>
+ * <p>
+ * Asynchronous receiving decodes messages in the thread of the wrapped supplier without any parallelism.
+ * </p>
+ * @author James Hu
+ * @param <R> type of the raw message provided by the wrapped supplier
+ * @param <M> type of the decoded message
+ *
+ */
+public class ParallelDecodingStreamDataSupplier<R, M> implements StreamDataSupplier<M> {
+	protected StreamDataSupplier<R> supplier;
+	protected Function<R, M> decoder;
+	protected Executor executor;
+	protected int maxInFlight;
+
+	/**
+	 * Constructor. Decoding will be done in {@link ForkJoinPool#commonPool()}
+	 * with maximum number of in-flight tasks set to its parallelism plus one.
+	 * @param supplier	the supplier providing raw messages
+	 * @param decoder	the decoder which must be thread safe
+	 */
+	public ParallelDecodingStreamDataSupplier(StreamDataSupplier<R> supplier, Function<R, M> decoder){
+		this(supplier, decoder, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() + 1);
+	}
+
+	/**
+	 * Constructor
+	 * @param supplier		the supplier providing raw messages
+	 * @param decoder		the decoder which must be thread safe
+	 * @param executor		the executor in which decoding happens
+	 * @param maxInFlight	maximum number of decoding tasks that can be outstanding in one fetch/receive operation
+	 */
+	public ParallelDecodingStreamDataSupplier(StreamDataSupplier<R> supplier, Function<R, M> decoder, Executor executor, int maxInFlight){
+		Validate.notNull(supplier, "supplier cannot be null");
+		Validate.notNull(decoder, "decoder cannot be null");
+		Validate.notNull(executor, "executor cannot be null");
+		Validate.isTrue(maxInFlight > 0, "maxInFlight must be positive: %d", maxInFlight);
+		this.supplier = supplier;
+		this.decoder = decoder;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Wait for the decoding task and get the result. If decoding failed, the original exception is thrown if it is unchecked.
+	 * @param future	the decoding task
+	 * @return	result of the decoding
+	 */
+	static protected <T> T join(CompletableFuture<T> future){
+		try{
+			return future.join();
+		}catch(CompletionException e){
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}else if (e.getCause() instanceof Error){
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Detach a raw message handed over one by one from the wrapped supplier,
+	 * so that it is not affected when the wrapped supplier reuses the instance for the next message.
+	 * @param raw	the raw message
+	 * @return	the detached raw message, it is {@link RawMessage#copy()} for {@link RawMessage} instances and the raw message itself for others
+	 */
+	@SuppressWarnings("unchecked")
+	protected R detach(R raw){
+		return raw instanceof RawMessage ? (R) ((RawMessage) raw).copy() : raw;
+	}
+
+	/**
+	 * Decode a list of raw messages in parallel
+	 * @param rawMessages	the raw messages
+	 * @return	decoded messages in the same order
+	 */
+	protected List<M> decodeAll(List<R> rawMessages){
+		int size = rawMessages.size();
+		if (size == 0){
+			return Collections.emptyList();
+		}
+		if (size == 1 || maxInFlight == 1){
+			List<M> result = new ArrayList<>(size);
+			for (R raw: rawMessages){
+				result.add(decoder.apply(raw));
+			}
+			return result;
+		}
+		@SuppressWarnings("unchecked")
+		M[] decoded = (M[]) new Object[size];
+		int slices = Math.min(maxInFlight, size);
+		int sliceSize = (size + slices - 1) / slices;
+		List<CompletableFuture<Void>> tasks = new ArrayList<>(slices);
+		for (int start = sliceSize; start < size; start += sliceSize){	// the first slice is decoded in the current thread
+			int from = start;
+			int to = Math.min(size, start + sliceSize);
+			tasks.add(CompletableFuture.runAsync(()->{
+				for (int i = from; i < to; i ++){
+					decoded[i] = decoder.apply(rawMessages.get(i));
+				}
+			}, executor));
+		}
+		for (int i = 0; i < sliceSize; i ++){
+			decoded[i] = decoder.apply(rawMessages.get(i));
+		}
+		for (CompletableFuture<Void> task: tasks){
+			join(task);
+		}
+		return Arrays.asList(decoded);
+	}
+
+	protected ReceiveStatus fetchDecoded(List<? super M> list, FetchOperation<R> fetch) throws InterruptedException, DataStreamInfrastructureException{
+		List<R> rawMessages = new ArrayList<>();
+		ReceiveStatus status = fetch.fetch(rawMessages);
+		list.addAll(decodeAll(rawMessages));
+		return status;
+	}
+
+	protected Function<List<R>, Long> decodingBatches(Function<List<M>, Long> receiver){
+		return batch -> receiver.apply(decodeAll(batch));
+	}
+
+	protected ReceiveStatus receiveDecoded(Function<M, Long> receiver, ReceiveOperation<R> receive) throws DataStreamInfrastructureException{
+		OrderedDecoding decoding = new OrderedDecoding(receiver);
+		ReceiveStatus status = receive.receive(decoding::accept);
+		decoding.drain();
+		return status;
+	}
+
+	@FunctionalInterface
+	protected static interface FetchOperation<R>{
+		ReceiveStatus fetch(List<R> list) throws InterruptedException, DataStreamInfrastructureException;
+	}
+
+	@FunctionalInterface
+	protected static interface ReceiveOperation<R>{
+		ReceiveStatus receive(Function<R, Long> receiver) throws DataStreamInfrastructureException;
+	}
+
+	/**
+	 * Receiver of raw messages which decodes them in parallel and hands over decoded ones in order.
+	 * It is used only by the thread calling receive(...) of the wrapped supplier.
+	 */
+	protected class OrderedDecoding{
+		protected final Function<M, Long> receiver;
+		protected final ArrayDeque<CompletableFuture<M>> inFlight = new ArrayDeque<>(maxInFlight);
+		protected long remainingMillis;
+		protected boolean stopped;
+
+		protected OrderedDecoding(Function<M, Long> receiver){
+			this.receiver = receiver;
+			this.remainingMillis = receiver.apply(null);	// in case the wrapped supplier does not ask for it before handing over the first message
+		}
+
+		protected Long accept(R raw){
+			if (raw == null){	// no data available at the moment, so that it is a good time to deliver all the outstanding ones
+				drain();
+				if (!stopped){
+					remainingMillis = receiver.apply(null);
+				}
+			}else{
+				R detached = detach(raw);		// the wrapped supplier may reuse it as soon as this method returns
+				inFlight.add(CompletableFuture.supplyAsync(()->decoder.apply(detached), executor));
+				while (inFlight.size() >= maxInFlight || (inFlight.size() > 0 && inFlight.peek().isDone())){
+					deliver(inFlight.remove());
+				}
+			}
+			return stopped ? 0L : remainingMillis;
+		}
+
+		protected void deliver(CompletableFuture<M> future){
+			long remaining = receiver.apply(join(future));
+			if (!stopped){
+				remainingMillis = remaining;
+				stopped = remaining <= 0;
+			}
+		}
+
+		protected void drain(){
+			while (inFlight.size() > 0){
+				deliver(inFlight.remove());
+			}
+		}
+	}
+
+	@Override
+	public String firstPosition() {
+		return supplier.firstPosition();
+	}
+
+	@Override
+	public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) throws InterruptedException, DataStreamInfrastructureException {
+		return supplier.firstPosition(enqueuedAfter, waitForArrival);
+	}
+
+	@Override
+	public String firstPosition(Instant enqueuedAfter) throws InterruptedException, DataStreamInfrastructureException {
+		return supplier.firstPosition(enqueuedAfter);
+	}
+
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		return supplier.lastPosition();
+	}
+
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		return supplier.enqueuedTime(position);
+	}
+
+	@Override
+	public String nextStartPosition(String previousEndPosition) {
+		return supplier.nextStartPosition(previousEndPosition);
+	}
+
+	@Override
+	public boolean isInRange(String position, String endPosition) {
+		return supplier.isInRange(position, endPosition);
+	}
+
+	@Override
+	public int checkInRange(String position, String endPosition) {
+		return supplier.checkInRange(position, endPosition);
+	}
+
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return supplier.rangeChecker(endPosition);
+	}
+
+	@Override
+	public boolean isInRange(Instant enqueuedTime, Instant endEnqueuedTime) {
+		return supplier.isInRange(enqueuedTime, endEnqueuedTime);
+	}
+
+	@Override
+	public int checkInRange(Instant enqueuedTime, Instant endEnqueuedTime) {
+		return supplier.checkInRange(enqueuedTime, endEnqueuedTime);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetchDecoded(list, raw -> supplier.fetch(raw, startPosition, endPosition, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetchDecoded(list, raw -> supplier.fetch(raw, startEnqueuedTime, endEnqueuedTime, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetchDecoded(list, raw -> supplier.fetch(raw, startPosition, endEnqueuedTime, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, String startPosition) throws DataStreamInfrastructureException {
+		return supplier.startAsyncReceiving(raw -> receiver.accept(decoder.apply(raw)), startPosition);
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, Instant startEnqueuedTime) throws DataStreamInfrastructureException {
+		return supplier.startAsyncReceiving(raw -> receiver.accept(decoder.apply(raw)), startEnqueuedTime);
+	}
+
+	@Override
+	public void stopAsyncReceiving(String id) {
+		supplier.stopAsyncReceiving(id);
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		return receiveDecoded(receiver, r -> supplier.receive(r, startPosition, endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receiveDecoded(receiver, r -> supplier.receive(r, startEnqueuedTime, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receiveDecoded(receiver, r -> supplier.receive(r, startPosition, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException {
+		return receiveDecoded(receiver, r -> supplier.receive(r, startEnqueuedTime, endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return supplier.receiveBatches(decodingBatches(receiver), startPosition, endPosition, maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return supplier.receiveBatches(decodingBatches(receiver), startEnqueuedTime, endEnqueuedTime, maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return supplier.receiveBatches(decodingBatches(receiver), startPosition, endEnqueuedTime, maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return supplier.receiveBatches(decodingBatches(receiver), startEnqueuedTime, endPosition, maxItems);
+	}
+
+	@Override
+	public void start() throws Exception {
+		supplier.start();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		supplier.stop();
+	}
+
+	public StreamDataSupplier<R> getSupplier(){
+		return supplier;
+	}
+
+	public Function<R, M> getDecoder(){
+		return decoder;
+	}
+
+}
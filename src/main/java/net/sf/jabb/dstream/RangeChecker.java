@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+/**
+ * Checker of whether positions are within the range defined by an end position.
+ * It is created once from the end position by {@link StreamDataSupplier#rangeChecker(String)} for each fetch/receive operation,
+ * so that the end position does not need to be parsed again for each message.
+ * @author James Hu
+ *
+ */
+@FunctionalInterface
+public interface RangeChecker {
+	/**
+	 * Check if a position is within the range
+	 * @param position		the position to be checked
+	 * @return	negative if in range, zero if in range and is the very last one in range, positive if out of range
+	 */
+	int checkInRange(String position);
+
+	/**
+	 * Check if a position is within the range
+	 * @param position		the position to be checked
+	 * @return	true if in range, false otherwise
+	 */
+	default boolean isInRange(String position){
+		return checkInRange(position) <= 0;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+/**
+ * Undecoded message payload together with its position and enqueued time.
+ * <p>
+ * Instances are mutable flyweights: a converter used only for handing over messages one by one to receivers
+ * may reuse the same instance for every message it sees in a thread, in which case the content is valid only during the receiver call.
+ * Use {@link #copy()} if the content needs to be kept longer than that.
+ * Messages returned by fetch(...) or handed over in batches are never reused.
+ * The payload returned by {@link #getData()} is a read-only view, it must not be assumed to be backed by an accessible array.
+ * </p>
+ * <p>
+ * Subclasses may override {@link #getData()} and {@link #getPosition()} to compute them lazily from the underlying transport record.
+ * </p>
+ * @author James Hu
+ *
+ */
+public class RawMessage {
+	protected ByteBuffer data;
+	protected String position;
+	protected long enqueuedMillis;
+
+	public RawMessage(){
+	}
+
+	public RawMessage(ByteBuffer data, String position, long enqueuedMillis){
+		set(data, position, enqueuedMillis);
+	}
+
+	/**
+	 * Replace the content of this flyweight
+	 * @param data				the payload, a read-only view will be created if it is not read-only
+	 * @param position			position of the message
+	 * @param enqueuedMillis	enqueued time of the message in epoch milliseconds
+	 * @return	this instance itself
+	 */
+	public RawMessage set(ByteBuffer data, String position, long enqueuedMillis){
+		this.data = data == null || data.isReadOnly() ? data : data.asReadOnlyBuffer();
+		this.position = position;
+		this.enqueuedMillis = enqueuedMillis;
+		return this;
+	}
+
+	/**
+	 * Get the payload
+	 * @return	read-only view of the payload. Reading from it changes its position, use {@link ByteBuffer#duplicate()} if it needs to be read more than once.
+	 */
+	public ByteBuffer getData(){
+		return data;
+	}
+
+	/**
+	 * Get the position of the message
+	 * @return	the position that can be used in {@link StreamDataSupplier} methods
+	 */
+	public String getPosition(){
+		return position;
+	}
+
+	/**
+	 * Get the enqueued time
+	 * @return	enqueued time in epoch milliseconds
+	 */
+	public long getEnqueuedMillis(){
+		return enqueuedMillis;
+	}
+
+	/**
+	 * Get the enqueued time
+	 * @return	enqueued time
+	 */
+	public Instant getEnqueuedTime(){
+		return Instant.ofEpochMilli(enqueuedMillis);
+	}
+
+	/**
+	 * Create a copy that will not be affected when this flyweight is reused.
+	 * The payload bytes are shared rather than copied, only the view is duplicated.
+	 * @return	a new instance
+	 */
+	public RawMessage copy(){
+		ByteBuffer d = getData();
+		return new RawMessage(d == null ? null : d.duplicate(), getPosition(), getEnqueuedMillis());
+	}
+
+	@Override
+	public String toString(){
+		ByteBuffer d = getData();
+		return "RawMessage[position=" + getPosition() + ", enqueuedMillis=" + getEnqueuedMillis() + ", bytes=" + (d == null ? 0 : d.remaining()) + "]";
+	}
+}
@@ -5,6 +5,7 @@ package net.sf.jabb.dstream;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -107,6 +108,17 @@ public interface StreamDataSupplier<M> {
 		}
 	}
 	
+	/**
+	 * Create a checker for checking if positions are within the range defined by an end position.
+	 * Implementations should parse the end position only once here if possible. 
+	 * The default implementation delegates to {@link #checkInRange(String, String)}.
+	 * @param endPosition	the end position
+	 * @return	the range checker
+	 */
+	default RangeChecker rangeChecker(String endPosition){
+		return position -> checkInRange(position, endPosition);
+	}
+	
 	/**
 	 * Check if an enqueued time is within the range defined by an end enqueued
 	 * time
@@ -330,7 +342,99 @@ public interface StreamDataSupplier<M> {
 	 * @throws DataStreamInfrastructureException	if any error happened
 	 */
 	ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException;
-	
+
+	/**
+	 * Synchronously receive data/messages in batches starting from a position and ending before another position.
+	 * The method of the receiver will be called from the calling thread of this method.
+	 * Suppliers backed by batch oriented transports hand over whole poll results (the in range part) in one call,
+	 * the default implementation delivers the messages one by one through {@link #receive(Function, String, String)}.
+	 * @param receiver			The receiver which accepts a list of messages each time and return number of milliseconds left for receiving remaining messages.
+	 * 							All the messages in the list are regarded as received.
+	 * 							If the receiver receives an empty list as input, it should ignore it but still return the correct number of milliseconds left.
+	 * @param startPosition		the start position, inclusive/exclusive defined by the implementation
+	 * @param endPosition		the end position, inclusive/exclusive defined by the implementation
+	 * @param maxItems			maximum number of messages that will be handed over to the receiver in total
+	 * @return	ReceiveStatus with position of the last message received or null if no message had been received
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	default ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException{
+		return receive(singleMessageReceiver(receiver, maxItems), startPosition, endPosition);
+	}
+
+	/**
+	 * Synchronously receive data/messages in batches starting from a position and ending before another position,
+	 * allowing receiving as much data as possible.
+	 * @param receiver			The receiver which accepts a list of messages each time and return number of milliseconds left for receiving remaining messages.
+	 * 							See {@link #receiveBatches(Function, String, String, int)}
+	 * @param startPosition		the start position, inclusive/exclusive defined by the implementation
+	 * @param endPosition		the end position, inclusive/exclusive defined by the implementation
+	 * @return	ReceiveStatus with position of the last message received or null if no message had been received
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	default ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException{
+		return receiveBatches(receiver, startPosition, endPosition, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Synchronously receive data/messages in batches starting from an enqueued time and ending before another enqueued time.
+	 * See {@link #receiveBatches(Function, String, String, int)}
+	 * @param receiver			The receiver which accepts a list of messages each time and return number of milliseconds left for receiving remaining messages.
+	 * @param startEnqueuedTime		the start enqueued time of the message/data, inclusive/exclusive defined by the implementation
+	 * @param endEnqueuedTime		the end enqueued time of the message/data, inclusive/exclusive defined by the implementation
+	 * @param maxItems			maximum number of messages that will be handed over to the receiver in total
+	 * @return	ReceiveStatus with position of the last message received or null if no message had been received
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	default ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException{
+		return receive(singleMessageReceiver(receiver, maxItems), startEnqueuedTime, endEnqueuedTime);
+	}
+
+	/**
+	 * Synchronously receive data/messages in batches starting from a position and ending before another enqueued time.
+	 * See {@link #receiveBatches(Function, String, String, int)}
+	 * @param receiver			The receiver which accepts a list of messages each time and return number of milliseconds left for receiving remaining messages.
+	 * @param startPosition		the start position, inclusive/exclusive defined by the implementation
+	 * @param endEnqueuedTime		the end enqueued time of the message/data, inclusive/exclusive defined by the implementation
+	 * @param maxItems			maximum number of messages that will be handed over to the receiver in total
+	 * @return	ReceiveStatus with position of the last message received or null if no message had been received
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	default ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException{
+		return receive(singleMessageReceiver(receiver, maxItems), startPosition, endEnqueuedTime);
+	}
+
+	/**
+	 * Synchronously receive data/messages in batches starting from an enqueued time and ending before another position.
+	 * See {@link #receiveBatches(Function, String, String, int)}
+	 * @param receiver			The receiver which accepts a list of messages each time and return number of milliseconds left for receiving remaining messages.
+	 * @param startEnqueuedTime		the start enqueued time of the message/data, inclusive/exclusive defined by the implementation
+	 * @param endPosition		the end position, inclusive/exclusive defined by the implementation
+	 * @param maxItems			maximum number of messages that will be handed over to the receiver in total
+	 * @return	ReceiveStatus with position of the last message received or null if no message had been received
+	 * @throws DataStreamInfrastructureException	if any error happened
+	 */
+	default ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException{
+		return receive(singleMessageReceiver(receiver, maxItems), startEnqueuedTime, endPosition);
+	}
+
+	/**
+	 * Adapt a batch receiver to a receiver accepting one message each time.
+	 * @param <M> type of the message object
+	 * @param batchReceiver		the receiver accepting a list of messages each time
+	 * @param maxItems			maximum number of messages that can be handed over to the batch receiver
+	 * @return	the receiver accepting one message each time
+	 */
+	static <M> Function<M, Long> singleMessageReceiver(Function<List<M>, Long> batchReceiver, int maxItems){
+		int[] count = new int[1];
+		return msg->{
+			if (msg == null){
+				return count[0] < maxItems ? batchReceiver.apply(Collections.emptyList()) : 0L;
+			}
+			long remaining = batchReceiver.apply(Collections.singletonList(msg));
+			return ++count[0] < maxItems ? remaining : 0L;
+		};
+	}
+
 	/**
 	 * Start/activate/connect to the data stream
 	 * @throws Exception any exception
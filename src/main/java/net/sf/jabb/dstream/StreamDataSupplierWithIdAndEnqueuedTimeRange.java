@@ -4,6 +4,7 @@
 package net.sf.jabb.dstream;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.function.Function;
 
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
@@ -54,6 +55,23 @@ public class StreamDataSupplierWithIdAndEnqueuedTimeRange<M> extends SimpleStrea
 		}
 	}
 	
+	/**
+	 * Receive in batches. Positions passed in are those of transactions created within this range,
+	 * therefore only the enqueued time bound that is not replaced by a position needs to be applied.
+	 */
+	@Override
+	public ReceiveStatus receiveBatchesInRange(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		boolean hasStartPosition = startPosition != null && startPosition.length() > 0;
+		boolean hasEndPosition = endPosition != null && endPosition.length() > 0;
+		if (hasStartPosition){
+			return hasEndPosition ? supplier.receiveBatches(receiver, startPosition, endPosition, maxItems)
+					: supplier.receiveBatches(receiver, startPosition, toEnqueuedTime, maxItems);
+		}else{
+			return hasEndPosition ? supplier.receiveBatches(receiver, fromEnqueuedTime, endPosition, maxItems)
+					: supplier.receiveBatches(receiver, fromEnqueuedTime, toEnqueuedTime, maxItems);
+		}
+	}
+	
 	@Override
 	public Instant getFrom(){
 		return fromEnqueuedTime;
@@ -3,6 +3,7 @@
  */
 package net.sf.jabb.dstream;
 
+import java.util.List;
 import java.util.function.Function;
 
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
@@ -35,13 +36,26 @@ public class StreamDataSupplierWithIdAndPositionRange<M> extends SimpleStreamDat
 	
 	@Override
 	public ReceiveStatus receiveInRange(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		return supplier.receive(receiver, startPositionInRange(startPosition), endPositionInRange(endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatchesInRange(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return supplier.receiveBatches(receiver, startPositionInRange(startPosition), endPositionInRange(endPosition), maxItems);
+	}
+	
+	protected String startPositionInRange(String startPosition){
 		if (startPosition == null || startPosition.length() == 0 || supplier.isInRange(startPosition, fromPosition)){
-			startPosition = fromPosition;
+			return fromPosition;
 		}
+		return startPosition;
+	}
+	
+	protected String endPositionInRange(String endPosition){
 		if (endPosition == null || endPosition.length() == 0 || supplier.isInRange(toPosition, endPosition)){
-			endPosition = toPosition;
+			return toPosition;
 		}
-		return supplier.receive(receiver, startPosition, endPosition);
+		return endPosition;
 	}
 
 	@Override
@@ -3,6 +3,7 @@
  */
 package net.sf.jabb.dstream;
 
+import java.util.List;
 import java.util.function.Function;
 
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
@@ -23,6 +24,17 @@ public interface StreamDataSupplierWithIdAndRange<M, R> extends StreamDataSuppli
 	 */
 	ReceiveStatus receiveInRange(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException;
 
+	/**
+	 * Receive data in batches from the supplier within range. Reference: {@link StreamDataSupplier#receiveBatches(Function, String, String, int)}
+	 * @param receiver	the receiver which accepts a list of messages each time
+	 * @param startPosition	the start position for the receiving, if it is null or empty string then the from position of the range will be used
+	 * @param endPosition	the end position for the receiving, if it is null or empty string then the to position of the range will be used
+	 * @param maxItems	maximum number of messages that will be handed over to the receiver in total
+	 * @return	the receive status
+	 * @throws DataStreamInfrastructureException  if exception happens in the infrastructure
+	 */
+	ReceiveStatus receiveBatchesInRange(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException;
+
 	/**
 	 * Get the from 
 	 * @return the from
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.eventhub;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of enqueued time of Event Hub messages, keyed by position (offset).
+ * The enqueued time of a message never changes, so cached entries never expire and are only evicted when the cache is full.
+ * This class is thread safe.
+ * @author James Hu
+ *
+ */
+public class EnqueuedTimeCache {
+	static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private final Map<String, Instant> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public EnqueuedTimeCache(){
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	@SuppressWarnings("serial")
+	public EnqueuedTimeCache(int maxEntries){
+		this.entries = new LinkedHashMap<String, Instant>(maxEntries * 2, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Instant> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Put the enqueued time of a message into the cache
+	 * @param position		position of the message
+	 * @param enqueuedTime	enqueued time of the message, if either it or the position is null then nothing will be put into the cache
+	 */
+	public synchronized void put(String position, Instant enqueuedTime){
+		if (position != null && enqueuedTime != null){
+			entries.put(position, enqueuedTime);
+		}
+	}
+
+	/**
+	 * Get the enqueued time of the message at a position
+	 * @param position	position of the message
+	 * @return	the enqueued time, or null if not found in the cache
+	 */
+	public synchronized Instant get(String position){
+		Instant enqueuedTime = entries.get(position);
+		if (enqueuedTime == null){
+			misses.increment();
+		}else{
+			hits.increment();
+		}
+		return enqueuedTime;
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	public long getHits(){
+		return hits.sum();
+	}
+
+	public long getMisses(){
+		return misses.sum();
+	}
+
+}
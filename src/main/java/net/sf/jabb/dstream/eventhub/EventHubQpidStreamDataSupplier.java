@@ -16,6 +16,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -41,6 +42,9 @@ import com.google.common.util.concurrent.UncheckedTimeoutException;
 import net.sf.jabb.azure.AzureEventHubUtility;
 import net.sf.jabb.azure.EventHubAnnotations;
 import net.sf.jabb.dstream.JmsConsumerStreamDataSupplier;
+import net.sf.jabb.dstream.OffsetRangeChecker;
+import net.sf.jabb.dstream.RawMessage;
+import net.sf.jabb.dstream.RangeChecker;
 import net.sf.jabb.dstream.WrappedJmsConnection;
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
 import net.sf.jabb.util.jms.JmsUtility;
@@ -64,6 +68,7 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 	protected static long RECEIVE_MUST_EXIST_MESSAGE_WAIT_MILLIS = 10_000L;
 	
 	protected Function<Message, M> messageConverter;
+	protected Function<Message, M> receivingMessageConverter;	// null if messageConverter should also be used for receiving one by one
 	
 	protected WrappedJmsConnection wrappedConnection;
 	
@@ -73,6 +78,8 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 	
 	protected WaitStrategy waitStrategy;
 	
+	protected EnqueuedTimeCache enqueuedTimeCache = new EnqueuedTimeCache();
+	
 	/**
 	 * Constructor
 	 * @param connectionFactory			JMS connection factory
@@ -229,11 +236,66 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 	public static <M> List<StreamDataSupplierWithId<M>> create(String server, String policyName, String policyKey,
 	                                                           String eventHubName, String consumerGroup, Function<Message, M> messageConverter,
 	                                                           Instant fromEnqueuedTime) throws JMSException{
+		return create(server, policyName, policyKey, eventHubName, consumerGroup, ()->messageConverter, null, fromEnqueuedTime);
+	}
+	
+	/**
+	 * Create a list of {@link SimpleStreamDataSupplierWithId}s providing unconverted payloads from an Event Hub.
+	 * @param server		the server name containing name space of the Event Hub
+	 * @param policyName	policy with read permission
+	 * @param policyKey		key of the policy
+	 * @param eventHubName	name of the Event Hub
+	 * @param consumerGroup		consumer group name
+	 * @param reuseFlyweight	true if receive(...) methods handing over messages one by one should reuse a {@link RawMessage} instance per thread,
+	 * 							see {@link #reusingRawMessageConverter()} and {@link #withReceivingMessageConverter(Function)};
+	 * 							false if a new instance should be created for each message, see {@link #rawMessageConverter()}.
+	 * 							fetch(...) and receiveBatches(...) methods always create a new instance for each message.
+	 * @param fromEnqueuedTime	The time that data items provided by stream data supplier must not be enqueued earlier than.
+	 * 							It can be null which means that the data items provided can be enqueued at any time.
+	 * @return					a list of {@link SimpleStreamDataSupplierWithId}s, one per partition
+	 * @throws JMSException		If list of partitions cannot be fetched
+	 */
+	public static List<StreamDataSupplierWithId<RawMessage>> createRaw(String server, String policyName, String policyKey,
+	                                                           String eventHubName, String consumerGroup, boolean reuseFlyweight,
+	                                                           Instant fromEnqueuedTime) throws JMSException{
+		return create(server, policyName, policyKey, eventHubName, consumerGroup, 
+				EventHubQpidStreamDataSupplier::rawMessageConverter, reuseFlyweight ? reusingRawMessageConverter() : null, 
+				fromEnqueuedTime);
+	}
+	
+	/**
+	 * Get a message converter that wraps each JMS message into a new {@link RawMessage}.
+	 * The converter can be shared by multiple suppliers and the results can be kept, 
+	 * so it is suitable for fetch(...) and receiveBatches(...) methods.
+	 * @return	the message converter
+	 */
+	public static Function<Message, RawMessage> rawMessageConverter(){
+		return message -> new EventHubRawMessage().wrap(message);
+	}
+	
+	/**
+	 * Get a message converter that wraps JMS messages into a {@link RawMessage} flyweight reused by the same thread,
+	 * the byte array holding the payload is also reused.
+	 * The content of the returned message is valid only until the converter is applied again in the same thread,
+	 * therefore the converter can be shared by multiple suppliers and threads, but it must be used only through
+	 * {@link #withReceivingMessageConverter(Function)} so that the message is valid only during the receiver call.
+	 * {@link RawMessage#copy()} can be used to keep the content longer.
+	 * @return	the message converter
+	 */
+	public static Function<Message, RawMessage> reusingRawMessageConverter(){
+		ThreadLocal<EventHubRawMessage> flyweights = ThreadLocal.withInitial(EventHubRawMessage::new);
+		return message -> flyweights.get().wrap(message);
+	}
+	
+	protected static <M> List<StreamDataSupplierWithId<M>> create(String server, String policyName, String policyKey,
+	                                                           String eventHubName, String consumerGroup, Supplier<Function<Message, M>> messageConverterFactory,
+	                                                           Function<Message, M> receivingMessageConverter, Instant fromEnqueuedTime) throws JMSException{
 		String[] partitions = AzureEventHubUtility.getPartitions(server, policyName, policyKey, eventHubName);
 		List<StreamDataSupplierWithId<M>> suppliers = new ArrayList<>(partitions.length);
 		for (String partition: partitions){
 			EventHubQpidStreamDataSupplier<M> supplier = new EventHubQpidStreamDataSupplier<>(server, eventHubName, policyName, policyKey,
-					consumerGroup, partition, messageConverter);
+					consumerGroup, partition, messageConverterFactory.get())
+					.withReceivingMessageConverter(receivingMessageConverter);
 			suppliers.add(fromEnqueuedTime == null ? 
 					new SimpleStreamDataSupplierWithId<>(partition, supplier) :
 					new StreamDataSupplierWithIdAndEnqueuedTimeRange<>(partition, supplier, fromEnqueuedTime, null));
@@ -344,8 +406,39 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 		return String.valueOf(-1);
 	}
 
+	/**
+	 *  {@inheritDoc}
+	 *  Offsets of Event Hub messages are long integers, so the end position is parsed only once here.
+	 */
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return OffsetRangeChecker.of(endPosition);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Offsets are compared as primitive long values, no position string is created for the messages.
+	 */
+	@Override
+	protected Function<Message, Integer> messageRangeChecker(String endPosition) {
+		OffsetRangeChecker rangeChecker = OffsetRangeChecker.of(endPosition);
+		if (!rangeChecker.isBounded()){
+			return message -> -1;
+		}
+		return message -> rangeChecker.checkInRange(AzureEventHubUtility.getEventHubAnnotations(message).getOffset());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Enqueued time of positions returned by previous fetch/receive operations are looked up from the cache first,
+	 * so that no message needs to be received from the Event Hub for them.
+	 */
 	@Override
 	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException{
+		Instant cached = enqueuedTimeCache.get(position);
+		if (cached != null){
+			return cached;
+		}
 		String selector = "amqp.annotation.x-opt-offset >= '" + position + "'";
 		
 		Message msg = null;
@@ -356,6 +449,9 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 				return null;
 			}
 			EventHubAnnotations annotations = AzureEventHubUtility.getEventHubAnnotations(msg);
+			if (position.equals(String.valueOf(annotations.getOffset()))){
+				enqueuedTimeCache.put(position, annotations.getEnqueuedTime());
+			}
 			return annotations.getEnqueuedTime();
 		} catch (JMSException | InterruptedException e) {
 			throw new DataStreamInfrastructureException(e);
@@ -559,6 +655,16 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 		return "amqp.annotation.x-opt-enqueued-time > '" + startEnqueuedTime.toEpochMilli() + "'";
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * Event Hub supports only filters on offset and enqueued time, so the filter selector is never sent to the server.
+	 * @return	false
+	 */
+	@Override
+	protected boolean isSelectorPushdownSupported(){
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.sf.jabb.stream.AbstractJmsDataStreamProvider#convert(javax.jms.Message)
 	 */
@@ -567,6 +673,25 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 		return messageConverter.apply(message);
 	}
 
+	@Override
+	protected M convertForReceiver(Message message) {
+		return receivingMessageConverter == null ? messageConverter.apply(message) : receivingMessageConverter.apply(message);
+	}
+
+	/**
+	 * Set the message converter that will be used only by receive(...) methods handing over messages one by one.
+	 * Messages converted by it are guaranteed to be used only during the receiver call,
+	 * so it can return reused flyweights such as those from {@link #reusingRawMessageConverter()}.
+	 * fetch(...) and receiveBatches(...) methods, whose messages are kept in lists, always use the message converter passed to the constructor.
+	 * Receivers, and decorators such as {@link net.sf.jabb.dstream.recording.RecordingStreamDataSupplier}, must not keep such messages after the call.
+	 * @param receivingMessageConverter	the converter, null means that the message converter passed to the constructor will be used
+	 * @return	the supplier itself
+	 */
+	public EventHubQpidStreamDataSupplier<M> withReceivingMessageConverter(Function<Message, M> receivingMessageConverter){
+		this.receivingMessageConverter = receivingMessageConverter;
+		return this;
+	}
+
 	/* (non-Javadoc)
 	 * @see net.sf.jabb.stream.AbstractJmsDataStreamProvider#position(javax.jms.Message)
 	 */
@@ -580,6 +705,27 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 		return AzureEventHubUtility.getEventHubAnnotations(message).getEnqueuedTime();
 	}
 
+	@Override
+	protected void lastMessageReceived(String position, Instant enqueuedTime) {
+		enqueuedTimeCache.put(position, enqueuedTime);
+	}
+	
+	/**
+	 * Get the number of times that enqueued time of a position was found in the cache
+	 * @return	number of hits
+	 */
+	public long getEnqueuedTimeCacheHits(){
+		return enqueuedTimeCache.getHits();
+	}
+
+	/**
+	 * Get the number of times that enqueued time of a position had to be found by receiving from the Event Hub
+	 * @return	number of misses
+	 */
+	public long getEnqueuedTimeCacheMisses(){
+		return enqueuedTimeCache.getMisses();
+	}
+
 	@Override
 	public void start() throws Exception {
 		long opStartTime = System.currentTimeMillis();
@@ -603,6 +749,7 @@ public class EventHubQpidStreamDataSupplier<M> extends JmsConsumerStreamDataSupp
 	public void stop() throws Exception {
 		// TODO: more work needed to define the behaviour of start/stop/restart
 		// for now, there is no support for restart
+		closeIdleConsumer();
 		wrappedConnection.close();
 	}
 
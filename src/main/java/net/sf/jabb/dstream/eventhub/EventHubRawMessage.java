@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.eventhub;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import com.google.common.base.Throwables;
+
+import net.sf.jabb.azure.AzureEventHubUtility;
+import net.sf.jabb.azure.EventHubAnnotations;
+import net.sf.jabb.dstream.RawMessage;
+
+/**
+ * Flyweight wrapping an Event Hub JMS message without converting it.
+ * The Event Hub annotations are parsed when the message is wrapped, the position string and the payload
+ * are created only when they are asked for.
+ * Standard JMS API does not expose the body of a {@link BytesMessage} without copying,
+ * so the payload is read once into a byte array that is reused as long as it is large enough.
+ * Only {@link BytesMessage} and {@link TextMessage} have payloads, for other types of messages {@link #getData()} returns null.
+ * @author James Hu
+ *
+ */
+public class EventHubRawMessage extends RawMessage {
+	protected Message message;
+	protected long offset;
+	protected byte[] bodyBuffer;
+
+	/**
+	 * Replace the content of this flyweight
+	 * @param message	the JMS message received from Event Hub
+	 * @return	this instance itself
+	 */
+	public EventHubRawMessage wrap(Message message){
+		EventHubAnnotations annotations = AzureEventHubUtility.getEventHubAnnotations(message);
+		this.message = message;
+		this.offset = annotations.getOffset();
+		this.enqueuedMillis = annotations.getEnqueuedTime().toEpochMilli();
+		this.position = null;
+		this.data = null;
+		return this;
+	}
+
+	@Override
+	public ByteBuffer getData(){
+		if (data == null && message != null){
+			try{
+				data = readBody(message);
+			}catch(JMSException e){
+				throw Throwables.propagate(e);
+			}
+		}
+		return data;
+	}
+
+	protected ByteBuffer readBody(Message message) throws JMSException{
+		if (message instanceof BytesMessage){
+			BytesMessage bytesMessage = (BytesMessage) message;
+			int length = (int) bytesMessage.getBodyLength();
+			if (bodyBuffer == null || bodyBuffer.length < length){
+				bodyBuffer = new byte[length];
+			}
+			bytesMessage.reset();
+			bytesMessage.readBytes(bodyBuffer, length);
+			return ByteBuffer.wrap(bodyBuffer, 0, length).slice().asReadOnlyBuffer();
+		}else if (message instanceof TextMessage){
+			String text = ((TextMessage) message).getText();
+			return text == null ? null : StandardCharsets.UTF_8.encode(text).asReadOnlyBuffer();
+		}else{
+			return null;
+		}
+	}
+
+	@Override
+	public String getPosition(){
+		if (position == null && message != null){
+			position = String.valueOf(offset);
+		}
+		return position;
+	}
+
+	/**
+	 * Get the offset of the message
+	 * @return	the x-opt-offset annotation value
+	 */
+	public long getOffset(){
+		return offset;
+	}
+
+	/**
+	 * Get the underlying JMS message
+	 * @return	the JMS message
+	 */
+	public Message getMessage(){
+		return message;
+	}
+
+	@Override
+	public EventHubRawMessage copy(){
+		EventHubRawMessage copy = new EventHubRawMessage();
+		copy.message = message;
+		copy.offset = offset;
+		copy.enqueuedMillis = enqueuedMillis;
+		copy.position = position;
+		if (data != null){
+			ByteBuffer d = data.duplicate();
+			byte[] bytes = new byte[d.remaining()];
+			d.get(bytes);
+			copy.data = ByteBuffer.wrap(bytes).asReadOnlyBuffer();	// this.bodyBuffer will be overwritten when this flyweight is reused
+		}
+		return copy;
+	}
+}
@@ -2,47 +2,136 @@ package net.sf.jabb.dstream.kafka;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import net.sf.jabb.dstream.OffsetRangeChecker;
+import net.sf.jabb.dstream.RangeChecker;
 import net.sf.jabb.dstream.ReceiveStatus;
 import net.sf.jabb.dstream.SimpleReceiveStatus;
 import net.sf.jabb.dstream.StreamDataSupplier;
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.util.stat.ConcurrentLongStatistics;
+import net.sf.jabb.util.stat.NumberStatistics;
 
+/**
+ * StreamDataSupplier backed by a single partition of a Kafka topic.
+ * Position of a message is its offset, the position range is defined as [startPosition, endPosition].
+ * All the fetch(...) and receive(...) methods share the same poll loop which stops as soon as
+ * <code>maxItems</code> or <code>endPosition</code> is satisfied. Records polled but not handed over
+ * are kept and reused if the next fetch/receive starts right after the last one handed over.
+ * Instead of logging, statistics of poll sizes and fetch/receive latencies are available through
+ * {@link #getPollSizeStatistics()} and {@link #getFetchLatencyStatistics()}.
+ * <p>
+ * Asynchronous receiving uses a dedicated <code>KafkaConsumer</code> confined to a background poll thread.
+ * The poll thread fills a bounded queue which is drained by another background thread calling the receiver.
+ * When the queue is full, the partition is paused until the queue has been half drained.
+ * </p>
+ * <p>
+ * A filter over {@link ConsumerRecord}s can be specified through {@link #withRecordFilter(Predicate)} or passed to the fetch/receive methods taking it.
+ * Records rejected are not handed over but still advance the last position reported in the receive status.
+ * Because values are deserialized inside <code>KafkaConsumer</code>, a cheap deserializer (such as a byte array one) 
+ * should be configured if the cost of deserializing the rejected records needs to be avoided.
+ * </p>
+ */
 public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
-	private static final Logger logger = Logger.getLogger("KafkaStreamDataSupplier");
+	private static final Logger logger = LoggerFactory.getLogger(KafkaStreamDataSupplier.class);
+	
+	protected static final int DEFAULT_ASYNC_RECEIVING_QUEUE_CAPACITY = 1000;
+	protected static final long ASYNC_POLL_TIMEOUT_MILLIS = 100L;
+	
+	protected static ThreadFactory asyncReceivingThreadFactory = new BasicThreadFactory.Builder()
+			.namingPattern(KafkaStreamDataSupplier.class.getSimpleName() + "-async-%d").daemon(true).build();
+
 	private org.apache.kafka.clients.consumer.Consumer<Void, M> consumer;
 	private TopicPartition subscribedPartition;
+	private Supplier<org.apache.kafka.clients.consumer.Consumer<Void, M>> consumerFactory;	// for creating consumers used by asynchronous receiving
+	
+	protected int asyncReceivingQueueCapacity = DEFAULT_ASYNC_RECEIVING_QUEUE_CAPACITY;
+	protected Map<String, AsyncReceiving> asyncReceivings = new ConcurrentHashMap<>();
+	protected Predicate<ConsumerRecord<Void, M>> recordFilter;	// null if all records should be handed over
+
+	private List<ConsumerRecord<Void, M>> pendingRecords = Collections.emptyList();	// polled but not yet handed over
+	private int pendingIndex;
+	private Long nextOffset;		// offset of the record that the next poll will return, null if unknown
+
+	protected ConcurrentLongStatistics pollSizeStatistics = new ConcurrentLongStatistics();
+	protected ConcurrentLongStatistics fetchLatencyStatistics = new ConcurrentLongStatistics();
 
 	KafkaStreamDataSupplier(Properties properties, List<TopicPartition> partitions) {
 		Validate.isTrue(partitions.size() == 1);
 		subscribedPartition = partitions.get(0);
-		consumer = new KafkaConsumer<Void, M>(properties);
+		consumerFactory = ()->new KafkaConsumer<Void, M>(properties);
+		consumer = consumerFactory.get();
 		consumer.assign(partitions);
 	}
 
 	KafkaStreamDataSupplier(org.apache.kafka.clients.consumer.Consumer<Void, M> consumer,
 			List<TopicPartition> partitions) {
+		this(consumer, null, partitions);
+	}
+
+	/**
+	 * Constructor
+	 * @param consumer			the consumer used by synchronous fetching and receiving
+	 * @param consumerFactory	factory of consumers used by asynchronous receiving, can be null if asynchronous receiving is not needed
+	 * @param partitions		the partition, there must be exactly one in the list
+	 */
+	KafkaStreamDataSupplier(org.apache.kafka.clients.consumer.Consumer<Void, M> consumer,
+			Supplier<org.apache.kafka.clients.consumer.Consumer<Void, M>> consumerFactory,
+			List<TopicPartition> partitions) {
 		Validate.isTrue(partitions.size() == 1);
 		subscribedPartition = partitions.get(0);
 		this.consumer = consumer;
+		this.consumerFactory = consumerFactory;
 		consumer.assign(partitions);
 	}
+	
+	/**
+	 * Set the filter that will be applied to records before they are handed over.
+	 * It will be used by all the fetch(...) and receive(...) methods that do not take a filter argument, 
+	 * therefore it is also effective when this supplier is used by transactional batch processing.
+	 * @param recordFilter	the filter, null means that all records will be handed over
+	 * @return	the supplier itself
+	 */
+	public KafkaStreamDataSupplier<M> withRecordFilter(Predicate<ConsumerRecord<Void, M>> recordFilter){
+		this.recordFilter = recordFilter;
+		return this;
+	}
+	
+	/**
+	 * Set the capacity of the queue between the poll thread and the receiver in asynchronous receiving
+	 * @param asyncReceivingQueueCapacity	the capacity
+	 */
+	public void setAsyncReceivingQueueCapacity(int asyncReceivingQueueCapacity){
+		Validate.isTrue(asyncReceivingQueueCapacity > 0, "capacity must be positive: %d", asyncReceivingQueueCapacity);
+		this.asyncReceivingQueueCapacity = asyncReceivingQueueCapacity;
+	}
 
 	@Override
-	public String firstPosition() {
+	public synchronized String firstPosition() {
 		long curPos = consumer.position(subscribedPartition);
 		// move to beginning of the topic
 		consumer.seekToBeginning(subscribedPartition);
@@ -58,7 +147,7 @@ public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	}
 
 	@Override
-	public String lastPosition() throws DataStreamInfrastructureException {
+	public synchronized String lastPosition() throws DataStreamInfrastructureException {
 		long curPos = consumer.position(subscribedPartition);
 		// move to end of the topic
 		consumer.seekToEnd(subscribedPartition);
@@ -79,44 +168,172 @@ public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	}
 
 	@Override
-	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems,
-			Duration timeoutDuration) throws InterruptedException, DataStreamInfrastructureException {
-		Long startPos = Long.parseLong(startPosition);
-		Long endPos = Long.parseLong(endPosition);
-		consumer.seek(subscribedPartition, startPos);
-		consumer.position(subscribedPartition);
-		long opMaxTime = System.currentTimeMillis() + timeoutDuration.toMillis();
-		logger.log(Level.INFO,
-				"maxTime=" + String.valueOf(opMaxTime) + ",now=" + String.valueOf(System.currentTimeMillis()));
-		// lastPos is the last message start offset.
-		long lastPos = 0;
+	public RangeChecker rangeChecker(String endPosition) {
+		return OffsetRangeChecker.of(endPosition);
+	}
+
+	/**
+	 * Get the statistics of number of records returned by each poll
+	 * @return	statistics of poll sizes
+	 */
+	public NumberStatistics<Long> getPollSizeStatistics(){
+		return pollSizeStatistics;
+	}
+
+	/**
+	 * Get the statistics of milliseconds spent by each fetch(...) or receive(...)
+	 * @return	statistics of fetch/receive latencies
+	 */
+	public NumberStatistics<Long> getFetchLatencyStatistics(){
+		return fetchLatencyStatistics;
+	}
+
+	/**
+	 * Make sure that the next record returned by {@link #nextRecords(long)} is at the specified offset
+	 * @param startPos	the offset
+	 */
+	private void positionAt(long startPos){
+		if (pendingIndex < pendingRecords.size()){
+			if (pendingRecords.get(pendingIndex).offset() == startPos){
+				return;
+			}
+			pendingRecords = Collections.emptyList();
+			pendingIndex = 0;
+		}
+		if (nextOffset == null || nextOffset != startPos){
+			consumer.seek(subscribedPartition, startPos);
+			nextOffset = startPos;
+		}
+	}
+
+	/**
+	 * Get the next records, either from those previously polled but not handed over, or by a new poll
+	 * @param timeoutMillis		timeout of the poll
+	 * @return	records, can be empty but never be null
+	 */
+	private List<ConsumerRecord<Void, M>> nextRecords(long timeoutMillis){
+		if (pendingIndex < pendingRecords.size()){
+			List<ConsumerRecord<Void, M>> records = pendingRecords.subList(pendingIndex, pendingRecords.size());
+			pendingRecords = Collections.emptyList();
+			pendingIndex = 0;
+			return records;
+		}
+		List<ConsumerRecord<Void, M>> records = consumer.poll(timeoutMillis).records(subscribedPartition);
+		pollSizeStatistics.evaluate(records.size());
+		if (records.size() > 0){
+			nextOffset = records.get(records.size() - 1).offset() + 1;
+		}
+		return records;
+	}
+
+	/**
+	 * The poll loop shared by all fetch(...) and receive(...) methods. Exactly one of <code>recordReceiver</code> and <code>batchReceiver</code> should be non-null.
+	 * @param startPosition		the start position, inclusive
+	 * @param endPosition		the end position, inclusive, can be null
+	 * @param maxItems			maximum number of records to be handed over
+	 * @param millisecondLeft	initial number of milliseconds allowed
+	 * @param recordFilter		filter deciding which records should be handed over, null means all. Records rejected are not counted in maxItems.
+	 * @param recordReceiver	receiver of records one by one
+	 * @param batchReceiver		receiver of lists of records
+	 * @return	the receive status
+	 */
+	protected synchronized SimpleReceiveStatus receive(String startPosition, String endPosition, int maxItems, long millisecondLeft,
+			Predicate<ConsumerRecord<Void, M>> recordFilter, Function<M, Long> recordReceiver, Function<List<M>, Long> batchReceiver){
+		long opStartTime = System.currentTimeMillis();
+		long startPos = Long.parseLong(startPosition);
+		OffsetRangeChecker rangeChecker = OffsetRangeChecker.of(endPosition);
+		positionAt(startPos);
+
+		SimpleReceiveStatus status = new SimpleReceiveStatus();
+		ConsumerRecord<Void, M> lastRecord = null;
 		int count = 0;
-		boolean outOfRange = false;
-		while (true) {
-			// Since poll can't specify maxItems, we just wait for timeout. We
-			// can also do busy poll and check each return until maxItem reached
-			// or timeout.
-			long opNow = System.currentTimeMillis();
-			ConsumerRecords<Void, M> records = consumer.poll(opMaxTime - opNow);
-			logger.log(Level.INFO, "poll fetched " + records.count() + " messages");
-			Iterator<ConsumerRecord<Void, M>> it = records.iterator();
-			while (it.hasNext() && count < maxItems) {
-				ConsumerRecord<Void, M> record = it.next();
-				if (record.offset() > endPos) {
-					outOfRange = true;
-					return new SimpleReceiveStatus(String.valueOf(lastPos), null, outOfRange);
+		while (millisecondLeft > 0 && count < maxItems && !status.isOutOfRangeReached()
+				&& (lastRecord == null || rangeChecker.checkInRange(lastRecord.offset()) < 0)) {
+			List<ConsumerRecord<Void, M>> records = nextRecords(millisecondLeft);
+			List<M> batch = batchReceiver == null ? null : new ArrayList<>(records.size());
+			boolean delivered = false;
+			int i = 0;
+			while (i < records.size() && count < maxItems) {
+				ConsumerRecord<Void, M> record = records.get(i);
+				if (record.offset() < startPos){	// before the start position
+					i++;
+					continue;
+				}
+				int rangeCheck = rangeChecker.checkInRange(record.offset());
+				if (rangeCheck > 0) {
+					status.setOutOfRangeReached(true);
+					break;
+				}
+				i++;
+				lastRecord = record;
+				if (recordFilter != null && !recordFilter.test(record)){	// skipped, but the position still advances
+					if (rangeCheck == 0){
+						break;
+					}
+					continue;
 				}
 				count++;
-				list.add(record.value());
-				lastPos = record.offset();
-				logger.log(Level.INFO, "lastPos=" + String.valueOf(lastPos));
+				if (batch != null){
+					batch.add(record.value());
+				}else{
+					millisecondLeft = recordReceiver.apply(record.value());
+					delivered = true;
+					if (millisecondLeft <= 0){
+						break;
+					}
+				}
+				if (rangeCheck == 0){
+					break;
+				}
+			}
+			if (i < records.size()){
+				pendingRecords = records;
+				pendingIndex = i;
 			}
-			opNow = System.currentTimeMillis();
-			if (opNow >= opMaxTime) {
-				logger.log(Level.INFO, "timeout, lastPos=" + String.valueOf(lastPos));
-				return new SimpleReceiveStatus(String.valueOf(lastPos), null, outOfRange);
+			if (batch != null){
+				millisecondLeft = batchReceiver.apply(batch);
+			}else if (!delivered){	// nothing polled or all skipped
+				millisecondLeft = recordReceiver.apply(null);
 			}
 		}
+		if (lastRecord != null){
+			status.setLastPosition(String.valueOf(lastRecord.offset()));
+		}
+		long latency = System.currentTimeMillis() - opStartTime;
+		fetchLatencyStatistics.evaluate(latency);
+		if (logger.isDebugEnabled()){
+			logger.debug("Received {} records from {} in range [{}, {}] within {}ms: {}", count, subscribedPartition, startPosition, endPosition, latency, status);
+		}
+		return status;
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems,
+			Duration timeoutDuration) throws InterruptedException, DataStreamInfrastructureException {
+		long deadline = System.currentTimeMillis() + timeoutDuration.toMillis();
+		return receive(startPosition, endPosition, maxItems, timeoutDuration.toMillis(), recordFilter, null, batch->{
+			list.addAll(batch);
+			return deadline - System.currentTimeMillis();
+		});
+	}
+
+	/**
+	 * Fetch the records accepted by the filter. Rejected records are not handed over but they still advance the last position in the returned status.
+	 * @param list					the list that received data will be put into
+	 * @param startPosition			the start position, inclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @param maxItems				maximum number of records that can be put into the list
+	 * @param timeoutDuration		maximum duration for this operation
+	 * @return						receive status
+	 */
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, Predicate<ConsumerRecord<Void, M>> recordFilter, int maxItems,
+			Duration timeoutDuration) {
+		long deadline = System.currentTimeMillis() + timeoutDuration.toMillis();
+		return receive(startPosition, endPosition, maxItems, timeoutDuration.toMillis(), recordFilter, null, batch->{
+			list.addAll(batch);
+			return deadline - System.currentTimeMillis();
+		});
 	}
 
 	@Override
@@ -131,10 +348,133 @@ public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		throw new DataStreamInfrastructureException("Kafka do not support enqueue timestamp");
 	}
 
+	/**
+	 * An asynchronous receiving session, with a poll thread and a delivery thread
+	 */
+	protected class AsyncReceiving {
+		protected final String id;
+		protected final Consumer<M> receiver;
+		protected final long startPos;
+		protected final Predicate<ConsumerRecord<Void, M>> filter = recordFilter;
+		protected final BlockingQueue<M> queue = new ArrayBlockingQueue<>(asyncReceivingQueueCapacity);
+		protected volatile boolean stopped;
+		protected volatile org.apache.kafka.clients.consumer.Consumer<Void, M> pollConsumer;
+		protected Thread pollThread;
+		protected Thread deliveryThread;
+		
+		AsyncReceiving(String id, Consumer<M> receiver, long startPos){
+			this.id = id;
+			this.receiver = receiver;
+			this.startPos = startPos;
+			this.pollThread = asyncReceivingThreadFactory.newThread(this::poll);
+			this.deliveryThread = asyncReceivingThreadFactory.newThread(this::deliver);
+		}
+		
+		void start(){
+			deliveryThread.start();
+			pollThread.start();
+		}
+		
+		void stop(){
+			stopped = true;
+			org.apache.kafka.clients.consumer.Consumer<Void, M> c = pollConsumer;
+			if (c != null){
+				c.wakeup();		// the only method of the consumer that is safe to be called from another thread
+			}
+			deliveryThread.interrupt();
+		}
+		
+		/**
+		 * Runs in the poll thread which is the only thread accessing the consumer
+		 */
+		protected void poll(){
+			org.apache.kafka.clients.consumer.Consumer<Void, M> c = consumerFactory.get();
+			pollConsumer = c;
+			List<ConsumerRecord<Void, M>> overflow = Collections.emptyList();
+			int overflowIndex = 0;
+			boolean paused = false;
+			try{
+				c.assign(Collections.singletonList(subscribedPartition));
+				c.seek(subscribedPartition, startPos);
+				while (!stopped){
+					while (overflowIndex < overflow.size()){
+						ConsumerRecord<Void, M> record = overflow.get(overflowIndex);
+						if (filter == null || filter.test(record)){
+							if (!queue.offer(record.value())){
+								break;
+							}
+						}
+						overflowIndex ++;
+					}
+					if (overflowIndex < overflow.size()){
+						if (!paused){
+							c.pause(subscribedPartition);
+							paused = true;
+						}
+					}else if (paused && queue.remainingCapacity() >= asyncReceivingQueueCapacity / 2){
+						c.resume(subscribedPartition);
+						paused = false;
+					}
+					List<ConsumerRecord<Void, M>> records = c.poll(ASYNC_POLL_TIMEOUT_MILLIS).records(subscribedPartition);
+					if (records.size() > 0){
+						pollSizeStatistics.evaluate(records.size());
+						overflow = records;
+						overflowIndex = 0;
+					}
+				}
+			}catch(WakeupException e){
+				if (!stopped){
+					logger.warn("Unexpected wakeup in asynchronous receiving {} from {}", id, subscribedPartition, e);
+				}
+			}catch(Exception e){
+				logger.error("Asynchronous receiving {} from {} stopped because of error", id, subscribedPartition, e);
+			}finally{
+				pollConsumer = null;
+				try{
+					c.close();
+				}catch(Exception e){
+					logger.warn("Failed to close consumer used by asynchronous receiving {} from {}", id, subscribedPartition, e);
+				}
+			}
+		}
+		
+		/**
+		 * Runs in the delivery thread which calls the receiver
+		 */
+		protected void deliver(){
+			while (!stopped){
+				M msg;
+				try{
+					msg = queue.poll(ASYNC_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				}catch(InterruptedException e){
+					break;
+				}
+				if (msg != null){
+					try{
+						receiver.accept(msg);
+					}catch(Exception e){
+						logger.warn("Receiver of asynchronous receiving {} from {} failed", id, subscribedPartition, e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A dedicated consumer is created for the receiving session, and it is accessed only from the background poll thread.
+	 */
 	@Override
 	public String startAsyncReceiving(Consumer<M> receiver, String startPosition)
 			throws DataStreamInfrastructureException {
-		throw new DataStreamInfrastructureException("Kafka do not support startAsyncReceiving");
+		if (consumerFactory == null){
+			throw new DataStreamInfrastructureException("No consumer factory available for asynchronous receiving from " + subscribedPartition);
+		}
+		String id = UUID.randomUUID().toString();
+		AsyncReceiving receiving = new AsyncReceiving(id, receiver, Long.parseLong(startPosition));
+		asyncReceivings.put(id, receiving);
+		receiving.start();
+		return id;
 	}
 
 	@Override
@@ -145,45 +485,51 @@ public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
 
 	@Override
 	public void stopAsyncReceiving(String id)  {
-		return;
+		AsyncReceiving receiving = asyncReceivings.remove(id);
+		if (receiving != null){
+			receiving.stop();
+		}
 	}
 
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition)
 			throws DataStreamInfrastructureException {
-		long startPos = Long.parseLong(startPosition);
-		long endPos = Long.parseLong(endPosition);
-		consumer.seek(subscribedPartition, startPos);
-		consumer.position(subscribedPartition);
-		boolean outOfRange = false;
-		long millisecondLeft = receiver.apply(null);
-		long deadline = System.currentTimeMillis() + millisecondLeft;
-		long lastPos = (long) -1;
-		logger.log(Level.INFO, "receive called with startPos " + String.valueOf(startPos) + " endPos "
-				+ String.valueOf(endPos) + " timeout:" + millisecondLeft);
-		while (true) {
-			// poll with max possible timeout specified by receiver.
-			ConsumerRecords<Void, M> records = consumer.poll(millisecondLeft);
-			Iterator<ConsumerRecord<Void, M>> it = records.iterator();
-			logger.log(Level.INFO, "poll got " + records.count() + " records");
-			while (it.hasNext()) {
-				ConsumerRecord<Void, M> record = it.next();
-				if (record.offset() <= endPos) {
-					millisecondLeft = receiver.apply(record.value());
-					lastPos = record.offset();
-					if (millisecondLeft < 0) {
-						return new SimpleReceiveStatus(String.valueOf(lastPos), null, outOfRange);
-					}
-				} else {
-					outOfRange = true;
-					return new SimpleReceiveStatus(String.valueOf(lastPos), null, outOfRange);
-				}
-			}
-			if (System.currentTimeMillis() >= deadline) {
-				return new SimpleReceiveStatus(String.valueOf(lastPos), null, outOfRange);
-			}
-			millisecondLeft = deadline - System.currentTimeMillis();
-		}
+		return receive(startPosition, endPosition, Integer.MAX_VALUE, receiver.apply(null), recordFilter, receiver, null);
+	}
+
+	/**
+	 * Receive the records accepted by the filter. Rejected records are not handed over but they still advance the last position in the returned status.
+	 * @param receiver				the receiver
+	 * @param startPosition			the start position, inclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @return						receive status
+	 */
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition, Predicate<ConsumerRecord<Void, M>> recordFilter) {
+		return receive(startPosition, endPosition, Integer.MAX_VALUE, receiver.apply(null), recordFilter, receiver, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The in range part of each poll result is handed over to the receiver in one call.
+	 */
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems)
+			throws DataStreamInfrastructureException {
+		return receive(startPosition, endPosition, maxItems, receiver.apply(Collections.emptyList()), recordFilter, null, receiver);
+	}
+
+	/**
+	 * Receive the records accepted by the filter in batches. Rejected records are not handed over but they still advance the last position in the returned status.
+	 * @param receiver				the receiver accepting a list of messages each time
+	 * @param startPosition			the start position, inclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @param maxItems				maximum number of messages that can be handed over to the receiver
+	 * @return						receive status
+	 */
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, Predicate<ConsumerRecord<Void, M>> recordFilter, int maxItems) {
+		return receive(startPosition, endPosition, maxItems, receiver.apply(Collections.emptyList()), recordFilter, null, receiver);
 	}
 
 	@Override
@@ -211,7 +557,9 @@ public class KafkaStreamDataSupplier<M> implements StreamDataSupplier<M> {
 
 	@Override
 	public void stop() throws Exception {
-		return;
+		for (String id: asyncReceivings.keySet()){
+			stopAsyncReceiving(id);
+		}
 	}
 
 }
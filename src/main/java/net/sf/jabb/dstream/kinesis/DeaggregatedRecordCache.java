@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.kinesis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Cache of user records de-aggregated from KPL aggregated Kinesis stream records, keyed by sequence number.
+ * Only aggregated records are cached, because de-aggregating a non-aggregated record is cheap.
+ * User records returned are copies sharing the same data with the cached ones,
+ * so that reading the data through the returned user records does not affect the cache.
+ * This class is thread safe.
+ * @author James Hu
+ *
+ */
+public class DeaggregatedRecordCache {
+	static final int DEFAULT_MAX_ENTRIES = 64;
+
+	static private final byte[] AGGREGATED_RECORD_MAGIC = new byte[] {(byte)0xF3, (byte)0x89, (byte)0x9A, (byte)0xC2};
+
+	private final Map<String, UserRecord[]> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public DeaggregatedRecordCache(){
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	@SuppressWarnings("serial")
+	public DeaggregatedRecordCache(int maxEntries){
+		this.entries = new LinkedHashMap<String, UserRecord[]>(maxEntries * 2, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, UserRecord[]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Check if a Kinesis stream record is aggregated by KPL, without modifying its data buffer.
+	 * @param record	the Kinesis stream record
+	 * @return	true if the data of the record starts with the magic bytes of KPL aggregated records
+	 */
+	static public boolean isAggregated(Record record){
+		ByteBuffer data = record.getData();
+		if (data == null || data.remaining() < AGGREGATED_RECORD_MAGIC.length){
+			return false;
+		}
+		int start = data.position();
+		for (int i = 0; i < AGGREGATED_RECORD_MAGIC.length; i ++){
+			if (data.get(start + i) != AGGREGATED_RECORD_MAGIC[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * De-aggregate a Kinesis stream record, or get the user records from the cache if it had been de-aggregated.
+	 * @param record	the Kinesis stream record
+	 * @return	the user records, in the order of their sub-sequence numbers
+	 */
+	public List<UserRecord> deaggregate(Record record){
+		if (!isAggregated(record)){
+			return deaggregateCopyOf(record);
+		}
+		UserRecord[] userRecords = getOrDeaggregate(record);
+		List<UserRecord> result = new ArrayList<>(userRecords.length);
+		for (UserRecord userRecord: userRecords){
+			result.add(copyOf(userRecord));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the user record by its sub-sequence number.
+	 * @param record	the Kinesis stream record
+	 * @param subSequenceNumber		the sub-sequence number
+	 * @return	the user record, or null if not found
+	 */
+	public UserRecord getUserRecord(Record record, long subSequenceNumber){
+		UserRecord[] userRecords = isAggregated(record) ? getOrDeaggregate(record)
+				: deaggregateCopyOf(record).toArray(new UserRecord[1]);
+		UserRecord userRecord = find(userRecords, subSequenceNumber);
+		return userRecord == null ? null : copyOf(userRecord);
+	}
+
+	/**
+	 * Get the number of times that the de-aggregated user records were found in the cache
+	 * @return	number of hits
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of times that an aggregated record had to be de-aggregated
+	 * @return	number of misses
+	 */
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	protected UserRecord[] getOrDeaggregate(Record record){
+		String sequenceNumber = record.getSequenceNumber();
+		UserRecord[] userRecords;
+		synchronized(this){
+			userRecords = entries.get(sequenceNumber);
+		}
+		if (userRecords != null){
+			hits.increment();
+			return userRecords;
+		}
+		misses.increment();
+		userRecords = deaggregateCopyOf(record).toArray(new UserRecord[0]);
+		synchronized(this){
+			entries.put(sequenceNumber, userRecords);
+		}
+		return userRecords;
+	}
+
+	/**
+	 * Find the user record by sub-sequence number.
+	 * Normally the sub-sequence number is the same as the index, otherwise binary search will be used.
+	 * @param userRecords		user records ordered by sub-sequence number
+	 * @param subSequenceNumber	the sub-sequence number
+	 * @return	the user record or null if not found
+	 */
+	static UserRecord find(UserRecord[] userRecords, long subSequenceNumber){
+		if (subSequenceNumber >= 0 && subSequenceNumber < userRecords.length){
+			UserRecord q = userRecords[(int)subSequenceNumber];
+			if (q.getSubSequenceNumber() == subSequenceNumber){
+				return q;
+			}
+		}
+		int low = 0;
+		int high = userRecords.length - 1;
+		while (low <= high){
+			int mid = (low + high) >>> 1;
+			long midSubSequenceNumber = userRecords[mid].getSubSequenceNumber();
+			if (midSubSequenceNumber < subSequenceNumber){
+				low = mid + 1;
+			}else if (midSubSequenceNumber > subSequenceNumber){
+				high = mid - 1;
+			}else{
+				return userRecords[mid];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * De-aggregate a copy of the record, because UserRecord.deaggregate(...) consumes the data buffer of the record
+	 * @param record	the Kinesis stream record
+	 * @return	the user records
+	 */
+	static private List<UserRecord> deaggregateCopyOf(Record record){
+		Record copy = record.clone();
+		if (record.getData() != null){
+			copy.setData(record.getData().duplicate());
+		}
+		return UserRecord.deaggregate(Collections.singletonList(copy));
+	}
+
+	static private UserRecord copyOf(UserRecord userRecord){
+		UserRecord copy = (UserRecord) userRecord.clone();
+		if (userRecord.getData() != null){
+			copy.setData(userRecord.getData().duplicate());
+		}
+		return copy;
+	}
+}
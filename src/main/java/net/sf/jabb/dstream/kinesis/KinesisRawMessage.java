@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.kinesis;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+
+import net.sf.jabb.dstream.RawMessage;
+
+/**
+ * Flyweight wrapping a Kinesis {@link UserRecord} without decoding it.
+ * The read-only payload view and the position string are created only when they are asked for.
+ * The position is in the form of "sequenceNumber/subSequenceNumber", it does not carry the marker
+ * of the last user record in an aggregated record, which only means that the supplier may need one more
+ * GetRecords call when the position is used as a start position.
+ * @author James Hu
+ *
+ */
+public class KinesisRawMessage extends RawMessage {
+	protected UserRecord record;
+
+	/**
+	 * Replace the content of this flyweight
+	 * @param record	the Kinesis user record
+	 * @return	this instance itself
+	 */
+	public KinesisRawMessage wrap(UserRecord record){
+		this.record = record;
+		this.data = null;
+		this.position = null;
+		Date arrivalTime = record.getApproximateArrivalTimestamp();
+		this.enqueuedMillis = arrivalTime == null ? 0 : arrivalTime.getTime();
+		return this;
+	}
+
+	@Override
+	public ByteBuffer getData(){
+		if (data == null && record != null){
+			ByteBuffer d = record.getData();
+			if (d != null){
+				data = d.asReadOnlyBuffer();	// the record may be cached and shared, so never hand out the original buffer
+			}
+		}
+		return data;
+	}
+
+	@Override
+	public String getPosition(){
+		if (position == null && record != null){
+			position = record.getSequenceNumber() + "/" + record.getSubSequenceNumber();
+		}
+		return position;
+	}
+
+	/**
+	 * Get the underlying Kinesis user record
+	 * @return	the user record
+	 */
+	public UserRecord getRecord(){
+		return record;
+	}
+
+	@Override
+	public KinesisRawMessage copy(){
+		return new KinesisRawMessage().wrap(record);
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.kinesis;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Read throughput governor shared by all the suppliers reading from the same Kinesis stream.
+ * <p>
+ * For each shard there are two token buckets: one for GetRecords calls (5 per second by default) and
+ * one for bytes returned (2 MiB per second by default). A GetRecords call needs one call token and a non-negative byte balance,
+ * the bytes returned are charged afterwards so that the balance may go negative after a large result
+ * and further calls have to wait until it has been paid back, as Kinesis itself does.
+ * When Kinesis still replies with <code>ProvisionedThroughputExceededException</code>,
+ * for example because of readers in other processes, the shard is blocked for one second and its call tokens are emptied.
+ * </p>
+ * <p>
+ * The poll interval of each shard, which is the time to wait after an empty GetRecords result, adapts to the traffic:
+ * it is halved (down to the minimum) whenever records are returned and doubled (up to the maximum) whenever nothing is returned.
+ * </p>
+ * @author James Hu
+ *
+ */
+public class KinesisReadGovernor {
+	public static final double DEFAULT_CALLS_PER_SECOND = 5;	// per shard as specified by AWS
+	public static final long DEFAULT_BYTES_PER_SECOND = 2 * 1024 * 1024;	// per shard as specified by AWS
+	static final long THROTTLED_BLOCKING_MILLIS = 1000L;
+
+	private static final Map<String, KinesisReadGovernor> sharedGovernors = new ConcurrentHashMap<>();
+
+	protected final double callsPerSecond;
+	protected final long bytesPerSecond;
+	protected final long minPollInterval;
+	protected final long maxPollInterval;
+
+	protected final Map<String, ShardBudget> shards = new ConcurrentHashMap<>();
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder throttles = new LongAdder();
+
+	/**
+	 * Get the governor shared within the JVM for a stream. It is created with default limits when it does not exist.
+	 * @param endpoint			the endpoint of Kinesis
+	 * @param streamName		name of the stream
+	 * @param maxPollInterval	maximum poll interval in milliseconds, only used when the governor does not exist yet
+	 * @return	the shared governor
+	 */
+	public static KinesisReadGovernor forStream(String endpoint, String streamName, long maxPollInterval){
+		return sharedGovernors.computeIfAbsent(endpoint + "/" + streamName, k->new KinesisReadGovernor(maxPollInterval));
+	}
+
+	/**
+	 * Constructor with default limits per shard, the minimum poll interval is the interval between two calls allowed by the limit.
+	 * @param maxPollInterval	maximum poll interval in milliseconds
+	 */
+	public KinesisReadGovernor(long maxPollInterval){
+		this(DEFAULT_CALLS_PER_SECOND, DEFAULT_BYTES_PER_SECOND, (long)Math.ceil(1000 / DEFAULT_CALLS_PER_SECOND), maxPollInterval);
+	}
+
+	/**
+	 * Constructor
+	 * @param callsPerSecond	maximum number of GetRecords calls per second per shard
+	 * @param bytesPerSecond	maximum number of bytes returned per second per shard
+	 * @param minPollInterval	minimum poll interval in milliseconds
+	 * @param maxPollInterval	maximum poll interval in milliseconds
+	 */
+	public KinesisReadGovernor(double callsPerSecond, long bytesPerSecond, long minPollInterval, long maxPollInterval){
+		Validate.isTrue(callsPerSecond > 0, "callsPerSecond must be positive: %f", callsPerSecond);
+		Validate.isTrue(bytesPerSecond > 0, "bytesPerSecond must be positive: %d", bytesPerSecond);
+		Validate.isTrue(minPollInterval >= 0 && minPollInterval <= maxPollInterval, "minPollInterval must be between 0 and maxPollInterval: %d", minPollInterval);
+		this.callsPerSecond = callsPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.minPollInterval = minPollInterval;
+		this.maxPollInterval = maxPollInterval;
+	}
+
+	/**
+	 * Budget of a shard. All the fields are guarded by the instance itself.
+	 */
+	protected class ShardBudget{
+		protected double callTokens = callsPerSecond;
+		protected double byteTokens = bytesPerSecond;
+		protected long lastRefillNanos = System.nanoTime();
+		protected long blockedUntilNanos = lastRefillNanos;
+		protected long pollInterval = minPollInterval;
+
+		protected void refill(long now){
+			double seconds = (now - lastRefillNanos) / 1_000_000_000.0;
+			if (seconds > 0){
+				callTokens = Math.min(callsPerSecond, callTokens + seconds * callsPerSecond);
+				byteTokens = Math.min(bytesPerSecond, byteTokens + seconds * bytesPerSecond);
+				lastRefillNanos = now;
+			}
+		}
+
+		/**
+		 * Take a call token if possible
+		 * @return	0 if taken, otherwise the number of nanoseconds to wait before trying again
+		 */
+		protected synchronized long tryAcquire(){
+			long now = System.nanoTime();
+			if (now - blockedUntilNanos < 0){
+				return blockedUntilNanos - now;
+			}
+			refill(now);
+			if (callTokens >= 1 && byteTokens >= 0){
+				callTokens -= 1;
+				return 0;
+			}
+			double callWaitSeconds = callTokens >= 1 ? 0 : (1 - callTokens) / callsPerSecond;
+			double byteWaitSeconds = byteTokens >= 0 ? 0 : -byteTokens / bytesPerSecond;
+			return Math.max(1, (long)(Math.max(callWaitSeconds, byteWaitSeconds) * 1_000_000_000));
+		}
+
+		protected synchronized void charge(long bytes, boolean isEmpty){
+			refill(System.nanoTime());
+			byteTokens -= bytes;
+			pollInterval = isEmpty ? Math.min(maxPollInterval, Math.max(1, pollInterval * 2)) : Math.max(minPollInterval, pollInterval / 2);
+		}
+
+		protected synchronized void block(){
+			callTokens = 0;
+			blockedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THROTTLED_BLOCKING_MILLIS);
+		}
+
+		protected synchronized double remainingCapacity(){
+			long now = System.nanoTime();
+			if (now - blockedUntilNanos < 0){
+				return 0;
+			}
+			refill(now);
+			return Math.max(0, Math.min(callTokens / callsPerSecond, byteTokens / bytesPerSecond));
+		}
+	}
+
+	protected ShardBudget budget(String shardId){
+		return shards.computeIfAbsent(shardId, k->new ShardBudget());
+	}
+
+	/**
+	 * Wait until a GetRecords call to the shard is allowed
+	 * @param shardId			the shard
+	 * @param maxWaitMillis		maximum number of milliseconds to wait
+	 * @return	true if the call is allowed, false if it cannot be allowed within the maximum waiting time
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public boolean acquire(String shardId, long maxWaitMillis) throws InterruptedException{
+		ShardBudget budget = budget(shardId);
+		long waitNanos = budget.tryAcquire();
+		if (waitNanos > 0){
+			waits.increment();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(maxWaitMillis, Long.MAX_VALUE / 1_000_000));
+			do{
+				long leftNanos = deadline - System.nanoTime();
+				if (leftNanos <= 0){
+					return false;
+				}
+				TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, leftNanos));
+				waitNanos = budget.tryAcquire();
+			}while(waitNanos > 0);
+		}
+		calls.increment();
+		return true;
+	}
+
+	/**
+	 * Report the result of a GetRecords call so that bytes returned can be charged and the poll interval can be adapted
+	 * @param shardId	the shard
+	 * @param records	the records returned, can be null
+	 */
+	public void recordResult(String shardId, List<Record> records){
+		long bytes = 0;
+		if (records != null){
+			for (Record record: records){
+				if (record.getData() != null){
+					bytes += record.getData().remaining();
+				}
+			}
+		}
+		budget(shardId).charge(bytes, records == null || records.isEmpty());
+	}
+
+	/**
+	 * Report that Kinesis replied with <code>ProvisionedThroughputExceededException</code>
+	 * @param shardId	the shard
+	 */
+	public void recordThrottled(String shardId){
+		throttles.increment();
+		budget(shardId).block();
+	}
+
+	/**
+	 * Get the current poll interval of the shard
+	 * @param shardId	the shard
+	 * @return	number of milliseconds to wait after an empty GetRecords result
+	 */
+	public long getPollInterval(String shardId){
+		ShardBudget budget = budget(shardId);
+		synchronized(budget){
+			return budget.pollInterval;
+		}
+	}
+
+	/**
+	 * Get the read capacity left for a shard
+	 * @param shardId	the shard
+	 * @return	a value between 0 and 1, it is the smaller one of the call tokens and the byte tokens left as a fraction of their per second limits
+	 */
+	public double getRemainingReadCapacity(String shardId){
+		return budget(shardId).remainingCapacity();
+	}
+
+	/**
+	 * Get the read capacity left for all the shards that have been read
+	 * @return	shard ID to the capacity left as in {@link #getRemainingReadCapacity(String)}
+	 */
+	public Map<String, Double> getRemainingReadCapacity(){
+		Map<String, Double> result = new HashMap<>();
+		shards.forEach((shardId, budget)->result.put(shardId, budget.remainingCapacity()));
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Get the number of GetRecords calls allowed
+	 * @return	number of calls
+	 */
+	public long getCalls(){
+		return calls.sum();
+	}
+
+	/**
+	 * Get the number of GetRecords calls that had to wait for the budget
+	 * @return	number of waits
+	 */
+	public long getWaits(){
+		return waits.sum();
+	}
+
+	/**
+	 * Get the number of times that Kinesis replied with <code>ProvisionedThroughputExceededException</code>
+	 * @return	number of throttles
+	 */
+	public long getThrottles(){
+		return throttles.sum();
+	}
+}
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import net.sf.jabb.dstream.*;
@@ -32,6 +33,7 @@ import com.amazonaws.services.kinesis.AmazonKinesisClient;
 import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
 import com.amazonaws.services.kinesis.model.DescribeStreamRequest;
 import com.amazonaws.services.kinesis.model.DescribeStreamResult;
+import com.amazonaws.services.kinesis.model.ExpiredIteratorException;
 import com.amazonaws.services.kinesis.model.GetRecordsRequest;
 import com.amazonaws.services.kinesis.model.GetRecordsResult;
 import com.amazonaws.services.kinesis.model.GetShardIteratorResult;
@@ -52,11 +54,13 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	private static final Logger logger = LoggerFactory.getLogger(KinesisStreamDataSupplier.class);
 	
 	private static final int MAX_GET_RECORDS_LIMIT = 1000;	// per getRecords(...) as specified by AWS
-	private static final long RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED = 2000L; // 2 seconds
+	static final long RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED = 2000L; // 2 seconds
 	private static final long DEFAULT_RETRY_INTERVAL_BASE = 1000L;
 	private static final int LAST_POSITION_POLL_SECONDS = 3;	// number of seconds to wait for polling the last position
 	
 	protected Function<UserRecord, M> messageConverter;
+	protected Function<UserRecord, M> receivingMessageConverter;	// null if messageConverter should also be used for receiving one by one
+	protected Predicate<UserRecord> recordFilter;	// null if all records should be converted
 
 	protected AmazonKinesisClient client;		// let's assume that it is thread safe
 	protected String streamName;
@@ -66,6 +70,11 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	protected int fetchBatchSize;	// the "limit" used in client.getRecords(...) from within fetch(...) methods
 	protected int receiveBatchSize;	// the "limit" used in client.getRecords(...) from within receive(...) methods
 	
+	protected ShardIteratorCache shardIteratorCache = new ShardIteratorCache();	// shard iterators returned by previous fetch(...) and receive(...) calls
+	protected ShardPrefetcher prefetcher;	// null if prefetching is not enabled
+	protected KinesisReadGovernor readGovernor;	// null if GetRecords calls are not governed
+	protected DeaggregatedRecordCache deaggregatedRecordCache = new DeaggregatedRecordCache();
+	
 	protected WaitStrategy waitStrategy = WaitStrategies.threadSleepStrategy();
 	protected AttemptStrategy attemptStrategy = new AttemptStrategy()
 		.withWaitStrategy(waitStrategy)
@@ -96,12 +105,12 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 				
 			}else{
 				int i = position.indexOf('/');
-				sequenceNumber = position.substring(0, i);
-				if (position.charAt(position.length() - 1) == '/'){
-					isLastUserRecord = true;
-					subSequenceNumber = Long.parseLong(position.substring(i + 1, position.length() - 1));
+				if (i < 0){		// just a sequence number
+					sequenceNumber = position;
 				}else{
-					subSequenceNumber = Long.parseLong(position.substring(i + 1));
+					sequenceNumber = position.substring(0, i);
+					subSequenceNumber = parseSubSequenceNumber(position, i + 1);
+					isLastUserRecord = position.charAt(position.length() - 1) == '/';
 				}
 			}
 		}
@@ -129,7 +138,93 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		
 		static String getSequenceNumber(String position){
 			int i = position.indexOf('/');
-			return position.substring(0, i);
+			return i < 0 ? position : position.substring(0, i);
+		}
+		
+		/**
+		 * Parse the sub-sequence number in a position string without creating any object
+		 * @param position		the position string
+		 * @param from			index of the first digit of the sub-sequence number
+		 * @return	the sub-sequence number
+		 */
+		static long parseSubSequenceNumber(String position, int from){
+			long result = 0;
+			for (int i = from; i < position.length(); i ++){
+				char c = position.charAt(i);
+				if (c == '/'){
+					break;
+				}
+				if (c < '0' || c > '9'){
+					throw new NumberFormatException("Invalid sub-sequence number in position: " + position);
+				}
+				result = result * 10 + (c - '0');
+			}
+			return result;
+		}
+		
+		/**
+		 * Compare two sequence numbers in decimal digits without creating any object.
+		 * Kinesis sequence numbers can have up to 56 digits which can't fit in two longs, 
+		 * so they are compared digit by digit after leading zeros are skipped.
+		 * @param s1		string containing the first sequence number
+		 * @param from1		start index of the first sequence number, inclusive
+		 * @param to1		end index of the first sequence number, exclusive
+		 * @param s2		string containing the second sequence number
+		 * @param from2		start index of the second sequence number, inclusive
+		 * @param to2		end index of the second sequence number, exclusive
+		 * @return	-1, 0, or 1 if the first sequence number is less than, equal to, or greater than the second one
+		 */
+		static int compareSequenceNumbers(String s1, int from1, int to1, String s2, int from2, int to2){
+			while (from1 < to1 - 1 && s1.charAt(from1) == '0'){
+				from1 ++;
+			}
+			while (from2 < to2 - 1 && s2.charAt(from2) == '0'){
+				from2 ++;
+			}
+			int length1 = to1 - from1;
+			int length2 = to2 - from2;
+			if (length1 != length2){
+				return length1 < length2 ? -1 : 1;
+			}
+			for (int i = 0; i < length1; i ++){
+				char c1 = s1.charAt(from1 + i);
+				char c2 = s2.charAt(from2 + i);
+				if (c1 != c2){
+					return c1 < c2 ? -1 : 1;
+				}
+			}
+			return 0;
+		}
+		
+		static int compareSequenceNumbers(String sequenceNumber1, String sequenceNumber2){
+			return compareSequenceNumbers(sequenceNumber1, 0, sequenceNumber1.length(), sequenceNumber2, 0, sequenceNumber2.length());
+		}
+		
+		/**
+		 * Compare two positions without creating any object. Whether or not the user record is the last one doesn't matter.
+		 * @param position1		the first position, must not be before the very first
+		 * @param position2		the second position, must not be before the very first
+		 * @return	-1, 0, or 1 if the first position is less than, equal to, or greater than the second one
+		 */
+		static int compare(String position1, String position2){
+			int i1 = position1.indexOf('/');
+			int i2 = position2.indexOf('/');
+			int result = compareSequenceNumbers(position1, 0, i1 < 0 ? position1.length() : i1, position2, 0, i2 < 0 ? position2.length() : i2);
+			if (result == 0){
+				result = Long.compare(i1 < 0 ? 0 : parseSubSequenceNumber(position1, i1 + 1), i2 < 0 ? 0 : parseSubSequenceNumber(position2, i2 + 1));
+			}
+			return result;
+		}
+		
+		/**
+		 * Compare this position with a user record without creating any object.
+		 * @param sequenceNumber		sequence number of the user record
+		 * @param subSequenceNumber		sub-sequence number of the user record
+		 * @return	-1, 0, or 1 if this position is less than, equal to, or greater than the user record
+		 */
+		int compareTo(String sequenceNumber, long subSequenceNumber){
+			int result = compareSequenceNumbers(this.sequenceNumber, sequenceNumber);
+			return result == 0 ? Long.compare(this.subSequenceNumber, subSequenceNumber) : result;
 		}
 		
 		static boolean isBeforeTheVeryFirst(String position){
@@ -191,6 +286,61 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	                                                           String endpoint, String streamName,
 	                                                           Function<UserRecord, M> messageConverter,
 	                                                           long pollInterval, int fetchBatchSize, int receiveBatchSize){
+		return create(awsAccessKeyId, awsSecretKey, endpoint, streamName, ()->messageConverter, null, pollInterval, fetchBatchSize, receiveBatchSize);
+	}
+	
+	/**
+	 * Create StreamDataSupplierWithIds providing undecoded payloads from a Kinesis stream.
+	 * @param awsAccessKeyId	explicitly specified AWS access key id, or null if the default should be used
+	 * @param awsSecretKey		explicitly specified AWS secret key, or null if the default should be used
+	 * @param endpoint	The endpoint (ex: "kinesis.us-east-1.amazonaws.com") or a full URL, including the protocol (ex: "https://kinesis.us-east-1.amazonaws.com") 
+	 * 					See http://docs.aws.amazon.com/general/latest/gr/rande.html#ak_region
+	 * @param streamName	name of the Kinesis stream
+	 * @param reuseFlyweight		true if receive(...) methods handing over records one by one should reuse a {@link RawMessage} instance per thread,
+	 * 								see {@link #reusingRawMessageConverter()} and {@link #withReceivingMessageConverter(Function)};
+	 * 								false if a new instance should be created for each record, see {@link #rawMessageConverter()}.
+	 * 								fetch(...) and receiveBatches(...) methods always create a new instance for each record.
+	 * @param pollInterval 			number of milliseconds to wait for data to be available before next poll
+	 * @param fetchBatchSize		the batch size for getting records from Kinesis from within fetch(...) methods
+	 * @param receiveBatchSize		the batch size for getting records from Kinesis from within receive(...) methods
+	 * @return	list of StreamDataSupplierWithIds covering all shards of the Kinesis stream.
+	 */
+	public static List<StreamDataSupplierWithId<RawMessage>> createRaw(String awsAccessKeyId, String awsSecretKey,
+	                                                           String endpoint, String streamName, boolean reuseFlyweight,
+	                                                           long pollInterval, int fetchBatchSize, int receiveBatchSize){
+		return create(awsAccessKeyId, awsSecretKey, endpoint, streamName, 
+				KinesisStreamDataSupplier::rawMessageConverter, reuseFlyweight ? reusingRawMessageConverter() : null, 
+				pollInterval, fetchBatchSize, receiveBatchSize);
+	}
+	
+	/**
+	 * Get a message converter that wraps each Kinesis user record into a new {@link RawMessage} without decoding or copying the payload.
+	 * The converter can be shared by multiple suppliers and the results can be kept, 
+	 * so it is suitable for fetch(...) and receiveBatches(...) methods.
+	 * @return	the message converter
+	 */
+	public static Function<UserRecord, RawMessage> rawMessageConverter(){
+		return record -> new KinesisRawMessage().wrap(record);
+	}
+	
+	/**
+	 * Get a message converter that wraps Kinesis user records into a {@link RawMessage} flyweight reused by the same thread,
+	 * so that no object is allocated per record unless the payload or position is asked for.
+	 * The content of the returned message is valid only until the converter is applied again in the same thread,
+	 * therefore the converter can be shared by multiple suppliers and threads, but it must be used only through
+	 * {@link #withReceivingMessageConverter(Function)} so that the message is valid only during the receiver call.
+	 * {@link RawMessage#copy()} can be used to keep the content longer.
+	 * @return	the message converter
+	 */
+	public static Function<UserRecord, RawMessage> reusingRawMessageConverter(){
+		ThreadLocal<KinesisRawMessage> flyweights = ThreadLocal.withInitial(KinesisRawMessage::new);
+		return record -> flyweights.get().wrap(record);
+	}
+	
+	protected static <M> List<StreamDataSupplierWithId<M>> create(String awsAccessKeyId, String awsSecretKey,
+	                                                           String endpoint, String streamName,
+	                                                           Supplier<Function<UserRecord, M>> messageConverterFactory, Function<UserRecord, M> receivingMessageConverter,
+	                                                           long pollInterval, int fetchBatchSize, int receiveBatchSize){
 		AmazonKinesisClient client;
 		if (awsAccessKeyId != null && awsSecretKey != null){
 			client = new AmazonKinesisClient(new BasicAWSCredentials(awsAccessKeyId, awsSecretKey));
@@ -214,13 +364,100 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		    }
 		} while ( exclusiveStartShardId != null );
 		
+		KinesisReadGovernor readGovernor = KinesisReadGovernor.forStream(endpoint, streamName, pollInterval);
 		return shards.stream().map(shard->{
 			String shardId = shard.getShardId();
-			return new KinesisStreamDataSupplier<>(client, streamName, shardId, messageConverter, pollInterval, fetchBatchSize, receiveBatchSize)
+			return new KinesisStreamDataSupplier<>(client, streamName, shardId, messageConverterFactory.get(), pollInterval, fetchBatchSize, receiveBatchSize)
+					.withReceivingMessageConverter(receivingMessageConverter)
+					.withReadGovernor(readGovernor)
 					.withId(shardId);
 		}).collect(Collectors.toList());
 	}
 	
+	/**
+	 * Enable prefetching. A background thread will keep reading ahead of the last consumed position into a bounded buffer,
+	 * so that fetch(...) and receive(...) starting from where the previous one ended can be served from memory.
+	 * Fetching or receiving from any other position discards the buffer and makes the background thread start over from there.
+	 * When the supplier is shared, concurrent fetch(...) and receive(...) calls are served one after another,
+	 * so prefetching pays off only when there is normally one reader following the shard.
+	 * The background thread is started by the first fetch(...) or receive(...), and stopped by {@link #stop()}.
+	 * @param maxBufferedRecords	maximum number of user records that can be buffered
+	 * @param maxBufferedBytes		maximum total size in bytes of the data of the buffered user records, it can be exceeded by the last GetRecords result.
+	 * @return	the supplier itself
+	 */
+	public KinesisStreamDataSupplier<M> withPrefetching(int maxBufferedRecords, long maxBufferedBytes){
+		this.prefetcher = new ShardPrefetcher(this, maxBufferedRecords, maxBufferedBytes);
+		return this;
+	}
+	
+	/**
+	 * Let all GetRecords calls go through a read governor, which is normally shared by all the suppliers of the same stream.
+	 * With a read governor, GetRecords calls wait for the budget of the shard instead of running into <code>ProvisionedThroughputExceededException</code>,
+	 * and the time to wait after an empty result is the adaptive poll interval of the governor instead of the fixed poll interval of this supplier.
+	 * Suppliers created by <code>create(...)</code> methods already share the governor returned by 
+	 * {@link KinesisReadGovernor#forStream(String, String, long)}.
+	 * @param readGovernor	the read governor, null means that GetRecords calls are not governed
+	 * @return	the supplier itself
+	 */
+	public KinesisStreamDataSupplier<M> withReadGovernor(KinesisReadGovernor readGovernor){
+		this.readGovernor = readGovernor;
+		return this;
+	}
+	
+	/**
+	 * Get the read governor
+	 * @return	the read governor, or null if GetRecords calls are not governed
+	 */
+	public KinesisReadGovernor getReadGovernor(){
+		return readGovernor;
+	}
+	
+	/**
+	 * Set the filter that will be applied to user records before the message converter.
+	 * It will be used by all the fetch(...) and receive(...) methods that do not take a filter argument, 
+	 * therefore it is also effective when this supplier is used by transactional batch processing.
+	 * Records rejected by the filter are not converted and not handed over, but they still advance the last position
+	 * reported in the receive status, so that a range can still be fully consumed when its last record is rejected.
+	 * @param recordFilter	the filter, null means that all records will be converted
+	 * @return	the supplier itself
+	 */
+	public KinesisStreamDataSupplier<M> withRecordFilter(Predicate<UserRecord> recordFilter){
+		this.recordFilter = recordFilter;
+		return this;
+	}
+
+	/**
+	 * Set the message converter that will be used only by receive(...) methods handing over messages one by one.
+	 * Messages converted by it are guaranteed to be used only during the receiver call,
+	 * so it can return reused flyweights such as those from {@link #reusingRawMessageConverter()}.
+	 * fetch(...) and receiveBatches(...) methods, whose messages are kept in lists, always use the message converter passed to the constructor.
+	 * Receivers, and decorators such as {@link net.sf.jabb.dstream.recording.RecordingStreamDataSupplier}, must not keep such messages after the call.
+	 * @param receivingMessageConverter	the converter, null means that the message converter passed to the constructor will be used
+	 * @return	the supplier itself
+	 */
+	public KinesisStreamDataSupplier<M> withReceivingMessageConverter(Function<UserRecord, M> receivingMessageConverter){
+		this.receivingMessageConverter = receivingMessageConverter;
+		return this;
+	}
+	
+	/**
+	 * Get the number of times that a shard iterator returned by a previous fetch or receive was reused, 
+	 * so that no GetShardIterator request to Kinesis was needed.
+	 * @return	number of hits in the shard iterator cache
+	 */
+	public long getShardIteratorCacheHits(){
+		return shardIteratorCache.getHits();
+	}
+	
+	/**
+	 * Get the number of times that no reusable shard iterator could be found for the start position
+	 * and a GetShardIterator request to Kinesis had to be made.
+	 * @return	number of misses in the shard iterator cache
+	 */
+	public long getShardIteratorCacheMisses(){
+		return shardIteratorCache.getMisses();
+	}
+	
 	protected String streamNameAndShardId(){
 		return streamName + "/" + shardId;
 	}
@@ -238,6 +475,47 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		throw new UnsupportedOperationException("Seeking by enqueuedAfter is not supported by Kinesis");
 	}
 	
+	/**
+	 * Make a GetRecords call, through the read governor if there is one
+	 * @param getRecordsRequest		the request
+	 * @param deadline				the time (in milliseconds since epoch) after which there is no point to wait for the read governor
+	 * @return	the result, or null if the read governor could not allow the call before the deadline
+	 * @throws InterruptedException	if interrupted while waiting for the read governor
+	 */
+	protected GetRecordsResult getRecords(GetRecordsRequest getRecordsRequest, long deadline) throws InterruptedException{
+		if (readGovernor == null){
+			return client.getRecords(getRecordsRequest);
+		}
+		if (!readGovernor.acquire(shardId, deadline - System.currentTimeMillis())){
+			return null;
+		}
+		GetRecordsResult getRecordsResult;
+		try{
+			getRecordsResult = client.getRecords(getRecordsRequest);
+		}catch(ProvisionedThroughputExceededException e){
+			readGovernor.recordThrottled(shardId);
+			throw e;
+		}
+		readGovernor.recordResult(shardId, getRecordsResult.getRecords());
+		return getRecordsResult;
+	}
+	
+	/**
+	 * Get the number of milliseconds to wait before next poll after an empty GetRecords result
+	 * @return	the adaptive poll interval of the read governor, or the fixed poll interval if there is no read governor
+	 */
+	protected long pollInterval(){
+		return readGovernor == null ? pollInterval : readGovernor.getPollInterval(shardId);
+	}
+	
+	/**
+	 * Get the number of milliseconds to wait before retrying after <code>ProvisionedThroughputExceededException</code>
+	 * @return	0 if there is a read governor because it will hold the next call back, otherwise {@link #RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED}
+	 */
+	protected long retryIntervalAfterThresholdExceeded(){
+		return readGovernor == null ? RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED : 0;
+	}
+	
 	/**
 	 * Get one Kinesis stream record according to the shard iterator
 	 * @param shardIterator		the shard iterator specifying the position of the record
@@ -255,7 +533,7 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 				.callThrowingSuppressed(()->{
 					int i = waitSeconds;
 					do{
-						GetRecordsResult getRecordsResult = client.getRecords(getRecordsRequest);
+						GetRecordsResult getRecordsResult = getRecords(getRecordsRequest, Long.MAX_VALUE);
 						List<Record> records = getRecordsResult.getRecords();
 						if (records != null && records.size() > 0){
 							return records.get(0);
@@ -279,20 +557,29 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	 * @return	the user record or null if not found
 	 */
 	protected UserRecord getUserRecord(Record record, long subSequenceNumber){
-		List<UserRecord> userRecords = UserRecord.deaggregate(Collections.singletonList(record));
-		int i = (int) subSequenceNumber;
-		if (i < userRecords.size()){
-			UserRecord q = userRecords.get(i);
-			if (q.getSubSequenceNumber() == subSequenceNumber){
-				return q;
-			}
-		}
-		for (UserRecord r: userRecords){
-			if (r.getSubSequenceNumber() == subSequenceNumber){
-				return r;
-			}
-		}
-		return null;
+		return deaggregatedRecordCache.getUserRecord(record, subSequenceNumber);
+	}
+	
+	/**
+	 * De-aggregate the Kinesis stream record into user records for looking up positions and enqueued time. 
+	 * User records de-aggregated from KPL aggregated records are cached, so that they won't be de-aggregated again 
+	 * when the start or end position is inside the same aggregated record.
+	 * @param record	the original Kinesis stream record
+	 * @return	the user records
+	 */
+	protected List<UserRecord> deaggregate(Record record){
+		return deaggregatedRecordCache.deaggregate(record);
+	}
+	
+	/**
+	 * De-aggregate the Kinesis stream record into user records for reading. 
+	 * The cache is bypassed because records read sequentially are not looked up again,
+	 * and the data buffer of the record is consumed.
+	 * @param record	the original Kinesis stream record
+	 * @return	the user records
+	 */
+	protected List<UserRecord> deaggregateForReading(Record record){
+		return UserRecord.deaggregate(Collections.singletonList(record));
 	}
 
 	@Override
@@ -305,7 +592,7 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		if (shardIterator != null){
 			Record record = getOneRecord(shardIterator, maxPollSeconds);
 			if (record != null){
-				List<UserRecord> userRecords = UserRecord.deaggregate(Collections.singletonList(record));
+				List<UserRecord> userRecords = deaggregate(record);
 				return Position.toString(record.getSequenceNumber(), userRecords.get(userRecords.size() - 1).getSubSequenceNumber(), true) ;
 			}else{
 				String actualFirstPosition = actualFirstPosition();
@@ -330,7 +617,7 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		if (shardIterator != null){
 			Record record = getOneRecord(shardIterator, 0);
 			if (record != null){
-				List<UserRecord> userRecords = UserRecord.deaggregate(Collections.singletonList(record));
+				List<UserRecord> userRecords = deaggregate(record);
 				return Position.toString(record.getSequenceNumber(), 0, userRecords.size() == 1) ;
 			}else{
 				return null;
@@ -364,29 +651,43 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 			return -1;
 		}else{
 			if (Position.isBeforeTheVeryFirst(position)){
-				return -1;
+				return Position.isBeforeTheVeryFirst(endPosition) ? 0 : -1;
 			}
-			Position pos = Position.of(position);
-			Position endPos = Position.of(endPosition);
-			
-			BigInteger sequenceNumber = pos.getSequenceNumberAsBigInteger();
-			BigInteger endSequenceNumber = endPos.getSequenceNumberAsBigInteger();
-			switch (sequenceNumber.compareTo(endSequenceNumber)){
-				case -1:
-					return -1;
-				case 1:
-					return 1;
-				default: //case 0:
-					long l = pos.getSubSequenceNumber() - endPos.getSubSequenceNumber();
-					if (l < 0){
-						return -1;
-					}else if (l > 0){
-						return 1;
-					}else{
-						return 0;
-					}
+			if (Position.isBeforeTheVeryFirst(endPosition)){
+				return 1;
 			}
+			return Position.compare(position, endPosition);
+		}
+	}
+	
+	/**
+	 * Create the predicate for checking whether a user record is within the range ended at the specified position.
+	 * The end position is parsed only once here, checking each user record does not create any object.
+	 * @param endPosition		the end position, inclusive. Null means no limit.
+	 * @return	the predicate
+	 */
+	protected Predicate<UserRecord> inRangePredicate(String endPosition){
+		if (endPosition == null){
+			return record->true;
 		}
+		Position endPos = Position.of(endPosition);
+		if (endPos.isBeforeTheVeryFirst()){
+			return record->false;
+		}
+		return record->endPos.compareTo(record.getSequenceNumber(), record.getSubSequenceNumber()) >= 0;
+	}
+	
+	/**
+	 * Create the predicate for checking whether a user record is within the range ended at the specified enqueued time.
+	 * @param endEnqueuedTime	the end enqueued time, inclusive. Null means no limit.
+	 * @return	the predicate
+	 */
+	protected Predicate<UserRecord> inRangePredicate(Instant endEnqueuedTime){
+		if (endEnqueuedTime == null){
+			return record->true;
+		}
+		long endMillis = endEnqueuedTime.toEpochMilli();
+		return record->record.getApproximateArrivalTimestamp().getTime() <= endMillis;
 	}
 	
 	/**
@@ -412,81 +713,248 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	}
 
 	/**
-	 * Fetch records
-	 * @param list					the list that received data will be put into
+	 * Destination of the user records read by {@link #read(String, Predicate, Predicate, int, int, RecordSink)}.
+	 * It converts and hands over the accepted user records, and it keeps the deadline of the reading
+	 * which may be extended each time a receiver is called.
+	 */
+	protected abstract class RecordSink{
+		protected long deadline;	// in milliseconds since epoch
+		
+		/**
+		 * Get the number of milliseconds the reading can take, it is called once before reading starts
+		 * @return	number of milliseconds
+		 */
+		abstract long begin();
+		
+		/**
+		 * Take one user record which is in range and accepted by the filter
+		 * @param record	the user record
+		 * @return	true if the reading should continue, false if it should stop
+		 */
+		abstract boolean accept(UserRecord record);
+		
+		/**
+		 * Hand over the user records that have been taken but not handed over yet.
+		 * It is called after all the user records available at once have been taken, and before the reading stops.
+		 * @return	true if the reading should continue, false if it should stop
+		 */
+		boolean flush(){
+			return true;
+		}
+		
+		boolean isBeforeDeadline(){
+			return System.currentTimeMillis() < deadline;
+		}
+	}
+	
+	/**
+	 * Read user records after the start position and feed them into the sink, 
+	 * from the prefetching buffer if prefetching is enabled, otherwise directly from Kinesis.
+	 * This is the loop shared by all the fetch(...), receive(...) and receiveBatches(...) methods.
 	 * @param startPosition			the start position, exclusive
 	 * @param inRangePredicate		in range checker
-	 * @param maxItems				maximum number of records that can be returned
-	 * @param timeoutMillis			maximum number of milliseconds for this operation
+	 * @param recordFilter			filter deciding which in range records should be fed into the sink, null means all. 
+	 * 								Records skipped by it still advance the last position in the receive status.
+	 * @param maxItems				maximum number of records that can be fed into the sink
+	 * @param batchSize				the "limit" used in GetRecords calls
+	 * @param sink					the sink
 	 * @return						receive status
 	 * @throws InterruptedException			if interrupted
 	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
 	 */
-	protected SimpleReceiveStatus fetch(List<? super M> list, String startPosition, Predicate<Record> inRangePredicate, int maxItems, long timeoutMillis)
-			throws InterruptedException, DataStreamInfrastructureException {
+	protected SimpleReceiveStatus read(String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter, 
+			int maxItems, int batchSize, RecordSink sink) throws InterruptedException, DataStreamInfrastructureException {
+		sink.deadline = System.currentTimeMillis() + sink.begin();
+		if (prefetcher != null){
+			return readPrefetched(startPosition, inRangePredicate, recordFilter, maxItems, sink);
+		}
 		Position startPos = Position.of(startPosition);
 		
 		SimpleReceiveStatus status = new SimpleReceiveStatus();
 
-		String shardIterator = getShardIterator(startPos);
+		String shardIterator = shardIteratorCache.take(startPosition);
+		boolean isCachedShardIterator = shardIterator != null;
+		if (!isCachedShardIterator){
+			shardIterator = getShardIterator(startPos);
+		}
 		int limit = maxItems;
 		
-		GetRecordsRequest getRecordsRequest = new GetRecordsRequest();
-		long timeout = System.currentTimeMillis() + timeoutMillis;
-		while (shardIterator != null && limit > 0 && System.currentTimeMillis() < timeout){
-			getRecordsRequest.setShardIterator(shardIterator);
-			getRecordsRequest.setLimit(limit > fetchBatchSize ? fetchBatchSize : limit);
-			GetRecordsResult getRecordsResult;
-			try{
-				getRecordsResult = client.getRecords(getRecordsRequest);
-			}catch(ProvisionedThroughputExceededException e){
-				logger.debug("ProvisionedThroughputExceeded, will retry after " + RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED + "ms");
-				waitStrategy.await(RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED);	// will retry later
-				continue;
-			}catch(Exception e){
-				throw new DataStreamInfrastructureException("Failed to get records", e);
-			}
-			
-			List<Record> resultRecords = getRecordsResult.getRecords();
-			if (resultRecords != null && resultRecords.size() > 0){
-				boolean isStartPositionClear = startPos.isBeforeTheVeryFirst() 	// should include every user record
-						|| startPos.isLastUserRecord(); 	// no overlap
-				for (Record resultRecord: resultRecords){
-					boolean isInTheStartRecord = resultRecord.getSequenceNumber().equals(startPos.getSequenceNumber()); // not in the same kinesis stream record
-					List<UserRecord> records = UserRecord.deaggregate(Collections.singletonList(resultRecord));
-					for (int i = 0; i < records.size(); i ++){
-						UserRecord record = records.get(i);
-						if (isStartPositionClear || !isInTheStartRecord
-								|| record.getSubSequenceNumber() > startPos.getSubSequenceNumber())	// after the sub sequence number
-						{
-							if (!inRangePredicate.test(record)){
-								status.setOutOfRangeReached(true);
-								return status;
-							}
-							list.add(messageConverter.apply(record));
-							status.setLastPosition(Position.toString(record.getSequenceNumber(), record.getSubSequenceNumber(), 
-									i == records.size() - 1));
-							status.setLastEnqueuedTime(record.getApproximateArrivalTimestamp().toInstant());
-							if (--limit <= 0){
-								return status;
+		String continuationPosition = null;		// the position after which continuationShardIterator continues reading
+		String continuationShardIterator = null;
+		UserRecord lastRecord = null;		// the status is updated from it only once when returning
+		boolean isLastRecordTheLastUserRecord = false;
+		try{
+			GetRecordsRequest getRecordsRequest = new GetRecordsRequest();
+			while (shardIterator != null && limit > 0 && sink.isBeforeDeadline()){
+				getRecordsRequest.setShardIterator(shardIterator);
+				getRecordsRequest.setLimit(limit > batchSize ? batchSize : limit);
+				GetRecordsResult getRecordsResult;
+				try{
+					getRecordsResult = getRecords(getRecordsRequest, sink.deadline);
+				}catch(ProvisionedThroughputExceededException e){
+					logger.debug("ProvisionedThroughputExceeded, will retry after " + retryIntervalAfterThresholdExceeded() + "ms");
+					waitStrategy.await(retryIntervalAfterThresholdExceeded());
+					continue;	// will retry
+				}catch(ExpiredIteratorException e){
+					if (isCachedShardIterator){
+						isCachedShardIterator = false;
+						shardIterator = getShardIterator(startPos);
+						continue;	// will retry with a fresh shard iterator
+					}
+					throw new DataStreamInfrastructureException("Failed to get records from " + streamNameAndShardId() + " starting from " + startPosition, e);
+				}catch(InterruptedException e){
+					throw e;
+				}catch(Exception e){
+					throw new DataStreamInfrastructureException("Failed to get records from " + streamNameAndShardId() + " starting from " + startPosition, e);
+				}
+				if (getRecordsResult == null){
+					break;	// no read capacity left before timeout
+				}
+				isCachedShardIterator = false;
+				
+				List<Record> resultRecords = getRecordsResult.getRecords();
+				if (resultRecords != null && resultRecords.size() > 0){
+					boolean isStartPositionClear = startPos.isBeforeTheVeryFirst() 	// should include every user record
+							|| startPos.isLastUserRecord(); 	// no overlap
+					for (int j = 0; j < resultRecords.size(); j ++){
+						Record resultRecord = resultRecords.get(j);
+						boolean isInTheStartRecord = resultRecord.getSequenceNumber().equals(startPos.getSequenceNumber()); // not in the same kinesis stream record
+						List<UserRecord> records = deaggregateForReading(resultRecord);
+						for (int i = 0; i < records.size(); i ++){
+							UserRecord record = records.get(i);
+							if (isStartPositionClear || !isInTheStartRecord
+									|| record.getSubSequenceNumber() > startPos.getSubSequenceNumber())	// after the sub sequence number
+							{
+								if (!inRangePredicate.test(record)){
+									status.setOutOfRangeReached(true);
+									sink.flush();
+									return status;
+								}
+								boolean accepted = recordFilter == null || recordFilter.test(record);
+								boolean isToContinue = accepted ? sink.accept(record) : sink.isBeforeDeadline();
+								lastRecord = record;
+								isLastRecordTheLastUserRecord = i == records.size() - 1;
+								if (i == records.size() - 1 && j == resultRecords.size() - 1){	// the whole result has been consumed
+									continuationPosition = Position.toString(record.getSequenceNumber(), record.getSubSequenceNumber(), true);
+									continuationShardIterator = getRecordsResult.getNextShardIterator();
+								}
+								if (!isToContinue || accepted && --limit <= 0){
+									sink.flush();
+									return status;
+								}
 							}
 						}
 					}
+					if (!sink.flush()){
+						return status;
+					}
+				}else{
+					continuationPosition = lastRecord == null ? startPosition 
+							: Position.toString(lastRecord.getSequenceNumber(), lastRecord.getSubSequenceNumber(), isLastRecordTheLastUserRecord);
+					continuationShardIterator = getRecordsResult.getNextShardIterator();
+					// wait a while before next poll
+					waitStrategy.await(pollInterval());
 				}
-			}else{
-				// wait a while before next poll
-				waitStrategy.await(pollInterval);
+				shardIterator = getRecordsResult.getNextShardIterator();
+			}
+		}finally{
+			if (lastRecord != null){
+				status.setLastPosition(Position.toString(lastRecord.getSequenceNumber(), lastRecord.getSubSequenceNumber(), isLastRecordTheLastUserRecord));
+				status.setLastEnqueuedTime(lastRecord.getApproximateArrivalTimestamp().toInstant());
 			}
-			shardIterator = getRecordsResult.getNextShardIterator();
+			shardIteratorCache.put(continuationPosition, continuationShardIterator);
 		}
 		
 		return status;
 	}
+	
+	/**
+	 * Read user records from the prefetching buffer and feed them into the sink.
+	 * All the user records available in the buffer at once are fed before the sink is flushed.
+	 * Concurrent reads through the same supplier are serialized, because the buffer can only be consumed from one position at a time.
+	 * @param startPosition			the start position, exclusive
+	 * @param inRangePredicate		in range checker
+	 * @param recordFilter			filter deciding which in range records should be fed into the sink, null means all. 
+	 * 								Records skipped by it still advance the last position in the receive status.
+	 * @param maxItems				maximum number of records that can be fed into the sink
+	 * @param sink					the sink, its deadline must have been set
+	 * @return						receive status
+	 * @throws InterruptedException			if interrupted
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	protected SimpleReceiveStatus readPrefetched(String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter, 
+			int maxItems, RecordSink sink) throws InterruptedException, DataStreamInfrastructureException {
+		SimpleReceiveStatus status = new SimpleReceiveStatus();
+		ShardPrefetcher.Entry lastEntry = null;		// the status is updated from it only once when returning
+		synchronized(prefetcher.readerLock){	// other readers must not seek before this read finishes
+			try{
+				prefetcher.seek(startPosition);
+				int limit = maxItems;
+				while (limit > 0){
+					ShardPrefetcher.Entry entry = prefetcher.peek(sink.deadline - System.currentTimeMillis());
+					while (entry != null){
+						if (!inRangePredicate.test(entry.record)){
+							status.setOutOfRangeReached(true);
+							sink.flush();
+							return status;
+						}
+						prefetcher.remove(entry);
+						boolean accepted = recordFilter == null || recordFilter.test(entry.record);
+						boolean isToContinue = accepted ? sink.accept(entry.record) : sink.isBeforeDeadline();
+						lastEntry = entry;
+						if (!isToContinue || accepted && --limit <= 0){
+							sink.flush();
+							return status;
+						}
+						entry = prefetcher.peekAvailable();
+					}
+					if (!sink.flush() || !sink.isBeforeDeadline()){
+						break;
+					}
+				}
+			}finally{
+				if (lastEntry != null){
+					status.setLastPosition(lastEntry.position);
+					status.setLastEnqueuedTime(lastEntry.record.getApproximateArrivalTimestamp().toInstant());
+				}
+			}
+		}
+		return status;
+	}
+	
+	/**
+	 * Fetch records
+	 * @param list					the list that received data will be put into
+	 * @param startPosition			the start position, exclusive
+	 * @param inRangePredicate		in range checker
+	 * @param recordFilter			filter deciding which in range records should be converted and handed over, null means all. 
+	 * 								Records skipped by it still advance the last position in the receive status.
+	 * @param maxItems				maximum number of records that can be returned
+	 * @param timeoutMillis			maximum number of milliseconds for this operation
+	 * @return						receive status
+	 * @throws InterruptedException			if interrupted
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	protected SimpleReceiveStatus fetch(List<? super M> list, String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter, 
+			int maxItems, long timeoutMillis) throws InterruptedException, DataStreamInfrastructureException {
+		return read(startPosition, inRangePredicate, recordFilter, maxItems, fetchBatchSize, new RecordSink(){
+			@Override
+			long begin(){
+				return timeoutMillis;
+			}
+
+			@Override
+			boolean accept(UserRecord record){
+				list.add(messageConverter.apply(record));
+				return true;
+			}
+		});
+	}
 
 	@Override
 	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
 			throws InterruptedException, DataStreamInfrastructureException {
-		return fetch(list, startPosition, record->isInRange(record.getSequenceNumber(), endPosition), maxItems, timeoutDuration.toMillis());
+		return fetch(list, startPosition, inRangePredicate(endPosition), recordFilter, maxItems, timeoutDuration.toMillis());
 	}
 
 	@Override
@@ -498,7 +966,7 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 	@Override
 	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
 			throws InterruptedException, DataStreamInfrastructureException {
-		return fetch(list, startPosition, record->isInRange(record.getApproximateArrivalTimestamp().toInstant(), endEnqueuedTime), maxItems, timeoutDuration.toMillis());
+		return fetch(list, startPosition, inRangePredicate(endEnqueuedTime), recordFilter, maxItems, timeoutDuration.toMillis());
 	}
 
 	@Override
@@ -516,64 +984,20 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		throw new UnsupportedOperationException("Not implemented yet");
 	}
 
-	protected SimpleReceiveStatus receive(Function<M, Long> receiver, String startPosition, Predicate<Record> inRangePredicate) throws DataStreamInfrastructureException {
-		Position startPos = Position.of(startPosition);
-
-		SimpleReceiveStatus status = new SimpleReceiveStatus();
-
-		String shardIterator = getShardIterator(startPos);
-		
+	/**
+	 * Receive records through the sink, with exceptions translated into DataStreamInfrastructureException
+	 * @param startPosition			the start position, exclusive
+	 * @param inRangePredicate		in range checker
+	 * @param recordFilter			filter deciding which in range records should be converted and handed over, null means all. 
+	 * @param maxItems				maximum number of messages that can be handed over to the receiver
+	 * @param sink					the sink calling the receiver
+	 * @return						receive status
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure or in the receiver
+	 */
+	protected SimpleReceiveStatus receive(String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter, 
+			int maxItems, RecordSink sink) throws DataStreamInfrastructureException {
 		try{
-			GetRecordsRequest getRecordsRequest = new GetRecordsRequest();
-			long timeout = System.currentTimeMillis() + receiver.apply(null);
-			while (shardIterator != null && System.currentTimeMillis() < timeout){
-				getRecordsRequest.setShardIterator(shardIterator);
-				getRecordsRequest.setLimit(receiveBatchSize);
-				GetRecordsResult getRecordsResult;
-				try{
-					getRecordsResult = client.getRecords(getRecordsRequest);
-				}catch(ProvisionedThroughputExceededException e){
-					logger.debug("ProvisionedThroughputExceeded, will retry after " + RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED + "ms");
-					waitStrategy.await(RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED);
-					continue;	// will retry
-				}catch(Exception e){
-					throw new DataStreamInfrastructureException("Failed to get records from " + streamNameAndShardId() + " starting from " + startPosition, e);
-				}
-				
-				List<Record> resultRecords = getRecordsResult.getRecords();
-				if (resultRecords != null && resultRecords.size() > 0){
-					boolean isStartPositionClear = startPos.isBeforeTheVeryFirst() 	// should include every user record
-							|| startPos.isLastUserRecord(); 	// no overlap
-					for (Record resultRecord: resultRecords){
-						boolean isInTheStartRecord = resultRecord.getSequenceNumber().equals(startPos.getSequenceNumber()); // not in the same kinesis stream record
-						List<UserRecord> records = UserRecord.deaggregate(Collections.singletonList(resultRecord));
-						for (int i = 0; i < records.size(); i ++){
-							UserRecord record = records.get(i);
-							if (isStartPositionClear || !isInTheStartRecord
-									|| record.getSubSequenceNumber() > startPos.getSubSequenceNumber())	// after the sub sequence number
-							{
-								if (!inRangePredicate.test(record)){
-									status.setOutOfRangeReached(true);
-									return status;
-								}
-								long remainingTime = receiver.apply(messageConverter.apply(record));
-								status.setLastPosition(Position.toString(record.getSequenceNumber(), record.getSubSequenceNumber(), 
-										i == records.size() - 1));
-								status.setLastEnqueuedTime(record.getApproximateArrivalTimestamp().toInstant());
-								if (remainingTime <= 0){
-									return status;
-								}else{
-									timeout = System.currentTimeMillis() + remainingTime;
-								}
-							}
-						}
-					}
-				}else{
-					// wait a while before next poll
-					waitStrategy.await(pollInterval);
-				}
-				shardIterator = getRecordsResult.getNextShardIterator();
-			}
+			return read(startPosition, inRangePredicate, recordFilter, maxItems, receiveBatchSize, sink);
 		}catch(InterruptedException e){
 			throw new DataStreamInfrastructureException("Interrupted while receiving from " + streamNameAndShardId() + " starting from " + startPosition, e);
 		}catch(DataStreamInfrastructureException e){
@@ -581,13 +1005,145 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 		}catch(Exception e){
 			throw new DataStreamInfrastructureException("Failed to receive from " + streamNameAndShardId() + " starting from " + startPosition, e);
 		}
-		
-		return status;
+	}
+	
+	/**
+	 * Receive records one by one
+	 * @param receiver				the receiver
+	 * @param startPosition			the start position, exclusive
+	 * @param inRangePredicate		in range checker
+	 * @param recordFilter			filter deciding which in range records should be converted and handed over, null means all. 
+	 * 								Records skipped by it still advance the last position in the receive status.
+	 * @return						receive status
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	protected SimpleReceiveStatus receive(Function<M, Long> receiver, String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter) throws DataStreamInfrastructureException {
+		Function<UserRecord, M> converter = receivingMessageConverter == null ? messageConverter : receivingMessageConverter;
+		return receive(startPosition, inRangePredicate, recordFilter, Integer.MAX_VALUE, new RecordSink(){
+			@Override
+			long begin(){
+				return receiver.apply(null);
+			}
+
+			@Override
+			boolean accept(UserRecord record){
+				long remainingTime = receiver.apply(converter.apply(record));
+				deadline = System.currentTimeMillis() + remainingTime;
+				return remainingTime > 0;
+			}
+		});
+	}
+	
+	/**
+	 * Receive records in batches. All the in range user records available at once, 
+	 * which are normally those de-aggregated from one GetRecords result, are handed over in one call.
+	 * @param receiver				the receiver accepting a list of messages each time
+	 * @param startPosition			the start position, exclusive
+	 * @param inRangePredicate		in range checker
+	 * @param recordFilter			filter deciding which in range records should be converted and handed over, null means all. 
+	 * 								Records skipped by it still advance the last position in the receive status.
+	 * @param maxItems				maximum number of messages that can be handed over to the receiver
+	 * @return						receive status
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	protected SimpleReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Predicate<UserRecord> inRangePredicate, Predicate<UserRecord> recordFilter, 
+			int maxItems) throws DataStreamInfrastructureException {
+		return receive(startPosition, inRangePredicate, recordFilter, maxItems, new RecordSink(){
+			List<M> batch = new ArrayList<>();
+			
+			@Override
+			long begin(){
+				return receiver.apply(Collections.emptyList());
+			}
+
+			@Override
+			boolean accept(UserRecord record){
+				batch.add(messageConverter.apply(record));
+				return true;
+			}
+			
+			@Override
+			boolean flush(){
+				if (batch.isEmpty()){
+					return true;
+				}
+				long remainingTime = receiver.apply(batch);
+				batch = new ArrayList<>();
+				deadline = System.currentTimeMillis() + remainingTime;
+				return remainingTime > 0;
+			}
+		});
+	}
+	
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, startPosition, inRangePredicate(endPosition), recordFilter, maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, startPosition, inRangePredicate(endEnqueuedTime), recordFilter, maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems)
+			throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException("Receiving by startEnqueuedTime is not supported by Kinesis");
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException("Receiving by startEnqueuedTime is not supported by Kinesis");
 	}
 	
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
-		return receive(receiver, startPosition, record->isInRange(record.getSequenceNumber(), endPosition));
+		return receive(receiver, startPosition, inRangePredicate(endPosition), recordFilter);
+	}
+
+	/**
+	 * Fetch the records accepted by the filter. Rejected records are not converted but they still advance the last position in the returned status.
+	 * @param list					the list that received data will be put into
+	 * @param startPosition			the start position, exclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter applied to user records before conversion, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @param maxItems				maximum number of records that can be put into the list
+	 * @param timeoutDuration		maximum duration for this operation
+	 * @return						receive status
+	 * @throws InterruptedException			if interrupted
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, Predicate<UserRecord> recordFilter, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, startPosition, inRangePredicate(endPosition), recordFilter, maxItems, timeoutDuration.toMillis());
+	}
+
+	/**
+	 * Receive the records accepted by the filter. Rejected records are not converted but they still advance the last position in the returned status.
+	 * @param receiver				the receiver
+	 * @param startPosition			the start position, exclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter applied to user records before conversion, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @return						receive status
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition, Predicate<UserRecord> recordFilter) throws DataStreamInfrastructureException {
+		return receive(receiver, startPosition, inRangePredicate(endPosition), recordFilter);
+	}
+
+	/**
+	 * Receive the records accepted by the filter in batches. Rejected records are not converted but they still advance the last position in the returned status.
+	 * @param receiver				the receiver accepting a list of messages each time
+	 * @param startPosition			the start position, exclusive
+	 * @param endPosition			the end position, inclusive. Null means no limit.
+	 * @param recordFilter			the filter applied to user records before conversion, it takes the place of the one specified by {@link #withRecordFilter(Predicate)}
+	 * @param maxItems				maximum number of messages that can be handed over to the receiver
+	 * @return						receive status
+	 * @throws DataStreamInfrastructureException	if exception happened in the infrastructure
+	 */
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, Predicate<UserRecord> recordFilter, int maxItems) 
+			throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, startPosition, inRangePredicate(endPosition), recordFilter, maxItems);
 	}
 
 	@Override
@@ -598,7 +1154,7 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 
 	@Override
 	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
-		return receive(receiver, startPosition, record->isInRange(record.getApproximateArrivalTimestamp().toInstant(), endEnqueuedTime));
+		return receive(receiver, startPosition, inRangePredicate(endEnqueuedTime), recordFilter);
 	}
 	
 	@Override
@@ -614,6 +1170,9 @@ public class KinesisStreamDataSupplier<M> implements StreamDataSupplier<M> {
 
 	@Override
 	public void stop() throws Exception {
+		if (prefetcher != null){
+			prefetcher.stop();
+		}
 	}
 
 }
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.kinesis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of shard iterators of a single shard, keyed by the position after which the iterator continues reading.
+ * Shard iterators returned by Kinesis expire 5 minutes after they are issued,
+ * so cached ones are only returned within a shorter time to live.
+ * A cached shard iterator is removed from the cache once it is taken.
+ * This class is thread safe.
+ * @author James Hu
+ *
+ */
+public class ShardIteratorCache {
+	static final long DEFAULT_TIME_TO_LIVE_MILLIS = 4 * 60 * 1000L;	// 4 minutes, shorter than the 5 minutes life time of shard iterators
+	static final int DEFAULT_MAX_ENTRIES = 16;
+
+	private final long timeToLiveMillis;
+	private final Map<String, Entry> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	static class Entry{
+		final String shardIterator;
+		final long expiresAt;
+
+		Entry(String shardIterator, long expiresAt){
+			this.shardIterator = shardIterator;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	public ShardIteratorCache(){
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+	}
+
+	@SuppressWarnings("serial")
+	public ShardIteratorCache(int maxEntries, long timeToLiveMillis){
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.entries = new LinkedHashMap<String, Entry>(maxEntries * 2, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Put a shard iterator into the cache
+	 * @param position		the position after which the shard iterator continues reading
+	 * @param shardIterator	the shard iterator, if it is null then nothing will be put into the cache
+	 */
+	public synchronized void put(String position, String shardIterator){
+		if (shardIterator != null){
+			entries.put(key(position), new Entry(shardIterator, System.currentTimeMillis() + timeToLiveMillis));
+		}
+	}
+
+	/**
+	 * Take the shard iterator continues reading after a position out of the cache
+	 * @param position	the position
+	 * @return	the shard iterator, or null if not found or expired
+	 */
+	public synchronized String take(String position){
+		Entry entry = entries.remove(key(position));
+		if (entry == null || entry.expiresAt <= System.currentTimeMillis()){
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.shardIterator;
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	public long getHits(){
+		return hits.sum();
+	}
+
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	static private String key(String position){
+		return KinesisStreamDataSupplier.Position.isBeforeTheVeryFirst(position) ? "" : position;
+	}
+
+}
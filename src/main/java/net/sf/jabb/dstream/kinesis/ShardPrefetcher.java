@@ -0,0 +1,308 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.kinesis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.dstream.kinesis.KinesisStreamDataSupplier.Position;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.GetRecordsRequest;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Read-ahead buffer of a single shard.
+ * A background thread keeps reading de-aggregated user records from the shard into a bounded buffer,
+ * starting after the position specified by the latest {@link #seek(String)}.
+ * The buffer is bounded by both number of user records and total size of their data.
+ * The size limit is a soft one: the last GetRecords result may make it exceeded.
+ * The background thread is started at the first seek, and stopped by {@link #stop()}.
+ * <p>
+ * The buffer has only one consuming position, therefore a whole read made of a seek followed by peeks and removes
+ * must be done while holding {@link #readerLock}, so that readers sharing the supplier do not seek under each other.
+ * Readers starting from different positions are still served correctly, but each of them discards what was prefetched for the other.
+ * @author James Hu
+ *
+ */
+public class ShardPrefetcher {
+	private static final Logger logger = LoggerFactory.getLogger(ShardPrefetcher.class);
+
+	static private final ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern(ShardPrefetcher.class.getSimpleName() + "-%d")
+			.daemon(true)
+			.build();
+
+	static class Entry{
+		final UserRecord record;
+		final String position;
+		final int size;
+
+		Entry(UserRecord record, String position){
+			this.record = record;
+			this.position = position;
+			this.size = record.getData() == null ? 0 : record.getData().remaining();
+		}
+	}
+
+	protected final KinesisStreamDataSupplier<?> supplier;
+	protected final int maxBufferedRecords;
+	protected final long maxBufferedBytes;
+
+	/**
+	 * Lock to be held by a reader for the whole read. It is not the monitor of this object because peek(...) waits on that monitor.
+	 */
+	final Object readerLock = new Object();
+
+	private final ArrayDeque<Entry> buffer = new ArrayDeque<>();
+	private long bufferedBytes;
+	private String consumedPosition;	// the position after which the buffer starts
+	private String readPosition;		// the position after which the reader continues reading
+	private long generation;			// increased each time the reader has to start from a new position, 0 means not started
+	private Exception failure;			// the last failure of the reader since last successful read
+	private volatile Thread thread;
+
+	/**
+	 * Constructor
+	 * @param supplier				the supplier of the shard
+	 * @param maxBufferedRecords	maximum number of user records that can be buffered
+	 * @param maxBufferedBytes		maximum total size of the data of the buffered user records
+	 */
+	public ShardPrefetcher(KinesisStreamDataSupplier<?> supplier, int maxBufferedRecords, long maxBufferedBytes){
+		Validate.isTrue(maxBufferedRecords > 0, "maxBufferedRecords must be positive: %d", maxBufferedRecords);
+		Validate.isTrue(maxBufferedBytes > 0, "maxBufferedBytes must be positive: %d", maxBufferedBytes);
+		this.supplier = supplier;
+		this.maxBufferedRecords = maxBufferedRecords;
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+
+	/**
+	 * Make sure that the buffer starts right after the specified position.
+	 * If it does not, the buffer will be discarded and the reader will start reading from the position.
+	 * @param startPosition		the start position, exclusive
+	 */
+	synchronized void seek(String startPosition){
+		if (thread == null){
+			thread = threadFactory.newThread(this::run);
+			thread.start();
+		}
+		if (generation == 0 || !isSamePosition(consumedPosition, startPosition)){
+			if (generation > 0){
+				logger.debug("Prefetched records of {} discarded because of seeking from {} to {}", supplier.streamNameAndShardId(), consumedPosition, startPosition);
+			}
+			buffer.clear();
+			bufferedBytes = 0;
+			consumedPosition = startPosition;
+			readPosition = startPosition;
+			failure = null;
+			generation ++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Get the first entry in the buffer without removing it, wait for it to be available if necessary.
+	 * @param timeoutMillis		maximum number of milliseconds to wait
+	 * @return	the first entry, or null if the buffer is still empty after the timeout
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws DataStreamInfrastructureException	if the buffer is empty and the reader failed in its last attempt
+	 */
+	synchronized Entry peek(long timeoutMillis) throws InterruptedException, DataStreamInfrastructureException{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (buffer.isEmpty()){
+			if (failure != null){
+				throw new DataStreamInfrastructureException("Failed to prefetch records from " + supplier.streamNameAndShardId() + " starting from " + readPosition, failure);
+			}
+			long waitMillis = deadline - System.currentTimeMillis();
+			if (waitMillis <= 0){
+				return null;
+			}
+			wait(waitMillis);
+		}
+		return buffer.peekFirst();
+	}
+
+	/**
+	 * Get the first entry in the buffer without removing it and without waiting.
+	 * @return	the first entry, or null if the buffer is empty
+	 */
+	synchronized Entry peekAvailable(){
+		return buffer.peekFirst();
+	}
+
+	/**
+	 * Remove the first entry in the buffer, if it is the expected one.
+	 * @param expected	the entry expected to be the first one, normally returned by {@link #peek(long)}
+	 */
+	synchronized void remove(Entry expected){
+		if (buffer.peekFirst() == expected){
+			buffer.pollFirst();
+			bufferedBytes -= expected.size;
+			consumedPosition = expected.position;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stop the background reader thread. It will be started again by next seek.
+	 */
+	public synchronized void stop(){
+		Thread t = thread;
+		if (t != null){
+			thread = null;
+			generation = 0;
+			buffer.clear();
+			bufferedBytes = 0;
+			notifyAll();
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Get the number of user records currently in the buffer
+	 * @return	the number of buffered user records
+	 */
+	public synchronized int getBufferedRecords(){
+		return buffer.size();
+	}
+
+	/**
+	 * Get the total size of the data of the user records currently in the buffer
+	 * @return	the number of bytes
+	 */
+	public synchronized long getBufferedBytes(){
+		return bufferedBytes;
+	}
+
+	private boolean isFull(){
+		return buffer.size() >= maxBufferedRecords || bufferedBytes >= maxBufferedBytes;
+	}
+
+	static private boolean isSamePosition(String p1, String p2){
+		return Position.isBeforeTheVeryFirst(p1) ? Position.isBeforeTheVeryFirst(p2) : p1.equals(p2);
+	}
+
+	protected void run(){
+		Thread currentThread = Thread.currentThread();
+		GetRecordsRequest getRecordsRequest = new GetRecordsRequest();
+		String shardIterator = null;
+		Position startPos = null;
+		long readingGeneration = 0;
+		boolean isShardEnded = false;
+		while (thread == currentThread){
+			try{
+				int limit;
+				synchronized(this){
+					while (thread == currentThread && (generation == 0 || generation == readingGeneration && (isShardEnded || isFull()))){
+						wait();
+					}
+					if (thread != currentThread){
+						break;
+					}
+					if (generation != readingGeneration){
+						readingGeneration = generation;
+						startPos = Position.of(readPosition);
+						shardIterator = null;
+						isShardEnded = false;
+					}
+					limit = Math.min(supplier.receiveBatchSize, maxBufferedRecords - buffer.size());
+				}
+
+				if (shardIterator == null){
+					shardIterator = supplier.getShardIterator(startPos);
+					if (shardIterator == null){
+						isShardEnded = true;
+						continue;
+					}
+				}
+				getRecordsRequest.setShardIterator(shardIterator);
+				getRecordsRequest.setLimit(limit);
+				GetRecordsResult getRecordsResult = supplier.getRecords(getRecordsRequest, Long.MAX_VALUE);
+
+				List<Record> resultRecords = getRecordsResult.getRecords();
+				List<Entry> entries = Collections.emptyList();
+				if (resultRecords != null && resultRecords.size() > 0){
+					entries = new ArrayList<>(resultRecords.size());
+					boolean isStartPositionClear = startPos.isBeforeTheVeryFirst() 	// should include every user record
+							|| startPos.isLastUserRecord(); 	// no overlap
+					for (Record resultRecord: resultRecords){
+						boolean isInTheStartRecord = resultRecord.getSequenceNumber().equals(startPos.getSequenceNumber()); // not in the same kinesis stream record
+						List<UserRecord> records = supplier.deaggregateForReading(resultRecord);
+						for (int i = 0; i < records.size(); i ++){
+							UserRecord record = records.get(i);
+							if (isStartPositionClear || !isInTheStartRecord
+									|| record.getSubSequenceNumber() > startPos.getSubSequenceNumber())	// after the sub sequence number
+							{
+								entries.add(new Entry(record, Position.toString(record.getSequenceNumber(), record.getSubSequenceNumber(),
+										i == records.size() - 1)));
+							}
+						}
+					}
+				}
+
+				synchronized(this){
+					if (generation != readingGeneration){
+						continue;	// discard, someone has seeked to another position
+					}
+					failure = null;
+					for (Entry entry: entries){
+						buffer.addLast(entry);
+						bufferedBytes += entry.size;
+					}
+					if (entries.size() > 0){
+						readPosition = entries.get(entries.size() - 1).position;
+						notifyAll();
+					}
+				}
+				shardIterator = getRecordsResult.getNextShardIterator();
+				if (shardIterator == null){
+					logger.debug("Shard {} has been closed, prefetching stopped", supplier.streamNameAndShardId());
+					isShardEnded = true;
+				}else if (resultRecords == null || resultRecords.size() == 0){
+					// wait a while before next poll
+					supplier.waitStrategy.await(supplier.pollInterval());
+				}
+			}catch(ProvisionedThroughputExceededException e){
+				logger.debug("ProvisionedThroughputExceeded, prefetching will retry after " + supplier.retryIntervalAfterThresholdExceeded() + "ms");
+				try {
+					supplier.waitStrategy.await(supplier.retryIntervalAfterThresholdExceeded());
+				} catch (InterruptedException e1) {
+					// stop() will let the loop end
+				}
+			}catch(InterruptedException e){
+				// stop() will let the loop end
+			}catch(Exception e){
+				if (thread != currentThread){
+					break;
+				}
+				logger.warn("Failed to prefetch records from {}, will retry after {}ms", supplier.streamNameAndShardId(), KinesisStreamDataSupplier.RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED, e);
+				synchronized(this){
+					if (generation == readingGeneration){
+						failure = e;
+						startPos = Position.of(readPosition);	// get a new shard iterator and continue from where it stopped
+						shardIterator = null;
+						notifyAll();
+					}
+				}
+				try {
+					supplier.waitStrategy.await(KinesisStreamDataSupplier.RETRY_INTERVAL_AFTER_THRESHOLD_EXCEEDED);
+				} catch (InterruptedException e1) {
+					// stop() will let the loop end
+				}
+			}
+		}
+	}
+
+}
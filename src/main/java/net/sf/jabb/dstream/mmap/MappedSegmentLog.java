@@ -0,0 +1,544 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.mmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.jabb.dstream.OffsetCursor;
+
+/**
+ * Append-only log of messages stored in memory-mapped segment files.
+ * The position of a message is its byte offset in the log, so positions are increasing but not consecutive.
+ * Segment files are named after the offsets of their first messages,
+ * and a new segment is started when the message to be appended does not fit into the current one.
+ *
+ * <p>
+ * Every message is stored as a record with a 4 bytes record length, an 8 bytes enqueued time in epoch milliseconds, and the data.
+ * The record length is written after the enqueued time and the data,
+ * so that a partially written record can be detected and discarded when the log is opened again.
+ * Enqueued time of messages never go backwards, if a message is appended with an enqueued time earlier than the previous one,
+ * it will be stored with the enqueued time of the previous one.
+ * </p>
+ *
+ * <p>
+ * A sparse index of (enqueued time, offset) is kept in memory for each segment, with an entry added every <code>indexIntervalBytes</code> bytes.
+ * It is rebuilt by scanning the segment files when the log is opened.
+ * </p>
+ *
+ * <p>
+ * Appending is synchronized and can be done from any thread.
+ * Reading through {@link Cursor}s does not need any locking and can happen concurrently with appending.
+ * </p>
+ *
+ * @author James Hu
+ *
+ */
+public class MappedSegmentLog implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(MappedSegmentLog.class);
+
+	static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	static final int DEFAULT_INDEX_INTERVAL_BYTES = 4096;
+	static final int RECORD_HEADER_SIZE = 4 + 8;
+	static final String SEGMENT_FILE_SUFFIX = ".log";
+
+	protected final Path directory;
+	protected final int segmentSize;
+	protected final int indexIntervalBytes;
+
+	protected final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+	protected volatile Segment activeSegment;
+	protected volatile long lastOffset = -1;
+	protected long lastEnqueuedMillis = Long.MIN_VALUE;
+
+	protected final Object appendSignal = new Object();
+	protected volatile int waitingReaders;
+
+	/**
+	 * Open or create a log in a directory with default segment size (64MB) and default index interval (4KB)
+	 * @param directory		the directory containing segment files, it will be created if it does not exist
+	 * @throws IOException	if failed to create the directory or to read existing segment files
+	 */
+	public MappedSegmentLog(Path directory) throws IOException{
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL_BYTES);
+	}
+
+	/**
+	 * Open or create a log in a directory.
+	 * Existing segment files are mapped with their own sizes.
+	 * @param directory				the directory containing segment files, it will be created if it does not exist
+	 * @param segmentSize			size of new segment files in bytes
+	 * @param indexIntervalBytes	approximate number of bytes between two entries in the sparse index
+	 * @throws IOException	if failed to create the directory or to read existing segment files
+	 */
+	public MappedSegmentLog(Path directory, int segmentSize, int indexIntervalBytes) throws IOException{
+		Validate.notNull(directory, "directory cannot be null");
+		Validate.isTrue(segmentSize > RECORD_HEADER_SIZE, "segment size must be larger than " + RECORD_HEADER_SIZE);
+		Validate.isTrue(indexIntervalBytes > 0, "index interval must be positive");
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.indexIntervalBytes = indexIntervalBytes;
+
+		Files.createDirectories(directory);
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_FILE_SUFFIX)){
+			for (Path file: files){
+				String name = file.getFileName().toString();
+				long baseOffset = Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+				long fileSize = Files.size(file);		// it can be empty if the process died right after creating it
+				segments.put(baseOffset, new Segment(file, baseOffset, fileSize > 0 ? (int)fileSize : segmentSize));
+			}
+		}
+		for (Segment segment: segments.values()){
+			segment.recover();
+		}
+		if (segments.isEmpty()){
+			activeSegment = createSegment(0);
+		}else{
+			activeSegment = segments.lastEntry().getValue();
+			for (Segment segment: segments.descendingMap().values()){
+				if (segment.lastRecordOffset >= 0){
+					lastOffset = segment.lastRecordOffset;
+					lastEnqueuedMillis = segment.enqueuedMillis(segment.lastRecordOffset);
+					break;
+				}
+			}
+		}
+		logger.debug("Opened log in {} with {} segments, last offset: {}", directory, segments.size(), lastOffset);
+	}
+
+	protected Segment createSegment(long baseOffset) throws IOException{
+		Segment segment = new Segment(directory.resolve(String.format("%020d", baseOffset) + SEGMENT_FILE_SUFFIX), baseOffset, segmentSize);
+		segments.put(baseOffset, segment);
+		return segment;
+	}
+
+	/**
+	 * Append a message enqueued now
+	 * @param data	data of the message
+	 * @return	position of the message
+	 * @throws IOException	if failed to create a new segment file
+	 */
+	public long append(byte[] data) throws IOException{
+		return append(ByteBuffer.wrap(data), System.currentTimeMillis());
+	}
+
+	/**
+	 * Append a message with specified enqueued time, for example when replaying a captured stream
+	 * @param data	data of the message
+	 * @param enqueuedTime	enqueued time of the message
+	 * @return	position of the message
+	 * @throws IOException	if failed to create a new segment file
+	 */
+	public long append(byte[] data, Instant enqueuedTime) throws IOException{
+		return append(ByteBuffer.wrap(data), enqueuedTime.toEpochMilli());
+	}
+
+	/**
+	 * Append a message with specified enqueued time. The remaining bytes of data will be appended without changing its position.
+	 * @param data	data of the message
+	 * @param enqueuedEpochMillis	enqueued time of the message in epoch milliseconds
+	 * @return	position of the message
+	 * @throws IOException	if failed to create a new segment file
+	 */
+	public long append(ByteBuffer data, long enqueuedEpochMillis) throws IOException{
+		int recordLength = RECORD_HEADER_SIZE + data.remaining();
+		Validate.isTrue(recordLength <= segmentSize, "message too large for segments of size %d: %d", segmentSize, recordLength);
+		long offset;
+		synchronized(this){
+			Segment segment = activeSegment;
+			if (segment.size + recordLength > segment.capacity){
+				segment = createSegment(segment.baseOffset + segment.size);
+				activeSegment = segment;
+			}
+			if (enqueuedEpochMillis < lastEnqueuedMillis){
+				enqueuedEpochMillis = lastEnqueuedMillis;
+			}
+			offset = segment.write(data, enqueuedEpochMillis, recordLength);
+			lastEnqueuedMillis = enqueuedEpochMillis;
+			lastOffset = offset;
+		}
+		if (waitingReaders > 0){
+			synchronized(appendSignal){
+				appendSignal.notifyAll();
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Wait until the message at an offset or after it has been appended
+	 * @param offset	the offset, normally the next offset of a cursor
+	 * @param timeoutMillis		maximum time to wait
+	 * @return	true if the message at the offset or after it has been appended, false if timed out
+	 * @throws InterruptedException	if interrupted
+	 */
+	public boolean awaitAppended(long offset, long timeoutMillis) throws InterruptedException{
+		if (lastOffset >= offset){
+			return true;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized(appendSignal){
+			waitingReaders ++;
+			try{
+				long waitMillis = timeoutMillis;
+				while (lastOffset < offset && waitMillis > 0){
+					appendSignal.wait(waitMillis);
+					waitMillis = deadline - System.currentTimeMillis();
+				}
+			}finally{
+				waitingReaders --;
+			}
+		}
+		return lastOffset >= offset;
+	}
+
+	/**
+	 * Get the position of the last message
+	 * @return	position of the last message, or -1 if there is no message in the log
+	 */
+	public long lastOffset(){
+		return lastOffset;
+	}
+
+	/**
+	 * Get the enqueued time of the message at a position
+	 * @param position	position of the message
+	 * @return	enqueued time in epoch milliseconds
+	 */
+	public long enqueuedMillis(long position){
+		Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+		Validate.isTrue(entry != null && position < entry.getValue().baseOffset + entry.getValue().size, "no message at position %d", position);
+		return entry.getValue().enqueuedMillis(position);
+	}
+
+	/**
+	 * Create a cursor positioned before the first message after the position
+	 * @param position	the position, exclusive. Negative means before the very first message.
+	 * @return	the cursor
+	 */
+	public Cursor cursorAfter(long position){
+		Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+		if (entry == null){
+			Segment first = segments.firstEntry().getValue();
+			return new Cursor(first, first.baseOffset, position);
+		}
+		Segment segment = entry.getValue();
+		return new Cursor(segment, segment.firstOffsetAfter(position), position);
+	}
+
+	/**
+	 * Create a cursor positioned before the first message enqueued after a time
+	 * @param enqueuedAfter	the time, exclusive
+	 * @return	the cursor
+	 */
+	public Cursor cursorAfter(Instant enqueuedAfter){
+		long enqueuedAfterEpochMillis = enqueuedAfter.toEpochMilli();
+		Segment found = null;
+		for (Segment segment: segments.values()){	// there are not many segments
+			if (segment.lastRecordOffset >= 0 && segment.firstEnqueuedMillis() <= enqueuedAfterEpochMillis){
+				found = segment;
+			}else{
+				break;
+			}
+		}
+		if (found == null){
+			Segment first = segments.firstEntry().getValue();
+			return new Cursor(first, first.baseOffset, first.baseOffset - 1);
+		}
+		long nextOffset = found.firstOffsetEnqueuedAfter(enqueuedAfterEpochMillis);
+		return new Cursor(found, nextOffset, nextOffset - 1);
+	}
+
+	/**
+	 * Force all the changes to be written to the storage
+	 */
+	public void flush(){
+		for (Segment segment: segments.values()){
+			segment.buffer.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (Segment segment: segments.values()){
+			segment.buffer.force();
+			segment.channel.close();
+		}
+	}
+
+	public Path getDirectory(){
+		return directory;
+	}
+
+	public int getNumberOfSegments(){
+		return segments.size();
+	}
+
+	Segment nextSegment(Segment segment){
+		Map.Entry<Long, Segment> entry = segments.higherEntry(segment.baseOffset);
+		return entry == null ? null : entry.getValue();
+	}
+
+	/**
+	 * A segment file mapped into memory.
+	 * Only the writer of the log modifies it, readers can only see records within <code>size</code>.
+	 */
+	class Segment{
+		final long baseOffset;
+		final int capacity;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		volatile int size;
+		volatile long lastRecordOffset = -1;
+
+		long[] indexEnqueuedMillis = new long[16];
+		long[] indexOffsets = new long[16];
+		int indexSize;
+
+		Segment(Path file, long baseOffset, int capacity) throws IOException{
+			this.baseOffset = baseOffset;
+			this.capacity = capacity;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+
+		/**
+		 * Find out the end of valid records and rebuild the index
+		 */
+		void recover(){
+			int pos = 0;
+			while (pos + RECORD_HEADER_SIZE <= capacity){
+				int recordLength = buffer.getInt(pos);
+				if (recordLength < RECORD_HEADER_SIZE || pos + recordLength > capacity){
+					break;
+				}
+				addToIndex(baseOffset + pos, buffer.getLong(pos + 4));
+				lastRecordOffset = baseOffset + pos;
+				pos += recordLength;
+			}
+			size = pos;
+		}
+
+		long write(ByteBuffer data, long enqueuedEpochMillis, int recordLength){
+			int pos = size;
+			ByteBuffer target = buffer.duplicate();
+			target.position(pos + 4);
+			target.putLong(enqueuedEpochMillis);
+			target.put(data.duplicate());
+			buffer.putInt(pos, recordLength);		// written after the data, marking the record as complete
+			long offset = baseOffset + pos;
+			addToIndex(offset, enqueuedEpochMillis);
+			lastRecordOffset = offset;
+			size = pos + recordLength;
+			return offset;
+		}
+
+		synchronized void addToIndex(long offset, long enqueuedEpochMillis){
+			if (indexSize > 0 && offset - indexOffsets[indexSize - 1] < indexIntervalBytes){
+				return;
+			}
+			if (indexSize == indexOffsets.length){
+				indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+				indexEnqueuedMillis = Arrays.copyOf(indexEnqueuedMillis, indexSize * 2);
+			}
+			indexOffsets[indexSize] = offset;
+			indexEnqueuedMillis[indexSize] = enqueuedEpochMillis;
+			indexSize ++;
+		}
+
+		long enqueuedMillis(long offset){
+			return buffer.getLong((int)(offset - baseOffset) + 4);
+		}
+
+		synchronized long firstEnqueuedMillis(){
+			return indexEnqueuedMillis[0];
+		}
+
+		/**
+		 * Find the offset of the first record after a position, by scanning from the nearest index entry
+		 * @param position	the position, exclusive
+		 * @return	offset of the first record after the position, it may be the end of this segment
+		 */
+		long firstOffsetAfter(long position){
+			long offset;
+			synchronized(this){
+				if (indexSize == 0){
+					return baseOffset;
+				}
+				int i = Arrays.binarySearch(indexOffsets, 0, indexSize, position);
+				offset = indexOffsets[i >= 0 ? i : Math.max(0, -i - 2)];
+			}
+			long end = baseOffset + size;
+			while (offset <= position && offset < end){
+				offset += buffer.getInt((int)(offset - baseOffset));
+			}
+			return offset;
+		}
+
+		/**
+		 * Find the offset of the first record enqueued after a time, by scanning from the nearest index entry
+		 * @param enqueuedAfterEpochMillis	the time in epoch milliseconds, exclusive
+		 * @return	offset of the first record enqueued after the time, it may be the end of this segment
+		 */
+		long firstOffsetEnqueuedAfter(long enqueuedAfterEpochMillis){
+			long offset;
+			synchronized(this){
+				int low = 0;
+				int high = indexSize - 1;
+				while (low < high){		// find the last entry enqueued not after the time
+					int mid = (low + high + 1) >>> 1;
+					if (indexEnqueuedMillis[mid] <= enqueuedAfterEpochMillis){
+						low = mid;
+					}else{
+						high = mid - 1;
+					}
+				}
+				offset = indexOffsets[low];
+			}
+			long end = baseOffset + size;
+			while (offset < end){
+				int pos = (int)(offset - baseOffset);
+				if (buffer.getLong(pos + 4) > enqueuedAfterEpochMillis){
+					break;
+				}
+				offset += buffer.getInt(pos);
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * Cursor for reading messages sequentially.
+	 * A cursor is not thread safe and should be used by only one thread, but there can be many cursors reading the same log concurrently.
+	 */
+	public class Cursor implements OffsetCursor{
+		protected Segment segment;
+		protected ByteBuffer view;
+		protected long nextOffset;
+
+		protected long offset;
+		protected long previousOffset;
+		protected long enqueuedMillis;
+		protected int dataPosition;
+		protected int dataLength;
+
+		Cursor(Segment segment, long nextOffset, long startPosition){
+			this.segment = segment;
+			this.view = segment.buffer.asReadOnlyBuffer();
+			this.nextOffset = nextOffset;
+			this.offset = startPosition;
+			this.previousOffset = startPosition;
+		}
+
+		/**
+		 * Move to the next message if it is available
+		 * @return	true if moved to the next message, false if there is no more message available for now
+		 */
+		public boolean next(){
+			while (nextOffset >= segment.baseOffset + segment.size){
+				if (segment == activeSegment){
+					return false;
+				}
+				if (nextOffset < segment.baseOffset + segment.size){	// it may have grown before another segment became active
+					break;
+				}
+				Segment next = nextSegment(segment);
+				if (next == null){
+					return false;
+				}
+				segment = next;
+				view = next.buffer.asReadOnlyBuffer();
+				if (nextOffset < next.baseOffset){
+					nextOffset = next.baseOffset;
+				}
+			}
+			int pos = (int)(nextOffset - segment.baseOffset);
+			int recordLength = view.getInt(pos);
+			previousOffset = offset;
+			offset = nextOffset;
+			enqueuedMillis = view.getLong(pos + 4);
+			dataPosition = pos + RECORD_HEADER_SIZE;
+			dataLength = recordLength - RECORD_HEADER_SIZE;
+			nextOffset += recordLength;
+			return true;
+		}
+
+		/**
+		 * Move back to the previous message, so that the current message will be read again by {@link #next()}.
+		 * Only one step back is supported.
+		 */
+		public void unread(){
+			nextOffset = offset;
+			offset = previousOffset;
+		}
+
+		/**
+		 * @return	position of the current message, or the start position (exclusive) if no message has been read
+		 */
+		public long offset(){
+			return offset;
+		}
+
+		/**
+		 * @return	enqueued time of the current message in epoch milliseconds
+		 */
+		public long enqueuedMillis(){
+			return enqueuedMillis;
+		}
+
+		/**
+		 * @return	length of the data of the current message
+		 */
+		public int dataLength(){
+			return dataLength;
+		}
+
+		/**
+		 * Get a read only view of the data of the current message, without copying.
+		 * @return	the read only view, it stays valid after the cursor moves
+		 */
+		public ByteBuffer data(){
+			ByteBuffer data = view.duplicate();
+			data.limit(dataPosition + dataLength).position(dataPosition);
+			return data.slice();
+		}
+
+		/**
+		 * Get a copy of the data of the current message
+		 * @return	the data copied into a new byte array
+		 */
+		public byte[] dataCopy(){
+			byte[] data = new byte[dataLength];
+			ByteBuffer src = view.duplicate();
+			src.position(dataPosition);
+			src.get(data);
+			return data;
+		}
+
+		/**
+		 * @return	position of the next message to be read, it may not be available yet
+		 */
+		public long nextOffset(){
+			return nextOffset;
+		}
+	}
+
+}
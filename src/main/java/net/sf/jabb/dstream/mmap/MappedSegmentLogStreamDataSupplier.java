@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.mmap;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+
+import net.sf.jabb.dstream.OffsetCursorStreamDataSupplier;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * StreamDataSupplier backed by a local {@link MappedSegmentLog}, for replaying captured streams or as a local buffer.
+ * It defines position range as (startPosition, endPosition], and positions are byte offsets in the log.
+ * Enqueued time based methods seek through the sparse index of the log rather than scanning from the beginning.
+ *
+ * <p>
+ * Use {@link #byteArrays(MappedSegmentLog)} for messages copied into byte arrays,
+ * or {@link #byteBuffers(MappedSegmentLog)} for read only views of the memory-mapped data without copying.
+ * </p>
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class MappedSegmentLogStreamDataSupplier<M> extends OffsetCursorStreamDataSupplier<M, MappedSegmentLog.Cursor> {
+	protected MappedSegmentLog log;
+	protected Function<MappedSegmentLog.Cursor, M> messageConverter;
+
+	/**
+	 * The cursor left by the previous fetch/receive operation, positioned after the last message delivered
+	 */
+	protected AtomicReference<MappedSegmentLog.Cursor> idleCursor = new AtomicReference<>();
+
+	/**
+	 * Constructor
+	 * @param log				the log
+	 * @param messageConverter	converter for converting the current message of a cursor
+	 */
+	public MappedSegmentLogStreamDataSupplier(MappedSegmentLog log, Function<MappedSegmentLog.Cursor, M> messageConverter){
+		Validate.notNull(log, "log cannot be null");
+		Validate.notNull(messageConverter, "message converter cannot be null");
+		this.log = log;
+		this.messageConverter = messageConverter;
+	}
+
+	/**
+	 * Create a supplier providing messages as byte arrays
+	 * @param log	the log
+	 * @return	the supplier
+	 */
+	static public MappedSegmentLogStreamDataSupplier<byte[]> byteArrays(MappedSegmentLog log){
+		return new MappedSegmentLogStreamDataSupplier<>(log, MappedSegmentLog.Cursor::dataCopy);
+	}
+
+	/**
+	 * Create a supplier providing messages as read only views of the memory-mapped data, without copying
+	 * @param log	the log
+	 * @return	the supplier
+	 */
+	static public MappedSegmentLogStreamDataSupplier<ByteBuffer> byteBuffers(MappedSegmentLog log){
+		return new MappedSegmentLogStreamDataSupplier<>(log, MappedSegmentLog.Cursor::data);
+	}
+
+	/**
+	 *  {@inheritDoc}
+	 *  This method always returns -1.
+	 */
+	@Override
+	public String firstPosition() {
+		return String.valueOf(-1);
+	}
+
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		long lastOffset = log.lastOffset();
+		return lastOffset < 0 ? null : String.valueOf(lastOffset);
+	}
+
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		return Instant.ofEpochMilli(log.enqueuedMillis(Long.parseLong(position)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The cursor left by the previous operation is reused if it had stopped exactly at the start position.
+	 */
+	@Override
+	protected MappedSegmentLog.Cursor cursorAfter(String startPosition){
+		long position = Long.parseLong(startPosition);
+		MappedSegmentLog.Cursor cursor = idleCursor.getAndSet(null);
+		if (cursor != null && cursor.offset() == position){
+			return cursor;
+		}
+		return log.cursorAfter(position);
+	}
+
+	@Override
+	protected MappedSegmentLog.Cursor cursorAfter(Instant enqueuedAfter){
+		return log.cursorAfter(enqueuedAfter);
+	}
+
+	@Override
+	protected M message(MappedSegmentLog.Cursor cursor){
+		return messageConverter.apply(cursor);
+	}
+
+	@Override
+	protected boolean awaitNext(MappedSegmentLog.Cursor cursor, long timeoutMillis) throws InterruptedException{
+		return log.awaitAppended(cursor.nextOffset(), timeoutMillis);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The cursor is kept for the next operation which is likely to start from where this one stopped.
+	 */
+	@Override
+	protected void release(MappedSegmentLog.Cursor cursor){
+		idleCursor.set(cursor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The log is not closed by this method because it may be shared by other suppliers and writers.
+	 */
+	@Override
+	public void stop() throws Exception {
+		idleCursor.set(null);
+	}
+
+	public MappedSegmentLog getLog(){
+		return log;
+	}
+
+}
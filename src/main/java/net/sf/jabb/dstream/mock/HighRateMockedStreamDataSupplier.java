@@ -0,0 +1,429 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.sf.jabb.dstream.OffsetRangeChecker;
+import net.sf.jabb.dstream.RangeChecker;
+import net.sf.jabb.dstream.ReceiveStatus;
+import net.sf.jabb.dstream.SimpleReceiveStatus;
+import net.sf.jabb.dstream.StreamDataSupplier;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * Mocked StreamDataSupplier for benchmarks, capable of providing millions of events per second.
+ * The position of an event is its sequence number, starting from 0.
+ * Event n is enqueued at <code>streamStartTime + (n + 1) / eventsPerSecond</code> seconds, calculated in nanoseconds,
+ * and it becomes available when that time has come. A stream start time in the past provides a backlog of events immediately available.
+ *
+ * <p>
+ * Events are produced by an event generator from their sequence numbers. Nothing is formatted or converted per event,
+ * so with pre-generated payloads like those provided by {@link #byteArrays(int, Instant, Instant, int, int)}
+ * and {@link #jsonStrings(int, Instant, Instant, int, int)}, fetching and receiving do not allocate anything per event.
+ * </p>
+ *
+ * @author James Hu
+ * @param <M> type of the event object
+ *
+ */
+public class HighRateMockedStreamDataSupplier<M> implements StreamDataSupplier<M> {
+	private static final Logger logger = LoggerFactory.getLogger(HighRateMockedStreamDataSupplier.class);
+
+	static final long NANOS_PER_SECOND = 1_000_000_000L;
+	static final long NANOS_PER_MILLI = 1_000_000L;
+	static final int RECEIVE_BATCH_SIZE = 1024;
+	static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	protected int eventsPerSecond;
+	protected long streamStartNanos;	// exclusive
+	protected long lastSequence;	// inclusive, Long.MAX_VALUE if the stream never ends
+	protected LongFunction<M> eventGenerator;
+
+	/**
+	 * Constructor
+	 * @param eventsPerSecond		number of events per second
+	 * @param streamStartTime		the time that the stream starts to have new events, exclusive
+	 * @param streamEndTime			the time that the stream stops to have new events, inclusive, can be null
+	 * @param eventGenerator		generator of the event for a sequence number
+	 */
+	public HighRateMockedStreamDataSupplier(int eventsPerSecond, Instant streamStartTime, Instant streamEndTime, LongFunction<M> eventGenerator){
+		Validate.isTrue(eventsPerSecond >= 1, "number of events per second must be positive");
+		Validate.notNull(streamStartTime, "stream start time cannot be null");
+		Validate.notNull(eventGenerator, "event generator cannot be null");
+		this.eventsPerSecond = eventsPerSecond;
+		this.streamStartNanos = streamStartTime.getEpochSecond() * NANOS_PER_SECOND + streamStartTime.getNano();
+		this.lastSequence = streamEndTime == null ? Long.MAX_VALUE : lastSequenceEnqueuedBy(streamEndTime.toEpochMilli());
+		this.eventGenerator = eventGenerator;
+	}
+
+	/**
+	 * Create a supplier providing byte arrays with random content as events.
+	 * The payloads are generated in advance, and event n gets payload n % distinctPayloads.
+	 * @param eventsPerSecond		number of events per second
+	 * @param streamStartTime		the time that the stream starts to have new events, exclusive
+	 * @param streamEndTime			the time that the stream stops to have new events, inclusive, can be null
+	 * @param payloadSize			size of each payload in bytes
+	 * @param distinctPayloads		number of different payloads
+	 * @return	the supplier
+	 */
+	static public HighRateMockedStreamDataSupplier<byte[]> byteArrays(int eventsPerSecond, Instant streamStartTime, Instant streamEndTime,
+			int payloadSize, int distinctPayloads){
+		Validate.isTrue(payloadSize >= 0, "payload size cannot be negative");
+		Validate.isTrue(distinctPayloads > 0, "number of distinct payloads must be positive");
+		Random random = new Random(payloadSize * 31L + distinctPayloads);
+		byte[][] payloads = new byte[distinctPayloads][];
+		for (int i = 0; i < distinctPayloads; i ++){
+			payloads[i] = new byte[payloadSize];
+			random.nextBytes(payloads[i]);
+		}
+		return new HighRateMockedStreamDataSupplier<>(eventsPerSecond, streamStartTime, streamEndTime, n -> payloads[(int)(n % distinctPayloads)]);
+	}
+
+	/**
+	 * Create a supplier providing JSON strings as events, each of them has a sequence field and a padding field making it roughly of the specified size.
+	 * The payloads are generated in advance, and event n gets payload n % distinctPayloads,
+	 * therefore the sequence field does not necessarily equal the position of the event.
+	 * @param eventsPerSecond		number of events per second
+	 * @param streamStartTime		the time that the stream starts to have new events, exclusive
+	 * @param streamEndTime			the time that the stream stops to have new events, inclusive, can be null
+	 * @param payloadSize			approximate length of each payload
+	 * @param distinctPayloads		number of different payloads
+	 * @return	the supplier
+	 */
+	static public HighRateMockedStreamDataSupplier<String> jsonStrings(int eventsPerSecond, Instant streamStartTime, Instant streamEndTime,
+			int payloadSize, int distinctPayloads){
+		Validate.isTrue(payloadSize >= 0, "payload size cannot be negative");
+		Validate.isTrue(distinctPayloads > 0, "number of distinct payloads must be positive");
+		String[] payloads = new String[distinctPayloads];
+		for (int i = 0; i < distinctPayloads; i ++){
+			String prefix = "{\"sequence\": " + i + ", \"padding\": \"";
+			StringBuilder sb = new StringBuilder(Math.max(payloadSize, prefix.length() + 2));
+			sb.append(prefix);
+			for (int j = prefix.length() + 2; j < payloadSize; j ++){
+				sb.append((char)('a' + j % 26));
+			}
+			sb.append("\"}");
+			payloads[i] = sb.toString();
+		}
+		return new HighRateMockedStreamDataSupplier<>(eventsPerSecond, streamStartTime, streamEndTime, n -> payloads[(int)(n % distinctPayloads)]);
+	}
+
+	/**
+	 * Create a supplier providing UTF-8 encoded JSON as events, see {@link #jsonStrings(int, Instant, Instant, int, int)}
+	 * @param eventsPerSecond		number of events per second
+	 * @param streamStartTime		the time that the stream starts to have new events, exclusive
+	 * @param streamEndTime			the time that the stream stops to have new events, inclusive, can be null
+	 * @param payloadSize			approximate size of each payload in bytes
+	 * @param distinctPayloads		number of different payloads
+	 * @return	the supplier
+	 */
+	static public HighRateMockedStreamDataSupplier<byte[]> jsonByteArrays(int eventsPerSecond, Instant streamStartTime, Instant streamEndTime,
+			int payloadSize, int distinctPayloads){
+		HighRateMockedStreamDataSupplier<String> strings = jsonStrings(eventsPerSecond, streamStartTime, streamEndTime, payloadSize, distinctPayloads);
+		byte[][] payloads = new byte[distinctPayloads][];
+		for (int i = 0; i < distinctPayloads; i ++){
+			payloads[i] = strings.eventGenerator.apply(i).getBytes(StandardCharsets.UTF_8);
+		}
+		return new HighRateMockedStreamDataSupplier<>(eventsPerSecond, streamStartTime, streamEndTime, n -> payloads[(int)(n % distinctPayloads)]);
+	}
+
+	/**
+	 * Get the time that an event is enqueued
+	 * @param sequence	sequence number of the event
+	 * @return	epoch nanoseconds
+	 */
+	protected long enqueuedNanos(long sequence){
+		long n = sequence + 1;
+		return streamStartNanos + n / eventsPerSecond * NANOS_PER_SECOND + n % eventsPerSecond * NANOS_PER_SECOND / eventsPerSecond;
+	}
+
+	protected long enqueuedMillis(long sequence){
+		return Math.floorDiv(enqueuedNanos(sequence), NANOS_PER_MILLI);
+	}
+
+	/**
+	 * Get the sequence number of the last event enqueued at or before the specified time
+	 * @param epochNanos	the time in epoch nanoseconds
+	 * @return	the sequence number, or -1 if there is no such event
+	 */
+	protected long lastSequenceEnqueuedByNanos(long epochNanos){
+		long d = epochNanos - streamStartNanos;
+		if (d < 0){
+			return -1;
+		}
+		return d / NANOS_PER_SECOND * eventsPerSecond + d % NANOS_PER_SECOND * eventsPerSecond / NANOS_PER_SECOND - 1;
+	}
+
+	/**
+	 * Get the sequence number of the last event with enqueued time (in milliseconds) at or before the specified time
+	 * @param epochMillis	the time in epoch milliseconds
+	 * @return	the sequence number, or -1 if there is no such event
+	 */
+	protected long lastSequenceEnqueuedBy(long epochMillis){
+		return lastSequenceEnqueuedByNanos((epochMillis + 1) * NANOS_PER_MILLI - 1);
+	}
+
+	/**
+	 * Get the sequence number of the last event available now
+	 * @return	the sequence number, or -1 if there is no event available
+	 */
+	protected long lastAvailableSequence(){
+		return Math.min(lastSequence, lastSequenceEnqueuedByNanos(System.currentTimeMillis() * NANOS_PER_MILLI));
+	}
+
+	/**
+	 * Wait until an event becomes available or the deadline has come
+	 * @param sequence	sequence number of the event
+	 * @param deadlineNanos	the deadline, in System.nanoTime()
+	 * @return	true if the event is available
+	 * @throws InterruptedException	if interrupted
+	 */
+	protected boolean awaitAvailable(long sequence, long deadlineNanos) throws InterruptedException{
+		while (lastAvailableSequence() < sequence){
+			long waitNanos = Math.min(deadlineNanos - System.nanoTime(), MAX_WAIT_NANOS);
+			if (sequence > lastSequence || waitNanos <= 0){
+				return false;
+			}
+			waitNanos = Math.min(waitNanos, enqueuedNanos(sequence) - System.currentTimeMillis() * NANOS_PER_MILLI);
+			LockSupport.parkNanos(Math.max(waitNanos, 1000));
+			if (Thread.interrupted()){
+				throw new InterruptedException();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String firstPosition() {
+		return String.valueOf(-1);
+	}
+
+	@Override
+	public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) throws InterruptedException, DataStreamInfrastructureException {
+		long sequence = lastSequenceEnqueuedBy(enqueuedAfter.toEpochMilli()) + 1;
+		if (sequence > lastSequence){
+			Thread.sleep(waitForArrival.toMillis());
+			return null;
+		}
+		return String.valueOf(sequence - 1);
+	}
+
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		long sequence = lastAvailableSequence();
+		return sequence < 0 ? null : String.valueOf(sequence);
+	}
+
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		long nanos = enqueuedNanos(Long.parseLong(position));
+		return Instant.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND), Math.floorMod(nanos, NANOS_PER_SECOND));
+	}
+
+	@Override
+	public String nextStartPosition(String previousEndPosition) {
+		return previousEndPosition;
+	}
+
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return OffsetRangeChecker.of(endPosition);
+	}
+
+	protected long endSequence(String endPosition){
+		return endPosition == null ? lastSequence : Math.min(lastSequence, Long.parseLong(endPosition));
+	}
+
+	protected long endSequence(Instant endEnqueuedTime){
+		return endEnqueuedTime == null ? lastSequence : Math.min(lastSequence, lastSequenceEnqueuedBy(endEnqueuedTime.toEpochMilli()));
+	}
+
+	protected long startSequence(Instant startEnqueuedTime){
+		return lastSequenceEnqueuedBy(startEnqueuedTime.toEpochMilli());
+	}
+
+	protected ReceiveStatus receiveStatus(long lastSequence, boolean outOfRangeReached){
+		if (lastSequence >= 0){
+			return new SimpleReceiveStatus(String.valueOf(lastSequence), Instant.ofEpochMilli(enqueuedMillis(lastSequence)), outOfRangeReached);
+		}else{
+			return new SimpleReceiveStatus(null, null, outOfRangeReached);
+		}
+	}
+
+	/**
+	 * Fetch events
+	 * @param list		the list that events will be added into
+	 * @param startSequence		the start sequence number, exclusive
+	 * @param endSequence		the end sequence number, inclusive
+	 * @param maxItems			maximum number of events to be fetched
+	 * @param timeoutDuration	maximum time to wait for events to become available
+	 * @return	the status
+	 * @throws InterruptedException	if interrupted
+	 */
+	protected ReceiveStatus fetch(List<? super M> list, long startSequence, long endSequence, int maxItems, Duration timeoutDuration) throws InterruptedException{
+		long sequence = startSequence + 1;
+		long last = Math.min(endSequence, sequence + maxItems - 1);
+		if (sequence <= last && lastAvailableSequence() < sequence){
+			awaitAvailable(sequence, System.nanoTime() + timeoutDuration.toNanos());
+		}
+		last = Math.min(last, lastAvailableSequence());
+		for (; sequence <= last; sequence ++){
+			list.add(eventGenerator.apply(sequence));
+		}
+		return receiveStatus(last >= startSequence + 1 ? last : -1, sequence > endSequence);
+	}
+
+	protected ReceiveStatus receive(Function<M, Long> receiver, long startSequence, long endSequence) throws DataStreamInfrastructureException{
+		long sequence = startSequence + 1;
+		try{
+			long receiveTimeoutMillis = receiver.apply(null);
+			while (receiveTimeoutMillis > 0 && sequence <= endSequence){
+				long available = Math.min(endSequence, lastAvailableSequence());
+				if (sequence > available){
+					awaitAvailable(sequence, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(receiveTimeoutMillis));
+					receiveTimeoutMillis = receiver.apply(null);
+					continue;
+				}
+				while (sequence <= available && (receiveTimeoutMillis = receiver.apply(eventGenerator.apply(sequence))) > 0){
+					sequence ++;
+				}
+				if (receiveTimeoutMillis <= 0){
+					sequence ++;	// the last one has been received
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		return receiveStatus(sequence - 1 > startSequence ? sequence - 1 : -1, sequence > endSequence);
+	}
+
+	protected ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, long startSequence, long endSequence, int maxItems) throws DataStreamInfrastructureException{
+		long sequence = startSequence + 1;
+		long last = Math.min(endSequence, sequence + maxItems - 1);
+		try{
+			long receiveTimeoutMillis = receiver.apply(Collections.emptyList());
+			while (receiveTimeoutMillis > 0 && sequence <= last){
+				long available = Math.min(last, lastAvailableSequence());
+				if (sequence > available){
+					awaitAvailable(sequence, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(receiveTimeoutMillis));
+					receiveTimeoutMillis = receiver.apply(Collections.emptyList());
+					continue;
+				}
+				int size = (int) Math.min(available - sequence + 1, RECEIVE_BATCH_SIZE);
+				List<M> batch = new ArrayList<>(size);
+				for (int i = 0; i < size; i ++){
+					batch.add(eventGenerator.apply(sequence ++));
+				}
+				receiveTimeoutMillis = receiver.apply(batch);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new DataStreamInfrastructureException(e);
+		}
+		return receiveStatus(sequence - 1 > startSequence ? sequence - 1 : -1, sequence > endSequence);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		ReceiveStatus status = fetch(list, Long.parseLong(startPosition), endSequence(endPosition), maxItems, timeoutDuration);
+		if (logger.isDebugEnabled()){
+			logger.debug("Fetched for ({}-{}],{},{}: ? - {}", startPosition, endPosition, maxItems, timeoutDuration, status.getLastPosition());
+		}
+		return status;
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, startSequence(startEnqueuedTime), endSequence(endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		return fetch(list, Long.parseLong(startPosition), endSequence(endEnqueuedTime), maxItems, timeoutDuration);
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, Long.parseLong(startPosition), endSequence(endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, startSequence(startEnqueuedTime), endSequence(endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		return receive(receiver, Long.parseLong(startPosition), endSequence(endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException {
+		return receive(receiver, startSequence(startEnqueuedTime), endSequence(endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, Long.parseLong(startPosition), endSequence(endPosition), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, startSequence(startEnqueuedTime), endSequence(endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, Long.parseLong(startPosition), endSequence(endEnqueuedTime), maxItems);
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		return receiveBatches(receiver, startSequence(startEnqueuedTime), endSequence(endPosition), maxItems);
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, String startPosition) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, Instant startEnqueuedTime) throws DataStreamInfrastructureException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void stopAsyncReceiving(String id) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void start() throws Exception {
+	}
+
+	@Override
+	public void stop() throws Exception {
+	}
+
+}
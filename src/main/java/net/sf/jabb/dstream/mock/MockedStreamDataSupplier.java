@@ -16,6 +16,8 @@ import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.sf.jabb.dstream.OffsetRangeChecker;
+import net.sf.jabb.dstream.RangeChecker;
 import net.sf.jabb.dstream.ReceiveStatus;
 import net.sf.jabb.dstream.SimpleReceiveStatus;
 import net.sf.jabb.dstream.StreamDataSupplier;
@@ -151,6 +153,11 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 		}
 	}
 
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return OffsetRangeChecker.of(endPosition);
+	}
+
 	@Override
 	public boolean isInRange(Instant enqueuedTime, Instant endEnqueuedTime) {
 		Validate.isTrue(enqueuedTime != null, "enqueuedTime cannot be null");
@@ -165,7 +172,7 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 	public ReceiveStatus fetch(List<? super String> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
 			throws InterruptedException, DataStreamInfrastructureException {
 		Instant timeout = Instant.now().plus(timeoutDuration);
-		Long endPositionLong = endPosition == null ? null : Long.parseLong(endPosition);
+		OffsetRangeChecker rangeChecker = OffsetRangeChecker.of(endPosition);
 		long position = Long.parseLong(startPosition);
 		if (position < firstEventTime.toEpochMilli()){
 			position = firstEventTime.toEpochMilli();
@@ -174,7 +181,7 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 		}
 		int i = 0;
 		Long lastPosition = null;
-		while((endPositionLong == null || position <= endPositionLong) && i ++ <= maxItems && Instant.now().isBefore(timeout)){
+		while(rangeChecker.isInRange(position) && i ++ <= maxItems && Instant.now().isBefore(timeout)){
 			if (position < System.currentTimeMillis()){
 				lastPosition = position;
 				list.add(eventAt(Instant.ofEpochMilli(position)));
@@ -186,9 +193,9 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 			logger.debug("Fetched for ({}-{}],{},{}: ? - {}", startPosition, endPosition, maxItems, timeoutDuration, lastPosition);
 		}
 		if (lastPosition != null){
-			return new SimpleReceiveStatus(String.valueOf(lastPosition), Instant.ofEpochMilli(lastPosition), endPositionLong != null && position > endPositionLong);
+			return new SimpleReceiveStatus(String.valueOf(lastPosition), Instant.ofEpochMilli(lastPosition), !rangeChecker.isInRange(position));
 		}else{
-			return new SimpleReceiveStatus(null, null, endPositionLong != null && position > endPositionLong);
+			return new SimpleReceiveStatus(null, null, !rangeChecker.isInRange(position));
 		}
 	}
 
@@ -225,11 +232,11 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 
 	@Override
 	public ReceiveStatus receive(Function<String, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
-		Long endPositionLong = endPosition == null ? null : Long.parseLong(endPosition);
+		OffsetRangeChecker rangeChecker = OffsetRangeChecker.of(endPosition);
 		long position = Long.parseLong(startPosition);
 		position = (position / intervalMillis + 1) * intervalMillis;
 		Long lastPosition = null;
-		while(endPositionLong == null || position <= endPositionLong){
+		while(rangeChecker.isInRange(position)){
 			if (receiver.apply(null) <= 0){
 				break;
 			}
@@ -247,9 +254,9 @@ public class MockedStreamDataSupplier implements StreamDataSupplier<String> {
 			logger.debug("Received for ({}-{}]: ? - {}", startPosition, endPosition, lastPosition);
 		}
 		if (lastPosition != null){
-			return new SimpleReceiveStatus(String.valueOf(lastPosition), Instant.ofEpochMilli(lastPosition), endPositionLong != null && position > endPositionLong);
+			return new SimpleReceiveStatus(String.valueOf(lastPosition), Instant.ofEpochMilli(lastPosition), !rangeChecker.isInRange(position));
 		}else{
-			return new SimpleReceiveStatus(null, null, endPositionLong != null && position > endPositionLong);
+			return new SimpleReceiveStatus(null, null, !rangeChecker.isInRange(position));
 		}
 	}
 
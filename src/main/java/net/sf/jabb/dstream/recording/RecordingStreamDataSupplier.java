@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.recording;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+
+import net.sf.jabb.dstream.RangeChecker;
+import net.sf.jabb.dstream.ReceiveStatus;
+import net.sf.jabb.dstream.StreamDataSupplier;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * StreamDataSupplier decorator that records every message delivered by the wrapped supplier through a {@link StreamRecorder}.
+ * Messages delivered by each fetch/receive operation are recorded together as one unit after the operation finished,
+ * along with the position and enqueued time of the last one.
+ * The enqueued time of the other messages is recorded only if the recorder has been given a function for getting it from messages,
+ * otherwise they are replayed with the enqueued time of the last one.
+ * Messages delivered by asynchronous receiving are recorded one by one without positions.
+ * Recording never blocks, so the latency added to the wrapped supplier is only that of putting messages into the bounded buffer.
+ * Because messages are recorded after the operation, they must stay valid after having been delivered.
+ * Recorded files can be replayed by {@link StreamRecordingReader#replayInto(java.nio.file.Path, net.sf.jabb.dstream.mmap.MappedSegmentLog)}.
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class RecordingStreamDataSupplier<M> implements StreamDataSupplier<M> {
+	protected StreamDataSupplier<M> supplier;
+	protected StreamRecorder<M> recorder;
+
+	/**
+	 * Constructor
+	 * @param supplier	the supplier to be wrapped
+	 * @param recorder	the recorder, it is not closed when this supplier stops because it may be shared
+	 */
+	public RecordingStreamDataSupplier(StreamDataSupplier<M> supplier, StreamRecorder<M> recorder){
+		Validate.notNull(supplier, "supplier cannot be null");
+		Validate.notNull(recorder, "recorder cannot be null");
+		this.supplier = supplier;
+		this.recorder = recorder;
+	}
+
+	protected ReceiveStatus record(List<M> messages, ReceiveStatus status){
+		if (status != null){
+			recorder.record(messages, status.getLastPosition(), status.getLastEnqueuedTime());
+		}else{
+			recorder.record(messages, null, null);
+		}
+		return status;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected ReceiveStatus recordAdded(List<? super M> list, int sizeBefore, ReceiveStatus status){
+		return record(new ArrayList<>((List<M>)list.subList(sizeBefore, list.size())), status);
+	}
+
+	protected Function<M, Long> collecting(Function<M, Long> receiver, List<M> messages){
+		return msg -> {
+			if (msg != null){
+				messages.add(msg);
+			}
+			return receiver.apply(msg);
+		};
+	}
+
+	protected Function<List<M>, Long> collectingBatches(Function<List<M>, Long> receiver, List<M> messages){
+		return batch -> {
+			messages.addAll(batch);
+			return receiver.apply(batch);
+		};
+	}
+
+	@Override
+	public String firstPosition() {
+		return supplier.firstPosition();
+	}
+
+	@Override
+	public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) throws InterruptedException, DataStreamInfrastructureException {
+		return supplier.firstPosition(enqueuedAfter, waitForArrival);
+	}
+
+	@Override
+	public String firstPosition(Instant enqueuedAfter) throws InterruptedException, DataStreamInfrastructureException {
+		return supplier.firstPosition(enqueuedAfter);
+	}
+
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		return supplier.lastPosition();
+	}
+
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		return supplier.enqueuedTime(position);
+	}
+
+	@Override
+	public String nextStartPosition(String previousEndPosition) {
+		return supplier.nextStartPosition(previousEndPosition);
+	}
+
+	@Override
+	public boolean isInRange(String position, String endPosition) {
+		return supplier.isInRange(position, endPosition);
+	}
+
+	@Override
+	public int checkInRange(String position, String endPosition) {
+		return supplier.checkInRange(position, endPosition);
+	}
+
+	@Override
+	public RangeChecker rangeChecker(String endPosition) {
+		return supplier.rangeChecker(endPosition);
+	}
+
+	@Override
+	public boolean isInRange(Instant enqueuedTime, Instant endEnqueuedTime) {
+		return supplier.isInRange(enqueuedTime, endEnqueuedTime);
+	}
+
+	@Override
+	public int checkInRange(Instant enqueuedTime, Instant endEnqueuedTime) {
+		return supplier.checkInRange(enqueuedTime, endEnqueuedTime);
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, String endPosition, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		int sizeBefore = list.size();
+		return recordAdded(list, sizeBefore, supplier.fetch(list, startPosition, endPosition, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		int sizeBefore = list.size();
+		return recordAdded(list, sizeBefore, supplier.fetch(list, startEnqueuedTime, endEnqueuedTime, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public ReceiveStatus fetch(List<? super M> list, String startPosition, Instant endEnqueuedTime, int maxItems, Duration timeoutDuration)
+			throws InterruptedException, DataStreamInfrastructureException {
+		int sizeBefore = list.size();
+		return recordAdded(list, sizeBefore, supplier.fetch(list, startPosition, endEnqueuedTime, maxItems, timeoutDuration));
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, String startPosition) throws DataStreamInfrastructureException {
+		return supplier.startAsyncReceiving(msg -> {
+			recorder.record(msg);
+			receiver.accept(msg);
+		}, startPosition);
+	}
+
+	@Override
+	public String startAsyncReceiving(Consumer<M> receiver, Instant startEnqueuedTime) throws DataStreamInfrastructureException {
+		return supplier.startAsyncReceiving(msg -> {
+			recorder.record(msg);
+			receiver.accept(msg);
+		}, startEnqueuedTime);
+	}
+
+	@Override
+	public void stopAsyncReceiving(String id) {
+		supplier.stopAsyncReceiving(id);
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receive(collecting(receiver, received), startPosition, endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receive(collecting(receiver, received), startEnqueuedTime, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, String startPosition, Instant endEnqueuedTime) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receive(collecting(receiver, received), startPosition, endEnqueuedTime));
+	}
+
+	@Override
+	public ReceiveStatus receive(Function<M, Long> receiver, Instant startEnqueuedTime, String endPosition) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receive(collecting(receiver, received), startEnqueuedTime, endPosition));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receiveBatches(collectingBatches(receiver, received), startPosition, endPosition, maxItems));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receiveBatches(collectingBatches(receiver, received), startEnqueuedTime, endEnqueuedTime, maxItems));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, String startPosition, Instant endEnqueuedTime, int maxItems) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receiveBatches(collectingBatches(receiver, received), startPosition, endEnqueuedTime, maxItems));
+	}
+
+	@Override
+	public ReceiveStatus receiveBatches(Function<List<M>, Long> receiver, Instant startEnqueuedTime, String endPosition, int maxItems) throws DataStreamInfrastructureException {
+		List<M> received = new ArrayList<>();
+		return record(received, supplier.receiveBatches(collectingBatches(receiver, received), startEnqueuedTime, endPosition, maxItems));
+	}
+
+	@Override
+	public void start() throws Exception {
+		supplier.start();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		supplier.stop();
+	}
+
+	public StreamDataSupplier<M> getSupplier(){
+		return supplier;
+	}
+
+	public StreamRecorder<M> getRecorder(){
+		return recorder;
+	}
+
+}
@@ -0,0 +1,368 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous writer of recorded stream messages into GZIP compressed segment files.
+ * Messages are put into a bounded buffer without blocking, and a background thread serializes and writes them.
+ * If the buffer is full, the messages are dropped and counted, so that the calling thread is never slowed down.
+ * Messages delivered by the same fetch/receive operation are buffered, written or dropped together as one unit
+ * along with the position and enqueued time of the last one, therefore a recorder can be shared by many suppliers
+ * and positions recorded never get attached to messages of another operation.
+ *
+ * <p>
+ * A segment file is a GZIP compressed sequence of frames. A message frame consists of the type byte 'M',
+ * the time it was recorded in epoch milliseconds (long), the length of the data (int), and the data.
+ * A batch frame consists of the type byte 'B', the time it was recorded in epoch milliseconds (long),
+ * the enqueued time of the last message in epoch milliseconds (long, -1 if unknown),
+ * whether the position of the last message is known (boolean), the position (modified UTF-8, only if known),
+ * the number of messages (int), and then the length (int) and the data of each message.
+ * If the recorder has been given a function for getting the enqueued time of messages, batch frames are written with the type byte 'T'
+ * instead, and each message is followed by its enqueued time as an unsigned variable-length long, which is 0 if unknown,
+ * or otherwise 1 plus the zig-zag encoded difference from the enqueued time of the previous message in the frame
+ * (or from the recorded time for the first message).
+ * A new segment file is started after <code>maxSegmentBytes</code> uncompressed bytes had been written.
+ * </p>
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class StreamRecorder<M> implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(StreamRecorder.class);
+
+	static final int DEFAULT_BUFFER_CAPACITY = 8192;
+	static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+	static final long FLUSH_INTERVAL_MILLIS = 1000L;
+	static final String SEGMENT_FILE_SUFFIX = ".rec.gz";
+	static final byte MESSAGE_FRAME = 'M';
+	static final byte BATCH_FRAME = 'B';
+	static final byte BATCH_FRAME_WITH_ENQUEUED_TIMES = 'T';
+	static private final Object END_OF_RECORDING = new Object();
+
+	static private final ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern(StreamRecorder.class.getSimpleName() + "-%d")
+			.daemon(true)
+			.build();
+
+	static class MessageFrame{
+		final Object message;
+		final long recordedMillis;
+
+		MessageFrame(Object message, long recordedMillis){
+			this.message = message;
+			this.recordedMillis = recordedMillis;
+		}
+	}
+
+	static class BatchFrame{
+		final List<?> messages;
+		final long recordedMillis;
+		final String position;
+		final long enqueuedMillis;
+
+		BatchFrame(List<?> messages, long recordedMillis, String position, long enqueuedMillis){
+			this.messages = messages;
+			this.recordedMillis = recordedMillis;
+			this.position = position;
+			this.enqueuedMillis = enqueuedMillis;
+		}
+	}
+
+	protected final Path directory;
+	protected final Function<M, byte[]> serializer;
+	protected final Function<M, Instant> enqueuedTimeFunction;
+	protected final long maxSegmentBytes;
+	protected final BlockingQueue<Object> buffer;
+	protected final String segmentFilePrefix;
+
+	private final Thread thread;
+	private volatile boolean closing;
+
+	private DataOutputStream out;
+	private int segmentSequence;
+	private long segmentBytes;
+
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Constructor with default buffer capacity (8192) and default maximum segment size (256MB uncompressed)
+	 * @param directory		directory that segment files will be written into, it will be created if it does not exist
+	 * @param serializer	serializer for converting messages into bytes, it is called from the background thread
+	 * @throws IOException	if the directory cannot be created
+	 */
+	public StreamRecorder(Path directory, Function<M, byte[]> serializer) throws IOException{
+		this(directory, serializer, DEFAULT_BUFFER_CAPACITY, DEFAULT_MAX_SEGMENT_BYTES);
+	}
+
+	/**
+	 * Constructor
+	 * @param directory		directory that segment files will be written into, it will be created if it does not exist
+	 * @param serializer	serializer for converting messages into bytes, it is called from the background thread
+	 * @param bufferCapacity	maximum number of single messages and batches that can be buffered
+	 * @param maxSegmentBytes	maximum number of uncompressed bytes in a segment file
+	 * @throws IOException	if the directory cannot be created
+	 */
+	public StreamRecorder(Path directory, Function<M, byte[]> serializer, int bufferCapacity, long maxSegmentBytes) throws IOException{
+		this(directory, serializer, null, bufferCapacity, maxSegmentBytes);
+	}
+
+	/**
+	 * Constructor
+	 * @param directory		directory that segment files will be written into, it will be created if it does not exist
+	 * @param serializer	serializer for converting messages into bytes, it is called from the background thread
+	 * @param enqueuedTimeFunction	function for getting the enqueued time of a message, it is called from the background thread
+	 * 							and can return null if unknown. If it is null, only the enqueued time of the last message of each batch is recorded.
+	 * @param bufferCapacity	maximum number of single messages and batches that can be buffered
+	 * @param maxSegmentBytes	maximum number of uncompressed bytes in a segment file
+	 * @throws IOException	if the directory cannot be created
+	 */
+	public StreamRecorder(Path directory, Function<M, byte[]> serializer, Function<M, Instant> enqueuedTimeFunction, int bufferCapacity, long maxSegmentBytes) throws IOException{
+		Validate.notNull(directory, "directory cannot be null");
+		Validate.notNull(serializer, "serializer cannot be null");
+		Validate.isTrue(bufferCapacity > 0, "buffer capacity must be positive");
+		Validate.isTrue(maxSegmentBytes > 0, "maximum segment size must be positive");
+
+		this.directory = directory;
+		this.serializer = serializer;
+		this.enqueuedTimeFunction = enqueuedTimeFunction;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+		this.segmentFilePrefix = "recording-" + System.currentTimeMillis() + "-";
+
+		Files.createDirectories(directory);
+		this.thread = threadFactory.newThread(this::run);
+		this.thread.start();
+	}
+
+	/**
+	 * Record a message, without blocking
+	 * @param message	the message
+	 * @return	true if it has been buffered for writing, false if it has been dropped because the buffer is full or the recorder is closed
+	 */
+	public boolean record(M message){
+		return offer(new MessageFrame(message, System.currentTimeMillis()), 1);
+	}
+
+	/**
+	 * Record the messages delivered by a fetch/receive operation as one unit, without blocking.
+	 * Either all of them are written, or all of them are dropped.
+	 * @param messages		the messages, the list must not be modified afterwards
+	 * @param position		position of the last message, can be null if unknown
+	 * @param enqueuedTime	enqueued time of the last message, can be null if unknown
+	 * @return	true if they have been buffered for writing, false if they have been dropped because the buffer is full or the recorder is closed
+	 */
+	public boolean record(List<? extends M> messages, String position, Instant enqueuedTime){
+		if (messages.isEmpty()){
+			return true;
+		}
+		return offer(new BatchFrame(messages, System.currentTimeMillis(), position, enqueuedTime == null ? -1 : enqueuedTime.toEpochMilli()), messages.size());
+	}
+
+	private boolean offer(Object frame, int numberOfMessages){
+		if (!closing && buffer.offer(frame)){
+			return true;
+		}
+		dropped.add(numberOfMessages);
+		return false;
+	}
+
+	/**
+	 * Get the number of messages written
+	 * @return	number of messages written into segment files
+	 */
+	public long getRecorded(){
+		return recorded.sum();
+	}
+
+	/**
+	 * Get the number of messages dropped because the buffer was full or writing failed
+	 * @return	number of messages dropped
+	 */
+	public long getDropped(){
+		return dropped.sum();
+	}
+
+	public Path getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Write all the buffered messages, then close the segment file and stop the background thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closing){
+			return;
+		}
+		closing = true;
+		try {
+			buffer.put(END_OF_RECORDING);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void run(){
+		List<Object> frames = new ArrayList<>();
+		boolean ended = false;
+		while(!ended){
+			try{
+				Object frame = buffer.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (frame == null){
+					flush();
+					continue;
+				}
+				frames.add(frame);
+				buffer.drainTo(frames);
+				ended = frames.remove(END_OF_RECORDING);
+				write(frames);
+				frames.clear();
+			}catch(InterruptedException e){
+				logger.warn("Recording into {} interrupted", directory);
+				break;
+			}
+		}
+		closeSegment();
+	}
+
+	protected void write(List<Object> frames){
+		for (Object frame: frames){
+			int numberOfMessages = frame instanceof BatchFrame ? ((BatchFrame) frame).messages.size() : 1;
+			try{
+				if (out == null || segmentBytes >= maxSegmentBytes){
+					closeSegment();
+					openSegment();
+				}
+				if (frame instanceof MessageFrame){
+					MessageFrame m = (MessageFrame) frame;
+					@SuppressWarnings("unchecked")
+					byte[] data = serializer.apply((M)m.message);
+					out.writeByte(MESSAGE_FRAME);
+					out.writeLong(m.recordedMillis);
+					out.writeInt(data.length);
+					out.write(data);
+					segmentBytes += 1 + 8 + 4 + data.length;
+				}else{
+					BatchFrame b = (BatchFrame) frame;
+					List<byte[]> dataList = new ArrayList<>(b.messages.size());
+					List<Instant> enqueuedTimes = enqueuedTimeFunction == null ? null : new ArrayList<>(b.messages.size());
+					for (Object message: b.messages){		// serialize all before writing, so that a failure never leaves a partial frame
+						@SuppressWarnings("unchecked")
+						M m = (M) message;
+						dataList.add(serializer.apply(m));
+						if (enqueuedTimes != null){
+							enqueuedTimes.add(enqueuedTimeFunction.apply(m));
+						}
+					}
+					out.writeByte(enqueuedTimeFunction == null ? BATCH_FRAME : BATCH_FRAME_WITH_ENQUEUED_TIMES);
+					out.writeLong(b.recordedMillis);
+					out.writeLong(b.enqueuedMillis);
+					out.writeBoolean(b.position != null);
+					if (b.position != null){
+						out.writeUTF(b.position);
+						segmentBytes += 2 + b.position.length();
+					}
+					out.writeInt(dataList.size());
+					segmentBytes += 1 + 8 + 8 + 1 + 4;
+					long previousEnqueuedMillis = b.recordedMillis;
+					for (int i = 0; i < dataList.size(); i ++){
+						byte[] data = dataList.get(i);
+						out.writeInt(data.length);
+						out.write(data);
+						segmentBytes += 4 + data.length;
+						if (enqueuedTimeFunction != null){
+							Instant enqueuedTime = enqueuedTimes.get(i);
+							if (enqueuedTime == null){
+								segmentBytes += writeVarLong(out, 0);
+							}else{
+								long enqueuedMillis = enqueuedTime.toEpochMilli();
+								long delta = enqueuedMillis - previousEnqueuedMillis;
+								segmentBytes += writeVarLong(out, ((delta << 1) ^ (delta >> 63)) + 1);
+								previousEnqueuedMillis = enqueuedMillis;
+							}
+						}
+					}
+				}
+				recorded.add(numberOfMessages);
+			}catch(Exception e){
+				dropped.add(numberOfMessages);
+				logger.warn("Failed to write recorded frame into {}", directory, e);
+				closeSegment();
+			}
+		}
+	}
+
+	/**
+	 * Write an unsigned variable-length long, 7 bits per byte with the highest bit indicating that more bytes follow
+	 * @param out	the output
+	 * @param value	the value, treated as unsigned
+	 * @return	number of bytes written
+	 * @throws IOException	if failed to write
+	 */
+	static int writeVarLong(DataOutputStream out, long value) throws IOException{
+		int bytes = 1;
+		while ((value & ~0x7FL) != 0){
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+			bytes ++;
+		}
+		out.writeByte((int)value);
+		return bytes;
+	}
+
+	protected void openSegment() throws IOException{
+		Path file = directory.resolve(segmentFilePrefix + String.format("%06d", ++segmentSequence) + SEGMENT_FILE_SUFFIX);
+		out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file.toFile()), 64 * 1024, true), 64 * 1024));
+		segmentBytes = 0;
+		logger.debug("Started recording into {}", file);
+	}
+
+	protected void flush(){
+		if (out != null){
+			try{
+				out.flush();
+			}catch(IOException e){
+				logger.warn("Failed to flush recording in {}", directory, e);
+				closeSegment();
+			}
+		}
+	}
+
+	protected void closeSegment(){
+		if (out != null){
+			try{
+				out.close();
+			}catch(IOException e){
+				logger.warn("Failed to close recording in {}", directory, e);
+			}
+			out = null;
+		}
+	}
+
+}
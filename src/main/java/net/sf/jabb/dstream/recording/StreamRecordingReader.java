@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.recording;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.jabb.dstream.mmap.MappedSegmentLog;
+
+/**
+ * Reader of segment files written by {@link StreamRecorder}.
+ * Positions are only known for the last messages of batches, which are the last messages delivered by fetch/receive operations.
+ * Enqueued time is known for every message of a batch if the recorder had been given a function for getting it,
+ * otherwise it is only known for the last message of the batch.
+ * A segment file truncated because the recording process died is read until the truncation.
+ * @author James Hu
+ *
+ */
+public class StreamRecordingReader implements Closeable {
+	protected final DataInputStream in;
+
+	protected byte[] data;
+	protected long recordedMillis;
+	protected String position;
+	protected long enqueuedMillis;
+
+	protected int remainingInFrame;
+	protected String framePosition;
+	protected long frameEnqueuedMillis;
+	protected boolean frameHasEnqueuedTimes;
+	protected long previousEnqueuedMillis;
+
+	/**
+	 * Constructor
+	 * @param file	the segment file
+	 * @throws IOException	if the file cannot be opened
+	 */
+	public StreamRecordingReader(Path file) throws IOException{
+		this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 64 * 1024), 64 * 1024));
+	}
+
+	/**
+	 * List the segment files in a directory in the order they were written
+	 * @param directory	the directory
+	 * @return	paths of the segment files
+	 * @throws IOException	if the directory cannot be read
+	 */
+	static public List<Path> segmentFiles(Path directory) throws IOException{
+		List<Path> files = new ArrayList<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + StreamRecorder.SEGMENT_FILE_SUFFIX)){
+			for (Path file: stream){
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Append all the messages recorded in a directory to a log, so that they can be replayed through
+	 * {@link net.sf.jabb.dstream.mmap.MappedSegmentLogStreamDataSupplier}.
+	 * Messages without recorded enqueued time are given the enqueued time of the next message that has it,
+	 * which is the last message in the same batch, i.e. the last message delivered by the same fetch/receive operation.
+	 * Therefore, unless the recorder had been given a function for getting the enqueued time of messages,
+	 * all the messages of a batch are replayed with the same enqueued time.
+	 * Messages after the last batch with known enqueued time are given the time they were recorded.
+	 * @param directory	the directory containing the segment files
+	 * @param log		the log
+	 * @return	number of messages appended
+	 * @throws IOException	if failed to read the files or to append to the log
+	 */
+	static public long replayInto(Path directory, MappedSegmentLog log) throws IOException{
+		long count = 0;
+		List<byte[]> pendingData = new ArrayList<>();
+		List<Instant> pendingRecordedTime = new ArrayList<>();
+		for (Path file: segmentFiles(directory)){
+			try(StreamRecordingReader reader = new StreamRecordingReader(file)){
+				while (reader.next()){
+					Instant enqueuedTime = reader.enqueuedTime();
+					if (enqueuedTime == null){
+						pendingData.add(reader.data());
+						pendingRecordedTime.add(reader.recordedTime());
+						continue;
+					}
+					for (byte[] data: pendingData){
+						log.append(data, enqueuedTime);
+					}
+					log.append(reader.data(), enqueuedTime);
+					count += pendingData.size() + 1;
+					pendingData.clear();
+					pendingRecordedTime.clear();
+				}
+			}
+		}
+		for (int i = 0; i < pendingData.size(); i ++){
+			log.append(pendingData.get(i), pendingRecordedTime.get(i));
+		}
+		return count + pendingData.size();
+	}
+
+	/**
+	 * Move to the next message
+	 * @return	true if moved to the next message, false if there is no more message
+	 * @throws IOException	if failed to read the file
+	 */
+	public boolean next() throws IOException{
+		try{
+			while (remainingInFrame == 0){
+				int type = in.read();
+				if (type < 0){
+					return false;
+				}
+				recordedMillis = in.readLong();
+				if (type == StreamRecorder.MESSAGE_FRAME){
+					remainingInFrame = 1;
+					frameEnqueuedMillis = -1;
+					framePosition = null;
+					frameHasEnqueuedTimes = false;
+				}else if (type == StreamRecorder.BATCH_FRAME || type == StreamRecorder.BATCH_FRAME_WITH_ENQUEUED_TIMES){
+					frameHasEnqueuedTimes = type == StreamRecorder.BATCH_FRAME_WITH_ENQUEUED_TIMES;
+					previousEnqueuedMillis = recordedMillis;
+					frameEnqueuedMillis = in.readLong();
+					framePosition = in.readBoolean() ? in.readUTF() : null;
+					remainingInFrame = in.readInt();
+				}else{
+					throw new IOException("Unknown frame type: " + type);
+				}
+			}
+			data = new byte[in.readInt()];
+			in.readFully(data);
+			enqueuedMillis = -1;
+			if (frameHasEnqueuedTimes){
+				long encoded = readVarLong(in);
+				if (encoded != 0){
+					long zigzag = encoded - 1;
+					enqueuedMillis = previousEnqueuedMillis + ((zigzag >>> 1) ^ -(zigzag & 1));
+					previousEnqueuedMillis = enqueuedMillis;
+				}
+			}
+			if (--remainingInFrame == 0){
+				position = framePosition;
+				if (frameEnqueuedMillis >= 0){
+					enqueuedMillis = frameEnqueuedMillis;
+				}
+			}else{
+				position = null;
+			}
+			return true;
+		}catch(EOFException e){
+			return false;
+		}
+	}
+
+	static long readVarLong(DataInputStream in) throws IOException{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length long");
+	}
+
+	/**
+	 * @return	data of the current message
+	 */
+	public byte[] data(){
+		return data;
+	}
+
+	/**
+	 * @return	the time the current message was recorded
+	 */
+	public Instant recordedTime(){
+		return Instant.ofEpochMilli(recordedMillis);
+	}
+
+	/**
+	 * @return	position of the current message, or null if unknown
+	 */
+	public String position(){
+		return position;
+	}
+
+	/**
+	 * @return	enqueued time of the current message, or null if unknown
+	 */
+	public Instant enqueuedTime(){
+		return enqueuedMillis < 0 ? null : Instant.ofEpochMilli(enqueuedMillis);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -0,0 +1,339 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.ringbuffer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang3.Validate;
+
+import net.sf.jabb.dstream.OffsetCursor;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * Pre-allocated in-memory ring buffer of messages for producers and consumers living in the same JVM.
+ * Every message published gets a sequence number, starting from 0 and increasing monotonically.
+ * Publishing never waits for consumers: when the buffer is full, the oldest message is overwritten.
+ * Messages are retained until they are overwritten or, if a retention duration is specified, until they expire.
+ *
+ * <p>
+ * Any number of cursors can read the buffer independently and concurrently without locking.
+ * A cursor detects that it has been overtaken by publishers and fails rather than returning overwritten data.
+ * </p>
+ *
+ * <p>
+ * Publishing is not lock-free.
+ * Concurrent publishers claim sequence numbers atomically, then each of them waits (spinning and then yielding)
+ * until all the publishers with smaller sequence numbers have finished writing, so that messages become visible in the order of sequence numbers
+ * and enqueued time never goes backwards along with the sequence numbers.
+ * A publisher thread descheduled between claiming and finishing therefore holds up all the publishers after it.
+ * When there are many publisher threads, funnelling them through a single thread or giving each of them its own buffer
+ * avoids such stalls.
+ * </p>
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class RingBuffer<M> {
+	static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;	// spinning on a single processor only delays the thread being waited for
+
+	protected final int capacity;
+	protected final int mask;
+	protected final long retentionMillis;
+
+	protected final AtomicReferenceArray<M> messages;
+	protected final AtomicLongArray enqueuedMillis;
+	/**
+	 * Sequence number of the message in each slot, -1 if the slot is empty or being written
+	 */
+	protected final AtomicLongArray sequences;
+
+	protected final AtomicLong claimed = new AtomicLong(-1);
+	protected volatile long published = -1;
+	private long lastEnqueuedMillis;	// only accessed by the publisher whose turn it is
+
+	protected final Object publishSignal = new Object();
+	protected volatile int waitingReaders;
+
+	/**
+	 * Constructor of a ring buffer retaining messages until they are overwritten
+	 * @param capacity	capacity of the buffer, it will be rounded up to a power of 2
+	 */
+	public RingBuffer(int capacity){
+		this(capacity, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity	capacity of the buffer, it will be rounded up to a power of 2
+	 * @param retention	how long messages can be read after they had been published, null for retaining them until they are overwritten
+	 */
+	public RingBuffer(int capacity, Duration retention){
+		Validate.isTrue(capacity > 0 && capacity <= 1 << 30, "capacity must be positive and not greater than 2^30");
+		Validate.isTrue(retention == null || !retention.isNegative() && !retention.isZero(), "retention must be positive");
+		this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.retentionMillis = retention == null ? 0 : retention.toMillis();
+
+		this.messages = new AtomicReferenceArray<>(this.capacity);
+		this.enqueuedMillis = new AtomicLongArray(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i ++){
+			sequences.set(i, -1);
+		}
+	}
+
+	/**
+	 * Publish a message enqueued now
+	 * @param message	the message
+	 * @return	sequence number of the message
+	 */
+	public long publish(M message){
+		return publish(message, System.currentTimeMillis());
+	}
+
+	/**
+	 * Publish a message
+	 * @param message	the message
+	 * @param enqueuedTime	enqueued time of the message, it will be adjusted if it is earlier than that of the previous message
+	 * @return	sequence number of the message
+	 */
+	public long publish(M message, Instant enqueuedTime){
+		return publish(message, enqueuedTime.toEpochMilli());
+	}
+
+	protected long publish(M message, long enqueuedTimeMillis){
+		Validate.notNull(message, "message cannot be null");
+		long sequence = claimed.incrementAndGet();
+		int tries = 0;
+		while (published != sequence - 1){	// wait for the turn, previous publishers are in the middle of a few writes
+			if (++tries > SPIN_TRIES){
+				Thread.yield();
+			}
+		}
+
+		long millis = Math.max(enqueuedTimeMillis, lastEnqueuedMillis);
+		lastEnqueuedMillis = millis;
+		int index = (int) sequence & mask;
+		sequences.set(index, -1);
+		messages.set(index, message);
+		enqueuedMillis.set(index, millis);
+		sequences.set(index, sequence);
+		published = sequence;
+
+		if (waitingReaders > 0){
+			synchronized(publishSignal){
+				publishSignal.notifyAll();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Wait until the message with specified sequence number has been published
+	 * @param sequence	the sequence number
+	 * @param timeoutMillis	maximum time to wait
+	 * @return	true if the message has been published, false if timed out
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public boolean awaitPublished(long sequence, long timeoutMillis) throws InterruptedException{
+		for (int i = 0; i < SPIN_TRIES; i ++){		// hand-off within the same process is usually very quick
+			if (published >= sequence){
+				return true;
+			}
+		}
+		if (timeoutMillis <= 0){
+			return false;
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized(publishSignal){
+			waitingReaders ++;
+			try{
+				long waitMillis = timeoutMillis;
+				while (published < sequence && waitMillis > 0){
+					publishSignal.wait(waitMillis);
+					waitMillis = deadline - System.currentTimeMillis();
+				}
+			}finally{
+				waitingReaders --;
+			}
+		}
+		return published >= sequence;
+	}
+
+	/**
+	 * Get the sequence number of the last message published
+	 * @return	the sequence number, or -1 if nothing has been published
+	 */
+	public long lastSequence(){
+		return published;
+	}
+
+	/**
+	 * Get the sequence number of the oldest message that can still be read.
+	 * @return	the sequence number, it equals to {@link #lastSequence()} + 1 if no message can be read
+	 */
+	public long oldestSequence(){
+		long last = published;
+		long oldest = Math.max(0, last - capacity + 1);
+		if (retentionMillis > 0 && oldest <= last){
+			long expiredMillis = System.currentTimeMillis() - retentionMillis;
+			oldest = firstSequenceEnqueuedAfter(oldest, last, expiredMillis - 1);
+		}
+		return oldest;
+	}
+
+	/**
+	 * Binary search for the first message enqueued after the specified time
+	 * @param low		lower bound of the sequence number, inclusive
+	 * @param high		upper bound of the sequence number, inclusive
+	 * @param afterMillis	the time
+	 * @return	the sequence number, or high + 1 if not found. The result may not be accurate if messages are being overwritten.
+	 */
+	protected long firstSequenceEnqueuedAfter(long low, long high, long afterMillis){
+		long result = high + 1;
+		while (low <= high){
+			long mid = (low + high) >>> 1;
+			if (enqueuedMillis.get((int) mid & mask) > afterMillis){
+				result = mid;
+				high = mid - 1;
+			}else{
+				low = mid + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the enqueued time of a message
+	 * @param sequence	sequence number of the message
+	 * @return	enqueued time in epoch milliseconds
+	 * @throws DataStreamInfrastructureException	if the message has not been published or is no longer retained
+	 */
+	public long enqueuedMillis(long sequence) throws DataStreamInfrastructureException{
+		int index = (int) sequence & mask;
+		boolean available = sequence >= 0 && sequence <= published && sequences.get(index) == sequence;
+		long millis = enqueuedMillis.get(index);
+		if (!available || sequences.get(index) != sequence){
+			throw new DataStreamInfrastructureException("Message " + sequence + " is not available, it either has not been published or is no longer retained");
+		}
+		return millis;
+	}
+
+	/**
+	 * Get a cursor positioned right after a sequence number
+	 * @param sequence	the sequence number, -1 for positioning before the first message
+	 * @return	the cursor
+	 * @throws DataStreamInfrastructureException	if the message right after the sequence number is no longer retained
+	 */
+	public Cursor cursorAfter(long sequence) throws DataStreamInfrastructureException{
+		if (sequence + 1 < oldestSequence()){
+			throw new DataStreamInfrastructureException("Message " + (sequence + 1) + " is no longer retained");
+		}
+		return new Cursor(sequence);
+	}
+
+	/**
+	 * Get a cursor positioned before the first retained message enqueued after the specified time
+	 * @param enqueuedAfter	the time
+	 * @return	the cursor
+	 */
+	public Cursor cursorAfter(Instant enqueuedAfter){
+		long last = published;
+		long oldest = oldestSequence();
+		return new Cursor(firstSequenceEnqueuedAfter(oldest, last, enqueuedAfter.toEpochMilli()) - 1);
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Cursor for reading messages sequentially. A cursor is not thread safe, but any number of cursors can be used concurrently.
+	 * @author James Hu
+	 *
+	 */
+	public class Cursor implements OffsetCursor{
+		protected long sequence;
+		protected M message;
+		protected long messageEnqueuedMillis;
+
+		Cursor(long sequence){
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Move to the next message
+		 * @return	true if moved, false if the next message has not been published
+		 * @throws DataStreamInfrastructureException	if the next message has been overwritten before being read
+		 */
+		public boolean next() throws DataStreamInfrastructureException{
+			long nextSequence = sequence + 1;
+			if (nextSequence > published){
+				return false;
+			}
+			int index = (int) nextSequence & mask;
+			if (sequences.get(index) == nextSequence){
+				M m = messages.get(index);
+				long millis = enqueuedMillis.get(index);
+				if (sequences.get(index) == nextSequence && (retentionMillis <= 0 || millis >= System.currentTimeMillis() - retentionMillis)){
+					message = m;
+					messageEnqueuedMillis = millis;
+					sequence = nextSequence;
+					return true;
+				}
+			}
+			throw new DataStreamInfrastructureException("Message " + nextSequence + " is no longer retained, the reader is too slow");
+		}
+
+		/**
+		 * Move back to the previous position, can only be called once after {@link #next()} returned true
+		 */
+		public void unread(){
+			sequence --;
+			message = null;
+		}
+
+		/**
+		 * @return	sequence number of the current message, or the position before the next message if no message has been read
+		 */
+		public long sequence(){
+			return sequence;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * The offset is the sequence number.
+		 */
+		@Override
+		public long offset(){
+			return sequence;
+		}
+
+		/**
+		 * @return	the current message
+		 */
+		public M message(){
+			return message;
+		}
+
+		/**
+		 * @return	enqueued time of the current message in epoch milliseconds
+		 */
+		public long enqueuedMillis(){
+			return messageEnqueuedMillis;
+		}
+
+		/**
+		 * @return	sequence number of the next message to be read
+		 */
+		public long nextSequence(){
+			return sequence + 1;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.ringbuffer;
+
+import java.time.Instant;
+
+import org.apache.commons.lang3.Validate;
+
+import net.sf.jabb.dstream.OffsetCursorStreamDataSupplier;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+/**
+ * StreamDataSupplier backed by an in-memory {@link RingBuffer}, for consuming messages published within the same JVM
+ * without any network I/O. It defines position range as (startPosition, endPosition], and positions are sequence numbers in the buffer.
+ * Any number of suppliers can read the same buffer independently.
+ * Since a range is read again from the buffer when it is re-processed,
+ * transactional processing works the same way as with other suppliers as long as the range is still retained by the buffer.
+ * Reading a range no longer retained fails with {@link DataStreamInfrastructureException}.
+ * @author James Hu
+ * @param <M> type of the message object
+ *
+ */
+public class RingBufferStreamDataSupplier<M> extends OffsetCursorStreamDataSupplier<M, RingBuffer<M>.Cursor> {
+	protected RingBuffer<M> buffer;
+
+	/**
+	 * Constructor
+	 * @param buffer	the ring buffer
+	 */
+	public RingBufferStreamDataSupplier(RingBuffer<M> buffer){
+		Validate.notNull(buffer, "buffer cannot be null");
+		this.buffer = buffer;
+	}
+
+	/**
+	 *  {@inheritDoc}
+	 *  This method returns (sequence number of the oldest message retained) - 1.
+	 */
+	@Override
+	public String firstPosition() {
+		return String.valueOf(buffer.oldestSequence() - 1);
+	}
+
+	@Override
+	public String lastPosition() throws DataStreamInfrastructureException {
+		long lastSequence = buffer.lastSequence();
+		return lastSequence < 0 ? null : String.valueOf(lastSequence);
+	}
+
+	@Override
+	public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+		return Instant.ofEpochMilli(buffer.enqueuedMillis(Long.parseLong(position)));
+	}
+
+	@Override
+	protected RingBuffer<M>.Cursor cursorAfter(String startPosition) throws DataStreamInfrastructureException{
+		return buffer.cursorAfter(Long.parseLong(startPosition));
+	}
+
+	@Override
+	protected RingBuffer<M>.Cursor cursorAfter(Instant enqueuedAfter){
+		return buffer.cursorAfter(enqueuedAfter);
+	}
+
+	@Override
+	protected M message(RingBuffer<M>.Cursor cursor){
+		return cursor.message();
+	}
+
+	@Override
+	protected boolean awaitNext(RingBuffer<M>.Cursor cursor, long timeoutMillis) throws InterruptedException{
+		return buffer.awaitPublished(cursor.nextSequence(), timeoutMillis);
+	}
+
+	public RingBuffer<M> getBuffer(){
+		return buffer;
+	}
+
+}
@@ -0,0 +1,321 @@
+/**
+ *
+ */
+package net.sf.jabb.txsdp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.jabb.txsdp.TransactionalStreamDataBatchProcessing.ProcessorStatus;
+import net.sf.jabb.txsdp.TransactionalStreamDataBatchProcessing.State;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Managed runtime of processors of a {@link TransactionalStreamDataBatchProcessing}.
+ * It owns the threads running the processors, and periodically grows or shrinks the number of processors
+ * between the minimum and the maximum, one processor at a time, according to what has been observed since the last evaluation:
+ * <ul>
+ * 	<li>backlog - the longest time between the enqueued time of the finished position and that of the last position available
+ * 			(or the end of the range if it is earlier) among all the streams, as reported by {@link TransactionalStreamDataBatchProcessing#getStreamLag()}
+ * 			which samples it no more often than once per lag sampling interval. Streams in which nothing has been finished yet are not counted.</li>
+ * 	<li>utilization - the fraction of time that the running processors spent in processing transactions</li>
+ * 	<li>acquisition failure ratio - the fraction of attempts in which processors could not get a transaction to process</li>
+ * </ul>
+ * One more processor is started when the backlog is above the target, the running processors are busy,
+ * and they could mostly get transactions (otherwise more processors would not help because the transactions coordinator limits them).
+ * One processor is stopped when the backlog is within the target and the running processors are mostly idle,
+ * or when processors could mostly not get transactions.
+ * Stopped processors finish their current transactions before they exit.
+ *
+ * @author James Hu
+ *
+ */
+public class AutoScalingProcessorPool {
+	static private final Logger logger = LoggerFactory.getLogger(AutoScalingProcessorPool.class);
+
+	static private final ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern(AutoScalingProcessorPool.class.getSimpleName() + "-%d")
+			.daemon(true)
+			.build();
+
+	protected TransactionalStreamDataBatchProcessing<?> processing;
+	protected String processorIdPrefix;
+	protected int minProcessors;
+	protected int maxProcessors;
+
+	protected Duration evaluationInterval = Duration.ofSeconds(30);
+	protected Duration targetBacklog = Duration.ofMinutes(1);
+	protected double scaleDownUtilization = 0.3;
+	protected double scaleUpUtilization = 0.7;
+	protected double maxAcquisitionFailureRatio = 0.5;
+
+	protected List<String> processorIds = new ArrayList<>();	// processors started and not yet told to stop, guarded by this
+	protected List<String> stoppingProcessorIds = new ArrayList<>();	// guarded by this
+	protected AtomicInteger processorSequence = new AtomicInteger(0);
+	protected ExecutorService processorThreads;
+	protected ScheduledExecutorService evaluationThread;
+
+	protected Observation lastObservation;
+	protected boolean isFinished;
+
+	/**
+	 * Statistics of the running processors at a point of time
+	 */
+	protected static class Observation{
+		long timeMillis;
+		Map<String, ProcessorStatus> processors = new HashMap<>();	// running processors of this pool
+		long backlogMillis;
+	}
+
+	/**
+	 * Constructor
+	 * @param processing		the processing which the processors will be created from
+	 * @param processorIdPrefix	prefix of the IDs of the processors, a sequence number will be appended
+	 * @param minProcessors		minimum number of processors, it must be at least 1
+	 * @param maxProcessors		maximum number of processors
+	 */
+	public AutoScalingProcessorPool(TransactionalStreamDataBatchProcessing<?> processing, String processorIdPrefix, int minProcessors, int maxProcessors){
+		Validate.notNull(processing, "processing cannot be null");
+		Validate.isTrue(minProcessors >= 1, "minProcessors must be at least 1: %d", minProcessors);
+		Validate.isTrue(maxProcessors >= minProcessors, "maxProcessors must not be less than minProcessors: %d", maxProcessors);
+		this.processing = processing;
+		this.processorIdPrefix = processorIdPrefix;
+		this.minProcessors = minProcessors;
+		this.maxProcessors = maxProcessors;
+	}
+
+	/**
+	 * Set how often the number of processors should be evaluated, the default is 30 seconds
+	 * @param evaluationInterval	interval between evaluations
+	 * @return	the pool itself
+	 */
+	public AutoScalingProcessorPool withEvaluationInterval(Duration evaluationInterval){
+		this.evaluationInterval = evaluationInterval;
+		return this;
+	}
+
+	/**
+	 * Set the backlog that is considered acceptable, the default is 1 minute
+	 * @param targetBacklog		the acceptable backlog
+	 * @return	the pool itself
+	 */
+	public AutoScalingProcessorPool withTargetBacklog(Duration targetBacklog){
+		this.targetBacklog = targetBacklog;
+		return this;
+	}
+
+	/**
+	 * Set the utilization thresholds, the defaults are 0.3 and 0.7
+	 * @param scaleDownUtilization	below this, the processors are considered mostly idle
+	 * @param scaleUpUtilization	above this, the processors are considered busy
+	 * @return	the pool itself
+	 */
+	public AutoScalingProcessorPool withUtilizationThresholds(double scaleDownUtilization, double scaleUpUtilization){
+		Validate.isTrue(scaleDownUtilization < scaleUpUtilization, "scaleDownUtilization must be less than scaleUpUtilization: %f", scaleDownUtilization);
+		this.scaleDownUtilization = scaleDownUtilization;
+		this.scaleUpUtilization = scaleUpUtilization;
+		return this;
+	}
+
+	/**
+	 * Set the acquisition failure ratio above which processors are considered starved, the default is 0.5
+	 * @param maxAcquisitionFailureRatio	the ratio
+	 * @return	the pool itself
+	 */
+	public AutoScalingProcessorPool withMaxAcquisitionFailureRatio(double maxAcquisitionFailureRatio){
+		this.maxAcquisitionFailureRatio = maxAcquisitionFailureRatio;
+		return this;
+	}
+
+	/**
+	 * Start the minimum number of processors and the periodical evaluation
+	 */
+	public synchronized void start(){
+		Validate.validState(processorThreads == null, "The pool has already been started");
+		processorThreads = Executors.newCachedThreadPool(threadFactory);
+		evaluationThread = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		for (int i = 0; i < minProcessors; i ++){
+			addProcessor();
+		}
+		long millis = evaluationInterval.toMillis();
+		evaluationThread.scheduleWithFixedDelay(()->{
+			try{
+				evaluate();
+			}catch(Exception e){
+				logger.warn("Failed to evaluate the number of processors", e);
+			}
+		}, millis, millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop all the processors and the periodical evaluation.
+	 * The processors will exit after finishing their current transactions.
+	 */
+	public synchronized void stop(){
+		if (evaluationThread != null){
+			evaluationThread.shutdownNow();
+		}
+		for (String processorId: processorIds){
+			processing.stop(processorId);
+			stoppingProcessorIds.add(processorId);
+		}
+		processorIds.clear();
+		if (processorThreads != null){
+			processorThreads.shutdown();
+		}
+	}
+
+	/**
+	 * Wait for all the processors to exit after {@link #stop()} has been called
+	 * @param timeout	maximum duration to wait
+	 * @return	true if all the processors had exited, false if timed out
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public boolean awaitTermination(Duration timeout) throws InterruptedException{
+		return processorThreads == null || processorThreads.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get the number of processors that are running or will be running
+	 * @return	number of processors not told to stop
+	 */
+	public synchronized int getProcessorCount(){
+		return processorIds.size();
+	}
+
+	/**
+	 * Check whether all the data had been processed, in which case there will be no more scaling
+	 * @return	true if any processor has finished
+	 */
+	public synchronized boolean isFinished(){
+		return isFinished;
+	}
+
+	protected synchronized void addProcessor(){
+		String processorId = processorIdPrefix + processorSequence.incrementAndGet();
+		Runnable runnable = processing.createProcessor(processorId);
+		processorThreads.execute(runnable);
+		processing.start(processorId);
+		processorIds.add(processorId);
+		logger.debug("Added processor {}, there are {} processors now", processorId, processorIds.size());
+	}
+
+	protected synchronized void removeProcessor(){
+		String processorId = processorIds.remove(processorIds.size() - 1);
+		processing.stop(processorId);
+		stoppingProcessorIds.add(processorId);
+		logger.debug("Stopping processor {}, there are {} processors now", processorId, processorIds.size());
+	}
+
+	/**
+	 * Observe the processing, and grow or shrink the number of processors if needed
+	 * @return	the change to the number of processors: 1, 0, or -1
+	 * @throws Exception	if the status of the streams cannot be obtained
+	 */
+	protected int evaluate() throws Exception{
+		Observation observation = observe();
+		int change = 0;
+		synchronized(this){
+			if (isFinished || evaluationThread.isShutdown()){
+				return 0;
+			}
+			if (lastObservation != null){
+				change = decide(lastObservation, observation);
+				if (change > 0){
+					addProcessor();
+				}else if (change < 0){
+					removeProcessor();
+				}
+			}
+			lastObservation = observation;
+		}
+		return change;
+	}
+
+	protected Observation observe() throws Exception{
+		Observation observation = new Observation();
+		observation.timeMillis = System.currentTimeMillis();
+		Map<String, ProcessorStatus> processorStatus = processing.getProcessorStatus();
+		synchronized(this){
+			// forget about processors that have exited
+			stoppingProcessorIds.removeIf(processorId->{
+				ProcessorStatus status = processorStatus.get(processorId);
+				if (status == null || status.getState() == State.STOPPED){
+					processing.remove(processorId);
+					return true;
+				}
+				return false;
+			});
+			for (String processorId: processorIds){
+				ProcessorStatus status = processorStatus.get(processorId);
+				if (status == null){
+					continue;
+				}
+				if (status.getState() == State.FINISHED){
+					isFinished = true;
+				}
+				observation.processors.put(processorId, status);
+			}
+		}
+		for (Long lag: processing.getStreamLag().values()){	// unknown until the first transaction has been finished
+			if (lag != null){
+				observation.backlogMillis = Math.max(observation.backlogMillis, lag);
+			}
+		}
+		return observation;
+	}
+
+	/**
+	 * Decide whether the number of processors should be changed
+	 * @param previous	previous observation
+	 * @param current	current observation
+	 * @return	1 if one more processor should be added, -1 if one processor should be stopped, 0 if no change is needed
+	 */
+	protected int decide(Observation previous, Observation current){
+		long elapsedMillis = current.timeMillis - previous.timeMillis;
+		int processors = current.processors.size();
+		if (elapsedMillis <= 0 || processors == 0){
+			return processors < minProcessors ? 1 : 0;
+		}
+		// processors added since previous observation are counted from zero
+		long transactions = 0;
+		long acquisitionFailures = 0;
+		long processingMillis = 0;
+		for (Map.Entry<String, ProcessorStatus> entry: current.processors.entrySet()){
+			ProcessorStatus c = entry.getValue();
+			ProcessorStatus p = previous.processors.get(entry.getKey());
+			transactions += c.getTransactions() - (p == null ? 0 : p.getTransactions());
+			acquisitionFailures += c.getAcquisitionFailures() - (p == null ? 0 : p.getAcquisitionFailures());
+			processingMillis += c.getProcessingMillis() - (p == null ? 0 : p.getProcessingMillis());
+		}
+		double utilization = (double) processingMillis / elapsedMillis / processors;
+		double acquisitionFailureRatio = transactions + acquisitionFailures == 0 ? 0 : (double) acquisitionFailures / (transactions + acquisitionFailures);
+		boolean isBehind = current.backlogMillis > targetBacklog.toMillis();
+		if (logger.isDebugEnabled()){
+			logger.debug("processors={}, backlog={}ms, utilization={}, acquisitionFailureRatio={}",
+					processors, current.backlogMillis, utilization, acquisitionFailureRatio);
+		}
+
+		if (processors < maxProcessors && isBehind && utilization >= scaleUpUtilization && acquisitionFailureRatio <= maxAcquisitionFailureRatio){
+			return 1;
+		}
+		if (processors > minProcessors && (acquisitionFailureRatio > maxAcquisitionFailureRatio || !isBehind && utilization < scaleDownUtilization)){
+			return -1;
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,67 @@
+package net.sf.jabb.txsdp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Typed key for putting values into and getting values from {@link ProcessingContext}.
+ * Each key is assigned an index when created, and the context implementation can store the value in an array slot
+ * so that {@link ProcessingContext#get(ContextKey)} involves neither hashing nor casting by the caller.
+ * Keys are normally created once and kept in static final fields, because every key created occupies a slot
+ * in every context that it is used with.
+ * @author James Hu
+ *
+ * @param <T>	type of the value associated with the key
+ */
+public final class ContextKey<T> {
+	private static final AtomicInteger nextIndex = new AtomicInteger(0);
+
+	private final int index;
+	private final String name;
+
+	private ContextKey(String name){
+		this.index = nextIndex.getAndIncrement();
+		this.name = name;
+	}
+
+	/**
+	 * Create a new key
+	 * @param name	name of the key, used by {@link #toString()} which context implementations not supporting slots can use as a string key
+	 * @param <T>	type of the value associated with the key
+	 * @return	the new key which is different from all the other keys even if they have the same name
+	 */
+	public static <T> ContextKey<T> of(String name){
+		Validate.notNull(name, "Name of the key cannot be null");
+		return new ContextKey<T>(name);
+	}
+
+	/**
+	 * Get the number of keys that have been created so far
+	 * @return	the number of keys, which is also the upper bound (exclusive) of all the indexes
+	 */
+	static int count(){
+		return nextIndex.get();
+	}
+
+	/**
+	 * Get the index of the slot
+	 * @return	the index which is unique among all the keys
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get the name
+	 * @return	the name of the key
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString(){
+		return name + "#" + index;
+	}
+}
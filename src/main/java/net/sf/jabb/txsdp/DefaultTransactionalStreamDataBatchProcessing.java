@@ -13,8 +13,17 @@ import java.util.Map;
 import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import net.sf.jabb.dstream.ReceiveStatus;
@@ -33,6 +42,7 @@ import net.sf.jabb.util.text.DurationFormatter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +56,11 @@ import org.slf4j.LoggerFactory;
  */
 public class DefaultTransactionalStreamDataBatchProcessing<M> implements TransactionalStreamDataBatchProcessing<M> {
 	static final Logger logger = LoggerFactory.getLogger(DefaultTransactionalStreamDataBatchProcessing.class);
+	static private final long FINISH_WAIT_CHECK_INTERVAL_MILLIS = 500;	// how often a processor waiting for finishes checks whether it should give up
+	static private final ThreadFactory finisherThreadFactory = new BasicThreadFactory.Builder()
+			.namingPattern(DefaultTransactionalStreamDataBatchProcessing.class.getSimpleName() + "-finisher-%d")
+			.daemon(true)
+			.build();
 	
 	protected String id;
 	protected FlexibleBatchProcessor<M> batchProcessor;
@@ -56,6 +71,8 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 	
 	protected Map<String, Processor> processors = new ConcurrentHashMap<>();
 	
+	protected PartitionLagTracker lagTracker;	// used by lag aware scheduling and for reporting lags
+	
 	public List<StreamDataSupplierWithIdAndRange<M, ?>> getSuppliers() {
 		return suppliers;
 	}
@@ -89,7 +106,7 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 		this.batchProcessor = processor;
 		this.suppliers = new ArrayList<>();
 		this.suppliers.addAll(suppliers);
-		
+		this.lagTracker = new PartitionLagTracker(txCoordinator, this.processorOptions.getLagSamplingInterval().toMillis());
 	}
 	
 	/**
@@ -300,6 +317,14 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 		protected AtomicReference<State> state = new AtomicReference<>(State.READY);
 		private String processorId;
 		
+		protected final LongAdder transactions = new LongAdder();
+		protected final LongAdder acquisitionFailures = new LongAdder();
+		protected final LongAdder processingMillis = new LongAdder();
+		
+		private ExecutorService finisher;	// null if not in pipelined mode
+		private CompletableFuture<?> pendingFinish;	// finishing of the previous batch in pipelined mode
+		private Semaphore asyncFinishPermits;	// limits the number of outstanding asynchronous finishes
+		
 		Processor(String processorId){
 			this.processorId = processorId;
 		}
@@ -336,17 +361,32 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 			// make sure we start from a random partition, and then do a round robin afterwards
 			Random random = new Random();
 			int partition = random.nextInt(outOfRangeReached.length);
+			// in lag aware scheduling, partitions are tried in the order of their lags
+			int[] schedule = null;
+			int scheduleLength = 0;
+			int scheduleIndex = 0;
+			long[] lags = null;
 			
 			// reuse these data structures in the thread
 			ProcessingContextImpl context = new ProcessingContextImpl(txCoordinator); 
 			boolean sticky = false;
 			
+			// the next batch is received into another context while the previous ones are still being finished
+			List<ProcessingContextImpl> contexts = new ArrayList<>();
+			contexts.add(context);
+			asyncFinishPermits = new Semaphore(Math.max(1, processorOptions.getMaxOutstandingAsyncFinishes()));
+			if (processorOptions.isPipelined()){
+				finisher = Executors.newSingleThreadExecutor(finisherThreadFactory);
+			}
+			
 			while(!state.compareAndSet(State.STOPPING, State.STOPPED)){
 				if (!localSuppliers.equals(suppliers)){	// if suppliers changed
 					localSuppliers.clear();
 					localSuppliers.addAll(suppliers);
 					outOfRangeReached = new boolean[localSuppliers.size()];
 					partition = partition % outOfRangeReached.length;
+					schedule = null;
+					lags = null;
 				}
 				
 				while(state.get() == State.RUNNING){
@@ -370,7 +410,18 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 						logger.debug("Processor '{}' {}stick on '{}'", processorId, sticky ? "" : "no longer ", seriesId(localSuppliers.get(partition)));
 					}
 					if (!sticky){
-						partition = (partition+1) % outOfRangeReached.length;
+						if (processorOptions.getSchedulingPolicy() != Options.SCHEDULING_BY_LAG){
+							partition = (partition+1) % outOfRangeReached.length;
+						}else{	// ties are broken in round robin order, partitions already processed to the end of their ranges are left out
+							if (schedule == null){
+								schedule = new int[outOfRangeReached.length];
+								lags = new long[outOfRangeReached.length];
+							}
+							scheduleLength = lagTracker.prioritize(localSuppliers, DefaultTransactionalStreamDataBatchProcessing.this::seriesId, 
+									(partition+1) % outOfRangeReached.length, outOfRangeReached, schedule, lags);
+							scheduleIndex = 0;
+							partition = schedule[0];
+						}
 					}
 
 					try{
@@ -394,7 +445,7 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 								break;
 							}
 							await();
-							partition = (partition+1) % outOfRangeReached.length;
+							partition = schedule == null ? (partition+1) % outOfRangeReached.length : schedule[++scheduleIndex % scheduleLength];
 						}
 						
 						// got a skeleton, with matching seriesId
@@ -462,8 +513,14 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 									attempts,
 									DurationFormatter.formatSince(startTime));
 						}
+						long transactionStartTime = System.currentTimeMillis();
 						doTransaction(context.withSeriesId(seriesId).withTransaction(transaction), supplierWithIdAndRange);
+						transactions.increment();
+						if (!context.isOpenRangeAbortedBecauseNothingReceived){	// waiting for data that never came is not processing
+							processingMillis.add(System.currentTimeMillis() - transactionStartTime);
+						}
 						if (context.isOutOfRangeMessageReached){
+							awaitFinishes(contexts);	// the finished position would not be up to date otherwise
 							String finishedPosition;
 							try {
 								finishedPosition = SequentialTransactionsCoordinator.getFinishedPosition(txCoordinator.getRecentTransactions(seriesId));
@@ -475,12 +532,17 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 								logger.warn("[{}] Processor {} failed to get recent transactions", seriesId, processorId, e);
 							}
 						}
+						if (context.isFinishing()){	// switch to another context, the one being finished must not be touched
+							context = idleContext(contexts).carryOver(context);
+						}
 					}else{ // can't get a transaction
 						if (state.get() == State.RUNNING && !outOfRangeReached[partition]){
+							acquisitionFailures.increment();
 							await();
 						}
 					}
 				}  // state.get() == State.RUNNING
+				awaitFinishes(contexts);
 				state.compareAndSet(State.PAUSING, State.PAUSED);
 				if (allProcessed(outOfRangeReached)){
 					state.set(State.FINISHED);
@@ -488,66 +550,296 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 				}
 			} // state.compareAndSet(State.STOPPING, State.STOPPED)
 			
+			awaitFinishes(contexts);
+			if (finisher != null){
+				finisher.shutdown();
+				finisher = null;
+			}
 			logger.debug("[{}] Finish running: {}", processorId, state);
 		}
 		
+		ProcessorStatus getStatus(){
+			return new ProcessorStatus(state.get(), transactions.sum(), acquisitionFailures.sum(), processingMillis.sum());
+		}
+		
+		/**
+		 * Wait for the finishing of the previous batch in pipelined mode to complete
+		 */
+		private void awaitPendingFinish(){
+			if (pendingFinish != null){
+				try{
+					pendingFinish.join();
+				}catch(Exception e){
+					logger.warn("[{}] Unexpected error happened when finishing a batch", processorId, e);
+				}
+				pendingFinish = null;
+			}
+		}
+		
+		/**
+		 * Wait for all the batches to be finished, including asynchronous finishes
+		 * @param contexts	all the contexts used by the processor
+		 */
+		private void awaitFinishes(List<ProcessingContextImpl> contexts){
+			awaitPendingFinish();
+			for (ProcessingContextImpl c: contexts){
+				if (c.finishing != null){
+					awaitFinishing(c);
+				}
+			}
+		}
+		
+		/**
+		 * Wait for the batch in a context to be finished, but not after the transaction has timed out, 
+		 * because by then the transaction can be retried by any processor and waiting longer would only block this one.
+		 * @param context	the context of the batch
+		 */
+		private void awaitFinishing(ProcessingContextImpl context){
+			WaitStrategy waitStrategy = processorOptions.getWaitStrategy();
+			while(true){
+				long remainingMillis = context.transaction.getTimeout().toEpochMilli() - System.currentTimeMillis();
+				if (remainingMillis <= 0){
+					logger.warn("[{} - {}] Gave up waiting for the finishing of the batch of timed out transaction {}", 
+							context.seriesId, processorId, context.transaction.getTransactionId());
+					return;
+				}
+				try{
+					context.finishing.get(remainingMillis, TimeUnit.MILLISECONDS);	// the timeout may have been renewed meanwhile
+					return;
+				}catch(TimeoutException e){
+					// check the timeout again
+				}catch(InterruptedException ie){
+					waitStrategy.handleInterruptedException(ie);
+					return;
+				}catch(Exception e){
+					logger.warn("[{}] Unexpected error happened when finishing a batch", processorId, e);
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Wait for a permit for handing over a batch to {@link FlexibleBatchProcessor#finishAsync(ProcessingContext)}.
+		 * It gives up once the processor is no longer running or the thread is interrupted, 
+		 * so that a processor can be stopped even if an outstanding asynchronous finish never completes.
+		 * @return	true if a permit was acquired, false if it gave up
+		 */
+		private boolean acquireAsyncFinishPermit(){
+			try{
+				while(!asyncFinishPermits.tryAcquire(FINISH_WAIT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)){
+					if (state.get() != State.RUNNING){
+						return false;
+					}
+				}
+				return true;
+			}catch(InterruptedException ie){
+				processorOptions.getWaitStrategy().handleInterruptedException(ie);
+				return false;
+			}
+		}
+		
+		/**
+		 * Find a context that is not being used for finishing a batch, or create one if there is none
+		 * @param contexts	all the contexts used by the processor, a newly created one will be added
+		 * @return	an idle context
+		 */
+		private ProcessingContextImpl idleContext(List<ProcessingContextImpl> contexts){
+			for (ProcessingContextImpl c: contexts){
+				if (!c.isFinishing()){
+					return c;
+				}
+			}
+			ProcessingContextImpl c = new ProcessingContextImpl(txCoordinator);
+			contexts.add(c);
+			return c;
+		}
+		
+		/**
+		 * Outcome of the receiving phase of a batch processing transaction
+		 */
+		class ReceivedBatch{
+			ReceiveStatus receiveStatus;
+			String fetchedLastPosition;
+			boolean isInitiallyOpenRange;
+			boolean isOpenRangeClosed;
+			boolean isReadyToFinish;	// false if the batch should be aborted without calling batchProcessor.finish(...)
+		}
+		
 
 		/**
-		 * perform a batch processing transaction
+		 * perform a batch processing transaction. 
+		 * In pipelined mode this method returns once the data have been received, and the batch will be finished in background.
+		 * If the batch processor finishes the batch asynchronously, this method returns without waiting for the finishing to complete.
+		 * In both cases <code>context.isFinishing()</code> tells whether the batch is still being finished.
 		 * @param context	the processing context which will be updated in this method
 		 * @param supplierWithIdAndRange	the stream data supplier
 		 */
 		protected void doTransaction(ProcessingContextImpl context, StreamDataSupplierWithIdAndRange<M, ?> supplierWithIdAndRange) {
+			ReceivedBatch batch = receiveBatch(context, supplierWithIdAndRange);
+			
+			boolean isProcessingFailed;
+			if (finisher == null){
+				CompletableFuture<Boolean> finished = finishOrAbortBatch(context, batch);
+				context.finishing = finished;
+				// if the actual result is not known yet, a failed batch will be retried through the coordinator
+				isProcessingFailed = finished.isDone() ? finished.join() : !batch.isReadyToFinish;
+			}else{
+				awaitPendingFinish();	// batches must be finished in the same order as they were received
+				CompletableFuture<CompletableFuture<Boolean>> submitted = CompletableFuture.supplyAsync(()->finishOrAbortBatch(context, batch), finisher);
+				pendingFinish = submitted;
+				context.finishing = submitted.thenCompose(finished->finished);
+				isProcessingFailed = !batch.isReadyToFinish;	// the actual result is not known yet, a failed batch will be retried through the coordinator
+			}
+			
+			context.isOutOfRangeMessageReached = batch.receiveStatus == null ? false : batch.receiveStatus.isOutOfRangeReached();
+			context.isOpenRangeSuccessfullyClosed = batch.isInitiallyOpenRange && batch.isOpenRangeClosed && !isProcessingFailed;
+			context.isOpenRangeAbortedBecauseNothingReceived = batch.isInitiallyOpenRange && batch.fetchedLastPosition == null;
+		}
+		
+		/**
+		 * The receiving phase of a batch processing transaction: receive all the data in range and close the range if it was open
+		 * @param context	the processing context
+		 * @param supplierWithIdAndRange	the stream data supplier
+		 * @return	the outcome
+		 */
+		protected ReceivedBatch receiveBatch(ProcessingContextImpl context, StreamDataSupplierWithIdAndRange<M, ?> supplierWithIdAndRange) {
 			String seriesId = context.seriesId;
 			SequentialTransaction transaction = context.transaction;
 			
-			Boolean succeeded = false;
-			String fetchedLastPosition = null;
-			ReceiveStatus receiveStatus = null;
-			
-			boolean isInitiallyOpenRange = transaction.getEndPosition() == null;
-			boolean isOpenRangeClosed = false;
-			boolean isProcessingFailed = false;
+			ReceivedBatch batch = new ReceivedBatch();
+			batch.isInitiallyOpenRange = transaction.getEndPosition() == null;
 			try{
 				if (!batchProcessor.initialize(context)){
 					throw new Exception("Unable to initilize processor");
 				}
 				long receiveTimeoutMillis = batchProcessor.receive(context, null);	// keep it for logging
-				receiveStatus = supplierWithIdAndRange.receiveInRange(msg->{
-						long remaining = batchProcessor.receive(context, msg);
-						return state.get() == State.RUNNING && context.getTransactionTimeout().toEpochMilli() > System.currentTimeMillis()? 
-								remaining : 0;
-					}, transaction.getStartPosition(), transaction.getEndPosition());
-				fetchedLastPosition = receiveStatus.getLastPosition();
-				if (fetchedLastPosition != null){
-					if (isInitiallyOpenRange){  // we need to close the open range
+				int batchReceivingCapacity = batchProcessor.batchReceivingCapacity(context);
+				if (batchReceivingCapacity >= 0){
+					batch.receiveStatus = supplierWithIdAndRange.receiveBatchesInRange(msgs->{
+							long remaining = batchProcessor.receiveBatch(context, msgs);
+							return state.get() == State.RUNNING && context.getTransactionTimeout().toEpochMilli() > System.currentTimeMillis()? 
+									remaining : 0;
+						}, transaction.getStartPosition(), transaction.getEndPosition(), batchReceivingCapacity);
+				}else{
+					batch.receiveStatus = supplierWithIdAndRange.receiveInRange(msg->{
+							long remaining = batchProcessor.receive(context, msg);
+							return state.get() == State.RUNNING && context.getTransactionTimeout().toEpochMilli() > System.currentTimeMillis()? 
+									remaining : 0;
+						}, transaction.getStartPosition(), transaction.getEndPosition());
+				}
+				batch.fetchedLastPosition = batch.receiveStatus.getLastPosition();
+				if (batch.fetchedLastPosition != null){
+					if (batch.isInitiallyOpenRange){  // we need to close the open range
 						try{
-							txCoordinator.updateTransactionEndPosition(seriesId, processorId, transaction.getTransactionId(), fetchedLastPosition);
-							transaction.setEndPosition(fetchedLastPosition);
-							isOpenRangeClosed = true;
+							txCoordinator.updateTransactionEndPosition(seriesId, processorId, transaction.getTransactionId(), batch.fetchedLastPosition);
+							transaction.setEndPosition(batch.fetchedLastPosition);
+							batch.isOpenRangeClosed = true;
 						}catch(Exception e){
 							throw new Exception("Unable to update end position in open range transaction", e);
 						}
 					}else{  // we need to make sure that all items in the range had been fetched
-						if (!fetchedLastPosition.equals(transaction.getEndPosition())){
+						if (!batch.fetchedLastPosition.equals(transaction.getEndPosition())){
 							throw new Exception("Unable to fetch all the data in range within duration " + DurationFormatter.format(receiveTimeoutMillis)
-											+ ", endPosition=" + transaction.getEndPosition() + ", fetchedLastPosition=" + fetchedLastPosition);
+											+ ", endPosition=" + transaction.getEndPosition() + ", fetchedLastPosition=" + batch.fetchedLastPosition);
 						}
 					}
-					succeeded = batchProcessor.finish(context);
+					batch.isReadyToFinish = true;
 				}else{
 					if (logger.isDebugEnabled()){
-						logDebugInTransaction("Fetched nothing within " + DurationFormatter.format(receiveTimeoutMillis), context, fetchedLastPosition, receiveStatus.isOutOfRangeReached());
+						logDebugInTransaction("Fetched nothing within " + DurationFormatter.format(receiveTimeoutMillis), context, batch.fetchedLastPosition, batch.receiveStatus.isOutOfRangeReached());
 					}
-					if (receiveStatus.isOutOfRangeReached()){		// all data in range had been purged
-						succeeded = batchProcessor.finish(context);
+					if (batch.receiveStatus.isOutOfRangeReached()){		// all data in range had been purged
+						batch.isReadyToFinish = true;
 					}
 				}
 			}catch(Exception e){
 				if (logger.isDebugEnabled()){
-					logDebugInTransaction("Processing is not successful", context, fetchedLastPosition, e);
+					logDebugInTransaction("Processing is not successful", context, batch.fetchedLastPosition, e);
 				}
 			}
+			return batch;
+		}
+		
+		/**
+		 * Run the finishing phase of a batch processing transaction, and abort the transaction if the finishing failed unexpectedly,
+		 * so that the batch will be retried rather than be taken as finished.
+		 * @param context	the processing context
+		 * @param batch		outcome of the receiving phase
+		 * @return	completes with true if the processing failed and the transaction was aborted, it never completes exceptionally
+		 */
+		protected CompletableFuture<Boolean> finishOrAbortBatch(ProcessingContextImpl context, ReceivedBatch batch) {
+			CompletableFuture<Boolean> finished;
+			try{
+				finished = finishBatch(context, batch);
+			}catch(Exception e){
+				finished = new CompletableFuture<>();
+				finished.completeExceptionally(e);
+			}
+			return finished.exceptionally(e->{
+				logger.warn("[{} - {}] Unexpected error happened when finishing the batch of transaction {}, the transaction will be aborted", 
+						context.seriesId, processorId, context.transaction.getTransactionId(), e);
+				return completeTransaction(context, batch, false);
+			});
+		}
+		
+		/**
+		 * The finishing phase of a batch processing transaction: let the batch processor finish the batch, 
+		 * then finish or abort the transaction accordingly once the finishing completes.
+		 * It waits if there are already as many outstanding asynchronous finishes as allowed, 
+		 * and aborts the transaction if the processor is stopped or paused while waiting.
+		 * @param context	the processing context
+		 * @param batch		outcome of the receiving phase
+		 * @return	completes with true if the processing failed and the transaction was aborted
+		 */
+		protected CompletableFuture<Boolean> finishBatch(ProcessingContextImpl context, ReceivedBatch batch) {
+			if (!batch.isReadyToFinish){
+				return CompletableFuture.completedFuture(completeTransaction(context, batch, false));
+			}
+			if (!acquireAsyncFinishPermit()){
+				if (logger.isDebugEnabled()){
+					logDebugInTransaction("Stopped waiting for outstanding asynchronous finishes", context, batch.fetchedLastPosition);
+				}
+				return CompletableFuture.completedFuture(completeTransaction(context, batch, false));
+			}
+			CompletionStage<Boolean> finishing;
+			try{
+				finishing = batchProcessor.finishAsync(context);
+				Validate.notNull(finishing, "finishAsync(...) of the batch processor must not return null");
+			}catch(Exception e){
+				asyncFinishPermits.release();
+				if (logger.isDebugEnabled()){
+					logDebugInTransaction("Processing is not successful", context, batch.fetchedLastPosition, e);
+				}
+				return CompletableFuture.completedFuture(completeTransaction(context, batch, false));
+			}
+			return finishing.handle((succeeded, e)->{
+				try{
+					if (e != null){
+						if (logger.isDebugEnabled()){
+							logDebugInTransaction("Processing is not successful", context, batch.fetchedLastPosition, e);
+						}
+						return completeTransaction(context, batch, false);
+					}
+					return completeTransaction(context, batch, succeeded);
+				}finally{
+					asyncFinishPermits.release();
+				}
+			}).toCompletableFuture();
+		}
+		
+		/**
+		 * Finish or abort the transaction according to the result of the batch processor
+		 * @param context	the processing context
+		 * @param batch		outcome of the receiving phase
+		 * @param succeeded	true if the batch finished successfully, false if unsuccessful, 
+		 * 					null if the transaction will be finished or aborted by the batch processor itself
+		 * @return	true if the processing failed and the transaction was aborted
+		 */
+		protected boolean completeTransaction(ProcessingContextImpl context, ReceivedBatch batch, Boolean succeeded) {
+			String seriesId = context.seriesId;
+			SequentialTransaction transaction = context.transaction;
+			String fetchedLastPosition = batch.fetchedLastPosition;
+			
 			if (succeeded == null){	// the batchProcessor will handle transaction by itself
 				// do nothing because the batchProcessor will do it later
 			}else if (succeeded){	// succeeded
@@ -560,7 +852,6 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 					}
 				}
 			}else{	// failed
-				isProcessingFailed = true;	// may also because that nothing had been received for the open range
 				try{
 					txCoordinator.abortTransaction(seriesId, processorId, transaction.getTransactionId());
 					if (logger.isDebugEnabled()){
@@ -571,14 +862,12 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 						logDebugInTransaction("Unable to abort transaction", context, fetchedLastPosition, e);
 					}
 				}
+				return true;	// may also because that nothing had been received for the open range
 			}
-			
-			context.isOutOfRangeMessageReached = receiveStatus == null ? false : receiveStatus.isOutOfRangeReached();
-			context.isOpenRangeSuccessfullyClosed = isInitiallyOpenRange && isOpenRangeClosed && !isProcessingFailed;
-			context.isOpenRangeAbortedBecauseNothingReceived = isInitiallyOpenRange && fetchedLastPosition == null;
+			return false;
 		}
 		
-		protected void logDebugInTransaction(String message, ProcessingContextImpl context, String fetchedLastPosition, Exception e){
+		protected void logDebugInTransaction(String message, ProcessingContextImpl context, String fetchedLastPosition, Throwable e){
 			SequentialTransaction transaction = context.transaction;
 			logger.debug("[{} - {}] " + message + ": transactionId={}, startPosition={}, endPosition={}, fetchedLastPosition={}. Exception: {}", 
 					context.seriesId, processorId, transaction.getTransactionId(), transaction.getStartPosition(), transaction.getEndPosition(), 
@@ -623,7 +912,7 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 		if (processor == null){
 			return null;
 		}else{
-			return new ProcessorStatus(processor.state.get());
+			return processor.getStatus();
 		}
 	}
 
@@ -633,7 +922,7 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 	public SortedMap<String, ProcessorStatus> getProcessorStatus(){
 		SortedMap<String, ProcessorStatus> result = new TreeMap<>();
 		for (Processor runnable: processors.values()){
-			result.put(runnable.processorId, new ProcessorStatus(runnable.state.get()));
+			result.put(runnable.processorId, runnable.getStatus());
 		}
 		return result;
 	}
@@ -686,6 +975,19 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 		return result;
 	}
 	
+	@Override
+	public LinkedHashMap<String, Long> getStreamLag(){
+		List<StreamDataSupplierWithIdAndRange<M, ?>> localSuppliers = new ArrayList<>(suppliers.size());
+		localSuppliers.addAll(suppliers);
+
+		LinkedHashMap<String, Long> result = new LinkedHashMap<>(localSuppliers.size());
+		for (StreamDataSupplierWithIdAndRange<M, ?> supplier: localSuppliers){
+			long lag = lagTracker.getLag(seriesId(supplier), supplier);
+			result.put(supplier.getId(), lag == PartitionLagTracker.UNKNOWN_LAG || lag == PartitionLagTracker.NEVER_FINISHED_LAG ? null : lag);
+		}
+		return result;
+	}
+	
 	
 	/**
 	 * Options for the processing.
@@ -699,6 +1001,23 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 	 * 			previously there was no data available for processing</li>
 	 * 	<li>waitStrategy - the {@link WaitStrategy} specifying how to wait for a specific time duration</li>
 	 *  <li>noStick/stickyWhenOpenRangeSucceeded/stickyWhenOpenRangeSucceededOrNoData - how processors stick to suppliers</li>
+	 *  <li>roundRobinScheduling/lagAwareScheduling - how processors choose the next supplier when they are not sticking to one.
+	 *  		In round robin scheduling, which is the default, all suppliers are tried one after another.
+	 *  		In lag aware scheduling, suppliers furthest behind are tried first. The lag of a supplier is the difference 
+	 *  		between the enqueued time of its last position and the enqueued time of the finished position,
+	 *  		and it is sampled no more often than once per lagSamplingInterval. 
+	 *  		The same samples are reported by {@link DefaultTransactionalStreamDataBatchProcessing#getStreamLag()} regardless of the scheduling policy.</li>
+	 *  <li>maxOutstandingAsyncFinishes - maximum number of batches per processor that have been handed over to 
+	 *  		{@link FlexibleBatchProcessor#finishAsync(ProcessingContext)} but not yet completed. 
+	 *  		When the limit is reached, the processor waits before handing over another batch. The default is 1.</li>
+	 *  <li>pipelined - whether processors should acquire the next transaction and receive its data while the previous batch
+	 *  		is being finished. In pipelined mode each processor keeps two batches in memory and calls 
+	 *  		{@link FlexibleBatchProcessor#finish(ProcessingContext)} in a background thread, 
+	 *  		therefore the batch processor must keep per batch state in the {@link ProcessingContext}. 
+	 *  		Each processor alternates between two contexts, a context taking over from the one being finished 
+	 *  		starts without any value put with string keys, while values put with {@link ContextKey}s stay with the context 
+	 *  		and are therefore seen again by the batch after next. 
+	 *  		Batches of a processor are still finished one by one in the order they were received.</li>
 	 * </ul>
 	 * @author James Hu
 	 *
@@ -707,12 +1026,18 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 		static public final int STICKY_NEVER = 0;
 		static public final int STICKY_WHEN_OPEN_RANGE_SUCCEEDED = 1;
 		static public final int STICKY_WHEN_OPEN_RANGE_SUCCEEDED_OR_NO_DATA = 2;
+		static public final int SCHEDULING_ROUND_ROBIN = 0;
+		static public final int SCHEDULING_BY_LAG = 1;
 		private Duration initialTransactionTimeoutDuration;
 		private int maxInProgressTransactions;
 		private int maxRetringTransactions;
 		private Duration transactionAcquisitionDelay;
 		private WaitStrategy waitStrategy;
 		private int stickyMode = STICKY_NEVER;
+		private int schedulingPolicy = SCHEDULING_ROUND_ROBIN;
+		private Duration lagSamplingInterval = Duration.ofSeconds(30);
+		private boolean pipelined;
+		private int maxOutstandingAsyncFinishes = 1;
 		
 		public Options(){
 		}
@@ -724,6 +1049,10 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 			this.transactionAcquisitionDelay = that.transactionAcquisitionDelay;
 			this.waitStrategy = that.waitStrategy;
 			this.stickyMode = that.stickyMode;
+			this.schedulingPolicy = that.schedulingPolicy;
+			this.lagSamplingInterval = that.lagSamplingInterval;
+			this.pipelined = that.pipelined;
+			this.maxOutstandingAsyncFinishes = that.maxOutstandingAsyncFinishes;
 		}
 		
 		public Duration getInitialTransactionTimeoutDuration() {
@@ -816,6 +1145,70 @@ public class DefaultTransactionalStreamDataBatchProcessing<M> implements Transac
 			this.stickyMode = STICKY_WHEN_OPEN_RANGE_SUCCEEDED_OR_NO_DATA;
 			return this;
 		}
+		
+		public int getSchedulingPolicy() {
+			return schedulingPolicy;
+		}
+		public Options withSchedulingPolicy(int schedulingPolicy){
+			this.schedulingPolicy = schedulingPolicy;
+			return this;
+		}
+		
+		/**
+		 * Processors will try suppliers one after another in a round robin way.
+		 * @return the same Options object
+		 */
+		public Options withRoundRobinScheduling(){
+			this.schedulingPolicy = SCHEDULING_ROUND_ROBIN;
+			return this;
+		}
+		
+		/**
+		 * Processors will try suppliers furthest behind first.
+		 * @return the same Options object
+		 */
+		public Options withLagAwareScheduling(){
+			this.schedulingPolicy = SCHEDULING_BY_LAG;
+			return this;
+		}
+		
+		public Duration getLagSamplingInterval() {
+			return lagSamplingInterval;
+		}
+		public void setLagSamplingInterval(Duration lagSamplingInterval) {
+			this.lagSamplingInterval = lagSamplingInterval;
+		}
+		public Options withLagSamplingInterval(Duration lagSamplingInterval) {
+			this.lagSamplingInterval = lagSamplingInterval;
+			return this;
+		}
+		
+		public boolean isPipelined() {
+			return pipelined;
+		}
+		public void setPipelined(boolean pipelined) {
+			this.pipelined = pipelined;
+		}
+		/**
+		 * Specify whether processors should overlap the receiving of the next batch with the finishing of the previous batch
+		 * @param pipelined	true to enable pipelined mode, false to process batches strictly one after another
+		 * @return the same Options object
+		 */
+		public Options withPipelined(boolean pipelined) {
+			this.pipelined = pipelined;
+			return this;
+		}
+		
+		public int getMaxOutstandingAsyncFinishes() {
+			return maxOutstandingAsyncFinishes;
+		}
+		public void setMaxOutstandingAsyncFinishes(int maxOutstandingAsyncFinishes) {
+			this.maxOutstandingAsyncFinishes = maxOutstandingAsyncFinishes;
+		}
+		public Options withMaxOutstandingAsyncFinishes(int maxOutstandingAsyncFinishes) {
+			this.maxOutstandingAsyncFinishes = maxOutstandingAsyncFinishes;
+			return this;
+		}
 	}
 
 }
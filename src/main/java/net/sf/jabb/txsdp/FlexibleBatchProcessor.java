@@ -1,5 +1,8 @@
 package net.sf.jabb.txsdp;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * A flexible batch processor that supports real-time receiving of data items
@@ -22,6 +25,32 @@ public interface FlexibleBatchProcessor<T> {
 	 */
 	long receive(ProcessingContext context, T dataItem);
 	
+	/**
+	 * Get the maximum number of data items/messages that can be received through {@link #receiveBatch(ProcessingContext, List)}
+	 * in current batch. It is called after {@link #initialize(ProcessingContext)}.
+	 * If a non-negative number is returned, data items/messages will be handed over in lists as received from the stream.
+	 * @param context	the context of the batch
+	 * @return	maximum number of data items/messages that can be received, or negative if receiving in lists is not supported
+	 */
+	default int batchReceivingCapacity(ProcessingContext context){
+		return -1;
+	}
+	
+	/**
+	 * Receive a list of data items/messages. All the data items/messages in the list must be accepted.
+	 * The default implementation calls {@link #receive(ProcessingContext, Object)} for each of them.
+	 * @param context	the context of the batch
+	 * @param dataItems	data items/messages, can be empty but never be null
+	 * @return	number of milliseconds left for receiving remaining items/messages, can be zero or negative meaning should stop receiving
+	 */
+	default long receiveBatch(ProcessingContext context, List<T> dataItems){
+		long remaining = receive(context, null);
+		for (T dataItem: dataItems){
+			remaining = receive(context, dataItem);
+		}
+		return remaining;
+	}
+	
 	/**
 	 * Finish current batch
 	 * @param context	the context of the batch
@@ -29,4 +58,21 @@ public interface FlexibleBatchProcessor<T> {
 	 * null if the transaction will be finished or aborted by the FlexibleBatchProcessor itself.
 	 */
 	Boolean finish(ProcessingContext context);
+	
+	/**
+	 * Finish current batch asynchronously. The transaction will be finished or aborted according to the result 
+	 * when the returned stage completes, while the processor moves on to the next batch.
+	 * A stage completed exceptionally is treated the same as a result of false.
+	 * The context must not be used after the returned stage completes.
+	 * The number of outstanding stages per processor is limited by the <code>maxOutstandingAsyncFinishes</code> option.
+	 * The default implementation calls {@link #finish(ProcessingContext)} and returns a completed stage.
+	 * Implementations overriding this method can implement {@link #finish(ProcessingContext)} 
+	 * as <code>finishAsync(context).toCompletableFuture().join()</code>.
+	 * @param context	the context of the batch
+	 * @return	a stage that completes with true if the batch finished successfully, false if unsuccessful, 
+	 * null if the transaction will be finished or aborted by the FlexibleBatchProcessor itself.
+	 */
+	default CompletionStage<Boolean> finishAsync(ProcessingContext context){
+		return CompletableFuture.completedFuture(finish(context));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package net.sf.jabb.txsdp;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import net.sf.jabb.dstream.StreamDataSupplier;
+import net.sf.jabb.dstream.StreamDataSupplierWithIdAndRange;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.seqtx.SequentialTransactionsCoordinator;
+
+import org.slf4j.Logger;
+
+/**
+ * Internal tracker of how far behind the processing of each partition is.
+ * The lag of a partition is the difference between the enqueued time of the last position in the stream
+ * (or the end of the range if it is earlier) and the enqueued time of the finished position of the transaction series.
+ * Samples are cached and shared by all the processors, and refreshed by only one of them at a time after they become stale.
+ * @author James Hu
+ *
+ */
+class PartitionLagTracker {
+	private static final Logger logger = DefaultTransactionalStreamDataBatchProcessing.logger;
+
+	static final long UNKNOWN_LAG = -1;
+	static final long NEVER_FINISHED_LAG = Long.MAX_VALUE;
+
+	static class Sample{
+		volatile long lagMillis = UNKNOWN_LAG;
+		volatile long sampledMillis;
+		volatile String lastPosition;
+		volatile long rangeEndMillis;
+		volatile boolean isRangeEndResolved;	// the range of a series never changes, so its end needs to be resolved only once
+		final AtomicBoolean isSampling = new AtomicBoolean(false);
+	}
+
+	private SequentialTransactionsCoordinator txCoordinator;
+	private long samplingIntervalMillis;
+	private Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+	PartitionLagTracker(SequentialTransactionsCoordinator txCoordinator, long samplingIntervalMillis){
+		this.txCoordinator = txCoordinator;
+		this.samplingIntervalMillis = samplingIntervalMillis;
+	}
+
+	/**
+	 * Get the lag of a partition, sample it if the cached one is stale
+	 * @param seriesId		ID of the transaction series of the partition
+	 * @param supplierWithIdAndRange		the supplier and the range of the partition
+	 * @return	lag in milliseconds, {@link #NEVER_FINISHED_LAG} if nothing has been finished yet,
+	 * 			or {@link #UNKNOWN_LAG} if it has never been sampled successfully
+	 */
+	long getLag(String seriesId, StreamDataSupplierWithIdAndRange<?, ?> supplierWithIdAndRange){
+		Sample sample = samples.computeIfAbsent(seriesId, k->new Sample());
+		if (System.currentTimeMillis() - sample.sampledMillis >= samplingIntervalMillis
+				&& sample.isSampling.compareAndSet(false, true)){	// other processors just use the stale one
+			try{
+				StreamDataSupplier<?> supplier = supplierWithIdAndRange.getSupplier();
+				String lastPosition = supplier.lastPosition();
+				String finishedPosition = SequentialTransactionsCoordinator.getFinishedPosition(txCoordinator.getRecentTransactions(seriesId));
+				if (!sample.isRangeEndResolved){
+					sample.rangeEndMillis = rangeEndMillis(supplierWithIdAndRange);
+					sample.isRangeEndResolved = true;
+				}
+				sample.lastPosition = lastPosition;
+				sample.lagMillis = calculateLag(supplier, lastPosition, finishedPosition, sample.rangeEndMillis);
+			}catch(Exception e){
+				if (logger.isDebugEnabled()){
+					logger.debug("[{}] Failed to sample the lag. Exception: {}", seriesId, DefaultTransactionalStreamDataBatchProcessing.exceptionSummary(e));
+				}
+			}finally{
+				sample.sampledMillis = System.currentTimeMillis();
+				sample.isSampling.set(false);
+			}
+		}
+		return sample.lagMillis;
+	}
+	
+	/**
+	 * Get the enqueued time of the end of the range of a partition
+	 * @param supplierWithIdAndRange		the supplier and the range of the partition
+	 * @return	the enqueued time in epoch milliseconds, or Long.MAX_VALUE if the range is not bounded or its end cannot be found
+	 * @throws DataStreamInfrastructureException	if the enqueued time of the end position cannot be fetched
+	 */
+	static long rangeEndMillis(StreamDataSupplierWithIdAndRange<?, ?> supplierWithIdAndRange) throws DataStreamInfrastructureException{
+		Object to = supplierWithIdAndRange.getTo();
+		if (to instanceof Instant){
+			return ((Instant) to).toEpochMilli();
+		}
+		if (to instanceof String && ((String) to).length() > 0){
+			Instant enqueuedTime = supplierWithIdAndRange.getSupplier().enqueuedTime((String) to);
+			if (enqueuedTime != null){
+				return enqueuedTime.toEpochMilli();
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Calculate the lag. Messages after the end of the range are not counted, 
+	 * so that a partition that has been processed up to the end of its range has no lag.
+	 * @param supplier	the supplier of the partition
+	 * @param lastPosition	the last position in the stream
+	 * @param finishedPosition	the finished position of the transaction series
+	 * @param rangeEndMillis	enqueued time of the end of the range in epoch milliseconds, Long.MAX_VALUE if the range is not bounded
+	 * @return	lag in milliseconds, {@link #NEVER_FINISHED_LAG}, or {@link #UNKNOWN_LAG}
+	 * @throws Exception	if the enqueued time cannot be fetched
+	 */
+	protected long calculateLag(StreamDataSupplier<?> supplier, String lastPosition, String finishedPosition, long rangeEndMillis) throws Exception{
+		if (lastPosition == null || lastPosition.equals(finishedPosition)){
+			return 0;
+		}
+		if (finishedPosition == null){
+			return NEVER_FINISHED_LAG;
+		}
+		Instant lastEnqueuedTime = supplier.enqueuedTime(lastPosition);
+		Instant finishedEnqueuedTime = supplier.enqueuedTime(finishedPosition);
+		if (lastEnqueuedTime == null || finishedEnqueuedTime == null){
+			return UNKNOWN_LAG;
+		}
+		return Math.max(0, Math.min(lastEnqueuedTime.toEpochMilli(), rangeEndMillis) - finishedEnqueuedTime.toEpochMilli());
+	}
+
+	/**
+	 * Order the partitions by lag, the one furthest behind comes first.
+	 * Partitions with the same lag keep the round robin order starting from the specified one.
+	 * Partitions that have been processed up to the end of their ranges are left out.
+	 * The arrays are provided by the caller so that they can be reused in every scheduling iteration.
+	 * @param suppliers		suppliers of the partitions
+	 * @param seriesIdFunction	function to get series ID from a supplier
+	 * @param start			index of the partition to start the round robin order from
+	 * @param outOfRangeReached	flags of the partitions that have been processed up to the end of their ranges
+	 * @param order			array to be filled with the indexes of the partitions in order, its length must be at least the number of partitions
+	 * @param lags			array for holding the lags of the partitions, its length must be at least the number of partitions
+	 * @return	number of partitions filled into <code>order</code>, 
+	 * 			could be 0 if all of them have been processed up to the end of their ranges
+	 */
+	<M> int prioritize(List<StreamDataSupplierWithIdAndRange<M, ?>> suppliers,
+			Function<StreamDataSupplierWithIdAndRange<M, ?>, String> seriesIdFunction, int start, boolean[] outOfRangeReached,
+			int[] order, long[] lags){
+		int n = suppliers.size();
+		int count = 0;
+		for (int i = 0; i < n; i ++){
+			int partition = (start + i) % n;
+			if (outOfRangeReached[partition]){
+				continue;
+			}
+			StreamDataSupplierWithIdAndRange<M, ?> supplierWithIdAndRange = suppliers.get(partition);
+			lags[partition] = getLag(seriesIdFunction.apply(supplierWithIdAndRange), supplierWithIdAndRange);
+			// insertion sort, it is stable and the number of partitions is small
+			int j = count++;
+			while (j > 0 && lags[order[j - 1]] < lags[partition]){
+				order[j] = order[j - 1];
+				j --;
+			}
+			order[j] = partition;
+		}
+		return count;
+	}
+
+}
@@ -117,6 +117,41 @@ public interface ProcessingContext {
 	 */
 	Object remove(String key);
 
+	/**
+	 * Put something into the context with a typed key. It is not guaranteed to be thread safe.
+	 * Implementations are encouraged to store the value in an indexed slot rather than a map.
+	 * @param key		the typed key that can be used later for retrieval
+	 * @param value		the value object
+	 * @param <T>		type of the value
+	 * @return		previous value associated with the key if exist, or null
+	 */
+	@SuppressWarnings("unchecked")
+	default <T> T put(ContextKey<T> key, T value){
+		return (T) put(key.toString(), value);
+	}
+
+	/**
+	 * Get previously put value object from the context with a typed key. It is not guaranteed to be thread safe.
+	 * @param key		the typed key previously used to put the value object
+	 * @param <T>		type of the value
+	 * @return			the value object associated with the key, or null if not found
+	 */
+	@SuppressWarnings("unchecked")
+	default <T> T get(ContextKey<T> key){
+		return (T) get(key.toString());
+	}
+
+	/**
+	 * Remove from the context if it exist.
+	 * @param key   the typed key previously used to put the value object
+	 * @param <T>		type of the value
+	 * @return	the value previously associated with the key, or null if not found
+	 */
+	@SuppressWarnings("unchecked")
+	default <T> T remove(ContextKey<T> key){
+		return (T) remove(key.toString());
+	}
+
 	/**
 	 * Get the transaction finisher that can be used to finish or abort the transaction.
 	 * @return	the transaction finisher that is detached from the context.
@@ -2,11 +2,14 @@ package net.sf.jabb.txsdp;
 
 import java.io.Serializable;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import net.sf.jabb.seqtx.SequentialTransaction;
 import net.sf.jabb.seqtx.SequentialTransactionsCoordinator;
+import net.sf.jabb.seqtx.SimpleSequentialTransaction;
 
 import org.slf4j.Logger;
 
@@ -23,12 +26,14 @@ class ProcessingContextImpl implements ProcessingContext{
 	String seriesId;
 	SequentialTransaction transaction;
 	Map<String, Object> map;
+	Object[] slots;
 	
 	String previousTransactionPreviousTransactionId;
 	String previousTransactionEndPosition;
 	boolean isOutOfRangeMessageReached;		// true if out of range message had reached which means probably we should stop processing
 	boolean isOpenRangeSuccessfullyClosed;
 	boolean isOpenRangeAbortedBecauseNothingReceived;
+	CompletableFuture<?> finishing;		// completes when the batch in this context has been finished and the transaction has been finished or aborted
 	
 	
 	ProcessingContextImpl(SequentialTransactionsCoordinator txCoordinator){
@@ -40,6 +45,36 @@ class ProcessingContextImpl implements ProcessingContext{
 		return this;
 	}
 	
+	/**
+	 * Check whether the batch in this context is still being finished
+	 * @return	true if this context cannot be used for another batch yet
+	 */
+	boolean isFinishing(){
+		return finishing != null && !finishing.isDone();
+	}
+	
+	/**
+	 * Take over the state needed for acquiring the next transaction from another context.
+	 * The transaction is copied so that the other context can still be used for finishing its batch.
+	 * Values put with string keys are not taken over, this context starts with none of them,
+	 * so that no value object can be shared with the batch being finished in another thread.
+	 * Values put with {@link ContextKey}s stay with this context, they were put by the batch 
+	 * that had been finished in this context, so that per batch buffers can be reused without touching the batch being finished.
+	 * @param that	the context of the previous batch
+	 * @return	this context
+	 */
+	ProcessingContextImpl carryOver(ProcessingContextImpl that){
+		this.seriesId = that.seriesId;
+		this.map = null;
+		this.transaction = that.transaction == null ? null : SimpleSequentialTransaction.copyOf(that.transaction);
+		this.previousTransactionPreviousTransactionId = that.previousTransactionPreviousTransactionId;
+		this.previousTransactionEndPosition = that.previousTransactionEndPosition;
+		this.isOutOfRangeMessageReached = that.isOutOfRangeMessageReached;
+		this.isOpenRangeSuccessfullyClosed = that.isOpenRangeSuccessfullyClosed;
+		this.isOpenRangeAbortedBecauseNothingReceived = that.isOpenRangeAbortedBecauseNothingReceived;
+		return this;
+	}
+	
 	ProcessingContextImpl withTransaction(SequentialTransaction transaction){
 		this.transaction = transaction;
 		this.isOutOfRangeMessageReached = false;
@@ -72,6 +107,30 @@ class ProcessingContextImpl implements ProcessingContext{
 		return map.remove(key);
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T put(ContextKey<T> key, T value){
+		int index = key.getIndex();
+		if (slots == null || index >= slots.length){
+			slots = slots == null ? new Object[ContextKey.count()] : Arrays.copyOf(slots, ContextKey.count());
+		}
+		Object previous = slots[index];
+		slots[index] = value;
+		return (T) previous;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T get(ContextKey<T> key){
+		int index = key.getIndex();
+		return slots == null || index >= slots.length ? null : (T) slots[index];
+	}
+	
+	@Override
+	public <T> T remove(ContextKey<T> key){
+		return get(key) == null ? null : put(key, null);
+	}
+	
 	@Override
 	public boolean renewTransactionTimeout(Instant newTimeout) {
 		try{
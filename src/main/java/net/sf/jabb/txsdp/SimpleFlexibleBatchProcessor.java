@@ -2,6 +2,7 @@ package net.sf.jabb.txsdp;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,8 +10,20 @@ import org.slf4j.LoggerFactory;
 class SimpleFlexibleBatchProcessor<T> implements FlexibleBatchProcessor<T>{
 	static private final Logger logger = LoggerFactory.getLogger(SimpleFlexibleBatchProcessor.class);
 	
-	static final String KEY_DATA_ITEMS = SimpleFlexibleBatchProcessor.class.getSimpleName() + ".dataItems";
-	static final String KEY_RECEIVE_TIMEOUT = SimpleFlexibleBatchProcessor.class.getSimpleName() + ".receiveTimeout";
+	/**
+	 * State of the batch being received, kept in the context so that the processor itself can be shared.
+	 * It is created once per context and reused by the batches after, and it holds the timeout as a primitive.
+	 */
+	static class Batch<T>{
+		final ArrayList<T> dataItems;
+		long receiveShouldFinishTime;
+		
+		Batch(int maxBatchSize){
+			dataItems = new ArrayList<T>(maxBatchSize);
+		}
+	}
+	
+	static final ContextKey<Batch<?>> KEY_BATCH = ContextKey.of(SimpleFlexibleBatchProcessor.class.getSimpleName() + ".batch");
 	
 	private SimpleBatchProcessor<T> simpleProcessor;
 	private int maxBatchSize;
@@ -29,20 +42,22 @@ class SimpleFlexibleBatchProcessor<T> implements FlexibleBatchProcessor<T>{
 	}
 	
 	@SuppressWarnings("unchecked")
+	static <T> Batch<T> batch(ProcessingContext context){
+		return (Batch<T>) context.get(KEY_BATCH);
+	}
+	
 	@Override
 	public boolean initialize(ProcessingContext context) {
 		try{
 			boolean isOpenRange = context.getTransactionEndPosition() == null;
-			Long receiveShouldFinishTime = System.currentTimeMillis() + (isOpenRange ? receiveTimeoutForOpenRange.toMillis() : receiveTimeout.toMillis());
-
-			context.put(KEY_RECEIVE_TIMEOUT, receiveShouldFinishTime);
-			
-			Object o = context.get(KEY_DATA_ITEMS);
-			if (o == null || !(o instanceof ArrayList)){
-				context.put(KEY_DATA_ITEMS, new ArrayList<T>(maxBatchSize));
+			Batch<T> batch = batch(context);
+			if (batch == null){
+				batch = new Batch<T>(maxBatchSize);
+				context.put(KEY_BATCH, batch);
 			}else{
-				((ArrayList<T>) o).clear();
+				batch.dataItems.clear();
 			}
+			batch.receiveShouldFinishTime = System.currentTimeMillis() + (isOpenRange ? receiveTimeoutForOpenRange.toMillis() : receiveTimeout.toMillis());
 			return true;
 		}catch(Exception e){
 			logger.error("Failed to initialize", e);
@@ -52,21 +67,36 @@ class SimpleFlexibleBatchProcessor<T> implements FlexibleBatchProcessor<T>{
 
 	@Override
 	public long receive(ProcessingContext context, T dataItem) {
+		Batch<T> batch = batch(context);
 		if (dataItem != null){
-			@SuppressWarnings("unchecked")
-			ArrayList<T> dataItems = (ArrayList<T>) context.get(KEY_DATA_ITEMS);
-			dataItems.add(dataItem);
-			if (dataItems.size() >= maxBatchSize){
+			batch.dataItems.add(dataItem);
+			if (batch.dataItems.size() >= maxBatchSize){
+				return 0;
+			}
+		}
+		return batch.receiveShouldFinishTime - System.currentTimeMillis();
+	}
+
+	@Override
+	public int batchReceivingCapacity(ProcessingContext context) {
+		return maxBatchSize - batch(context).dataItems.size();
+	}
+
+	@Override
+	public long receiveBatch(ProcessingContext context, List<T> dataItems) {
+		Batch<T> batch = batch(context);
+		if (dataItems.size() > 0){
+			batch.dataItems.addAll(dataItems);
+			if (batch.dataItems.size() >= maxBatchSize){
 				return 0;
 			}
 		}
-		return (Long)context.get(KEY_RECEIVE_TIMEOUT) - System.currentTimeMillis();
+		return batch.receiveShouldFinishTime - System.currentTimeMillis();
 	}
 
 	@Override
 	public Boolean finish(ProcessingContext context) {
-		@SuppressWarnings("unchecked")
-		ArrayList<T> dataItems = (ArrayList<T>) context.get(KEY_DATA_ITEMS);
+		ArrayList<T> dataItems = SimpleFlexibleBatchProcessor.<T>batch(context).dataItems;
 		try{
 			return simpleProcessor.process(context, dataItems);
 		}finally{
@@ -74,4 +104,4 @@ class SimpleFlexibleBatchProcessor<T> implements FlexibleBatchProcessor<T>{
 		}
 	}
 	
-}
\ No newline at end of file
+}
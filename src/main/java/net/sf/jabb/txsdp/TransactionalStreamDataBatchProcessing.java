@@ -142,11 +142,21 @@ public interface TransactionalStreamDataBatchProcessing<M> {
 
 	/**
 	 * Status of a single processor
+	 * <ul>
+	 * 	<li>state - state of the processor</li>
+	 * 	<li>transactions - number of transactions the processor has processed, successful or not</li>
+	 * 	<li>acquisitionFailures - number of times the processor could not get a transaction to process and had to wait</li>
+	 * 	<li>processingMillis - total number of milliseconds the processor has spent in processing transactions, 
+	 * 			not including the time spent in open range transactions that received nothing</li>
+	 * </ul>
 	 * @author James Hu
 	 *
 	 */
 	public static class ProcessorStatus{
 		protected State state;
+		protected long transactions;
+		protected long acquisitionFailures;
+		protected long processingMillis;
 	
 		public ProcessorStatus(){
 			
@@ -156,6 +166,13 @@ public interface TransactionalStreamDataBatchProcessing<M> {
 			this.state = state;
 		}
 		
+		public ProcessorStatus(State state, long transactions, long acquisitionFailures, long processingMillis){
+			this.state = state;
+			this.transactions = transactions;
+			this.acquisitionFailures = acquisitionFailures;
+			this.processingMillis = processingMillis;
+		}
+		
 		@Override
 		public String toString(){
 			return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
@@ -167,6 +184,27 @@ public interface TransactionalStreamDataBatchProcessing<M> {
 		public State getState() {
 			return state;
 		}
+
+		/**
+		 * @return the number of transactions processed
+		 */
+		public long getTransactions() {
+			return transactions;
+		}
+
+		/**
+		 * @return the number of times no transaction could be acquired
+		 */
+		public long getAcquisitionFailures() {
+			return acquisitionFailures;
+		}
+
+		/**
+		 * @return the total number of milliseconds spent in processing transactions
+		 */
+		public long getProcessingMillis() {
+			return processingMillis;
+		}
 	}
 
 	/**
@@ -288,6 +326,16 @@ public interface TransactionalStreamDataBatchProcessing<M> {
 	 * @throws DataStreamInfrastructureException				any exception happened in data stream 
 	 */
 	LinkedHashMap<String, StreamStatus> getStreamStatus() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException;
+	
+	/**
+	 * Get the lag per stream, which is the time between the enqueued time of the finished position and that of 
+	 * the last position available in the stream (or the end of the range if it is earlier).
+	 * Lags are sampled no more often than once per lag sampling interval and the samples are shared with lag aware scheduling, 
+	 * therefore this method is cheap enough to be called frequently.
+	 * @return	lag in milliseconds per stream listed in the original order of those streams, key-ed by IDs of the streams.
+	 * 			The lag is null if it is not known yet, for example when nothing has been finished in the stream.
+	 */
+	LinkedHashMap<String, Long> getStreamLag();
 
 	/**
 	 * Get the overall status of the processing
@@ -0,0 +1,372 @@
+package net.sf.jabb.dstream;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.junit.Test;
+
+public class JmsConsumerStreamDataSupplierTest {
+
+	/**
+	 * Supplier backed by an in-memory stream of messages at offsets 0 to size-1, with message selectors like "offset &gt; 5".
+	 * If the selector contains "even = TRUE", only messages at even offsets are returned.
+	 */
+	static class InMemoryJmsSupplier extends JmsConsumerStreamDataSupplier<Long>{
+		final int size;
+		final AtomicInteger consumersCreated = new AtomicInteger();
+		final AtomicInteger consumersClosed = new AtomicInteger();
+		final AtomicInteger positionCalls = new AtomicInteger();
+		volatile Thread receivingThread;
+		volatile String lastSelector;
+		boolean selectorPushdownSupported = true;
+
+		InMemoryJmsSupplier(int size){
+			this.size = size;
+		}
+
+		@Override
+		protected Connection getConnection() {
+			return proxy(Connection.class, (method, args) ->
+				"createSession".equals(method) ? proxy(Session.class, (sessionMethod, sessionArgs) -> {
+					if ("createConsumer".equals(sessionMethod)){
+						consumersCreated.incrementAndGet();
+						String selector = (String)sessionArgs[1];
+						lastSelector = selector;
+						Matcher matcher = Pattern.compile("offset > (-?\\d+)").matcher(selector);
+						assertTrue(matcher.find());
+						return consumer(Long.parseLong(matcher.group(1)) + 1, selector.contains("even = TRUE"));
+					}
+					return null;
+				}) : null);
+		}
+
+		MessageConsumer consumer(long firstOffset, boolean evenOnly){
+			long[] next = new long[] {firstOffset};
+			return proxy(MessageConsumer.class, (method, args) -> {
+				if (evenOnly && next[0] % 2 != 0){
+					next[0] ++;
+				}
+				switch(method){
+				case "receive":
+					receivingThread = Thread.currentThread();
+					if (next[0] >= size){
+						Thread.sleep(args == null ? 0 : (Long)args[0]);
+						return null;
+					}
+					return message(next[0]++);
+				case "receiveNoWait":
+					return next[0] < size ? message(next[0]++) : null;
+				case "close":
+					consumersClosed.incrementAndGet();
+					return null;
+				default:
+					return null;
+				}
+			});
+		}
+
+		static Message message(long offset){
+			return proxy(Message.class, (method, args) -> "getJMSTimestamp".equals(method) || "getLongProperty".equals(method) ? offset : null);
+		}
+
+		@Override
+		protected String messageSelector(String startPosition) {
+			return "offset > " + startPosition;
+		}
+
+		@Override
+		protected String messageSelector(Instant startEnqueuedTime) {
+			return "offset > " + (startEnqueuedTime.toEpochMilli() - 1);
+		}
+
+		@Override
+		protected Long convert(Message message) {
+			return offset(message);
+		}
+
+		@Override
+		protected String position(Message message) {
+			positionCalls.incrementAndGet();
+			return String.valueOf(offset(message));
+		}
+
+		@Override
+		protected Instant enqueuedTime(Message message) {
+			return Instant.ofEpochMilli(offset(message));
+		}
+
+		static long offset(Message message){
+			try {
+				return message.getLongProperty("offset");
+			} catch (JMSException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		protected boolean isSelectorPushdownSupported(){
+			return selectorPushdownSupported;
+		}
+
+		@Override
+		public String firstPosition() {
+			return "-1";
+		}
+
+		@Override
+		public String firstPosition(Instant enqueuedAfter, Duration waitForArrival) {
+			return String.valueOf(enqueuedAfter.toEpochMilli());
+		}
+
+		@Override
+		public String lastPosition() {
+			return String.valueOf(size - 1);
+		}
+
+		@Override
+		public Instant enqueuedTime(String position) {
+			return Instant.ofEpochMilli(Long.parseLong(position));
+		}
+
+		@Override
+		public String nextStartPosition(String previousEndPosition) {
+			return previousEndPosition;
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+			closeIdleConsumer();
+		}
+	}
+
+	interface Handler{
+		Object handle(String method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T proxy(Class<T> type, Handler handler){
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = handler.handle(method.getName(), args);
+			if (result == null && method.getReturnType() == boolean.class){
+				return false;
+			}
+			return result;
+		});
+	}
+
+	@Test
+	public void testConsumerReusedWhenContinuing() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		List<Long> list = new ArrayList<>();
+
+		ReceiveStatus status = supplier.fetch(list, "-1", "9", 100, Duration.ofSeconds(1));
+		assertEquals("9", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+
+		status = supplier.fetch(list, status.getLastPosition(), "19", 100, Duration.ofSeconds(1));
+		assertEquals("19", status.getLastPosition());
+
+		status = supplier.receive(m -> m == null ? 1000L : (m < 29 ? 1000L : 0L), status.getLastPosition(), (String)null);
+		assertEquals("29", status.getLastPosition());
+
+		status = supplier.receiveBatches(batch -> 1000L, status.getLastPosition(), "39", 100);
+		assertEquals("39", status.getLastPosition());
+
+		assertEquals(20, list.size());
+		for (int i = 0; i < 20; i ++){
+			assertEquals(Long.valueOf(i), list.get(i));
+		}
+		assertEquals(1, supplier.getConsumerCreations());
+		assertEquals(3, supplier.getConsumerReuses());
+		assertEquals(1, supplier.consumersCreated.get());
+		assertEquals(0, supplier.consumersClosed.get());
+
+		supplier.stop();
+		assertEquals(1, supplier.consumersClosed.get());
+	}
+
+	@Test
+	public void testFetchInCallerThreadWithDeadline() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(5);
+		List<Long> list = new ArrayList<>();
+
+		long startTime = System.currentTimeMillis();
+		ReceiveStatus status = supplier.fetch(list, "-1", (String)null, 100, Duration.ofMillis(200));
+		long elapsed = System.currentTimeMillis() - startTime;
+		assertEquals("4", status.getLastPosition());
+		assertFalse(status.isOutOfRangeReached());
+		assertEquals(5, list.size());
+		assertSame(Thread.currentThread(), supplier.receivingThread);
+		assertTrue("elapsed: " + elapsed, elapsed >= 150 && elapsed < 1000);
+	}
+
+	@Test
+	public void testConsumerNotReusedOnGap() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		List<Long> list = new ArrayList<>();
+
+		supplier.fetch(list, "-1", "9", 100, Duration.ofSeconds(1));
+		ReceiveStatus status = supplier.fetch(list, "50", "59", 100, Duration.ofSeconds(1));
+		assertEquals("59", status.getLastPosition());
+		assertEquals(Long.valueOf(51), list.get(10));
+
+		status = supplier.fetch(list, "9", "10", 100, Duration.ofSeconds(1));
+		assertEquals("10", status.getLastPosition());
+		assertEquals(Long.valueOf(10), list.get(19));
+
+		assertEquals(3, supplier.getConsumerCreations());
+		assertEquals(0, supplier.getConsumerReuses());
+		assertEquals(2, supplier.consumersClosed.get());
+	}
+
+	@Test
+	public void testConsumerClosedOnError() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		try{
+			supplier.receive(m -> {
+				if (m != null){
+					throw new IllegalStateException("failed");
+				}
+				return 1000L;
+			}, "-1", (String)null);
+			fail("should have thrown exception");
+		}catch(IllegalStateException e){
+			// expected
+		}
+		assertEquals(1, supplier.consumersClosed.get());
+
+		List<Long> list = new ArrayList<>();
+		supplier.fetch(list, "-1", "4", 100, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		assertEquals(2, supplier.getConsumerCreations());
+	}
+
+	@Test
+	public void testClientSideFilter() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		supplier.withMessageFilter(m -> InMemoryJmsSupplier.offset(m) % 2 == 0, null);
+		List<Long> list = new ArrayList<>();
+
+		ReceiveStatus status = supplier.fetch(list, "-1", "9", 100, Duration.ofSeconds(1));
+		assertEquals("offset > -1", supplier.lastSelector);
+		assertEquals(5, list.size());
+		assertEquals(Long.valueOf(8), list.get(4));
+		assertEquals("skipped messages should still advance the position", "9", status.getLastPosition());
+
+		list.clear();
+		status = supplier.receiveBatches(batch -> {
+			list.addAll(batch);
+			return 1000L;
+		}, status.getLastPosition(), "13", 100);
+		assertEquals("13", status.getLastPosition());
+		assertEquals(2, list.size());
+		assertEquals(1, supplier.getConsumerReuses());
+	}
+
+	@Test
+	public void testFilterSelectorPushdown() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		supplier.withMessageFilter(null, "even = TRUE");
+		List<Long> list = new ArrayList<>();
+
+		ReceiveStatus status = supplier.fetch(list, "-1", "9", 100, Duration.ofSeconds(1));
+		assertEquals("(offset > -1) AND (even = TRUE)", supplier.lastSelector);
+		assertEquals(5, list.size());
+		assertEquals(Long.valueOf(8), list.get(4));
+		assertTrue(status.isOutOfRangeReached());
+		assertEquals("end position should be reported after the messages were filtered out by the server", "9", status.getLastPosition());
+
+		List<Long> received = new ArrayList<>();
+		status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return 1000L;
+		}, "20", "25");
+		assertEquals("25", status.getLastPosition());
+		assertEquals(2, received.size());
+		assertEquals(Long.valueOf(22), received.get(0));
+
+		supplier = new InMemoryJmsSupplier(100);
+		supplier.selectorPushdownSupported = false;
+		supplier.withMessageFilter(m -> InMemoryJmsSupplier.offset(m) % 2 == 0, "even = TRUE");
+		list.clear();
+		status = supplier.fetch(list, "-1", "9", 100, Duration.ofSeconds(1));
+		assertEquals("offset > -1", supplier.lastSelector);
+		assertEquals(5, list.size());
+		assertEquals("9", status.getLastPosition());
+	}
+
+	@Test
+	public void testFilterSelectorMatchingNothingInRange() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		supplier.withMessageFilter(null, "even = TRUE");
+
+		List<Long> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "20", "21", 100, Duration.ofSeconds(1));
+		assertEquals(0, list.size());
+		assertTrue(status.isOutOfRangeReached());
+		assertEquals("21", status.getLastPosition());
+		assertEquals(Instant.ofEpochMilli(21), status.getLastEnqueuedTime());
+
+		List<Long> received = new ArrayList<>();
+		status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return 1000L;
+		}, "30", "31");
+		assertEquals(0, received.size());
+		assertEquals("31", status.getLastPosition());
+		assertEquals(Instant.ofEpochMilli(31), status.getLastEnqueuedTime());
+
+		status = supplier.receiveBatches(batch -> {
+			received.addAll(batch);
+			return 1000L;
+		}, "40", "41", 100);
+		assertEquals(0, received.size());
+		assertEquals("41", status.getLastPosition());
+		assertEquals(Instant.ofEpochMilli(41), status.getLastEnqueuedTime());
+	}
+
+	@Test
+	public void testPositionOnlyForLastMessage() throws Exception {
+		InMemoryJmsSupplier supplier = new InMemoryJmsSupplier(100);
+		supplier.withMessageFilter(m -> InMemoryJmsSupplier.offset(m) % 10 == 0, null);
+		List<Long> list = new ArrayList<>();
+
+		ReceiveStatus status = supplier.fetch(list, "-1", (String)null, 50, Duration.ofMillis(200));
+		assertEquals("99", status.getLastPosition());
+		assertEquals(10, list.size());
+		assertEquals(1, supplier.positionCalls.get());
+
+		long deadline = System.currentTimeMillis() + 200;
+		status = supplier.receiveBatches(batch -> deadline - System.currentTimeMillis(), "-1", (String)null, 100);
+		assertEquals("99", status.getLastPosition());
+		assertEquals(2, supplier.positionCalls.get());
+
+		long nextDeadline = System.currentTimeMillis() + 200;
+		status = supplier.receive(m -> nextDeadline - System.currentTimeMillis(), "-1", (String)null);
+		assertEquals("99", status.getLastPosition());
+		assertEquals(3, supplier.positionCalls.get());
+	}
+
+}
@@ -0,0 +1,161 @@
+package net.sf.jabb.dstream;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.ringbuffer.RingBuffer;
+import net.sf.jabb.dstream.ringbuffer.RingBufferStreamDataSupplier;
+
+public class MergedStreamDataSupplierTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+
+	static class Event{
+		final int child;
+		final long sequence;
+		final Instant enqueuedTime;
+
+		Event(int child, long sequence, Instant enqueuedTime){
+			this.child = child;
+			this.sequence = sequence;
+			this.enqueuedTime = enqueuedTime;
+		}
+
+		@Override
+		public String toString(){
+			return child + ":" + sequence + "@" + enqueuedTime.toEpochMilli();
+		}
+	}
+
+	/**
+	 * Child i has messages enqueued at BASE_TIME + 3 * j + i, for j from 0 to n-1
+	 */
+	static MergedStreamDataSupplier<Event> createMerged(int children, int n){
+		List<RingBufferStreamDataSupplier<Event>> suppliers = new ArrayList<>();
+		for (int i = 0; i < children; i ++){
+			RingBuffer<Event> buffer = new RingBuffer<>(1024);
+			for (int j = 0; j < n; j ++){
+				Instant enqueuedTime = Instant.ofEpochMilli(BASE_TIME + 3 * j + i);
+				buffer.publish(new Event(i, j, enqueuedTime), enqueuedTime);
+			}
+			suppliers.add(new RingBufferStreamDataSupplier<>(buffer));
+		}
+		return new MergedStreamDataSupplier<>(suppliers, e -> String.valueOf(e.sequence), e -> e.enqueuedTime, 4, Duration.ofMillis(10));
+	}
+
+	@Test
+	public void testPositionEncoding(){
+		List<String> positions = Arrays.asList("123", null, "", "a,b\\c", "\\-", "-1");
+		String encoded = MergedStreamDataSupplier.encodePosition(positions);
+		assertEquals(positions, MergedStreamDataSupplier.decodePosition(encoded));
+		assertEquals(Arrays.asList("1", "2"), MergedStreamDataSupplier.decodePosition("1,2"));
+		assertEquals(Arrays.asList("1", null), MergedStreamDataSupplier.decodePosition("1,\\-"));
+		assertEquals(Arrays.asList(""), MergedStreamDataSupplier.decodePosition(""));
+	}
+
+	@Test
+	public void testMergeInEnqueuedTimeOrder() throws Exception {
+		MergedStreamDataSupplier<Event> supplier = createMerged(3, 20);
+		assertEquals("-1,-1,-1", supplier.firstPosition());
+		assertEquals("19,19,19", supplier.lastPosition());
+
+		List<Event> all = new ArrayList<>();
+		String position = supplier.firstPosition();
+		List<String> batchEnds = new ArrayList<>();
+		ReceiveStatus status;
+		do{
+			status = supplier.fetch(all, position, 7, Duration.ofMillis(100));
+			if (status.getLastPosition() != null){
+				position = status.getLastPosition();
+				batchEnds.add(position);
+			}
+		}while(status.getLastPosition() != null);
+		assertEquals(60, all.size());
+		for (int i = 0; i < 60; i ++){
+			assertEquals(BASE_TIME + i, all.get(i).enqueuedTime.toEpochMilli());
+		}
+		assertEquals("19,19,19", position);
+		assertEquals("2,1,1", batchEnds.get(0));
+		assertEquals(Instant.ofEpochMilli(BASE_TIME + 57 + 2), supplier.enqueuedTime(position));
+
+		// a range can be fetched again with exactly the same result
+		List<Event> again = new ArrayList<>();
+		status = supplier.fetch(again, batchEnds.get(0), batchEnds.get(2), 1000, Duration.ofMillis(100));
+		assertEquals(batchEnds.get(2), status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+		assertEquals(all.subList(7, 21).toString(), again.toString());
+
+		List<Event> received = new ArrayList<>();
+		status = supplier.receive(e -> {
+			if (e != null){
+				received.add(e);
+			}
+			return 1000L;
+		}, batchEnds.get(1), batchEnds.get(2));
+		assertEquals(batchEnds.get(2), status.getLastPosition());
+		assertEquals(all.subList(14, 21).toString(), received.toString());
+	}
+
+	@Test
+	public void testEnqueuedTimeRange() throws Exception {
+		MergedStreamDataSupplier<Event> supplier = createMerged(2, 50);
+		List<Event> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, Instant.ofEpochMilli(BASE_TIME + 30), Instant.ofEpochMilli(BASE_TIME + 40), 1000, Duration.ofMillis(100));
+		assertEquals(7, list.size());
+		assertEquals(BASE_TIME + 31, list.get(0).enqueuedTime.toEpochMilli());
+		assertEquals(BASE_TIME + 40, list.get(6).enqueuedTime.toEpochMilli());
+		assertEquals(Instant.ofEpochMilli(BASE_TIME + 40), status.getLastEnqueuedTime());
+		assertEquals("13,13", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+
+		assertEquals("10,9", supplier.firstPosition(Instant.ofEpochMilli(BASE_TIME + 30), Duration.ZERO));
+		assertEquals(1, supplier.checkInRange("13,14", "13,13"));
+		assertEquals(0, supplier.checkInRange("13,13", "13,13"));
+		assertEquals(-1, supplier.checkInRange("12,13", "13,13"));
+		assertEquals("13,13", supplier.nextStartPosition("13,13"));
+	}
+
+	@Test
+	public void testIdleChildrenShareTimeout() throws Exception {
+		List<RingBufferStreamDataSupplier<Event>> suppliers = new ArrayList<>();
+		for (int i = 0; i < 5; i ++){
+			RingBuffer<Event> buffer = new RingBuffer<>(1024);
+			if (i == 0){		// only the first child has messages, others are idle
+				for (int j = 0; j < 10; j ++){
+					Instant enqueuedTime = Instant.ofEpochMilli(BASE_TIME + j);
+					buffer.publish(new Event(i, j, enqueuedTime), enqueuedTime);
+				}
+			}
+			suppliers.add(new RingBufferStreamDataSupplier<>(buffer));
+		}
+		MergedStreamDataSupplier<Event> supplier = new MergedStreamDataSupplier<>(suppliers, e -> String.valueOf(e.sequence), e -> e.enqueuedTime, 4, Duration.ofMillis(500));
+
+		List<Event> list = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		ReceiveStatus status = supplier.fetch(list, supplier.firstPosition(), 1000, Duration.ofMillis(100));
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(10, list.size());
+		assertEquals("9,-1,-1,-1,-1", status.getLastPosition());
+		assertTrue("fetch should not wait for each idle child in turn: " + elapsed, elapsed < 400);
+
+		List<Event> received = new ArrayList<>();
+		long receiveStart = System.currentTimeMillis();
+		status = supplier.receive(e -> {
+			if (e != null){
+				received.add(e);
+			}
+			return receiveStart + 100 - System.currentTimeMillis();
+		}, supplier.firstPosition(), (String)null);
+		elapsed = System.currentTimeMillis() - receiveStart;
+		assertFalse(received.isEmpty());
+		assertEquals((received.size() - 1) + ",-1,-1,-1,-1", status.getLastPosition());
+		assertTrue("receive should not wait for each idle child in turn: " + elapsed, elapsed < 400);
+	}
+
+}
@@ -0,0 +1,44 @@
+package net.sf.jabb.dstream;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.mock.MockedStreamDataSupplier;
+
+public class OffsetRangeCheckerTest {
+
+	@Test
+	public void testBounded() {
+		OffsetRangeChecker checker = OffsetRangeChecker.of("100");
+		assertTrue(checker.isBounded());
+		assertEquals(-1, checker.checkInRange(99));
+		assertEquals(0, checker.checkInRange(100));
+		assertEquals(1, checker.checkInRange(101));
+		assertEquals(-1, checker.checkInRange("-1"));
+		assertTrue(checker.isInRange("100"));
+		assertFalse(checker.isInRange(101L));
+	}
+
+	@Test
+	public void testUnbounded() {
+		OffsetRangeChecker checker = OffsetRangeChecker.of((String)null);
+		assertFalse(checker.isBounded());
+		assertEquals(-1, checker.checkInRange(Long.MAX_VALUE));
+		assertTrue(checker.isInRange("12345"));
+	}
+
+	@Test
+	public void testConsistentWithCheckInRange() {
+		StreamDataSupplier<String> supplier = new MockedStreamDataSupplier(10, Instant.now(), null);
+		for (String end: new String[]{null, "0", "1000", "-1"}){
+			RangeChecker checker = supplier.rangeChecker(end);
+			for (String position: new String[]{"-1", "0", "999", "1000", "1001"}){
+				assertEquals("(" + position + ", " + end + ")", supplier.isInRange(position, end), checker.isInRange(position));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package net.sf.jabb.dstream;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.dstream.ringbuffer.RingBuffer;
+import net.sf.jabb.dstream.ringbuffer.RingBufferStreamDataSupplier;
+
+public class ParallelDecodingStreamDataSupplierTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+	static final ExecutorService executor = Executors.newFixedThreadPool(4);
+	static final Set<String> decodingThreads = ConcurrentHashMap.newKeySet();
+
+	static final Function<Integer, String> SLOW_DECODER = i -> {
+		decodingThreads.add(Thread.currentThread().getName());
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		return "decoded-" + i;
+	};
+
+	@AfterClass
+	public static void shutdown(){
+		executor.shutdown();
+	}
+
+	static ParallelDecodingStreamDataSupplier<Integer, String> createSupplier(int n, int maxInFlight){
+		RingBuffer<Integer> buffer = new RingBuffer<>(1024);
+		for (int i = 0; i < n; i ++){
+			buffer.publish(i, Instant.ofEpochMilli(BASE_TIME + i));
+		}
+		return new ParallelDecodingStreamDataSupplier<>(new RingBufferStreamDataSupplier<>(buffer), SLOW_DECODER, executor, maxInFlight);
+	}
+
+	static void assertInOrder(List<String> decoded, int from, int to){
+		assertEquals(to - from, decoded.size());
+		for (int i = from; i < to; i ++){
+			assertEquals("decoded-" + i, decoded.get(i - from));
+		}
+	}
+
+	@Test
+	public void testFetchAndReceiveBatchesInOrder() throws Exception {
+		ParallelDecodingStreamDataSupplier<Integer, String> supplier = createSupplier(200, 4);
+		decodingThreads.clear();
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", "99", 1000, Duration.ofSeconds(1));
+		assertEquals("99", status.getLastPosition());
+		assertInOrder(list, 0, 100);
+		assertTrue("decoding should have happened in more than one thread: " + decodingThreads, decodingThreads.size() > 1);
+
+		List<String> received = new ArrayList<>();
+		status = supplier.receiveBatches(batch -> {
+			received.addAll(batch);
+			return 1000L;
+		}, status.getLastPosition(), "199", 1000);
+		assertEquals("199", status.getLastPosition());
+		assertInOrder(received, 100, 200);
+	}
+
+	@Test
+	public void testReceiveInOrder() throws Exception {
+		ParallelDecodingStreamDataSupplier<Integer, String> supplier = createSupplier(300, 8);
+		List<String> received = new ArrayList<>();
+		ReceiveStatus status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return 1000L;
+		}, "-1", "249");
+		assertEquals("249", status.getLastPosition());
+		assertInOrder(received, 0, 250);
+	}
+
+	@Test
+	public void testReceiveStoppedByReceiver() throws Exception {
+		ParallelDecodingStreamDataSupplier<Integer, String> supplier = createSupplier(300, 8);
+		List<String> received = new ArrayList<>();
+		ReceiveStatus status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return received.size() < 10 ? 1000L : 0L;
+		}, "-1", (String)null);
+		int last = Integer.parseInt(status.getLastPosition());
+		assertTrue("at most maxInFlight - 1 extra messages: " + last, last >= 9 && last < 9 + 8);
+		assertInOrder(received, 0, last + 1);
+	}
+
+	@Test
+	public void testDecodingFailure() throws Exception {
+		RingBuffer<Integer> buffer = new RingBuffer<>(16);
+		for (int i = 0; i < 10; i ++){
+			buffer.publish(i);
+		}
+		ParallelDecodingStreamDataSupplier<Integer, String> supplier = new ParallelDecodingStreamDataSupplier<>(new RingBufferStreamDataSupplier<>(buffer), i -> {
+			if (i == 7){
+				throw new IllegalArgumentException("bad message");
+			}
+			return String.valueOf(i);
+		}, executor, 3);
+		try{
+			supplier.fetch(new ArrayList<>(), "-1", 100, Duration.ofMillis(100));
+			fail("decoding failure should be propagated");
+		}catch(IllegalArgumentException e){
+			assertEquals("bad message", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testReceiveWithReusingConverter() throws Exception {
+		RingBuffer<RawMessage> buffer = new RingBuffer<>(1024);
+		for (int i = 0; i < 200; i ++){
+			buffer.publish(new RawMessage(ByteBuffer.wrap(("message-" + i).getBytes(StandardCharsets.UTF_8)), String.valueOf(i), BASE_TIME + i),
+					Instant.ofEpochMilli(BASE_TIME + i));
+		}
+		// hands over the same flyweight for every message, like KinesisStreamDataSupplier.reusingRawMessageConverter()
+		RingBufferStreamDataSupplier<RawMessage> reusing = new RingBufferStreamDataSupplier<RawMessage>(buffer){
+			final ThreadLocal<RawMessage> flyweights = ThreadLocal.withInitial(RawMessage::new);
+
+			@Override
+			public ReceiveStatus receive(Function<RawMessage, Long> receiver, String startPosition, String endPosition) throws DataStreamInfrastructureException {
+				return super.receive(m -> receiver.apply(m == null ? null : flyweights.get().set(m.getData().duplicate(), m.getPosition(), m.getEnqueuedMillis())),
+						startPosition, endPosition);
+			}
+		};
+		ParallelDecodingStreamDataSupplier<RawMessage, String> supplier = new ParallelDecodingStreamDataSupplier<>(reusing, raw -> {
+			String position = raw.getPosition();
+			try {
+				Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			String data = StandardCharsets.UTF_8.decode(raw.getData().duplicate()).toString();
+			return data.equals("message-" + position) ? "decoded-" + position : "corrupted-" + position + "-" + data;
+		}, executor, 8);
+		List<String> received = new ArrayList<>();
+		ReceiveStatus status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return 1000L;
+		}, "-1", "199");
+		assertEquals("199", status.getLastPosition());
+		assertInOrder(received, 0, 200);
+	}
+
+}
@@ -0,0 +1,38 @@
+package net.sf.jabb.dstream.eventhub;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+public class EnqueuedTimeCacheTest {
+
+	@Test
+	public void testGetAndCounters() {
+		EnqueuedTimeCache cache = new EnqueuedTimeCache();
+		Instant t1 = Instant.ofEpochMilli(1438740137186L);
+		cache.put("100", t1);
+		cache.put("200", null);
+		cache.put(null, t1);
+
+		assertEquals(t1, cache.get("100"));
+		assertEquals("should not be removed after got", t1, cache.get("100"));
+		assertNull(cache.get("200"));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testEviction() {
+		EnqueuedTimeCache cache = new EnqueuedTimeCache(2);
+		cache.put("1", Instant.ofEpochMilli(1));
+		cache.put("2", Instant.ofEpochMilli(2));
+		cache.get("1");		// makes "2" the least recently used
+		cache.put("3", Instant.ofEpochMilli(3));
+		assertNull(cache.get("2"));
+		assertEquals(Instant.ofEpochMilli(1), cache.get("1"));
+		assertEquals(Instant.ofEpochMilli(3), cache.get("3"));
+	}
+
+}
@@ -0,0 +1,134 @@
+package net.sf.jabb.dstream.kafka;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import net.sf.jabb.dstream.ReceiveStatus;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+public class KafkaStreamDataSupplierTest {
+	private static final TopicPartition PARTITION = new TopicPartition("test", 0);
+
+	protected KafkaStreamDataSupplier<String> createSupplier(MockConsumer<Void, String> consumer, int numRecords){
+		KafkaStreamDataSupplier<String> supplier = new KafkaStreamDataSupplier<>(consumer, Collections.singletonList(PARTITION));
+		for (int i = 0; i < numRecords; i ++){
+			consumer.addRecord(new ConsumerRecord<Void, String>(PARTITION.topic(), PARTITION.partition(), i, null, "message " + i));
+		}
+		return supplier;
+	}
+
+	@Test
+	public void testFetchStopsAtMaxItemsAndReusesPolledRecords() throws DataStreamInfrastructureException, InterruptedException {
+		MockConsumer<Void, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		KafkaStreamDataSupplier<String> supplier = createSupplier(consumer, 10);
+
+		List<String> list = new ArrayList<>();
+		long startTime = System.currentTimeMillis();
+		ReceiveStatus status = supplier.fetch(list, "0", "9", 4, Duration.ofSeconds(10));
+		assertTrue("should not wait for the timeout", System.currentTimeMillis() - startTime < 5000);
+		assertEquals(4, list.size());
+		assertEquals("3", status.getLastPosition());
+		assertFalse(status.isOutOfRangeReached());
+
+		list.clear();
+		status = supplier.fetch(list, supplier.nextStartPosition(status.getLastPosition()), "5", 100, Duration.ofSeconds(10));
+		assertEquals(2, list.size());
+		assertEquals("message 4", list.get(0));
+		assertEquals("5", status.getLastPosition());
+		assertEquals(1L, supplier.getPollSizeStatistics().getCount());
+		assertEquals(10L, supplier.getPollSizeStatistics().getSum().longValue());
+		assertEquals(2L, supplier.getFetchLatencyStatistics().getCount());
+	}
+
+	@Test
+	public void testReceiveOutOfRange() throws DataStreamInfrastructureException {
+		MockConsumer<Void, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		KafkaStreamDataSupplier<String> supplier = createSupplier(consumer, 10);
+
+		List<String> list = new ArrayList<>();
+		long timeout = System.currentTimeMillis() + 5000L;
+		ReceiveStatus status = supplier.receiveBatches(batch->{
+			list.addAll(batch);
+			return timeout - System.currentTimeMillis();
+		}, "2", "6");
+		assertEquals(5, list.size());
+		assertEquals("6", status.getLastPosition());
+
+		list.clear();
+		status = supplier.receive(msg->{
+			if (msg != null){
+				list.add(msg);
+			}
+			return timeout - System.currentTimeMillis();
+		}, "7", "8");
+		assertEquals(2, list.size());
+		assertEquals("8", status.getLastPosition());
+	}
+
+	@Test
+	public void testAsyncReceivingWithSmallQueue() throws Exception {
+		MockConsumer<Void, String> asyncConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		KafkaStreamDataSupplier<String> supplier = new KafkaStreamDataSupplier<>(new MockConsumer<Void, String>(OffsetResetStrategy.EARLIEST), 
+				()->asyncConsumer, Collections.singletonList(PARTITION));
+		asyncConsumer.assign(Collections.singletonList(PARTITION));
+		for (int i = 0; i < 10; i ++){
+			asyncConsumer.addRecord(new ConsumerRecord<Void, String>(PARTITION.topic(), PARTITION.partition(), i, null, "message " + i));
+		}
+		supplier.setAsyncReceivingQueueCapacity(3);
+
+		List<String> received = new CopyOnWriteArrayList<>();
+		String id = supplier.startAsyncReceiving(msg->{
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received.add(msg);
+		}, "0");
+		for (int i = 0; i < 100 && received.size() < 10; i ++){
+			Thread.sleep(50);
+		}
+		supplier.stopAsyncReceiving(id);
+		assertEquals(10, received.size());
+		for (int i = 0; i < 10; i ++){
+			assertEquals("message " + i, received.get(i));
+		}
+	}
+
+	@Test
+	public void testRecordFilter() throws DataStreamInfrastructureException, InterruptedException {
+		MockConsumer<Void, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+		KafkaStreamDataSupplier<String> supplier = createSupplier(consumer, 10)
+				.withRecordFilter(record -> record.offset() % 2 == 0);
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "0", "5", 100, Duration.ofSeconds(10));
+		assertEquals(3, list.size());
+		assertEquals("message 4", list.get(2));
+		assertEquals("skipped records should still advance the position", "5", status.getLastPosition());
+
+		list.clear();
+		long timeout = System.currentTimeMillis() + 5000L;
+		status = supplier.receive(msg->{
+			if (msg != null){
+				list.add(msg);
+			}
+			return timeout - System.currentTimeMillis();
+		}, "6", "9", record -> record.offset() == 7);
+		assertEquals(1, list.size());
+		assertEquals("message 7", list.get(0));
+		assertEquals("9", status.getLastPosition());
+	}
+
+}
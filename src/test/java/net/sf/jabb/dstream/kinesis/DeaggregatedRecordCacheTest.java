@@ -0,0 +1,75 @@
+package net.sf.jabb.dstream.kinesis;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.Messages;
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.protobuf.ByteString;
+
+public class DeaggregatedRecordCacheTest {
+
+	static Record aggregatedRecord(String sequenceNumber, String... userData) throws Exception{
+		Messages.AggregatedRecord.Builder builder = Messages.AggregatedRecord.newBuilder().addPartitionKeyTable("key");
+		for (String data: userData){
+			builder.addRecords(Messages.Record.newBuilder().setPartitionKeyIndex(0).setData(ByteString.copyFrom(data, "UTF-8")));
+		}
+		byte[] message = builder.build().toByteArray();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {(byte)0xF3, (byte)0x89, (byte)0x9A, (byte)0xC2});
+		out.write(message);
+		out.write(MessageDigest.getInstance("MD5").digest(message));
+		return new Record().withSequenceNumber(sequenceNumber).withPartitionKey("key")
+				.withApproximateArrivalTimestamp(new Date())
+				.withData(ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	static String dataOf(UserRecord userRecord){
+		return StandardCharsets.UTF_8.decode(userRecord.getData()).toString();
+	}
+
+	@Test
+	public void testAggregatedRecord() throws Exception {
+		DeaggregatedRecordCache cache = new DeaggregatedRecordCache();
+		Record record = aggregatedRecord("100", "a", "b", "c");
+		assertTrue(DeaggregatedRecordCache.isAggregated(record));
+
+		for (int i = 0; i < 2; i ++){
+			List<UserRecord> userRecords = cache.deaggregate(record);
+			assertEquals(3, userRecords.size());
+			for (int j = 0; j < 3; j ++){
+				assertEquals(j, userRecords.get(j).getSubSequenceNumber());
+				assertEquals(String.valueOf((char)('a' + j)), dataOf(userRecords.get(j)));
+			}
+		}
+		assertEquals("b", dataOf(cache.getUserRecord(record, 1)));
+		assertNull(cache.getUserRecord(record, 3));
+		assertEquals(1, cache.getMisses());
+		assertEquals(3, cache.getHits());
+	}
+
+	@Test
+	public void testNonAggregatedRecord() throws Exception {
+		DeaggregatedRecordCache cache = new DeaggregatedRecordCache();
+		Record record = new Record().withSequenceNumber("200").withPartitionKey("key")
+				.withApproximateArrivalTimestamp(new Date())
+				.withData(ByteBuffer.wrap("plain".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(DeaggregatedRecordCache.isAggregated(record));
+
+		List<UserRecord> userRecords = cache.deaggregate(record);
+		assertEquals(1, userRecords.size());
+		assertEquals("plain", dataOf(userRecords.get(0)));
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, cache.getHits());
+	}
+
+}
@@ -0,0 +1,77 @@
+package net.sf.jabb.dstream.kinesis;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+public class KinesisReadGovernorTest {
+
+	@Test
+	public void testCallTokens() throws Exception {
+		KinesisReadGovernor governor = new KinesisReadGovernor(5, 1024 * 1024, 200, 2000);
+		for (int i = 0; i < 5; i ++){
+			assertTrue(governor.acquire("shard-0", 0));
+		}
+		assertFalse("burst should be limited to 5 calls", governor.acquire("shard-0", 10));
+		assertTrue("shards have their own budgets", governor.acquire("shard-1", 0));
+
+		long start = System.currentTimeMillis();
+		assertTrue(governor.acquire("shard-0", 1000));
+		long waited = System.currentTimeMillis() - start;
+		assertTrue("should wait for the next token: " + waited, waited >= 100 && waited < 500);
+		assertEquals(7, governor.getCalls());
+		assertEquals(2, governor.getWaits());
+	}
+
+	@Test
+	public void testByteTokens() throws Exception {
+		KinesisReadGovernor governor = new KinesisReadGovernor(100, 1000, 0, 100);
+		assertEquals(1.0, governor.getRemainingReadCapacity("shard-0"), 0.01);
+		assertTrue(governor.acquire("shard-0", 0));
+		governor.recordResult("shard-0", Collections.singletonList(new Record().withData(ByteBuffer.allocate(1500))));
+		assertEquals(0.0, governor.getRemainingReadCapacity("shard-0"), 0.0);
+		assertFalse("overdrawn bytes should be paid back first", governor.acquire("shard-0", 200));
+		assertTrue(governor.acquire("shard-0", 1000));
+	}
+
+	@Test
+	public void testThrottled() throws Exception {
+		KinesisReadGovernor governor = new KinesisReadGovernor(5, 1024 * 1024, 200, 2000);
+		governor.recordThrottled("shard-0");
+		assertEquals(0.0, governor.getRemainingReadCapacity().get("shard-0"), 0.0);
+		assertFalse(governor.acquire("shard-0", 500));
+		assertTrue(governor.acquire("shard-0", 1000));
+		assertEquals(1, governor.getThrottles());
+	}
+
+	@Test
+	public void testAdaptivePollInterval(){
+		KinesisReadGovernor governor = new KinesisReadGovernor(5, 1024 * 1024, 200, 2000);
+		assertEquals(200, governor.getPollInterval("shard-0"));
+		long[] expected = new long[]{400, 800, 1600, 2000, 2000};
+		for (long interval: expected){
+			governor.recordResult("shard-0", Collections.emptyList());
+			assertEquals(interval, governor.getPollInterval("shard-0"));
+		}
+		governor.recordResult("shard-0", Collections.singletonList(new Record().withData(ByteBuffer.allocate(10))));
+		assertEquals(1000, governor.getPollInterval("shard-0"));
+		governor.recordResult("shard-0", Collections.singletonList(new Record().withData(ByteBuffer.allocate(10))));
+		governor.recordResult("shard-0", Collections.singletonList(new Record().withData(ByteBuffer.allocate(10))));
+		governor.recordResult("shard-0", Collections.singletonList(new Record().withData(ByteBuffer.allocate(10))));
+		assertEquals(200, governor.getPollInterval("shard-0"));
+		assertEquals(200, governor.getPollInterval("shard-1"));
+	}
+
+	@Test
+	public void testSharedPerStream(){
+		KinesisReadGovernor governor = KinesisReadGovernor.forStream("kinesis.us-east-1.amazonaws.com", "stream-a", 1000);
+		assertSame(governor, KinesisReadGovernor.forStream("kinesis.us-east-1.amazonaws.com", "stream-a", 2000));
+		assertNotSame(governor, KinesisReadGovernor.forStream("kinesis.us-east-1.amazonaws.com", "stream-b", 1000));
+	}
+
+}
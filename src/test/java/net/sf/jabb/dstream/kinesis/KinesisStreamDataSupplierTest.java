@@ -0,0 +1,386 @@
+package net.sf.jabb.dstream.kinesis;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.RawMessage;
+import net.sf.jabb.dstream.ReceiveStatus;
+
+import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.GetRecordsRequest;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.GetShardIteratorResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.kinesis.model.ShardIteratorType;
+
+/**
+ * Tests against an in-memory shard which contains non-aggregated records unless a test replaces some with aggregated ones.
+ *
+ */
+public class KinesisStreamDataSupplierTest {
+	static final String SEQUENCE_NUMBER_PREFIX = "4956000000000000000000000000000000000000";
+
+	/**
+	 * Kinesis client simulating one shard. Shard iterators are the indexes of records in the shard.
+	 */
+	static class InMemoryShardClient extends AmazonKinesisClient{
+		List<Record> records = new ArrayList<>();
+		AtomicInteger getShardIteratorRequests = new AtomicInteger();
+		AtomicInteger getRecordsRequests = new AtomicInteger();
+
+		InMemoryShardClient(int numRecords){
+			for (int i = 0; i < numRecords; i ++){
+				records.add(new Record()
+						.withSequenceNumber(sequenceNumber(i))
+						.withPartitionKey("key")
+						.withApproximateArrivalTimestamp(new Date())
+						.withData(ByteBuffer.wrap(String.format("message %04d", i).getBytes(StandardCharsets.UTF_8))));
+			}
+		}
+
+		static String sequenceNumber(int i){
+			return SEQUENCE_NUMBER_PREFIX + String.format("%04d", i);
+		}
+
+		@Override
+		public GetShardIteratorResult getShardIterator(String streamName, String shardId, String shardIteratorType) {
+			getShardIteratorRequests.incrementAndGet();
+			return new GetShardIteratorResult().withShardIterator("0");
+		}
+
+		@Override
+		public GetShardIteratorResult getShardIterator(String streamName, String shardId, String shardIteratorType, String startingSequenceNumber) {
+			getShardIteratorRequests.incrementAndGet();
+			int i = Integer.parseInt(startingSequenceNumber.substring(SEQUENCE_NUMBER_PREFIX.length()));
+			if (ShardIteratorType.AFTER_SEQUENCE_NUMBER.name().equals(shardIteratorType)){
+				i ++;
+			}
+			return new GetShardIteratorResult().withShardIterator(String.valueOf(i));
+		}
+
+		@Override
+		public GetRecordsResult getRecords(GetRecordsRequest getRecordsRequest) {
+			getRecordsRequests.incrementAndGet();
+			int from = Integer.parseInt(getRecordsRequest.getShardIterator());
+			int to = Math.min(records.size(), from + getRecordsRequest.getLimit());
+			List<Record> result = new ArrayList<>();
+			for (int i = from; i < to; i ++){
+				Record r = records.get(i);
+				result.add(r.clone().withData(r.getData().duplicate()));
+			}
+			return new GetRecordsResult().withRecords(result).withNextShardIterator(String.valueOf(to));
+		}
+	}
+
+	protected KinesisStreamDataSupplier<String> createSupplier(InMemoryShardClient client, int batchSize){
+		return new KinesisStreamDataSupplier<>(client, "stream", "shard-0",
+				userRecord->StandardCharsets.UTF_8.decode(userRecord.getData()).toString(),
+				10, batchSize, batchSize);
+	}
+
+	@Test
+	public void testShardIteratorReused() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 5);
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", 5, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		assertEquals("message 0004", list.get(4));
+
+		list.clear();
+		status = supplier.fetch(list, supplier.nextStartPosition(status.getLastPosition()), 5, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		assertEquals("message 0005", list.get(0));
+		assertEquals(1, client.getShardIteratorRequests.get());
+		assertEquals(1, supplier.getShardIteratorCacheHits());
+		assertEquals(1, supplier.getShardIteratorCacheMisses());
+
+		list.clear();
+		status = supplier.fetch(list, InMemoryShardClient.sequenceNumber(2) + "/0/", 3, Duration.ofSeconds(1));
+		assertEquals("message 0003", list.get(0));
+		assertEquals(2, client.getShardIteratorRequests.get());
+	}
+
+	@Test
+	public void testCheckInRange() throws Exception {
+		KinesisStreamDataSupplier<String> supplier = createSupplier(new InMemoryShardClient(0), 5);
+		String seq = "49546986683135544286507457936321625675700192471156785154";
+		assertEquals(0, supplier.checkInRange(seq + "/3", seq + "/3/"));
+		assertEquals(1, supplier.checkInRange(seq + "/10", seq + "/9/"));
+		assertEquals(-1, supplier.checkInRange(seq + "/9", seq + "/10"));
+		assertEquals(-1, supplier.checkInRange("00" + seq + "/9", "1" + seq + "/0"));
+		assertEquals(1, supplier.checkInRange("2" + seq + "/0/", "1" + seq + "/9"));
+		assertEquals(-1, supplier.checkInRange("-1", seq + "/0"));
+		assertEquals(-1, supplier.checkInRange(seq + "/0", null));
+		assertEquals(1, supplier.checkInRange(seq + "/0", "-1"));
+	}
+
+	@Test
+	public void testFetchToEndPosition() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 3);
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", InMemoryShardClient.sequenceNumber(4) + "/0/", 100, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		assertEquals("message 0004", list.get(4));
+		assertTrue(status.isOutOfRangeReached());
+
+		list.clear();
+		status = supplier.receiveBatches(batch->{
+			list.addAll(batch);
+			return 1000L;
+		}, status.getLastPosition(), InMemoryShardClient.sequenceNumber(10) + "/0/", 100);
+		assertEquals(6, list.size());
+		assertEquals(InMemoryShardClient.sequenceNumber(10) + "/0/", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+	}
+
+	@Test
+	public void testReadingBypassesDeaggregatedRecordCache() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		for (int i = 2; i < 4; i ++){
+			client.records.set(i, DeaggregatedRecordCacheTest.aggregatedRecord(InMemoryShardClient.sequenceNumber(i), "a" + i, "b" + i, "c" + i));
+		}
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 3);
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", InMemoryShardClient.sequenceNumber(5) + "/0/", 100, Duration.ofSeconds(1));
+		assertEquals(10, list.size());
+		assertEquals("a2", list.get(2));
+		assertEquals("c3", list.get(7));
+		assertEquals("message 0005", list.get(9));
+		assertTrue(status.isOutOfRangeReached());
+		assertEquals(0, supplier.deaggregatedRecordCache.getMisses());
+		assertEquals(0, supplier.deaggregatedRecordCache.getHits());
+
+		assertEquals("b3", DeaggregatedRecordCacheTest.dataOf(supplier.getUserRecord(client.records.get(3), 1)));
+		assertEquals("lookups still go through the cache", 1, supplier.deaggregatedRecordCache.getMisses());
+	}
+
+	@Test
+	public void testPrefetching() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(100);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 10).withPrefetching(30, 1024*1024);
+		try{
+			List<String> list = new ArrayList<>();
+			ReceiveStatus status = supplier.fetch(list, "-1", 15, Duration.ofSeconds(5));
+			assertEquals(15, list.size());
+			assertEquals("message 0014", list.get(14));
+
+			List<String> batches = new ArrayList<>();
+			long timeout = System.currentTimeMillis() + 5000L;
+			status = supplier.receiveBatches(batch->{
+				batches.addAll(batch);
+				return timeout - System.currentTimeMillis();
+			}, supplier.nextStartPosition(status.getLastPosition()), (String)null, 20);
+			assertEquals(20, batches.size());
+			assertEquals("message 0015", batches.get(0));
+			assertEquals("message 0034", batches.get(19));
+			assertEquals(InMemoryShardClient.sequenceNumber(34) + "/0/", status.getLastPosition());
+			assertEquals(1, client.getShardIteratorRequests.get());
+
+			for (int i = 0; i < 100 && supplier.prefetcher.getBufferedRecords() < 30; i ++){
+				Thread.sleep(10);
+			}
+			assertEquals("buffer should be bounded", 30, supplier.prefetcher.getBufferedRecords());
+
+			list.clear();
+			status = supplier.fetch(list, InMemoryShardClient.sequenceNumber(89) + "/0/", 100, Duration.ofSeconds(1));
+			assertEquals(10, list.size());
+			assertEquals("message 0090", list.get(0));
+			assertEquals(2, client.getShardIteratorRequests.get());
+		}finally{
+			supplier.stop();
+		}
+	}
+
+	@Test
+	public void testPrefetchingSharedByConcurrentReaders() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(100);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 10).withPrefetching(30, 1024*1024);
+		try{
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			List<Future<String>> results = new ArrayList<>();
+			for (int start: new int[]{10, 50}){
+				results.add(executor.submit(()->{
+					for (int i = 0; i < 50; i ++){
+						List<String> list = new ArrayList<>();
+						ReceiveStatus status = supplier.fetch(list, InMemoryShardClient.sequenceNumber(start) + "/0/", 5, Duration.ofSeconds(5));
+						for (int j = 0; j < 5; j ++){
+							String expected = String.format("message %04d", start + 1 + j);
+							if (list.size() <= j || !expected.equals(list.get(j))){
+								return "expected " + expected + " but got " + list;
+							}
+						}
+						if (!(InMemoryShardClient.sequenceNumber(start + 5) + "/0/").equals(status.getLastPosition())){
+							return "unexpected last position " + status.getLastPosition();
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<String> result: results){
+				assertNull(result.get());
+			}
+			executor.shutdown();
+		}finally{
+			supplier.stop();
+		}
+	}
+
+	@Test
+	public void testPrefetchingByteBudget() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(100);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 2).withPrefetching(1000, 50);
+		try{
+			List<String> list = new ArrayList<>();
+			supplier.fetch(list, "-1", 1, Duration.ofSeconds(5));
+			assertEquals("message 0000", list.get(0));
+			Thread.sleep(200);
+			long bufferedBytes = supplier.prefetcher.getBufferedBytes();
+			assertTrue("buffered bytes should be around the budget: " + bufferedBytes, bufferedBytes >= 50 && bufferedBytes < 50 + 2 * 12);
+		}finally{
+			supplier.stop();
+		}
+	}
+
+	@Test
+	public void testRawMessages() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		KinesisStreamDataSupplier<RawMessage> supplier = new KinesisStreamDataSupplier<>(client, "stream", "shard-0",
+				KinesisStreamDataSupplier.rawMessageConverter(), 10, 5, 5);
+
+		List<RawMessage> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", 5, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		RawMessage first = list.get(0);
+		assertTrue(first.getData().isReadOnly());
+		assertEquals("message 0000", StandardCharsets.UTF_8.decode(first.getData().duplicate()).toString());
+		assertEquals(InMemoryShardClient.sequenceNumber(0) + "/0", first.getPosition());
+		assertEquals(client.records.get(0).getApproximateArrivalTimestamp().getTime(), first.getEnqueuedMillis());
+		assertNotSame(list.get(0), list.get(1));
+
+		// positions of raw messages can be used as start positions
+		list.clear();
+		status = supplier.fetch(list, supplier.nextStartPosition(first.getPosition()), 2, Duration.ofSeconds(1));
+		assertEquals(2, list.size());
+		assertEquals("message 0001", StandardCharsets.UTF_8.decode(list.get(0).getData()).toString());
+
+		Function<UserRecord, RawMessage> reusingConverter = KinesisStreamDataSupplier.reusingRawMessageConverter();
+		KinesisStreamDataSupplier<RawMessage> reusingSupplier = new KinesisStreamDataSupplier<>(client, "stream", "shard-0",
+				KinesisStreamDataSupplier.rawMessageConverter(), 10, 5, 5)
+				.withReceivingMessageConverter(reusingConverter);
+		List<RawMessage> received = new ArrayList<>();
+		List<RawMessage> copies = new ArrayList<>();
+		status = reusingSupplier.receive(m->{
+			if (m != null){
+				received.add(m);
+				copies.add(m.copy());
+			}
+			return 1000L;
+		}, "-1", InMemoryShardClient.sequenceNumber(9) + "/0/");
+		assertEquals(10, received.size());
+		assertSame(received.get(0), received.get(9));
+		assertEquals(InMemoryShardClient.sequenceNumber(9) + "/0/", status.getLastPosition());
+		for (int i = 0; i < 10; i ++){
+			assertEquals(String.format("message %04d", i), StandardCharsets.UTF_8.decode(copies.get(i).getData()).toString());
+		}
+
+		// messages kept in lists are never the flyweight
+		List<RawMessage> batches = new ArrayList<>();
+		reusingSupplier.receiveBatches(batch -> {
+			batches.addAll(batch);
+			return 1000L;
+		}, "-1", InMemoryShardClient.sequenceNumber(9) + "/0/", 100);
+		list.clear();
+		reusingSupplier.fetch(list, "-1", 10, Duration.ofSeconds(1));
+		assertEquals(10, batches.size());
+		assertEquals(10, list.size());
+		for (int i = 0; i < 10; i ++){
+			assertNotSame(received.get(0), batches.get(i));
+			assertNotSame(received.get(0), list.get(i));
+			assertEquals(String.format("message %04d", i), StandardCharsets.UTF_8.decode(batches.get(i).getData()).toString());
+			assertEquals(String.format("message %04d", i), StandardCharsets.UTF_8.decode(list.get(i).getData()).toString());
+		}
+
+		// one flyweight per thread
+		RawMessage[] fromOtherThread = new RawMessage[1];
+		Thread thread = new Thread(() -> fromOtherThread[0] = reusingConverter.apply(new UserRecord(client.records.get(0))));
+		thread.start();
+		thread.join();
+		assertNotSame(received.get(0), fromOtherThread[0]);
+		assertSame(received.get(0), reusingConverter.apply(new UserRecord(client.records.get(0))));
+	}
+
+	@Test
+	public void testRecordFilter() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 5)
+				.withRecordFilter(record -> record.getData().get(11) % 2 == 0);	// last digit is even
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", InMemoryShardClient.sequenceNumber(9) + "/0/", 100, Duration.ofSeconds(1));
+		assertEquals(5, list.size());
+		assertEquals("message 0008", list.get(4));
+		assertEquals("skipped records should still advance the position", InMemoryShardClient.sequenceNumber(9) + "/0/", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+
+		list.clear();
+		long timeout = System.currentTimeMillis() + 5000L;
+		status = supplier.receiveBatches(batch->{
+			list.addAll(batch);
+			return timeout - System.currentTimeMillis();
+		}, status.getLastPosition(), InMemoryShardClient.sequenceNumber(15) + "/0/", record -> false, 100);
+		assertEquals(0, list.size());
+		assertEquals(InMemoryShardClient.sequenceNumber(15) + "/0/", status.getLastPosition());
+
+		status = supplier.receive(m->{
+			if (m != null){
+				list.add(m);
+			}
+			return timeout - System.currentTimeMillis();
+		}, status.getLastPosition(), InMemoryShardClient.sequenceNumber(17) + "/0/");
+		assertEquals(1, list.size());
+		assertEquals("message 0016", list.get(0));
+		assertEquals(InMemoryShardClient.sequenceNumber(17) + "/0/", status.getLastPosition());
+	}
+
+	@Test
+	public void testReadGovernor() throws Exception {
+		InMemoryShardClient client = new InMemoryShardClient(20);
+		KinesisReadGovernor governor = new KinesisReadGovernor(5, 1024 * 1024, 5, 50);
+		KinesisStreamDataSupplier<String> supplier = createSupplier(client, 1).withReadGovernor(governor);
+		KinesisStreamDataSupplier<String> anotherSupplier = createSupplier(client, 1).withReadGovernor(governor);
+
+		List<String> list = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		ReceiveStatus status = supplier.fetch(list, "-1", 4, Duration.ofSeconds(2));
+		assertEquals(4, list.size());
+		assertTrue("burst should not be held back", System.currentTimeMillis() - start < 150);
+
+		list.clear();
+		status = anotherSupplier.fetch(list, status.getLastPosition(), 10, Duration.ofMillis(300));
+		assertTrue("the budget of the shard is shared: " + list.size(), list.size() >= 1 && list.size() <= 3);
+		assertEquals("message 0004", list.get(0));
+		assertEquals(4 + list.size(), governor.getCalls());
+		assertEquals(governor.getCalls(), client.getRecordsRequests.get());
+		assertTrue(governor.getRemainingReadCapacity("shard-0") < 0.5);
+	}
+
+}
@@ -0,0 +1,39 @@
+package net.sf.jabb.dstream.kinesis;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ShardIteratorCacheTest {
+
+	@Test
+	public void testTakeAndCounters() {
+		ShardIteratorCache cache = new ShardIteratorCache();
+		cache.put("100/0/", "iterator1");
+		cache.put(null, "iterator0");
+		cache.put("200/1", null);
+
+		assertNull(cache.take("200/1"));
+		assertEquals("iterator1", cache.take("100/0/"));
+		assertNull("should have been removed after taken", cache.take("100/0/"));
+		assertEquals("iterator0", cache.take("-1"));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testExpirationAndEviction() throws InterruptedException {
+		ShardIteratorCache cache = new ShardIteratorCache(2, 50);
+		cache.put("1/0/", "iterator1");
+		Thread.sleep(100);
+		assertNull(cache.take("1/0/"));
+
+		cache.put("1/0/", "iterator1");
+		cache.put("2/0/", "iterator2");
+		cache.put("3/0/", "iterator3");
+		assertNull(cache.take("1/0/"));
+		assertEquals("iterator2", cache.take("2/0/"));
+		assertEquals("iterator3", cache.take("3/0/"));
+	}
+
+}
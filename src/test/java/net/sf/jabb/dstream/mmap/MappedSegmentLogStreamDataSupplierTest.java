@@ -0,0 +1,213 @@
+package net.sf.jabb.dstream.mmap;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.sf.jabb.dstream.ReceiveStatus;
+
+public class MappedSegmentLogStreamDataSupplierTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static byte[] bytes(int i){
+		return ("message-" + i).getBytes(StandardCharsets.UTF_8);
+	}
+
+	static String string(byte[] data){
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append messages 0 to n-1, message i is enqueued at BASE_TIME + 10 * i
+	 */
+	static List<Long> appendMessages(MappedSegmentLog log, int n) throws Exception{
+		List<Long> positions = new ArrayList<>(n);
+		for (int i = 0; i < n; i ++){
+			positions.add(log.append(bytes(i), Instant.ofEpochMilli(BASE_TIME + 10 * i)));
+		}
+		return positions;
+	}
+
+	@Test
+	public void testFetchAcrossSegmentsAndReopen() throws Exception {
+		Path dir = folder.newFolder().toPath();
+		List<Long> positions;
+		try(MappedSegmentLog log = new MappedSegmentLog(dir, 256, 64)){
+			positions = appendMessages(log, 100);
+			assertTrue(log.getNumberOfSegments() > 5);
+
+			MappedSegmentLogStreamDataSupplier<byte[]> supplier = MappedSegmentLogStreamDataSupplier.byteArrays(log);
+			assertEquals(String.valueOf(positions.get(99)), supplier.lastPosition());
+
+			List<byte[]> list = new ArrayList<>();
+			String startPosition = supplier.firstPosition();
+			ReceiveStatus status;
+			do{
+				status = supplier.fetch(list, startPosition, String.valueOf(positions.get(59)), 7, Duration.ofMillis(100));
+				startPosition = supplier.nextStartPosition(status.getLastPosition());
+			}while(!startPosition.equals(String.valueOf(positions.get(59))));
+			assertEquals(60, list.size());
+			for (int i = 0; i < 60; i ++){
+				assertEquals("message-" + i, string(list.get(i)));
+			}
+
+			list.clear();
+			status = supplier.fetch(list, String.valueOf(positions.get(59)), String.valueOf(positions.get(69)), 100, Duration.ofMillis(100));
+			assertEquals(10, list.size());
+			assertEquals("message-60", string(list.get(0)));
+			assertEquals(String.valueOf(positions.get(69)), status.getLastPosition());
+			assertEquals(Instant.ofEpochMilli(BASE_TIME + 690), status.getLastEnqueuedTime());
+		}
+
+		try(MappedSegmentLog log = new MappedSegmentLog(dir, 256, 64)){
+			assertEquals(positions.get(99).longValue(), log.lastOffset());
+			MappedSegmentLogStreamDataSupplier<byte[]> supplier = MappedSegmentLogStreamDataSupplier.byteArrays(log);
+			assertEquals(Instant.ofEpochMilli(BASE_TIME + 500), supplier.enqueuedTime(String.valueOf(positions.get(50))));
+
+			long position = log.append(bytes(100), Instant.ofEpochMilli(BASE_TIME));
+			assertTrue(position > positions.get(99));
+			assertEquals("enqueued time should never go backwards", Instant.ofEpochMilli(BASE_TIME + 990), supplier.enqueuedTime(String.valueOf(position)));
+
+			List<byte[]> list = new ArrayList<>();
+			supplier.fetch(list, String.valueOf(positions.get(97)), 100, Duration.ofMillis(100));
+			assertEquals(3, list.size());
+			assertEquals("message-100", string(list.get(2)));
+		}
+	}
+
+	@Test
+	public void testEnqueuedTimeSeek() throws Exception {
+		try(MappedSegmentLog log = new MappedSegmentLog(folder.newFolder().toPath(), 1024, 64)){
+			List<Long> positions = appendMessages(log, 200);
+			MappedSegmentLogStreamDataSupplier<byte[]> supplier = MappedSegmentLogStreamDataSupplier.byteArrays(log);
+
+			assertEquals(String.valueOf(positions.get(0) - 1), supplier.firstPosition(Instant.ofEpochMilli(BASE_TIME - 1), Duration.ZERO));
+			assertEquals(String.valueOf(positions.get(124) - 1), supplier.firstPosition(Instant.ofEpochMilli(BASE_TIME + 1235), Duration.ZERO));
+			assertEquals(String.valueOf(positions.get(124) - 1), supplier.firstPosition(Instant.ofEpochMilli(BASE_TIME + 1230), Duration.ZERO));
+			assertNull(supplier.firstPosition(Instant.ofEpochMilli(BASE_TIME + 1990), Duration.ofMillis(10)));
+
+			List<byte[]> list = new ArrayList<>();
+			ReceiveStatus status = supplier.fetch(list, Instant.ofEpochMilli(BASE_TIME + 1000), Instant.ofEpochMilli(BASE_TIME + 1100), 100, Duration.ofMillis(100));
+			assertEquals(10, list.size());
+			assertEquals("message-101", string(list.get(0)));
+			assertEquals("message-110", string(list.get(9)));
+			assertEquals(String.valueOf(positions.get(110)), status.getLastPosition());
+
+			list.clear();
+			status = supplier.fetch(list, status.getLastPosition(), Instant.ofEpochMilli(BASE_TIME + 1155), 100, Duration.ofMillis(100));
+			assertEquals(5, list.size());
+			assertTrue(status.isOutOfRangeReached());
+
+			List<String> received = new ArrayList<>();
+			status = supplier.receive(m -> {
+				if (m != null){
+					received.add(string(m));
+				}
+				return 1000L;
+			}, Instant.ofEpochMilli(BASE_TIME + 1500), String.valueOf(positions.get(160)));
+			assertEquals(10, received.size());
+			assertEquals("message-151", received.get(0));
+			assertEquals(String.valueOf(positions.get(160)), status.getLastPosition());
+		}
+	}
+
+	@Test
+	public void testByteBuffersAndBatches() throws Exception {
+		try(MappedSegmentLog log = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 64)){
+			List<Long> positions = appendMessages(log, 50);
+			MappedSegmentLogStreamDataSupplier<ByteBuffer> supplier = MappedSegmentLogStreamDataSupplier.byteBuffers(log);
+
+			List<ByteBuffer> received = new ArrayList<>();
+			ReceiveStatus status = supplier.receiveBatches(batch -> {
+				received.addAll(batch);
+				return 1000L;
+			}, "-1", String.valueOf(positions.get(29)), 100);
+			assertEquals(30, received.size());
+			assertEquals(String.valueOf(positions.get(29)), status.getLastPosition());
+			for (int i = 0; i < 30; i ++){
+				ByteBuffer data = received.get(i);
+				assertTrue(data.isReadOnly());
+				assertEquals("message-" + i, StandardCharsets.UTF_8.decode(data).toString());
+			}
+		}
+	}
+
+	@Test
+	public void testMessagesSharingEndEnqueuedTime() throws Exception {
+		try(MappedSegmentLog log = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 64)){
+			List<Long> positions = new ArrayList<>();
+			for (int i = 0; i < 10; i ++){
+				positions.add(log.append(bytes(i), Instant.ofEpochMilli(BASE_TIME + (i < 2 ? i : i < 6 ? 10 : 20))));	// messages 2-5 share the same time
+			}
+			MappedSegmentLogStreamDataSupplier<byte[]> supplier = MappedSegmentLogStreamDataSupplier.byteArrays(log);
+			Instant end = Instant.ofEpochMilli(BASE_TIME + 10);
+
+			List<byte[]> list = new ArrayList<>();
+			ReceiveStatus status = supplier.fetch(list, "-1", end, 100, Duration.ofMillis(100));
+			assertEquals(6, list.size());
+			assertEquals("message-5", string(list.get(5)));
+			assertEquals(String.valueOf(positions.get(5)), status.getLastPosition());
+			assertTrue(status.isOutOfRangeReached());
+
+			List<String> received = new ArrayList<>();
+			status = supplier.receive(m -> {
+				if (m != null){
+					received.add(string(m));
+				}
+				return 1000L;
+			}, String.valueOf(positions.get(2)), end);
+			assertEquals(3, received.size());
+			assertEquals(String.valueOf(positions.get(5)), status.getLastPosition());
+			assertTrue(status.isOutOfRangeReached());
+
+			received.clear();
+			status = supplier.receiveBatches(batch -> {
+				batch.forEach(m -> received.add(string(m)));
+				return 1000L;
+			}, Instant.ofEpochMilli(BASE_TIME), end, 100);
+			assertEquals(5, received.size());
+			assertEquals("message-1", received.get(0));
+			assertEquals(String.valueOf(positions.get(5)), status.getLastPosition());
+			assertTrue(status.isOutOfRangeReached());
+		}
+	}
+
+	@Test
+	public void testWaitForArrival() throws Exception {
+		try(MappedSegmentLog log = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 64)){
+			MappedSegmentLogStreamDataSupplier<byte[]> supplier = MappedSegmentLogStreamDataSupplier.byteArrays(log);
+			assertNull(supplier.lastPosition());
+
+			Thread writer = new Thread(() -> {
+				try {
+					Thread.sleep(100);
+					log.append(bytes(0));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			writer.start();
+			List<byte[]> list = new ArrayList<>();
+			long startTime = System.currentTimeMillis();
+			ReceiveStatus status = supplier.fetch(list, supplier.firstPosition(), 10, Duration.ofSeconds(5));
+			assertTrue(System.currentTimeMillis() - startTime < 4000);
+			assertEquals(1, list.size());
+			assertEquals("0", status.getLastPosition());
+			writer.join();
+		}
+	}
+
+}
@@ -10,15 +10,24 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
 import net.sf.jabb.dstream.ReceiveStatus;
 import net.sf.jabb.dstream.StreamDataSupplier;
 import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
 import net.sf.jabb.seqtx.ex.TransactionStorageInfrastructureException;
 import net.sf.jabb.seqtx.mem.InMemSequentialTransactionsCoordinator;
+import net.sf.jabb.txsdp.FlexibleBatchProcessor;
 import net.sf.jabb.txsdp.ProcessingContext;
 import net.sf.jabb.txsdp.SimpleBatchProcessor;
 import net.sf.jabb.txsdp.TransactionalStreamDataBatchProcessing;
@@ -48,7 +57,298 @@ public class BatchProcessingMockedStreamDataTest {
 		doTest(-10, 11, 10);
 	}
 	
+	@Test
+	public void testPipelined() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		doTest(-10, 5, 100, options->options.withPipelined(true));
+	}
+	
+	@Test
+	public void testLagAwareScheduling() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		doTest(-10, 5, 100, options->options.withLagAwareScheduling().withLagSamplingInterval(Duration.ofSeconds(1)));
+	}
+	
+	@Test
+	public void testLagAwareSchedulingWithBoundedRanges() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		int eventsPerSecond = 100;
+		Instant streamStartTime = Instant.now().plus(Duration.ofMinutes(-10));
+		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(5));
+		Instant shortRangeEndTime = streamStartTime.plus(Duration.ofMinutes(1));
+
+		Options options = new Options()
+			.withInitialTransactionTimeoutDuration(Duration.ofSeconds(10))
+			.withMaxInProgressTransactions(10)
+			.withMaxRetringTransactions(10)
+			.withTransactionAcquisitionDelay(Duration.ofSeconds(2))
+			.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+			.withLagAwareScheduling()
+			.withLagSamplingInterval(Duration.ofMillis(100));
+		
+		AtomicLong totalEvents = new AtomicLong(0);
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options, 
+				new InMemSequentialTransactionsCoordinator(),
+				(context, data) ->{
+					totalEvents.addAndGet(data.size());
+					return true;
+				},
+				300, Duration.ofSeconds(5), Duration.ofSeconds(2),
+				ImmutableList.of(
+						new MockedStreamDataSupplier(eventsPerSecond, streamStartTime, streamEndTime).withId("Short").withRange(streamStartTime, shortRangeEndTime),
+						new MockedStreamDataSupplier(eventsPerSecond, streamStartTime, streamEndTime).withId("Long").withRange(streamStartTime, streamEndTime))
+		);
+		
+		new Thread(processing.createProcessor("processor1")).start();
+		new Thread(processing.createProcessor("processor2")).start();
+		processing.startAll();
+		
+		Status status;
+		while(true){
+			status = processing.getStatus();
+			if (status.getProcessorStatus().values().stream().allMatch(s->s.getState() == State.FINISHED)){
+				break;
+			}
+			Thread.sleep(1000);
+		}
+		processing.stopAll();
+		
+		assertEquals(60L * (1 + 5) * eventsPerSecond, totalEvents.get());
+		long acquisitionFailures = status.getProcessorStatus().values().stream().mapToLong(s->s.getAcquisitionFailures()).sum();
+		assertTrue("processors should not keep trying the partition that has reached the end of its range: " + acquisitionFailures, acquisitionFailures < 10);
+	}
+	
+	@Test
+	public void testAsyncFinish() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		int totalMinutes = 5;
+		int eventsPerSecond = 100;
+		int maxOutstanding = 2;
+		Instant streamStartTime = Instant.now().plus(Duration.ofMinutes(-10));
+		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(totalMinutes));
+		StreamDataSupplier<String> sds = new MockedStreamDataSupplier(eventsPerSecond, streamStartTime, streamEndTime);
+
+		Options options = new Options()
+			.withInitialTransactionTimeoutDuration(Duration.ofSeconds(10))
+			.withMaxInProgressTransactions(10)
+			.withMaxRetringTransactions(10)
+			.withTransactionAcquisitionDelay(Duration.ofSeconds(2))
+			.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+			.withMaxOutstandingAsyncFinishes(maxOutstanding);
+		
+		ScheduledExecutorService sink = Executors.newScheduledThreadPool(4);
+		AtomicLong totalEvents = new AtomicLong(0);
+		AtomicInteger batches = new AtomicInteger(0);
+		Map<String, AtomicInteger> outstanding = new ConcurrentHashMap<>();
+		AtomicInteger maxOutstandingSeen = new AtomicInteger(0);
+		
+		FlexibleBatchProcessor<String> processor = new FlexibleBatchProcessor<String>(){
+			@Override
+			public boolean initialize(ProcessingContext context) {
+				context.put("data", new ArrayList<String>());
+				context.put("timeout", System.currentTimeMillis() + (context.getTransactionEndPosition() == null ? 2000L : 5000L));
+				return true;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public long receive(ProcessingContext context, String dataItem) {
+				List<String> data = (List<String>) context.get("data");
+				if (dataItem != null){
+					data.add(dataItem);
+				}
+				return data.size() >= 300 ? 0 : (Long)context.get("timeout") - System.currentTimeMillis();
+			}
+
+			@Override
+			public Boolean finish(ProcessingContext context) {
+				return finishAsync(context).toCompletableFuture().join();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public CompletionStage<Boolean> finishAsync(ProcessingContext context) {
+				List<String> data = (List<String>) context.get("data");
+				AtomicInteger count = outstanding.computeIfAbsent(context.getProcessorId(), k->new AtomicInteger());
+				maxOutstandingSeen.accumulateAndGet(count.incrementAndGet(), Math::max);
+				CompletableFuture<Boolean> result = new CompletableFuture<>();
+				boolean toFail = batches.incrementAndGet() % 5 == 0;
+				sink.schedule(()->{
+					count.decrementAndGet();
+					if (toFail){
+						result.completeExceptionally(new IllegalStateException("failed to write to the sink"));
+					}else{
+						totalEvents.addAndGet(data.size());
+						result.complete(true);
+					}
+				}, 200, TimeUnit.MILLISECONDS);
+				return result;
+			}
+		};
+
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options, 
+				new InMemSequentialTransactionsCoordinator(), processor,
+				ImmutableList.of(sds.withId("Test Stream").withRange(streamStartTime, streamEndTime)));
+		
+		new Thread(processing.createProcessor("processor1")).start();
+		new Thread(processing.createProcessor("processor2")).start();
+		processing.startAll();
+		
+		while(!processing.getStatus().getProcessorStatus().values().stream().allMatch(s->s.getState() == State.FINISHED)){
+			Thread.sleep(1000);
+		}
+		processing.stopAll();
+		sink.shutdown();
+		
+		assertEquals(60L * totalMinutes * eventsPerSecond, totalEvents.get());
+		assertTrue("outstanding async finishes should be limited: " + maxOutstandingSeen.get(), maxOutstandingSeen.get() <= maxOutstanding);
+		assertTrue("failed batches should have been retried", batches.get() >= 5);
+	}
+	
+	@Test
+	public void testStopWhileFinishNeverCompletes() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		Instant streamStartTime = Instant.now().plus(Duration.ofMinutes(-10));
+		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(5));
+		StreamDataSupplier<String> sds = new MockedStreamDataSupplier(100, streamStartTime, streamEndTime);
+
+		Options options = new Options()
+			.withInitialTransactionTimeoutDuration(Duration.ofSeconds(3))
+			.withMaxInProgressTransactions(10)
+			.withMaxRetringTransactions(10)
+			.withTransactionAcquisitionDelay(Duration.ofSeconds(2))
+			.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+			.withMaxOutstandingAsyncFinishes(1);
+		
+		AtomicInteger finishes = new AtomicInteger(0);
+		FlexibleBatchProcessor<String> processor = new FlexibleBatchProcessor<String>(){
+			@Override
+			public boolean initialize(ProcessingContext context) {
+				context.put("received", new AtomicInteger());
+				return true;
+			}
+
+			@Override
+			public long receive(ProcessingContext context, String dataItem) {
+				return dataItem != null && ((AtomicInteger)context.get("received")).incrementAndGet() >= 300 ? 0 : 1000;
+			}
+
+			@Override
+			public Boolean finish(ProcessingContext context) {
+				return finishAsync(context).toCompletableFuture().join();
+			}
+
+			@Override
+			public CompletionStage<Boolean> finishAsync(ProcessingContext context) {
+				finishes.incrementAndGet();
+				return new CompletableFuture<>();	// never completes
+			}
+		};
+
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options, 
+				new InMemSequentialTransactionsCoordinator(), processor,
+				ImmutableList.of(sds.withId("Test Stream").withRange(streamStartTime, streamEndTime)));
+		
+		Thread thread = new Thread(processing.createProcessor("processor1"));
+		thread.start();
+		processing.startAll();
+		while(finishes.get() == 0){
+			Thread.sleep(100);
+		}
+		Thread.sleep(1000);	// the next batch is waiting for the permit by now
+		processing.stopAll();
+		thread.join(10000L);
+		assertFalse("the processor should have stopped", thread.isAlive());
+		assertEquals(1, finishes.get());
+	}
+	
+	@Test
+	public void testPipelinedFinishFailure() throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		int totalMinutes = 5;
+		int eventsPerSecond = 100;
+		Instant streamStartTime = Instant.now().plus(Duration.ofMinutes(-10));
+		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(totalMinutes));
+		StreamDataSupplier<String> sds = new MockedStreamDataSupplier(eventsPerSecond, streamStartTime, streamEndTime);
+
+		// failed batches would only be retried after the timeout if they were not aborted
+		Options options = new Options()
+			.withInitialTransactionTimeoutDuration(Duration.ofMinutes(5))
+			.withMaxInProgressTransactions(10)
+			.withMaxRetringTransactions(10)
+			.withTransactionAcquisitionDelay(Duration.ofSeconds(2))
+			.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+			.withPipelined(true);
+		
+		AtomicLong totalEvents = new AtomicLong(0);
+		AtomicInteger batches = new AtomicInteger(0);
+		AtomicInteger retries = new AtomicInteger(0);
+		Set<Object> beingFinished = ConcurrentHashMap.newKeySet();
+		List<String> shared = Collections.synchronizedList(new ArrayList<>());
+		
+		FlexibleBatchProcessor<String> processor = new FlexibleBatchProcessor<String>(){
+			@Override
+			public boolean initialize(ProcessingContext context) {
+				Object previousData = context.get("data");
+				if (previousData != null && beingFinished.contains(previousData)){
+					shared.add(context.getProcessorId() + ": " + context.getTransactionId());
+				}
+				if (context.getTransactionAttempts() > 1){
+					retries.incrementAndGet();
+				}
+				context.put("data", new ArrayList<String>());
+				context.put("timeout", System.currentTimeMillis() + (context.getTransactionEndPosition() == null ? 2000L : 5000L));
+				return true;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public long receive(ProcessingContext context, String dataItem) {
+				List<String> data = (List<String>) context.get("data");
+				if (dataItem != null){
+					data.add(dataItem);
+				}
+				return data.size() >= 300 ? 0 : (Long)context.get("timeout") - System.currentTimeMillis();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Boolean finish(ProcessingContext context) {
+				List<String> data = (List<String>) context.get("data");
+				totalEvents.addAndGet(data.size());
+				beingFinished.remove(data);
+				return true;
+			}
+
+			@Override
+			public CompletionStage<Boolean> finishAsync(ProcessingContext context) {
+				if (batches.incrementAndGet() % 5 == 0){
+					return null;	// a broken batch processor
+				}
+				beingFinished.add(context.get("data"));
+				return FlexibleBatchProcessor.super.finishAsync(context);
+			}
+		};
+
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options, 
+				new InMemSequentialTransactionsCoordinator(), processor,
+				ImmutableList.of(sds.withId("Test Stream").withRange(streamStartTime, streamEndTime)));
+		
+		new Thread(processing.createProcessor("processor1")).start();
+		new Thread(processing.createProcessor("processor2")).start();
+		processing.startAll();
+		
+		long deadline = System.currentTimeMillis() + Duration.ofMinutes(2).toMillis();
+		while(!processing.getStatus().getProcessorStatus().values().stream().allMatch(s->s.getState() == State.FINISHED)){
+			assertTrue("failed batches should have been aborted and retried", System.currentTimeMillis() < deadline);
+			Thread.sleep(1000);
+		}
+		processing.stopAll();
+		
+		assertEquals(60L * totalMinutes * eventsPerSecond, totalEvents.get());
+		assertTrue("failed batches should have been retried", retries.get() > 0);
+		assertEquals("values of a batch being finished should never be seen by the next batch", Collections.emptyList(), shared);
+	}
+	
 	protected void doTest(int startFromMinutes, int totalMinutes, int eventsPerSecond) throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
+		doTest(startFromMinutes, totalMinutes, eventsPerSecond, options->options);
+	}
+	
+	protected void doTest(int startFromMinutes, int totalMinutes, int eventsPerSecond, UnaryOperator<Options> customization) throws TransactionStorageInfrastructureException, DataStreamInfrastructureException, InterruptedException{
 		Instant streamStartTime = Instant.now().plus(Duration.ofMinutes(startFromMinutes));
 		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(totalMinutes));
 		System.out.println("Range: (" + streamStartTime.toEpochMilli() + "-" + streamEndTime.toEpochMilli() + "]");
@@ -60,6 +360,7 @@ public class BatchProcessingMockedStreamDataTest {
 			.withMaxRetringTransactions(10)
 			.withTransactionAcquisitionDelay(Duration.ofSeconds(2))
 			.withWaitStrategy(WaitStrategies.threadSleepStrategy());
+		options = customization.apply(options);
 		
 		AtomicLong totalEvents = new AtomicLong(0);
 		Set<Integer> all1m = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package net.sf.jabb.dstream.mock;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.ReceiveStatus;
+
+/**
+ * @author James Hu
+ *
+ */
+public class HighRateMockedStreamDataSupplierTest {
+	static final Instant START_TIME = Instant.parse("2016-03-01T00:00:00Z");
+
+	@Test
+	public void testPositionsAndEnqueuedTime() throws Exception {
+		HighRateMockedStreamDataSupplier<String> sds = HighRateMockedStreamDataSupplier.jsonStrings(3, START_TIME, START_TIME.plusSeconds(1), 100, 10);
+		assertEquals("-1", sds.firstPosition());
+		assertEquals("2", sds.lastPosition());
+		assertEquals(START_TIME.plusNanos(333_333_333), sds.enqueuedTime("0"));
+		assertEquals(START_TIME.plusNanos(666_666_666), sds.enqueuedTime("1"));
+		assertEquals(START_TIME.plusSeconds(1), sds.enqueuedTime("2"));
+		assertEquals("0", sds.firstPosition(START_TIME.plusMillis(500)));
+		assertEquals("-1", sds.firstPosition(START_TIME.minusMillis(500)));
+		assertNull(sds.firstPosition(START_TIME.plusSeconds(1), Duration.ZERO));
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = sds.fetch(list, "-1", 100, Duration.ofMillis(100));
+		assertEquals(3, list.size());
+		assertEquals("2", status.getLastPosition());
+		assertEquals(START_TIME.plusSeconds(1), status.getLastEnqueuedTime());
+		assertTrue(status.isOutOfRangeReached());
+		assertEquals(100, list.get(0).length());
+		assertTrue(list.get(0).startsWith("{\"sequence\": 0, "));
+
+		list.clear();
+		status = sds.fetch(list, START_TIME.plusMillis(500), START_TIME.plusMillis(900), 100, Duration.ofMillis(100));
+		assertEquals(1, list.size());
+		assertEquals("1", status.getLastPosition());
+	}
+
+	@Test
+	public void testHighRate() throws Exception {
+		HighRateMockedStreamDataSupplier<byte[]> sds = HighRateMockedStreamDataSupplier.byteArrays(1_000_000, Instant.now().minusSeconds(10), null, 256, 4);
+		long lastPosition = Long.parseLong(sds.lastPosition());
+		assertTrue(lastPosition >= 9_000_000);
+
+		List<byte[]> list = new ArrayList<>(2_000_000);
+		long startTime = System.currentTimeMillis();
+		ReceiveStatus status = sds.fetch(list, "-1", 2_000_000, Duration.ofSeconds(1));
+		assertTrue("fetching pre-generated payloads should be fast", System.currentTimeMillis() - startTime < 5000);
+		assertEquals(2_000_000, list.size());
+		assertEquals("1999999", status.getLastPosition());
+		assertFalse(status.isOutOfRangeReached());
+		assertEquals(256, list.get(0).length);
+		assertSame(list.get(1), list.get(5));
+
+		long[] received = new long[2];
+		status = sds.receiveBatches(batch -> {
+			received[0] += batch.size();
+			received[1] ++;
+			return 1000L;
+		}, status.getLastPosition(), "2999999", Integer.MAX_VALUE);
+		assertEquals(1_000_000, received[0]);
+		assertEquals("2999999", status.getLastPosition());
+
+		received[0] = 0;
+		status = sds.receive(m -> {
+			if (m != null){
+				received[0] ++;
+			}
+			return received[0] < 10 ? 1000L : 0L;
+		}, status.getLastPosition(), (String)null);
+		assertEquals(10, received[0]);
+		assertEquals("3000009", status.getLastPosition());
+	}
+
+	@Test
+	public void testWaitForArrival() throws Exception {
+		HighRateMockedStreamDataSupplier<byte[]> sds = HighRateMockedStreamDataSupplier.byteArrays(10, Instant.now(), null, 10, 1);
+		List<byte[]> list = new ArrayList<>();
+		ReceiveStatus status = sds.fetch(list, "-1", 1, Duration.ofSeconds(2));
+		assertEquals(1, list.size());
+		assertEquals("0", status.getLastPosition());
+	}
+
+}
@@ -106,4 +106,21 @@ public class MockedStreamDataSupplierTest {
 		receiveStatus = sds.fetch(list, streamStartTime.plus(Duration.ofSeconds(10)), streamStartTime.plus(Duration.ofSeconds(40)), Duration.ofMillis(1000));
 		assertEquals(30*eventsPerSecond, list.size());
 	}
+	
+	@Test
+	public void testReceiveBatches() throws DataStreamInfrastructureException{
+		Instant streamStartTime = Instant.now().minus(Duration.ofMinutes(3));
+		Instant streamEndTime = Instant.now().minus(Duration.ofMinutes(1));
+		StreamDataSupplier<String> sds = new MockedStreamDataSupplier(10, streamStartTime, streamEndTime);
+		
+		List<String> list = new ArrayList<String>();
+		long timeout = System.currentTimeMillis() + 5000L;
+		ReceiveStatus receiveStatus = sds.receiveBatches(batch->{
+			list.addAll(batch);
+			return timeout - System.currentTimeMillis();
+		}, String.valueOf(streamStartTime.toEpochMilli()), String.valueOf(streamStartTime.plus(Duration.ofSeconds(30)).toEpochMilli()), 100);
+		assertEquals(100, list.size());
+		assertNotNull(receiveStatus.getLastPosition());
+		assertFalse(receiveStatus.isOutOfRangeReached());
+	}
 }
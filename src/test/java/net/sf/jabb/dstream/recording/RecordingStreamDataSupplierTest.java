@@ -0,0 +1,255 @@
+package net.sf.jabb.dstream.recording;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.sf.jabb.dstream.ReceiveStatus;
+import net.sf.jabb.dstream.mmap.MappedSegmentLog;
+import net.sf.jabb.dstream.mmap.MappedSegmentLogStreamDataSupplier;
+
+public class RecordingStreamDataSupplierTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static String string(byte[] data){
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRecordAndReplay() throws Exception {
+		Path recordingDir = folder.newFolder().toPath();
+		List<Long> positions = new ArrayList<>();
+		try(MappedSegmentLog log = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 256)){
+			for (int i = 0; i < 100; i ++){
+				positions.add(log.append(("message-" + i).getBytes(StandardCharsets.UTF_8), Instant.ofEpochMilli(BASE_TIME + i)));
+			}
+
+			StreamRecorder<byte[]> recorder = new StreamRecorder<>(recordingDir, Function.identity(), 1024, 500);
+			RecordingStreamDataSupplier<byte[]> supplier = new RecordingStreamDataSupplier<>(MappedSegmentLogStreamDataSupplier.byteArrays(log), recorder);
+
+			List<byte[]> list = new ArrayList<>();
+			ReceiveStatus status = supplier.fetch(list, "-1", String.valueOf(positions.get(39)), 100, Duration.ofSeconds(1));
+			assertEquals(40, list.size());
+			status = supplier.receive(m -> 1000L, status.getLastPosition(), String.valueOf(positions.get(69)));
+			status = supplier.receiveBatches(batch -> 1000L, status.getLastPosition(), String.valueOf(positions.get(99)), 1000);
+			assertEquals(String.valueOf(positions.get(99)), status.getLastPosition());
+
+			recorder.close();
+			assertEquals(100, recorder.getRecorded());
+			assertEquals(0, recorder.getDropped());
+		}
+
+		List<Path> files = StreamRecordingReader.segmentFiles(recordingDir);
+		assertTrue("should have rolled over to more than one segment file", files.size() > 1);
+		int count = 0;
+		List<String> checkpointPositions = new ArrayList<>();
+		for (Path file: files){
+			try(StreamRecordingReader reader = new StreamRecordingReader(file)){
+				while (reader.next()){
+					assertEquals("message-" + count, string(reader.data()));
+					if (reader.position() != null){
+						checkpointPositions.add(reader.position());
+						assertEquals(Instant.ofEpochMilli(BASE_TIME + count), reader.enqueuedTime());
+					}
+					count ++;
+				}
+			}
+		}
+		assertEquals(100, count);
+		assertEquals(String.valueOf(positions.get(39)), checkpointPositions.get(0));
+		assertEquals(String.valueOf(positions.get(69)), checkpointPositions.get(1));
+		assertEquals(String.valueOf(positions.get(99)), checkpointPositions.get(2));
+
+		try(MappedSegmentLog replayLog = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 256)){
+			assertEquals(100, StreamRecordingReader.replayInto(recordingDir, replayLog));
+			MappedSegmentLogStreamDataSupplier<byte[]> replay = MappedSegmentLogStreamDataSupplier.byteArrays(replayLog);
+			List<byte[]> list = new ArrayList<>();
+			replay.fetch(list, "-1", 1000, Duration.ofSeconds(1));
+			assertEquals(100, list.size());
+			assertEquals("message-99", string(list.get(99)));
+			assertEquals(Instant.ofEpochMilli(BASE_TIME + 99), replay.enqueuedTime(replay.lastPosition()));
+		}
+	}
+
+	@Test
+	public void testNotBlockingWhenBufferFull() throws Exception {
+		Object lock = new Object();
+		StreamRecorder<String> recorder = new StreamRecorder<>(folder.newFolder().toPath(), s -> {
+			synchronized(lock){
+				return s.getBytes(StandardCharsets.UTF_8);
+			}
+		}, 10, 1024 * 1024);
+		synchronized(lock){		// block the writer
+			for (int i = 0; i < 100; i ++){
+				recorder.record("message-" + i);
+			}
+			assertTrue(recorder.getDropped() > 0);
+		}
+		recorder.close();
+		assertEquals(100, recorder.getRecorded() + recorder.getDropped());
+	}
+
+	@Test
+	public void testSharedRecorder() throws Exception {
+		Path recordingDir = folder.newFolder().toPath();
+		try(MappedSegmentLog logA = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 256);
+				MappedSegmentLog logB = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 256)){
+			for (int i = 0; i < 10; i ++){
+				logA.append(("a-" + i).getBytes(StandardCharsets.UTF_8), Instant.ofEpochMilli(BASE_TIME + i));
+				logB.append(("b-" + i).getBytes(StandardCharsets.UTF_8), Instant.ofEpochMilli(BASE_TIME + 1000 + i));
+			}
+
+			StreamRecorder<byte[]> recorder = new StreamRecorder<>(recordingDir, Function.identity());
+			RecordingStreamDataSupplier<byte[]> supplierA = new RecordingStreamDataSupplier<>(MappedSegmentLogStreamDataSupplier.byteArrays(logA), recorder);
+			RecordingStreamDataSupplier<byte[]> supplierB = new RecordingStreamDataSupplier<>(MappedSegmentLogStreamDataSupplier.byteArrays(logB), recorder);
+
+			String[] positionB = new String[]{"-1"};
+			supplierA.receive(m -> {
+				if (m != null){		// interleave with the other supplier
+					try {
+						List<byte[]> list = new ArrayList<>();
+						positionB[0] = supplierB.fetch(list, positionB[0], 1, Duration.ofSeconds(1)).getLastPosition();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return 1000L;
+			}, "-1", logA.lastOffset() + "");
+			recorder.close();
+			assertEquals(20, recorder.getRecorded());
+		}
+
+		int count = 0;
+		int withPosition = 0;
+		for (Path file: StreamRecordingReader.segmentFiles(recordingDir)){
+			try(StreamRecordingReader reader = new StreamRecordingReader(file)){
+				while (reader.next()){
+					count ++;
+					if (reader.enqueuedTime() != null){
+						withPosition ++;
+						String message = string(reader.data());
+						int i = Integer.parseInt(message.substring(2));
+						long expectedMillis = BASE_TIME + (message.startsWith("a-") ? 0 : 1000) + i;
+						assertEquals("enqueued time of " + message, Instant.ofEpochMilli(expectedMillis), reader.enqueuedTime());
+					}
+				}
+			}
+		}
+		assertEquals(20, count);
+		assertEquals(11, withPosition);
+	}
+
+	@Test
+	public void testDroppingBatchesAsUnits() throws Exception {
+		Path recordingDir = folder.newFolder().toPath();
+		Object lock = new Object();
+		StreamRecorder<String> recorder = new StreamRecorder<>(recordingDir, s -> {
+			synchronized(lock){
+				return s.getBytes(StandardCharsets.UTF_8);
+			}
+		}, 10, 1024 * 1024);
+		synchronized(lock){		// block the writer
+			for (int i = 0; i < 100; i ++){
+				recorder.record(Arrays.asList("message-" + i + "-0", "message-" + i + "-1", "message-" + i + "-2"), String.valueOf(i), Instant.ofEpochMilli(BASE_TIME + i));
+			}
+			assertTrue(recorder.getDropped() > 0);
+		}
+		recorder.close();
+		assertEquals(300, recorder.getRecorded() + recorder.getDropped());
+		assertEquals(0, recorder.getDropped() % 3);
+
+		int count = 0;
+		for (Path file: StreamRecordingReader.segmentFiles(recordingDir)){
+			try(StreamRecordingReader reader = new StreamRecordingReader(file)){
+				while (reader.next()){
+					String message = string(reader.data());
+					count ++;
+					if (count % 3 == 0){
+						assertTrue(message.endsWith("-2"));
+						String i = message.substring("message-".length(), message.length() - 2);
+						assertEquals(i, reader.position());
+						assertEquals(Instant.ofEpochMilli(BASE_TIME + Integer.parseInt(i)), reader.enqueuedTime());
+					}else{
+						assertNull(reader.position());
+					}
+				}
+			}
+		}
+		assertEquals(recorder.getRecorded(), count);
+	}
+
+	@Test
+	public void testPerMessageEnqueuedTime() throws Exception {
+		// message "i@millis" carries its own enqueued time, the last one of each batch may be unknown to the message itself
+		Function<String, Instant> enqueuedTimeFunction = s -> s.endsWith("@") ? null : Instant.ofEpochMilli(Long.parseLong(s.substring(s.indexOf('@') + 1)));
+		Path withTimesDir = folder.newFolder().toPath();
+		Path withoutTimesDir = folder.newFolder().toPath();
+		StreamRecorder<String> withTimes = new StreamRecorder<>(withTimesDir, s -> s.getBytes(StandardCharsets.UTF_8), enqueuedTimeFunction, 100, 1024 * 1024);
+		StreamRecorder<String> withoutTimes = new StreamRecorder<>(withoutTimesDir, s -> s.getBytes(StandardCharsets.UTF_8), 100, 1024 * 1024);
+		for (int i = 0; i < 10; i ++){
+			List<String> batch = new ArrayList<>();
+			for (int j = 0; j < 5; j ++){
+				int n = i * 5 + j;
+				// enqueued time not in order within a batch, and far away from the recorded time
+				batch.add(n + "@" + (j == 4 ? "" : String.valueOf(BASE_TIME + n * 1000L - (j % 2) * 1_000_000L)));
+			}
+			Instant lastEnqueuedTime = Instant.ofEpochMilli(BASE_TIME + (i * 5 + 4) * 1000L);
+			withTimes.record(batch, String.valueOf(i), lastEnqueuedTime);
+			withoutTimes.record(batch, String.valueOf(i), lastEnqueuedTime);
+		}
+		withTimes.close();
+		withoutTimes.close();
+
+		for (boolean hasTimes: new boolean[]{true, false}){
+			List<Instant> recordedTimes = new ArrayList<>();
+			for (Path file: StreamRecordingReader.segmentFiles(hasTimes ? withTimesDir : withoutTimesDir)){
+				try(StreamRecordingReader reader = new StreamRecordingReader(file)){
+					while (reader.next()){
+						recordedTimes.add(reader.enqueuedTime());
+					}
+				}
+			}
+			assertEquals(50, recordedTimes.size());
+			for (int n = 0; n < 50; n ++){
+				int j = n % 5;
+				Instant expected = j == 4 ? Instant.ofEpochMilli(BASE_TIME + n * 1000L)
+						: (hasTimes ? Instant.ofEpochMilli(BASE_TIME + n * 1000L - (j % 2) * 1_000_000L) : null);
+				assertEquals("recorded enqueued time of message " + n + (hasTimes ? " with" : " without") + " per-message time", expected, recordedTimes.get(n));
+			}
+
+			try(MappedSegmentLog replayLog = new MappedSegmentLog(folder.newFolder().toPath(), 4096, 256)){
+				assertEquals(50, StreamRecordingReader.replayInto(hasTimes ? withTimesDir : withoutTimesDir, replayLog));
+				MappedSegmentLogStreamDataSupplier<byte[]> replay = MappedSegmentLogStreamDataSupplier.byteArrays(replayLog);
+				String position = "-1";
+				long previous = 0;
+				for (int n = 0; n < 50; n ++){
+					List<byte[]> list = new ArrayList<>();
+					position = replay.fetch(list, position, 1, Duration.ofSeconds(1)).getLastPosition();
+					assertTrue(string(list.get(0)).startsWith(n + "@"));
+					int j = n % 5;
+					long expected = hasTimes ? BASE_TIME + n * 1000L - (j % 2) * 1_000_000L
+							: BASE_TIME + (n - j + 4) * 1000L;		// without per-message time, the whole batch gets the time of its last message
+					expected = Math.max(expected, previous);		// the log never lets enqueued time go backwards
+					previous = expected;
+					assertEquals("replayed enqueued time of message " + n + (hasTimes ? " with" : " without") + " per-message time",
+							Instant.ofEpochMilli(expected), replay.enqueuedTime(position));
+				}
+			}
+		}
+	}
+
+}
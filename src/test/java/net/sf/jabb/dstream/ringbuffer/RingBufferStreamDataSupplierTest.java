@@ -0,0 +1,212 @@
+package net.sf.jabb.dstream.ringbuffer;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.ReceiveStatus;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+
+public class RingBufferStreamDataSupplierTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+
+	@Test
+	public void testFetchAndRetention() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(100);
+		assertEquals(128, buffer.getCapacity());
+		RingBufferStreamDataSupplier<String> supplier = new RingBufferStreamDataSupplier<>(buffer);
+		assertEquals("-1", supplier.firstPosition());
+		assertNull(supplier.lastPosition());
+
+		for (int i = 0; i < 200; i ++){
+			assertEquals(i, buffer.publish("message-" + i, Instant.ofEpochMilli(BASE_TIME + 10 * i)));
+		}
+		assertEquals("71", supplier.firstPosition());
+		assertEquals("199", supplier.lastPosition());
+		assertEquals(Instant.ofEpochMilli(BASE_TIME + 1500), supplier.enqueuedTime("150"));
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, supplier.firstPosition(), "100", 1000, Duration.ofMillis(100));
+		assertEquals(29, list.size());
+		assertEquals("message-72", list.get(0));
+		assertEquals("100", status.getLastPosition());
+		assertEquals(Instant.ofEpochMilli(BASE_TIME + 1000), status.getLastEnqueuedTime());
+
+		list.clear();	// fetching the same range again gives the same result
+		status = supplier.fetch(list, supplier.firstPosition(), "100", 1000, Duration.ofMillis(100));
+		assertEquals(29, list.size());
+
+		list.clear();
+		status = supplier.fetch(list, Instant.ofEpochMilli(BASE_TIME + 1505), Instant.ofEpochMilli(BASE_TIME + 1550), 1000, Duration.ofMillis(100));
+		assertEquals(5, list.size());
+		assertEquals("message-151", list.get(0));
+		assertEquals("155", status.getLastPosition());
+
+		try{
+			supplier.fetch(list, "10", "100", 1000, Duration.ofMillis(100));
+			fail("should fail because the range is no longer retained");
+		}catch(DataStreamInfrastructureException e){
+			// expected
+		}
+
+		buffer.publish("too old", Instant.ofEpochMilli(BASE_TIME));
+		assertEquals("enqueued time should never go backwards", Instant.ofEpochMilli(BASE_TIME + 1990), supplier.enqueuedTime("200"));
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(16, Duration.ofMinutes(1));
+		RingBufferStreamDataSupplier<String> supplier = new RingBufferStreamDataSupplier<>(buffer);
+		long now = System.currentTimeMillis();
+		buffer.publish("expired", Instant.ofEpochMilli(now - 120_000));
+		buffer.publish("expired", Instant.ofEpochMilli(now - 61_000));
+		buffer.publish("retained", Instant.ofEpochMilli(now - 1000));
+		assertEquals("1", supplier.firstPosition());
+
+		List<String> list = new ArrayList<>();
+		supplier.fetch(list, supplier.firstPosition(), 100, Duration.ofMillis(100));
+		assertEquals(1, list.size());
+		assertEquals("retained", list.get(0));
+	}
+
+	@Test
+	public void testMessagesSharingEndEnqueuedTime() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(16);
+		RingBufferStreamDataSupplier<String> supplier = new RingBufferStreamDataSupplier<>(buffer);
+		for (int i = 0; i < 10; i ++){
+			buffer.publish("message-" + i, Instant.ofEpochMilli(BASE_TIME + (i < 2 ? i : i < 6 ? 10 : 20)));	// messages 2-5 share the same time
+		}
+		Instant end = Instant.ofEpochMilli(BASE_TIME + 10);
+
+		List<String> list = new ArrayList<>();
+		ReceiveStatus status = supplier.fetch(list, "-1", end, 100, Duration.ofMillis(100));
+		assertEquals(6, list.size());
+		assertEquals("message-5", list.get(5));
+		assertEquals("5", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+
+		List<String> received = new ArrayList<>();
+		status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return 1000L;
+		}, "2", end);
+		assertEquals(3, received.size());
+		assertEquals("5", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+
+		received.clear();
+		status = supplier.receiveBatches(batch -> {
+			received.addAll(batch);
+			return 1000L;
+		}, Instant.ofEpochMilli(BASE_TIME), end, 100);
+		assertEquals(5, received.size());
+		assertEquals("message-1", received.get(0));
+		assertEquals("5", status.getLastPosition());
+		assertTrue(status.isOutOfRangeReached());
+	}
+
+	@Test
+	public void testConcurrentProducersAndReaders() throws Exception {
+		final int producers = 4;
+		final int messagesPerProducer = 5_000;
+		final int total = producers * messagesPerProducer;
+		RingBuffer<Integer> buffer = new RingBuffer<>(total);
+
+		ExecutorService executor = Executors.newFixedThreadPool(producers + 2);
+		List<List<Integer>> results = new ArrayList<>();
+		List<Future<?>> readers = new ArrayList<>();
+		for (int r = 0; r < 2; r ++){
+			List<Integer> received = new ArrayList<>(total);
+			results.add(received);
+			RingBufferStreamDataSupplier<Integer> supplier = new RingBufferStreamDataSupplier<>(buffer);
+			readers.add(executor.submit(() -> {
+				try{
+					String position = supplier.firstPosition();
+					long lastEnqueuedMillis = 0;
+					while (received.size() < total){
+						ReceiveStatus status = supplier.fetch(received, position, 1000, Duration.ofSeconds(1));
+						if (status.getLastPosition() != null){
+							position = status.getLastPosition();
+							assertTrue(status.getLastEnqueuedTime().toEpochMilli() >= lastEnqueuedMillis);
+							lastEnqueuedMillis = status.getLastEnqueuedTime().toEpochMilli();
+						}
+					}
+				}catch(Exception e){
+					throw new RuntimeException(e);
+				}
+			}));
+		}
+		for (int p = 0; p < producers; p ++){
+			final int producer = p;
+			executor.execute(() -> {
+				for (int i = 0; i < messagesPerProducer; i ++){
+					buffer.publish(producer * messagesPerProducer + i);
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		for (Future<?> reader: readers){
+			reader.get();
+		}
+
+		for (List<Integer> received: results){
+			assertEquals(total, received.size());
+			int[] lastOfProducer = new int[producers];
+			for (int p = 0; p < producers; p ++){
+				lastOfProducer[p] = p * messagesPerProducer - 1;
+			}
+			for (int i = 0; i < total; i ++){
+				if (i > 0){
+					assertTrue(buffer.enqueuedMillis(i) >= buffer.enqueuedMillis(i - 1));
+				}
+				int m = received.get(i);
+				int p = m / messagesPerProducer;
+				assertEquals("messages from the same producer should be in order", lastOfProducer[p] + 1, m);
+				lastOfProducer[p] = m;
+			}
+		}
+	}
+
+	@Test
+	public void testReceiveWaitsForPublishing() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(16);
+		RingBufferStreamDataSupplier<String> supplier = new RingBufferStreamDataSupplier<>(buffer);
+		Thread producer = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (int i = 0; i < 5; i ++){
+				buffer.publish("message-" + i);
+			}
+		});
+		producer.start();
+
+		List<String> received = new ArrayList<>();
+		long deadline = System.currentTimeMillis() + 5000;
+		ReceiveStatus status = supplier.receive(m -> {
+			if (m != null){
+				received.add(m);
+			}
+			return deadline - System.currentTimeMillis();
+		}, "-1", "4");
+		assertEquals(5, received.size());
+		assertEquals("4", status.getLastPosition());
+		assertTrue(System.currentTimeMillis() < deadline);
+		producer.join();
+	}
+
+}
@@ -0,0 +1,173 @@
+package net.sf.jabb.txsdp;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import net.sf.jabb.dstream.StreamDataSupplier;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.dstream.mock.MockedStreamDataSupplier;
+import net.sf.jabb.dstream.ringbuffer.RingBuffer;
+import net.sf.jabb.dstream.ringbuffer.RingBufferStreamDataSupplier;
+import net.sf.jabb.seqtx.mem.InMemSequentialTransactionsCoordinator;
+import net.sf.jabb.txsdp.AutoScalingProcessorPool.Observation;
+import net.sf.jabb.txsdp.DefaultTransactionalStreamDataBatchProcessing.Options;
+import net.sf.jabb.txsdp.TransactionalStreamDataBatchProcessing.ProcessorStatus;
+import net.sf.jabb.txsdp.TransactionalStreamDataBatchProcessing.State;
+import net.sf.jabb.util.parallel.WaitStrategies;
+
+public class AutoScalingProcessorPoolTest {
+
+	static Observation observation(long timeMillis, long backlogMillis, long... transactionsFailuresMillis){
+		Observation o = new Observation();
+		o.timeMillis = timeMillis;
+		o.backlogMillis = backlogMillis;
+		for (int i = 0; i < transactionsFailuresMillis.length; i += 3){
+			o.processors.put("p" + i, new ProcessorStatus(State.RUNNING, transactionsFailuresMillis[i], transactionsFailuresMillis[i + 1], transactionsFailuresMillis[i + 2]));
+		}
+		return o;
+	}
+
+	@Test
+	public void testDecide(){
+		AutoScalingProcessorPool pool = new AutoScalingProcessorPool(new DefaultTransactionalStreamDataBatchProcessing<String>(
+				"test", new Options(), new InMemSequentialTransactionsCoordinator(), (context, data)->true, 10, Duration.ofSeconds(1), Duration.ofSeconds(1)),
+				"p", 1, 3)
+				.withTargetBacklog(Duration.ofSeconds(10));
+		Observation previous = observation(0, 0, 0, 0, 0, 0, 0, 0);
+
+		assertEquals("busy and behind", 1, pool.decide(previous, observation(1000, 60_000, 10, 0, 900, 10, 1, 800)));
+		assertEquals("busy but cannot get transactions", -1, pool.decide(previous, observation(1000, 60_000, 1, 5, 900, 1, 5, 900)));
+		assertEquals("behind but not busy", 0, pool.decide(previous, observation(1000, 60_000, 10, 0, 500, 10, 1, 500)));
+		assertEquals("idle and caught up", -1, pool.decide(previous, observation(1000, 1000, 2, 0, 100, 2, 0, 100)));
+		assertEquals("busy and caught up", 0, pool.decide(previous, observation(1000, 1000, 10, 0, 900, 10, 0, 900)));
+		assertEquals("already the minimum", 0, pool.decide(observation(0, 0, 0, 0, 0), observation(1000, 1000, 0, 10, 0)));
+		assertEquals("already the maximum", 0, pool.decide(observation(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+				observation(1000, 60_000, 10, 0, 900, 10, 0, 900, 10, 0, 900)));
+	}
+
+	@Test
+	public void testScaling() throws Exception {
+		Instant streamStartTime = Instant.now().minus(Duration.ofMinutes(10));
+		Instant streamEndTime = streamStartTime.plus(Duration.ofMinutes(1));
+		StreamDataSupplier<String> sds = new MockedStreamDataSupplier(100, streamStartTime, streamEndTime);
+		Options options = new Options()
+				.withInitialTransactionTimeoutDuration(Duration.ofSeconds(10))
+				.withMaxInProgressTransactions(10)
+				.withMaxRetringTransactions(10)
+				.withTransactionAcquisitionDelay(Duration.ofMillis(200))
+				.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+				.withLagSamplingInterval(Duration.ofMillis(100));
+		AtomicLong totalEvents = new AtomicLong(0);
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options,
+				new InMemSequentialTransactionsCoordinator(),
+				(context, data) -> {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						return false;
+					}
+					totalEvents.addAndGet(data.size());
+					return true;
+				},
+				100, Duration.ofSeconds(5), Duration.ofSeconds(1),
+				ImmutableList.of(sds.withId("Test Stream").withRange(streamStartTime, streamEndTime)));
+
+		AutoScalingProcessorPool pool = new AutoScalingProcessorPool(processing, "processor", 1, 3)
+				.withEvaluationInterval(Duration.ofMillis(300))
+				.withTargetBacklog(Duration.ofSeconds(10));
+		pool.start();
+		assertEquals(1, pool.getProcessorCount());
+		AtomicInteger maxCount = new AtomicInteger(0);
+		long deadline = System.currentTimeMillis() + 120_000L;
+		while (!pool.isFinished() && System.currentTimeMillis() < deadline){
+			maxCount.accumulateAndGet(pool.getProcessorCount(), Math::max);
+			Thread.sleep(100);
+		}
+		pool.stop();
+		assertTrue(pool.awaitTermination(Duration.ofSeconds(10)));
+
+		assertTrue("should have finished", pool.isFinished());
+		assertTrue("should have scaled up: " + maxCount.get(), maxCount.get() > 1);
+		assertTrue(maxCount.get() <= 3);
+		assertEquals(60L * 100, totalEvents.get());
+	}
+
+	@Test
+	public void testIdleStreamScalesDown() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(1024);
+		long enqueuedMillis = System.currentTimeMillis() - Duration.ofMinutes(10).toMillis();
+		for (int i = 0; i < 1000; i ++){
+			buffer.publish("event " + i, Instant.ofEpochMilli(enqueuedMillis + i));
+		}
+		StreamDataSupplier<String> sds = new RingBufferStreamDataSupplier<>(buffer);
+		Options options = new Options()
+				.withInitialTransactionTimeoutDuration(Duration.ofSeconds(10))
+				.withMaxInProgressTransactions(10)
+				.withMaxRetringTransactions(10)
+				.withTransactionAcquisitionDelay(Duration.ofMillis(200))
+				.withWaitStrategy(WaitStrategies.threadSleepStrategy())
+				.withLagSamplingInterval(Duration.ofMillis(100));
+		AtomicLong totalEvents = new AtomicLong(0);
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", options,
+				new InMemSequentialTransactionsCoordinator(),
+				(context, data) -> {
+					totalEvents.addAndGet(data.size());
+					return true;
+				},
+				100, Duration.ofSeconds(1), Duration.ofMillis(200),
+				ImmutableList.of(sds.withId("Idle Stream").withRange(sds.firstPosition(), null)));
+
+		AutoScalingProcessorPool pool = new AutoScalingProcessorPool(processing, "processor", 1, 3)
+				.withEvaluationInterval(Duration.ofMillis(300))
+				.withTargetBacklog(Duration.ofSeconds(10));
+		pool.start();
+		pool.addProcessor();
+		pool.addProcessor();
+		long deadline = System.currentTimeMillis() + 60_000L;
+		while ((totalEvents.get() < 1000 || pool.getProcessorCount() > 1) && System.currentTimeMillis() < deadline){
+			Thread.sleep(100);
+		}
+		assertEquals(1000L, totalEvents.get());
+		assertEquals("the last message came long ago but it had been processed", 0L, pool.observe().backlogMillis);
+		assertEquals("should have scaled down", 1, pool.getProcessorCount());
+		assertFalse(pool.isFinished());
+		pool.stop();
+		assertTrue(pool.awaitTermination(Duration.ofSeconds(10)));
+	}
+
+	@Test
+	public void testObservingUsesLagSamples() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(1024);
+		for (int i = 0; i < 10; i ++){
+			buffer.publish("event " + i);
+		}
+		AtomicInteger lastPositionCalls = new AtomicInteger();
+		StreamDataSupplier<String> sds = new RingBufferStreamDataSupplier<String>(buffer){
+			@Override
+			public String lastPosition() throws DataStreamInfrastructureException {
+				lastPositionCalls.incrementAndGet();
+				return super.lastPosition();
+			}
+		};
+		TransactionalStreamDataBatchProcessing<String> processing = new DefaultTransactionalStreamDataBatchProcessing<String>("Test", 
+				new Options().withLagSamplingInterval(Duration.ofHours(1)), new InMemSequentialTransactionsCoordinator(), (context, data) -> true,
+				100, Duration.ofSeconds(1), Duration.ofMillis(200),
+				ImmutableList.of(sds.withId("Stream").withRange(sds.firstPosition(), null)));
+		AutoScalingProcessorPool pool = new AutoScalingProcessorPool(processing, "processor", 1, 3);
+		for (int i = 0; i < 10; i ++){
+			assertEquals("nothing has been finished yet", 0L, pool.observe().backlogMillis);
+		}
+		assertEquals("the stream should be sampled only once per sampling interval", 1, lastPositionCalls.get());
+		processing.getStreamStatus();
+		assertEquals("stream status should not look up the last position", 1, lastPositionCalls.get());
+	}
+
+}
@@ -0,0 +1,130 @@
+package net.sf.jabb.txsdp;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.sf.jabb.dstream.StreamDataSupplierWithIdAndRange;
+import net.sf.jabb.dstream.ex.DataStreamInfrastructureException;
+import net.sf.jabb.dstream.ringbuffer.RingBuffer;
+import net.sf.jabb.dstream.ringbuffer.RingBufferStreamDataSupplier;
+import net.sf.jabb.seqtx.SequentialTransaction;
+import net.sf.jabb.seqtx.SequentialTransactionsCoordinator;
+import net.sf.jabb.seqtx.mem.InMemSequentialTransactionsCoordinator;
+
+public class PartitionLagTrackerTest {
+	static final long BASE_TIME = 1_450_000_000_000L;
+
+	static StreamDataSupplierWithIdAndRange<Integer, ?> createPartition(String id, int numItems){
+		return createPartition(id, numItems, null);
+	}
+
+	static StreamDataSupplierWithIdAndRange<Integer, ?> createPartition(String id, int numItems, String toPosition){
+		RingBuffer<Integer> buffer = new RingBuffer<>(128);
+		for (int i = 0; i < numItems; i ++){
+			buffer.publish(i, Instant.ofEpochMilli(BASE_TIME + i * 1000L));
+		}
+		return new RingBufferStreamDataSupplier<>(buffer).withId(id).withRange((String)null, toPosition);
+	}
+
+	static void finish(SequentialTransactionsCoordinator coordinator, String seriesId, String startPosition, String endPosition) throws Exception{
+		SequentialTransaction transaction = coordinator.startTransaction(seriesId, "processor", Duration.ofMinutes(1), 5, 5);
+		transaction.setStartPosition(startPosition);
+		transaction.setEndPosition(endPosition);
+		transaction = coordinator.startTransaction(seriesId, null, null, transaction, 5, 5);
+		coordinator.finishTransaction(seriesId, "processor", transaction.getTransactionId());
+	}
+
+	static int[] prioritize(PartitionLagTracker tracker, List<StreamDataSupplierWithIdAndRange<Integer, ?>> partitions, int start, boolean[] outOfRangeReached){
+		int[] order = new int[partitions.size()];
+		int count = tracker.prioritize(partitions, s->s.getId(), start, outOfRangeReached, order, new long[partitions.size()]);
+		return Arrays.copyOf(order, count);
+	}
+
+	@Test
+	public void testPrioritize() throws Exception {
+		SequentialTransactionsCoordinator coordinator = new InMemSequentialTransactionsCoordinator();
+		List<StreamDataSupplierWithIdAndRange<Integer, ?>> partitions = new ArrayList<>();
+		partitions.add(createPartition("p0", 100));
+		partitions.add(createPartition("p1", 100));
+		partitions.add(createPartition("p2", 100));
+		partitions.add(createPartition("p3", 100));
+		partitions.add(createPartition("p4", 0));
+		finish(coordinator, "p0", "", "89");
+		finish(coordinator, "p1", "", "9");
+		finish(coordinator, "p3", "", "99");
+
+		PartitionLagTracker tracker = new PartitionLagTracker(coordinator, Duration.ofHours(1).toMillis());
+		assertArrayEquals(new int[]{2, 1, 0, 3, 4}, prioritize(tracker, partitions, 0, new boolean[5]));
+		assertEquals(PartitionLagTracker.NEVER_FINISHED_LAG, tracker.getLag("p2", partitions.get(2)));
+		assertEquals(90_000L, tracker.getLag("p1", partitions.get(1)));
+		assertEquals(10_000L, tracker.getLag("p0", partitions.get(0)));
+		assertEquals(0L, tracker.getLag("p3", partitions.get(3)));
+		assertEquals(0L, tracker.getLag("p4", partitions.get(4)));
+		assertArrayEquals("ties should keep the round robin order", new int[]{2, 1, 0, 4, 3}, prioritize(tracker, partitions, 4, new boolean[5]));
+
+		finish(coordinator, "p2", "", "99");
+		assertEquals("samples should be cached", PartitionLagTracker.NEVER_FINISHED_LAG, tracker.getLag("p2", partitions.get(2)));
+
+		tracker = new PartitionLagTracker(coordinator, 0);
+		assertEquals(0L, tracker.getLag("p2", partitions.get(2)));
+	}
+
+	@Test
+	public void testBoundedRanges() throws Exception {
+		SequentialTransactionsCoordinator coordinator = new InMemSequentialTransactionsCoordinator();
+		List<StreamDataSupplierWithIdAndRange<Integer, ?>> partitions = new ArrayList<>();
+		partitions.add(createPartition("p0", 100, "49"));
+		partitions.add(createPartition("p1", 100, "79"));
+		partitions.add(createPartition("p2", 100));
+		finish(coordinator, "p0", "", "49");
+		finish(coordinator, "p1", "", "39");
+		finish(coordinator, "p2", "", "69");
+
+		PartitionLagTracker tracker = new PartitionLagTracker(coordinator, 0);
+		assertEquals("the partition has reached the end of its range", 0L, tracker.getLag("p0", partitions.get(0)));
+		assertEquals("messages after the end of the range should not count", 40_000L, tracker.getLag("p1", partitions.get(1)));
+		assertEquals(30_000L, tracker.getLag("p2", partitions.get(2)));
+		assertArrayEquals(new int[]{1, 2, 0}, prioritize(tracker, partitions, 0, new boolean[3]));
+		assertArrayEquals("partitions that have reached the end should be left out", 
+				new int[]{1, 2}, prioritize(tracker, partitions, 0, new boolean[]{true, false, false}));
+		assertArrayEquals(new int[]{2}, prioritize(tracker, partitions, 1, new boolean[]{true, true, false}));
+		assertArrayEquals(new int[0], prioritize(tracker, partitions, 1, new boolean[]{true, true, true}));
+	}
+
+	@Test
+	public void testRangeEndResolvedOnce() throws Exception {
+		SequentialTransactionsCoordinator coordinator = new InMemSequentialTransactionsCoordinator();
+		RingBuffer<Integer> buffer = new RingBuffer<>(128);
+		for (int i = 0; i < 100; i ++){
+			buffer.publish(i, Instant.ofEpochMilli(BASE_TIME + i * 1000L));
+		}
+		AtomicInteger rangeEndLookups = new AtomicInteger();
+		RingBufferStreamDataSupplier<Integer> supplier = new RingBufferStreamDataSupplier<Integer>(buffer){
+			@Override
+			public Instant enqueuedTime(String position) throws DataStreamInfrastructureException {
+				if ("79".equals(position)){
+					rangeEndLookups.incrementAndGet();
+				}
+				return super.enqueuedTime(position);
+			}
+		};
+		StreamDataSupplierWithIdAndRange<Integer, ?> partition = supplier.withId("p0").withRange((String)null, "79");
+		finish(coordinator, "p0", "", "39");
+
+		PartitionLagTracker tracker = new PartitionLagTracker(coordinator, 0);
+		for (int i = 0; i < 5; i ++){
+			assertEquals(40_000L, tracker.getLag("p0", partition));
+		}
+		assertEquals("the end of the range should be resolved only once", 1, rangeEndLookups.get());
+	}
+
+}
@@ -0,0 +1,60 @@
+package net.sf.jabb.txsdp;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ProcessingContextImplTest {
+	static final ContextKey<String> KEY_NAME = ContextKey.of("name");
+	static final ContextKey<long[]> KEY_COUNTER = ContextKey.of("counter");
+
+	@Test
+	public void testContextKeys(){
+		ProcessingContextImpl context = new ProcessingContextImpl(null);
+		assertNull(context.get(KEY_NAME));
+		assertNull(context.remove(KEY_NAME));
+
+		assertNull(context.put(KEY_NAME, "first"));
+		assertEquals("first", context.put(KEY_NAME, "second"));
+		assertEquals("second", context.get(KEY_NAME));
+		assertNull("string keys are separate", context.get("name"));
+
+		long[] counter = new long[1];
+		context.put(KEY_COUNTER, counter);
+		context.get(KEY_COUNTER)[0] ++;
+		assertEquals(1L, counter[0]);
+
+		ContextKey<String> keyCreatedLater = ContextKey.of("name");
+		assertNotEquals(KEY_NAME.getIndex(), keyCreatedLater.getIndex());
+		assertNull(context.get(keyCreatedLater));
+		context.put(keyCreatedLater, "later");
+		assertEquals("later", context.get(keyCreatedLater));
+		assertEquals("second", context.remove(KEY_NAME));
+		assertNull(context.get(KEY_NAME));
+	}
+
+	@Test
+	public void testCarryOver(){
+		ProcessingContextImpl finishing = new ProcessingContextImpl(null).withSeriesId("series");
+		StringBuilder buffer = new StringBuilder("batch 1");
+		finishing.put("buffer", buffer);
+		finishing.put(KEY_NAME, "batch 1");
+		finishing.previousTransactionEndPosition = "100";
+
+		ProcessingContextImpl idle = new ProcessingContextImpl(null);
+		idle.put("buffer", new StringBuilder("batch 0"));
+		idle.put(KEY_NAME, "batch 0");
+		idle.carryOver(finishing);
+		assertEquals("series", idle.getTransactionSeriesId());
+		assertEquals("100", idle.previousTransactionEndPosition);
+		assertNull("string keyed values are neither taken over nor kept", idle.get("buffer"));
+		assertEquals("values with context keys stay with the context", "batch 0", idle.get(KEY_NAME));
+
+		idle.put("buffer", new StringBuilder("batch 2"));
+		idle.put(KEY_NAME, "batch 2");
+		assertSame(buffer, finishing.get("buffer"));
+		assertEquals("batch 1", buffer.toString());
+		assertEquals("batch 1", finishing.get(KEY_NAME));
+	}
+
+}